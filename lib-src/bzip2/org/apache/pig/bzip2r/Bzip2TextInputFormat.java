@@ -21,6 +21,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -32,12 +35,32 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigFileInputFormat;
 import org.apache.tools.bzip2r.CBZip2InputStream;
+import org.apache.tools.bzip2r.ParallelCBZip2InputStream;
 
 @SuppressWarnings("unchecked")
 public class Bzip2TextInputFormat extends PigFileInputFormat {
 
+    // decodes the blocks of all the splits read in parallel, see
+    // PigConfiguration.PIG_BZIP2_DECODE_THREADS
+    private static ExecutorService decoder = null;
+
+    private static synchronized ExecutorService getDecoder(int threads) {
+        if (decoder == null) {
+            decoder = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Pig bzip2 decoder");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decoder;
+    }
+
     /**
      * Treats keys as offset in file and value as line. Since the input file is
      * compressed, the offset for a particular line is not well-defined. This
@@ -53,7 +76,7 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
 
         private long pos;
 
-        private CBZip2InputStream in;
+        private InputStream in;
 
         private ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
         
@@ -102,14 +125,27 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
             FSDataInputStream fileIn = fs.open(split.getPath());
             fileIn.seek(start);
 
-            in = new CBZip2InputStream(fileIn, 9, end);
+            int threads = job.getInt(PigConfiguration.PIG_BZIP2_DECODE_THREADS, 1);
+            if (threads > 1) {
+                // decode a couple of blocks ahead per thread
+                in = new ParallelCBZip2InputStream(fileIn, end, getDecoder(threads), 2 * threads);
+            } else {
+                in = new CBZip2InputStream(fileIn, 9, end);
+            }
             if (start != 0) {
                 // skip first line and re-establish "start".
                 // LineRecordReader.readLine(this.in, null);
                 readLine(this.in, null);
-                start = in.getPos();
+                start = inPos();
+            }
+            pos = inPos();
+        }
+
+        private long inPos() throws IOException {
+            if (in instanceof ParallelCBZip2InputStream) {
+                return ((ParallelCBZip2InputStream) in).getPos();
             }
-            pos = in.getPos();
+            return ((CBZip2InputStream) in).getPos();
         }
 
         public LongWritable createKey() {
@@ -181,7 +217,7 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
             if (bytesRead == 0) {
                 return false;
             }
-            pos = in.getPos();
+            pos = inPos();
             // if we have read ahead because we encountered a carriage return
             // char followed by a non line feed char, decrement the pos
             if(CRFollowedByNonLF) {
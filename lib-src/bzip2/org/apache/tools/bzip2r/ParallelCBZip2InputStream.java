@@ -0,0 +1,524 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tools.bzip2r;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+
+/**
+ * An input stream that decompresses the bzip2 blocks of a split of a file in
+ * parallel. The compressed data is scanned for the bit aligned block headers
+ * ahead of the reader, and each block is decoded by a
+ * {@link CBZip2InputStream} of its own, on the given executor. The decoded
+ * blocks are returned in order.
+ * <p>
+ * The split reads the blocks whose header starts in it. {@link #getPos()}
+ * behaves as the one of {@link CBZip2InputStream}: it returns the start of
+ * the split until the first byte of a block starting after the split is
+ * read, and the end of the split + 1 from then on.
+ * <p>
+ * Block headers are found by their 48 bit magic alone, which compressed data
+ * may contain too. A block cut short by such a false header fails to decode,
+ * and is then merged with the blocks after it until it decodes.
+ */
+public class ParallelCBZip2InputStream extends InputStream {
+
+    private final static long MASK = 0xffffffffffffL;
+    private final static long EOB = 0x314159265359L & MASK;
+    private final static long EOS = 0x177245385090L & MASK;
+
+    // the false headers a block is merged over before it is deemed corrupt
+    private final static int MAX_MERGES = 4;
+
+    private final FSDataInputStream in;
+    private final long start;
+    private final long end;
+    private final int blockSize100k;
+    private final ExecutorService executor;
+    private final int lookahead;
+
+    // the compressed bytes read, from the byte holding the first bit of the
+    // block being scanned
+    private byte[] buf = new byte[64 * 1024];
+    private int bufLen = 0;
+    private long bufStart;
+    private final byte[] chunk = new byte[64 * 1024];
+    private int chunkLen = 0;
+    private int chunkPos = 0;
+    private long window = 0;
+    private long blockStartBit = -1;
+    private boolean scanDone = false;
+
+    private static class Pending {
+        final Block block;
+        final Future<byte[]> decoded;
+        final boolean owned;
+
+        Pending(Block block, Future<byte[]> decoded, boolean owned) {
+            this.block = block;
+            this.decoded = decoded;
+            this.owned = owned;
+        }
+    }
+
+    // the blocks being decoded, in order
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+    // whether a block starting after the split was scanned
+    private boolean pastSplit = false;
+    // whether no block was returned yet
+    private boolean firstBlock = true;
+
+    private byte[] current = null;
+    private boolean currentOwned = true;
+    private int currentPos = 0;
+    private long retPos;
+
+    /**
+     * @param in the compressed file, positioned at the start of the split
+     * @param end the end of the split
+     * @param executor the executor decoding the blocks
+     * @param lookahead the number of blocks decoded ahead of the reader
+     */
+    public ParallelCBZip2InputStream(FSDataInputStream in, long end,
+            ExecutorService executor, int lookahead) throws IOException {
+        this.in = in;
+        this.start = in.getPos();
+        this.end = end;
+        this.executor = executor;
+        this.lookahead = Math.max(1, lookahead);
+        this.bufStart = start;
+        this.retPos = start;
+        // the blocks are decoded as streams of their own, with the block size
+        // of the file
+        byte[] header = new byte[4];
+        int level = 9;
+        try {
+            in.readFully(0, header);
+            if (header[0] == 'B' && header[1] == 'Z' && header[2] == 'h'
+                    && header[3] >= '1' && header[3] <= '9') {
+                level = header[3] - '0';
+            }
+        } catch (EOFException e) {
+            // too short to have a header
+        }
+        this.blockSize100k = level;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current == null || currentPos >= current.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        if (!currentOwned) {
+            retPos = end + 1;
+        }
+        return current[currentPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || currentPos >= current.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        if (!currentOwned) {
+            retPos = end + 1;
+        }
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    /**
+     * @see CBZip2InputStream#getPos()
+     */
+    public long getPos() {
+        return retPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Pending p : pending) {
+            p.decoded.cancel(true);
+        }
+        pending.clear();
+        current = null;
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        fill();
+        if (pending.isEmpty()) {
+            current = null;
+            return false;
+        }
+        Pending p = pending.removeFirst();
+        try {
+            current = p.decoded.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while decoding a bzip2 block", e);
+        } catch (ExecutionException e) {
+            current = recover(p, e.getCause());
+        }
+        currentOwned = p.owned;
+        currentPos = 0;
+        firstBlock = false;
+        fill();
+        return true;
+    }
+
+    /**
+     * Decode a block which failed to decode, assuming the header which ends
+     * it is a false match in compressed data: merge it with the next blocks
+     * until it decodes. The first block of a split may also start at a false
+     * match, inside a block the previous split reads, and is then skipped.
+     */
+    private byte[] recover(Pending p, Throwable cause) throws IOException {
+        Block merged = p.block;
+        for (int i = 0; i < MAX_MERGES; i++) {
+            if (i == pending.size() && !submitNext()) {
+                break;
+            }
+            merged = merge(merged, pending.get(i).block);
+            try {
+                byte[] decoded = decode(merged, blockSize100k);
+                for (int j = 0; j <= i; j++) {
+                    pending.removeFirst().decoded.cancel(true);
+                }
+                return decoded;
+            } catch (IOException e) {
+                // another false header, or a corrupt block
+            } catch (RuntimeException e) {
+                // corrupt data may also break the decoder
+            }
+        }
+        if (firstBlock && start > 0 && !pending.isEmpty()) {
+            return new byte[0];
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        throw new IOException("Failed to decode a bzip2 block", cause);
+    }
+
+    /**
+     * Submit the blocks ahead of the reader for decoding. Past the split, the
+     * blocks are only decoded as the reader gets to them, since the reader
+     * only needs the end of the line it is reading.
+     */
+    private void fill() throws IOException {
+        while (pending.size() < lookahead && !(pastSplit && !pending.isEmpty())) {
+            if (!submitNext()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scan the next block and submit it for decoding.
+     * @return false at the end of the compressed stream
+     */
+    private boolean submitNext() throws IOException {
+        final Block block = scanBlock();
+        if (block == null) {
+            return false;
+        }
+        boolean owned = block.startBit / 8 < end;
+        pastSplit |= !owned;
+        pending.add(new Pending(block, executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return decode(block, blockSize100k);
+            }
+        }), owned));
+        return true;
+    }
+
+    /**
+     * The compressed bits of a block, from its header up to the next one.
+     */
+    static class Block {
+        final long startBit;
+        final byte[] data;
+        final long bitLength;
+
+        Block(long startBit, byte[] data, long bitLength) {
+            this.startBit = startBit;
+            this.data = data;
+            this.bitLength = bitLength;
+        }
+    }
+
+    /**
+     * Merge a block with the block scanned after it, whose header was a false
+     * match.
+     */
+    static Block merge(Block a, Block b) {
+        // the byte holding the first bit of b is in both
+        int prefix = (int) (b.startBit / 8 - a.startBit / 8);
+        byte[] data = new byte[prefix + b.data.length];
+        System.arraycopy(a.data, 0, data, 0, prefix);
+        System.arraycopy(b.data, 0, data, prefix, b.data.length);
+        return new Block(a.startBit, data, a.bitLength + b.bitLength);
+    }
+
+    /**
+     * @return the next block, or null at the end of the compressed stream
+     */
+    Block scanBlock() throws IOException {
+        while (!scanDone) {
+            if (chunkPos == chunkLen) {
+                chunkLen = in.read(chunk, 0, chunk.length);
+                chunkPos = 0;
+                if (chunkLen <= 0) {
+                    chunkLen = 0;
+                    scanDone = true;
+                    if (blockStartBit >= 0) {
+                        throw new IOException("compressedStream EOF");
+                    }
+                    return null;
+                }
+            }
+            int b = chunk[chunkPos++] & 0xff;
+            long byteOffset = bufStart + bufLen;
+            append(b);
+
+            long magicStart = -1;
+            boolean eos = false;
+            for (int k = 7; k >= 0; k--) {
+                window = ((window << 1) | ((b >> k) & 1)) & MASK;
+                if (window == EOB || window == EOS) {
+                    // the bit after the magic is bit 8 - k of this byte
+                    magicStart = byteOffset * 8 + (8 - k) - 48;
+                    eos = window == EOS;
+                }
+            }
+            if (magicStart < 0) {
+                if (blockStartBit < 0 && bufLen > 16) {
+                    // keep the bytes a header found next could start in
+                    discardBefore(bufStart + bufLen - 8);
+                }
+                continue;
+            }
+
+            Block block = null;
+            if (blockStartBit >= 0) {
+                int from = (int) (blockStartBit / 8 - bufStart);
+                int to = (int) ((magicStart + 7) / 8 - bufStart);
+                byte[] data = new byte[to - from];
+                System.arraycopy(buf, from, data, 0, data.length);
+                block = new Block(blockStartBit, data, magicStart - blockStartBit);
+            }
+            if (eos) {
+                scanDone = true;
+                blockStartBit = -1;
+                // the stream ends with the combined CRC after the magic
+                if ((magicStart + 48 + 32 + 7) / 8 < end) {
+                    throw new IOException("Encountered additional bytes in the filesplit past the crc block. "
+                            + "Loading of concatenated bz2 files is not supported");
+                }
+            } else {
+                blockStartBit = magicStart;
+                discardBefore(magicStart / 8);
+            }
+            if (block != null) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    private void append(int b) {
+        if (bufLen == buf.length) {
+            byte[] grown = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, bufLen);
+            buf = grown;
+        }
+        buf[bufLen++] = (byte) b;
+    }
+
+    private void discardBefore(long offset) {
+        int n = (int) (offset - bufStart);
+        if (n <= 0) {
+            return;
+        }
+        System.arraycopy(buf, n, buf, 0, bufLen - n);
+        bufLen -= n;
+        bufStart = offset;
+    }
+
+    /**
+     * Decode a block by wrapping it into a stream of its own: the file header,
+     * the block, and the end of stream magic with a combined CRC equal to the
+     * CRC of the block.
+     */
+    static byte[] decode(Block block, int blockSize100k) throws IOException {
+        BitWriter w = new BitWriter((int) (block.bitLength / 8) + 32);
+        w.writeBits(8, 'B');
+        w.writeBits(8, 'Z');
+        w.writeBits(8, 'h');
+        w.writeBits(8, '0' + blockSize100k);
+        int offset = (int) (block.startBit % 8);
+        w.copyBits(block.data, offset, block.bitLength);
+        // the block CRC follows the 48 bits of the block magic
+        long crc = readBits(block.data, offset + 48, 32);
+        w.writeBits(24, (int) (EOS >>> 24));
+        w.writeBits(24, (int) (EOS & 0xffffff));
+        w.writeBits(16, (int) (crc >>> 16));
+        w.writeBits(16, (int) (crc & 0xffff));
+        byte[] stream = w.toByteArray();
+
+        CBZip2InputStream decoder = new CBZip2InputStream(
+                new FSDataInputStream(new SeekableByteArrayInputStream(stream)), -1, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(blockSize100k * 100000);
+        int c;
+        while ((c = decoder.read()) != -1) {
+            out.write(c);
+        }
+        return out.toByteArray();
+    }
+
+    private static long readBits(byte[] data, long bitOffset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            long bit = bitOffset + i;
+            v = (v << 1) | ((data[(int) (bit >>> 3)] >> (7 - (int) (bit & 7))) & 1);
+        }
+        return v;
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int acc = 0;
+        private int live = 0;
+
+        BitWriter(int size) {
+            out = new ByteArrayOutputStream(size);
+        }
+
+        void writeBits(int n, int v) {
+            for (int i = n - 1; i >= 0; i--) {
+                acc = (acc << 1) | ((v >>> i) & 1);
+                if (++live == 8) {
+                    out.write(acc);
+                    acc = 0;
+                    live = 0;
+                }
+            }
+        }
+
+        /**
+         * Append length bits of data, starting at bit offset of its first
+         * byte. Only called while the writer is byte aligned.
+         */
+        void copyBits(byte[] data, int offset, long length) {
+            int bytes = (int) (length / 8);
+            if (offset == 0) {
+                out.write(data, 0, bytes);
+            } else {
+                for (int j = 0; j < bytes; j++) {
+                    out.write(((data[j] & 0xff) << offset | (data[j + 1] & 0xff) >>> (8 - offset)) & 0xff);
+                }
+            }
+            for (long bit = offset + bytes * 8L; bit < offset + length; bit++) {
+                writeBits(1, (data[(int) (bit >>> 3)] >> (7 - (int) (bit & 7))) & 1);
+            }
+        }
+
+        byte[] toByteArray() {
+            if (live > 0) {
+                out.write(acc << (8 - live));
+                acc = 0;
+                live = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A byte array {@link FSDataInputStream} can read from.
+     */
+    private static class SeekableByteArrayInputStream extends ByteArrayInputStream
+            implements Seekable, PositionedReadable {
+
+        SeekableByteArrayInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos < 0 || pos > count) {
+                throw new IOException("Cannot seek to " + pos);
+            }
+            this.pos = (int) pos;
+        }
+
+        @Override
+        public long getPos() {
+            return pos;
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) {
+            return false;
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) {
+            if (position >= count) {
+                return -1;
+            }
+            int n = (int) Math.min(length, count - position);
+            System.arraycopy(buf, (int) position, buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length)
+                throws IOException {
+            if (position + length > count) {
+                throw new EOFException();
+            }
+            System.arraycopy(buf, (int) position, buffer, offset, length);
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+}
@@ -895,7 +895,7 @@ public class Main {
             System.out.println("            Scripts containing Filter, Foreach, Limit, Stream, and Union can be dumped without MR jobs.");
             System.out.println("        pig.tmpfilecompression=true|false; compression is off by default.");
             System.out.println("            Determines whether output of intermediate jobs is compressed.");
-            System.out.println("        pig.tmpfilecompression.codec=lzo|gzip; default is gzip.");
+            System.out.println("        pig.tmpfilecompression.codec=lzo|gzip|snappy|bzip2|lz4|none|auto|<codec class>; default is gzip.");
             System.out.println("            Used in conjunction with pig.tmpfilecompression. Defines compression type.");
             System.out.println("        pig.noSplitCombination=true|false. Split combination is on by default.");
             System.out.println("            Determines if multiple small files are combined into a single map.");
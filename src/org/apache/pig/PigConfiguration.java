@@ -35,6 +35,169 @@ public class PigConfiguration {
      */
     public static final String PROP_CACHEDBAG_MEMUSAGE = "pig.cachedbag.memusage";
 
+    /**
+     * Controls the number of bytes of direct (off-heap) memory that spilled bags
+     * may use before spilling to local disk. Default is 0, which disables
+     * off-heap spilling.
+     */
+    public static final String PROP_SPILL_OFFHEAP_SIZE = "pig.spill.offheap.size";
+
+    /**
+     * Size in bytes of the direct memory pages used for off-heap spilling.
+     * Default is 1MB.
+     */
+    public static final String PROP_SPILL_OFFHEAP_PAGESIZE = "pig.spill.offheap.pagesize";
+
+    /**
+     * Controls whether ORDER BY sorts tuples in memory on a binary prefix of
+     * their first sort key, when it is an int, long, float, double or
+     * chararray, and only compares tuples with equal prefixes. Default is true.
+     */
+    public static final String PIG_SORT_PREFIX_KEYS = "pig.sort.prefixkeys";
+
+    /**
+     * Controls whether ORDER BY jobs whose sort keys are booleans, numbers,
+     * datetimes or chararrays shuffle their keys in an order preserving
+     * binary form, which is sorted by comparing bytes instead of parsing
+     * the keys field by field. Default is false.
+     */
+    public static final String PIG_SHUFFLE_NORMALIZED_KEYS = "pig.shuffle.normalizedkeys";
+
+    /**
+     * Controls whether ORDER BY on sort columns skips the sampling job. The
+     * job which stores the sort input then sketches the quantiles of the sort
+     * key, and the sort job partitions on quantiles found in the merged
+     * sketches when it is submitted. Default is false.
+     */
+    public static final String PIG_SORT_SKETCH = "pig.sort.sketch";
+
+    /**
+     * The number of keys the largest level of a quantile sketch of ORDER BY
+     * holds, see {@link #PIG_SORT_SKETCH}. The rank error of the quantiles is
+     * about 2 / size of the number of tuples. Default is 1024.
+     */
+    public static final String PIG_SORT_SKETCH_SIZE = "pig.sort.sketch.size";
+
+    /**
+     * Controls whether the partitioner of ORDER BY looks the keys up in the
+     * quantiles by comparing their normalized bytes, when the keys are
+     * shuffled normalized (see {@link #PIG_SHUFFLE_NORMALIZED_KEYS}) or are
+     * tuples of several sort columns. Default is true.
+     */
+    public static final String PIG_PARTITION_NORMALIZED_KEYS = "pig.partition.normalizedkeys";
+
+    /**
+     * Controls whether GROUP BY with algebraic functions only spreads the
+     * tuples of hot keys over several reducers. Map tasks find the hot keys
+     * as they partition the tuples, the reducers compute partial results, and
+     * a follow-up job merges them. Default is false.
+     */
+    public static final String PIG_GROUPBY_HOTKEYS = "pig.groupby.hotkeys";
+
+    /**
+     * The fraction of the tuples a map task partitioned so far a key has to
+     * make up to be hot, see {@link #PIG_GROUPBY_HOTKEYS}. Default is 0.01.
+     */
+    public static final String PIG_GROUPBY_HOTKEYS_FRACTION = "pig.groupby.hotkeys.fraction";
+
+    /**
+     * The number of reducers the tuples of a hot key are spread over, see
+     * {@link #PIG_GROUPBY_HOTKEYS}. Default is 8.
+     */
+    public static final String PIG_GROUPBY_HOTKEYS_FANOUT = "pig.groupby.hotkeys.fanout";
+
+    /**
+     * Controls whether skewed join skips the sampling job. The job which
+     * stores the first join input then sketches the frequent join keys, and
+     * the join partitions the hot keys by the merged sketches. Default is
+     * false.
+     */
+    public static final String PIG_SKEWEDJOIN_SKETCH = "pig.skewedjoin.sketch";
+
+    /**
+     * The number of join keys each task counts, see
+     * {@link #PIG_SKEWEDJOIN_SKETCH}. Keys which make up more than 1 / size of
+     * the tuples of a task are counted. Default is 1024.
+     */
+    public static final String PIG_SKEWEDJOIN_SKETCH_SIZE = "pig.skewedjoin.sketch.size";
+
+    /**
+     * Comma separated list of local directories bags spill to. Defaults to the
+     * local directories of the task, or java.io.tmpdir outside of a task.
+     */
+    public static final String PIG_SPILL_DIRS = "pig.spill.dirs";
+
+    /**
+     * How spill files are spread over {@link #PIG_SPILL_DIRS}: roundrobin
+     * (default), or leastused to pick the directory with the most free space.
+     */
+    public static final String PIG_SPILL_DIRS_POLICY = "pig.spill.dirs.policy";
+
+    /**
+     * Codec to compress spill files of bags with: deflate, gzip, lz4, snappy
+     * or the class name of a hadoop CompressionCodec. Spill files are not
+     * compressed by default.
+     */
+    public static final String PIG_SPILL_COMPRESS_CODEC = "pig.spill.compress.codec";
+
+    /**
+     * Controls whether sorted bags merge their oldest spill files in a
+     * background thread while tuples are still added to them, so that there
+     * are few spill files left to merge once they are read. Default is false.
+     */
+    public static final String PIG_SPILL_MERGE_ASYNC = "pig.spill.merge.async";
+
+    /**
+     * Size in bytes of the read buffer of each spill file sorted bags merge.
+     * Larger buffers read ahead further in each file. Default is 8KB.
+     */
+    public static final String PIG_SPILL_MERGE_BUFFER_SIZE = "pig.spill.merge.buffer.size";
+
+    /**
+     * Controls whether map tasks read their input records in a background
+     * thread, ahead of the pipeline, so that reading and decoding the records
+     * overlaps with processing them. The loader must return a new tuple from
+     * each getNext() call. Default is false.
+     */
+    public static final String PIG_READ_PREFETCH = "pig.read.prefetch";
+
+    /**
+     * The number of records read ahead, see {@link #PIG_READ_PREFETCH}.
+     * Default is 1024.
+     */
+    public static final String PIG_READ_PREFETCH_DEPTH = "pig.read.prefetch.depth";
+
+    /**
+     * The number of threads decoding the blocks of bzip2 text input, of
+     * PigStorage and TextLoader, in parallel. Default is 1, which decodes them
+     * in the thread reading the records.
+     */
+    public static final String PIG_BZIP2_DECODE_THREADS = "pig.bzip2.decode.threads";
+
+    /**
+     * Controls whether small splits are combined by node, then by rack, with
+     * first-fit decreasing packing. Default is false, which combines them as
+     * in earlier releases.
+     */
+    public static final String PIG_SPLIT_COMBINATION_LOCALITY = "pig.splitCombination.locality";
+
+    /**
+     * The maximum number of records of a combined split, estimated from the
+     * statistics of the loader, see {@link #PIG_SPLIT_COMBINATION_LOCALITY}.
+     * Default is no maximum.
+     */
+    public static final String PIG_MAX_COMBINED_SPLIT_RECORDS = "pig.maxCombinedSplitRecords";
+
+    /**
+     * The number of map tasks to combine the splits of a job into, see
+     * {@link #PIG_SPLIT_COMBINATION_LOCALITY}. Overrides
+     * pig.maxCombinedSplitSize with the size of the inputs whose splits are
+     * combined divided by this number. Splits which are not combined, and
+     * splits larger than this size, make for more map tasks. Default is no
+     * target.
+     */
+    public static final String PIG_SPLIT_COMBINATION_TARGET_MAPPERS = "pig.splitCombination.targetMappers";
+
     /**
      * Controls whether partial aggregation is turned on
      */
@@ -47,6 +210,56 @@ public class PigConfiguration {
      */
     public static final String PARTAGG_MINREDUCTION = "pig.exec.mapPartAgg.minReduction";
 
+    /**
+     * Controls how many records in-mapper Partial Aggregation passes through after it
+     * turned itself off before it measures the reduction again, in case the input
+     * changed. The interval doubles each time the reduction is still too low.
+     * Set to 0 to keep it off for the rest of the task. Default is 1000000.
+     */
+    public static final String PARTAGG_REENABLE_INTERVAL = "pig.exec.mapPartAgg.reenableInterval";
+
+    /**
+     * Number of tuples that filter and foreach operators in map plans
+     * evaluate together, with vector expressions where their plans only use
+     * projections, constants, arithmetic, comparisons and boolean logic.
+     * Default is 0, which evaluates one tuple at a time.
+     */
+    public static final String PIG_EXEC_BATCH_SIZE = "pig.exec.batch.size";
+
+    /**
+     * Controls whether the plans of filter and foreach operators which only
+     * use projections, constants, arithmetic, comparisons and boolean logic
+     * are compiled to generated classes, which are shipped to the tasks with
+     * the generated SchemaTuples. This needs a JDK on the client.
+     * Default is false.
+     */
+    public static final String PIG_EXEC_CODEGEN = "pig.exec.codegen";
+
+    /**
+     * Controls whether reducers of GROUP BY with builtin algebraic functions
+     * on numbers only (COUNT, SUM, MIN, MAX and AVG) fold the partial results
+     * straight from the serialized values into primitives, without creating
+     * tuples and bags of them. Default is false.
+     */
+    public static final String PIG_EXEC_RAW_ALGEBRAIC = "pig.exec.raw.algebraic";
+
+    /**
+     * Controls whether reducers run in accumulative mode when only some of
+     * the expressions of the foreach after the package can accumulate. The
+     * accumulators are fed batches of tuples, and only the inputs which the
+     * other expressions use are kept in spillable bags for them. This also
+     * lets COGROUPs with inner inputs run in accumulative mode if the
+     * foreach flattens nothing. Default is false.
+     */
+    public static final String PIG_EXEC_ACCUMULATOR_HYBRID = "pig.exec.accumulator.hybrid";
+
+    /**
+     * Controls whether PigStorage loads lines into tuples which hold the
+     * line and the offsets of its fields, and only read and cast a field
+     * when it is used. Default is false.
+     */
+    public static final String PIG_STORAGE_LAZY_TUPLES = "pig.storage.lazy.tuples";
+
     /**
      * Controls whether execution time of Pig UDFs should be tracked.
      * This feature uses counters; use judiciously.
@@ -118,16 +331,35 @@ public class PigConfiguration {
     /**
      * This key is used to set the storage type used by intermediate file storage
      * If pig.tmpfilecompression, default storage used is TFileStorage.
-     * This can be overriden to use SequenceFileInterStorage by setting following property to "seqfile".
+     * This can be overriden to use SequenceFileInterStorage by setting following property to "seqfile",
+     * or ColumnarInterStorage, which writes row groups column by column and only reads the
+     * columns the next jobs project, by setting it to "columnar".
      */
     public static final String PIG_TEMP_FILE_COMPRESSION_STORAGE = "pig.tmpfilecompression.storage";
 
     /**
      * Compression codec used by intermediate storage
-     * TFileStorage only support gzip and lzo.
+     * TFileStorage only support gzip, lzo and none. SequenceFileInterStorage and
+     * ColumnarInterStorage also support snappy, bzip2, lz4 and the class name of any
+     * hadoop CompressionCodec. Codecs whose class is not in the version of hadoop used,
+     * such as lz4 before hadoop 2, are rejected when the script is compiled. Set to "auto" to choose the codec of each job from the size
+     * of its input and the CPU and IO used by the jobs before it.
      */
     public static final String PIG_TEMP_FILE_COMPRESSION_CODEC = "pig.tmpfilecompression.codec";
 
+    /**
+     * With pig.tmpfilecompression.codec set to auto, jobs with less input bytes than this
+     * do not compress their intermediate files. Default is 64MB.
+     */
+    public static final String PIG_TEMP_FILE_COMPRESSION_AUTO_MIN_BYTES = "pig.tmpfilecompression.auto.minbytes";
+
+    /**
+     * With pig.tmpfilecompression.codec set to auto, the milliseconds of CPU per MB read and
+     * written under which the jobs before a job are IO bound, and its intermediate files are
+     * compressed with gzip rather than a fast codec. Default is 200.
+     */
+    public static final String PIG_TEMP_FILE_COMPRESSION_AUTO_CPU_RATIO = "pig.tmpfilecompression.auto.cpuratio";
+
     /**
      * This key is used to define whether to delete intermediate files of Hadoop jobs.
      */
@@ -138,6 +370,26 @@ public class PigConfiguration {
      * the distributed cache when doing fragment-replicated join
      */
     public static final String PIG_JOIN_REPLICATED_MAX_BYTES = "pig.join.replicated.max.bytes";
+
+    /**
+     * This key is used to turn off keeping the replicated inputs of a
+     * fragment-replicated join in serialized form. Default is true.
+     */
+    public static final String PIG_JOIN_REPLICATED_COMPACT = "pig.join.replicated.compact";
+
+    /**
+     * This key is used to limit the memory used to keep replicated join
+     * tables between map tasks which run in the same JVM. Default is a
+     * quarter of the heap, 0 turns the cache off.
+     */
+    public static final String PIG_JOIN_REPLICATED_CACHE_BYTES = "pig.join.replicated.cache.bytes";
+
+    /**
+     * This key is used to turn on writing the replicated inputs of a
+     * fragment-replicated join as hashed index files in an extra job, which
+     * map tasks memory map instead of building hash tables. Default is false.
+     */
+    public static final String PIG_JOIN_REPLICATED_INDEX = "pig.join.replicated.index";
  
     /**
      * This key used to control the sample size of RandomeSampleLoader for
@@ -28,5 +28,36 @@ public enum PigCounters {
     PROACTIVE_SPILL_COUNT_BAGS, 
     
     //total number of records that have been spilled to disk
-    PROACTIVE_SPILL_COUNT_RECS;
+    PROACTIVE_SPILL_COUNT_RECS,
+
+    // records fed into and emitted by in-map partial aggregation; their
+    // ratio is the reduction it achieved
+    MAP_PARTIAL_AGG_INPUT_RECORDS,
+    MAP_PARTIAL_AGG_OUTPUT_RECORDS,
+
+    // number of times in-map partial aggregation flushed its buffers
+    MAP_PARTIAL_AGG_SPILL_COUNT,
+
+    // number of times in-map partial aggregation was turned off because of a
+    // poor reduction, and turned back on to measure it again
+    MAP_PARTIAL_AGG_DISABLED_COUNT,
+    MAP_PARTIAL_AGG_REENABLED_COUNT,
+
+    // bytes written to spill files of bags, after compression, and the
+    // milliseconds spent writing them
+    SPILL_BYTES,
+    SPILL_TIME_MS,
+
+    // number of keys map tasks found hot and spread over several reducers
+    GROUPBY_HOT_KEYS,
+
+    // records map tasks took from the read-ahead buffer, without and with
+    // waiting for them, and the milliseconds spent waiting
+    PREFETCH_HITS,
+    PREFETCH_STALLS,
+    PREFETCH_STALL_TIME_MS,
+
+    // sum of the records in the read-ahead buffer each time one was taken;
+    // divided by the hits and stalls, the average depth of the buffer
+    PREFETCH_BUFFERED_RECORDS;
 }
\ No newline at end of file
@@ -38,7 +38,9 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.UnaryExpressionOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSortedDistinct;
 import org.apache.pig.data.DataType;
@@ -48,14 +50,24 @@ import org.apache.pig.impl.plan.VisitorException;
 
 /**
  * A visitor to optimize plans that determines if a reduce plan
- * can run in accumulative mode. 
+ * can run in accumulative mode. In hybrid mode, a reduce plan also runs in
+ * accumulative mode when only some of the expressions of its foreach can
+ * accumulate. The others are evaluated once per key, with the inputs they
+ * use kept in spillable bags by the package.
  */
 public class AccumulatorOptimizer extends MROpPlanVisitor {
 
     private Log log = LogFactory.getLog(getClass());
 
+    private final boolean hybrid;
+
     public AccumulatorOptimizer(MROperPlan plan) {
+        this(plan, false);
+    }
+
+    public AccumulatorOptimizer(MROperPlan plan, boolean hybrid) {
         super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+        this.hybrid = hybrid;
     }
 
     public void visitMROp(MapReduceOper mr) throws VisitorException {
@@ -76,11 +88,16 @@ public class AccumulatorOptimizer extends MROpPlanVisitor {
             return;
         }
         
-        // if any input to POPackage is inner, just return
+        // if any input to POPackage is inner, just return, unless the
+        // foreach can drop the keys missing an inner input in hybrid mode
+        boolean hasInner = false;
         boolean[] isInner = ((POPackage)po_package).getInner();
         for(boolean b: isInner) {
             if (b) {
-                return;
+                if (!hybrid) {
+                    return;
+                }
+                hasInner = true;
             }
         }
         
@@ -95,32 +112,76 @@ public class AccumulatorOptimizer extends MROpPlanVisitor {
             return; 
         }
         
+        List<Boolean> flattens = ((POForEach)po_foreach).getToBeFlattened();
+        if (hasInner && flattens != null && flattens.contains(Boolean.TRUE)) {
+            return;
+        }
+        
         boolean foundUDF = false;
         List<PhysicalPlan> list = ((POForEach)po_foreach).getInputPlans();
-        for(PhysicalPlan p: list) {
+        boolean[] materializedPlans = new boolean[list.size()];
+        boolean[] materializedInputs = new boolean[isInner.length];
+        int numMaterialized = 0;
+        for(int i = 0; i < list.size(); i++) {
+            PhysicalPlan p = list.get(i);
             PhysicalOperator po = p.getLeaves().get(0);
             
-            // only expression operators are allowed
-            if (!(po instanceof ExpressionOperator)) {
-                return;
+            // only expression operators are allowed, in hybrid mode the
+            // others are evaluated with all the tuples
+            if (!(po instanceof ExpressionOperator) || !check(po)) {
+                if (!hybrid) {
+                    return;
+                }
+                materializedPlans[i] = true;
+                numMaterialized++;
+                addInputs(p, materializedInputs);
+                continue;
             }
             
             if (((ExpressionOperator)po).containUDF()) {
                 foundUDF = true;
             }
-            
-            if (!check(po)) {
-                return;
-            }
         }
         
         if (foundUDF) {
             // if all tests are passed, reducer can run in accumulative mode
-            log.info("Reducer is to run in accumulative mode.");
+            if (numMaterialized > 0) {
+                log.info("Reducer is to run in accumulative mode, with "
+                        + numMaterialized + " expression(s) evaluated on whole bags.");
+                ((POPackage)po_package).setMaterialized(materializedInputs);
+                ((POForEach)po_foreach).setMaterializedPlans(materializedPlans);
+            } else {
+                log.info("Reducer is to run in accumulative mode.");
+            }
             po_package.setAccumulative();
             po_foreach.setAccumulative();
         }
     }
+
+    /**
+     * Mark the inputs of the package whose bags a plan of the foreach
+     * projects. The roots of the plan project the output of the package,
+     * which has the key first and then a bag per input.
+     */
+    private void addInputs(PhysicalPlan plan, boolean[] inputs) {
+        for (PhysicalOperator root : plan.getRoots()) {
+            if (!(root instanceof POProject)) {
+                continue;
+            }
+            POProject project = (POProject) root;
+            if (project.isStar() || project.isProjectToEnd()) {
+                for (int i = 0; i < inputs.length; i++) {
+                    inputs[i] = true;
+                }
+                continue;
+            }
+            for (int column : project.getColumns()) {
+                if (column >= 1 && column <= inputs.length) {
+                    inputs[column - 1] = true;
+                }
+            }
+        }
+    }
      
     /**
      * Check if an operator is qualified to be under POForEach
@@ -227,6 +288,9 @@ public class AccumulatorOptimizer extends MROpPlanVisitor {
      * <li>BinaryExpressionOperator</li>
      * <li>POBinCond</li>
      * <li>POSortedDistinct</li>
+     * <li>PODistinct</li>
+     * <li>POFilter</li>
+     * <li>POLimit</li>
      * <li>POForEach</li>
      *
      */
@@ -268,6 +332,15 @@ public class AccumulatorOptimizer extends MROpPlanVisitor {
             return true;    	
         }
         
+        // in hybrid mode, filters and limits stream through the batches of a
+        // key, and distincts remember the tuples of the earlier batches
+        if (po instanceof POFilter || po instanceof POLimit || po instanceof PODistinct) {
+            if (!hybrid) {
+                return false;
+            }
+            return checkUDFInput(po.getInputs().get(0));
+        }
+        
         if (po instanceof POForEach) {
             List<PhysicalPlan> list = ((POForEach)po).getInputPlans();
             if (list.size() != 1) {
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POAlgebraicPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A visitor that replaces the package and foreach of the reduce plans of
+ * combined GROUP BYs with a {@link POAlgebraicPackage}, when the foreach only
+ * projects the group key and applies the Final functions of builtin COUNT,
+ * SUM, MIN, MAX and AVG on numbers.
+ */
+public class AlgebraicPackageOptimizer extends MROpPlanVisitor {
+
+    private static final Log log = LogFactory.getLog(AlgebraicPackageOptimizer.class);
+
+    public AlgebraicPackageOptimizer(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        PhysicalPlan plan = mr.reducePlan;
+        if (plan.isEmpty() || plan.getRoots().size() != 1) {
+            return;
+        }
+        PhysicalOperator root = plan.getRoots().get(0);
+        if (root.getClass() != POCombinerPackage.class) {
+            return;
+        }
+        List<PhysicalOperator> succs = plan.getSuccessors(root);
+        if (succs == null || succs.size() != 1 || succs.get(0).getClass() != POForEach.class) {
+            return;
+        }
+        POCombinerPackage pkg = (POCombinerPackage) root;
+        POForEach foreach = (POForEach) succs.get(0);
+        if (foreach.isAccumulative()) {
+            return;
+        }
+
+        try {
+            POAlgebraicPackage fused = POAlgebraicPackage.create(pkg, foreach);
+            if (fused == null) {
+                return;
+            }
+            List<PhysicalOperator> foreachSuccs = plan.getSuccessors(foreach) == null
+                    ? new ArrayList<PhysicalOperator>()
+                    : new ArrayList<PhysicalOperator>(plan.getSuccessors(foreach));
+            plan.remove(foreach);
+            plan.replace(pkg, fused);
+            for (PhysicalOperator succ : foreachSuccs) {
+                plan.connect(fused, succ);
+                List<PhysicalOperator> inputs = new ArrayList<PhysicalOperator>();
+                inputs.add(fused);
+                succ.setInputs(inputs);
+            }
+        } catch (Exception e) {
+            int errCode = 2277;
+            String msg = "Unable to fuse the package and foreach of " + mr.getOperatorKey();
+            throw new VisitorException(msg, errCode, PigException.BUG, e);
+        }
+        log.info("Folding the partial results of " + mr.getOperatorKey()
+                + " into primitives in its reducers");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.VectorExpressionBuilder;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A visitor that makes the filter and foreach operators of map plans
+ * evaluate a batch of tuples at a time, when their plans can be run as
+ * vector expressions. Operators in nested plans, such as those of a split,
+ * are left alone. This must run before the {@link
+ * org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.EndOfAllInputSetter},
+ * since the last batch is only flushed at the end of all input.
+ */
+public class BatchModeOptimizer extends MROpPlanVisitor {
+
+    private static final Log log = LogFactory.getLog(BatchModeOptimizer.class);
+
+    private final int batchSize;
+
+    public BatchModeOptimizer(MROperPlan plan, int batchSize) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        // merge joins read their side inputs in step with the tuples they
+        // are given, so keep those map plans a tuple at a time
+        for (PhysicalOperator op : mr.mapPlan) {
+            if (op instanceof POMergeJoin || op instanceof POMergeCogroup) {
+                return;
+            }
+        }
+        int batched = 0;
+        for (PhysicalOperator op : mr.mapPlan) {
+            if (op instanceof POFilter) {
+                POFilter filter = (POFilter) op;
+                if (VectorExpressionBuilder.buildPredicate(filter.getPlan(), batchSize) != null) {
+                    filter.setBatchSize(batchSize);
+                    batched++;
+                }
+            } else if (op.getClass() == POForEach.class && canBatch((POForEach) op)) {
+                ((POForEach) op).setBatchSize(batchSize);
+                batched++;
+            }
+        }
+        if (batched > 0) {
+            log.info("Evaluating " + batched + " operator(s) of " + mr.getOperatorKey()
+                    + " in batches of " + batchSize + " tuples");
+        }
+    }
+
+    private boolean canBatch(POForEach foreach) {
+        if (foreach.isAccumulative()
+                || (foreach.getOpsToBeReset() != null && !foreach.getOpsToBeReset().isEmpty())) {
+            return false;
+        }
+        List<Boolean> flattens = foreach.getToBeFlattened();
+        if (flattens != null && flattens.contains(Boolean.TRUE)) {
+            return false;
+        }
+        for (PhysicalPlan plan : foreach.getInputPlans()) {
+            if (VectorExpressionBuilder.buildValue(plan, batchSize) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
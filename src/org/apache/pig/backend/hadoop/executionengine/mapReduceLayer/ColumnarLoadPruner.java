@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.impl.io.ColumnarInterStorage;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A visitor that makes the loads of intermediate files written with
+ * {@link ColumnarInterStorage} only read the columns projected by the foreach
+ * which follows them. Intermediate loads are only created when the MR plan
+ * is compiled, after the logical plan has had its columns pruned, so the
+ * projections are pushed down here. The projections of the foreach are
+ * changed to the position of their column in the pruned tuples.
+ */
+public class ColumnarLoadPruner extends MROpPlanVisitor {
+
+    private static final Log log = LogFactory.getLog(ColumnarLoadPruner.class);
+
+    public ColumnarLoadPruner(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        for (PhysicalOperator root : mr.mapPlan.getRoots()) {
+            if (!(root instanceof POLoad)) {
+                continue;
+            }
+            POLoad load = (POLoad) root;
+            FuncSpec funcSpec = load.getLFile().getFuncSpec();
+            if (!funcSpec.getClassName().equals(ColumnarInterStorage.class.getName())
+                    || (funcSpec.getCtorArgs() != null && funcSpec.getCtorArgs().length > 0)) {
+                continue;
+            }
+            List<PhysicalOperator> succs = mr.mapPlan.getSuccessors(load);
+            if (succs == null || succs.size() != 1 || succs.get(0).getClass() != POForEach.class) {
+                continue;
+            }
+            // the foreach may also read the tuples of other inputs, as
+            // after a union
+            if (mr.mapPlan.getPredecessors(succs.get(0)).size() != 1) {
+                continue;
+            }
+            prune(mr, load, (POForEach) succs.get(0));
+        }
+    }
+
+    private void prune(MapReduceOper mr, POLoad load, POForEach foreach) {
+        List<POProject> projects = new ArrayList<POProject>();
+        TreeSet<Integer> required = new TreeSet<Integer>();
+        for (PhysicalPlan plan : foreach.getInputPlans()) {
+            for (PhysicalOperator root : plan.getRoots()) {
+                if (root instanceof ConstantExpression) {
+                    continue;
+                }
+                if (root.getClass() != POProject.class
+                        || ((POProject) root).isProjectToEnd()) {
+                    return;
+                }
+                POProject project = (POProject) root;
+                projects.add(project);
+                required.addAll(project.getColumns());
+            }
+        }
+
+        int[] columns = new int[required.size()];
+        int i = 0;
+        for (Integer col : required) {
+            columns[i++] = col;
+        }
+        for (POProject project : projects) {
+            ArrayList<Integer> remapped = new ArrayList<Integer>();
+            for (Integer col : project.getColumns()) {
+                remapped.add(required.headSet(col).size());
+            }
+            project.setColumns(remapped);
+        }
+        FuncSpec pruned = new FuncSpec(ColumnarInterStorage.class.getName(),
+                ColumnarInterStorage.toColumnsArgument(columns));
+        load.setLFile(new FileSpec(load.getLFile().getFileName(), pruned));
+        log.info("Reading columns " + required + " of " + load.getLFile().getFileName()
+                + " in " + mr.getOperatorKey());
+    }
+}
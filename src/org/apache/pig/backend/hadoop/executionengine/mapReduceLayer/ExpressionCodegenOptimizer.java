@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.List;
+
+import javax.tools.ToolProvider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.ExpressionClassGenerator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A visitor that generates classes for the plans of the filter and foreach
+ * operators of map and reduce plans, see {@link ExpressionClassGenerator}.
+ * The classes of all jobs are registered up front, as in local mode the
+ * generated code of the first job is used by all of them. Operators which
+ * evaluate their plans in batches, and operators in nested plans, are left
+ * alone.
+ */
+public class ExpressionCodegenOptimizer extends MROpPlanVisitor {
+
+    private static final Log log = LogFactory.getLog(ExpressionCodegenOptimizer.class);
+
+    private final boolean canCompile;
+
+    public ExpressionCodegenOptimizer(MROperPlan plan) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+        canCompile = ToolProvider.getSystemJavaCompiler() != null;
+        if (!canCompile) {
+            log.warn("No Java compiler available, expressions will not be compiled");
+        }
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        if (!canCompile) {
+            return;
+        }
+        int compiled = generate(mr.mapPlan) + generate(mr.reducePlan);
+        if (compiled > 0) {
+            log.info("Compiled the plans of " + compiled + " operator(s) of " + mr.getOperatorKey());
+        }
+    }
+
+    private int generate(PhysicalPlan plan) {
+        int compiled = 0;
+        for (PhysicalOperator op : plan) {
+            if (op instanceof POFilter) {
+                POFilter filter = (POFilter) op;
+                if (filter.getBatchSize() > 0) {
+                    continue;
+                }
+                String className = ExpressionClassGenerator.generatePredicate(filter.getPlan());
+                if (className != null) {
+                    filter.setGeneratedClassName(className);
+                    compiled++;
+                }
+            } else if (op.getClass() == POForEach.class && generate((POForEach) op)) {
+                compiled++;
+            }
+        }
+        return compiled;
+    }
+
+    private boolean generate(POForEach foreach) {
+        if (foreach.getBatchSize() > 0 || foreach.isAccumulative()) {
+            return false;
+        }
+        List<PhysicalPlan> plans = foreach.getInputPlans();
+        List<Boolean> flattens = foreach.getToBeFlattened();
+        String[] classNames = new String[plans.size()];
+        boolean any = false;
+        for (int i = 0; i < plans.size(); i++) {
+            // flattened values are bags or tuples, which are not compiled
+            if (flattens != null && flattens.get(i)) {
+                continue;
+            }
+            classNames[i] = ExpressionClassGenerator.generateValue(plans.get(i));
+            any |= classNames[i] != null;
+        }
+        if (any) {
+            foreach.setGeneratedClassNames(classNames);
+        }
+        return any;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.plan.DepthFirstWalker;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.util.Utils;
+
+/**
+ * Splits the hot keys of GROUP BY jobs which compute algebraic functions only,
+ * so that a single key does not keep one reducer busy long after the others.
+ * The map tasks of such a job partition with {@link
+ * org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.HotKeyPartitioner},
+ * which spreads the tuples of the keys it finds hot over several reducers.
+ * <p>
+ * A reducer then sees part of the tuples of a hot key only, so it runs the
+ * combine plan in place of the reduce plan, and stores the intermediate
+ * results. A new MROper follows, which loads them, rearranges them on the
+ * key the way the combine plan does, combines them and runs the original
+ * reduce plan with the final functions. Its input is about a tuple per key
+ * and reducer, which is usually little next to the input of the group.
+ */
+public class HotKeySplitter extends MROpPlanVisitor {
+
+    private static final Log log = LogFactory.getLog(HotKeySplitter.class);
+
+    private final List<MapReduceOper> opsToSplit = new ArrayList<MapReduceOper>();
+    private final PigContext pigContext;
+    private final NodeIdGenerator nig;
+    private final String scope;
+
+    public HotKeySplitter(MROperPlan plan, PigContext pigContext) {
+        super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
+        this.pigContext = pigContext;
+        nig = NodeIdGenerator.getGenerator();
+        List<MapReduceOper> roots = plan.getRoots();
+        scope = roots.get(0).getOperatorKey().getScope();
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        if (canSplit(mr)) {
+            opsToSplit.add(mr);
+        }
+    }
+
+    /**
+     * @return whether the job is a group by whose reduce plan the combine
+     * plan can stand in for, and whose partitioner can be replaced
+     */
+    private boolean canSplit(MapReduceOper mr) {
+        if (mr.reducePlan.isEmpty() || mr.combinePlan.isEmpty()
+                || mr.isGlobalSort() || mr.isLimitAfterSort() || mr.isSkewedJoin()
+                || mr.getUseSecondaryKey() || mr.customPartitioner != null
+                || mr.limit != -1 || mr.limitPlan != null || mr.requestedParallelism == 1
+                || mr.isRankOperation() || mr.isCounterOperation() || !mr.scalars.isEmpty()) {
+            return false;
+        }
+        List<PhysicalOperator> mapLeaves = mr.mapPlan.getLeaves();
+        if (mapLeaves.size() != 1 || !(mapLeaves.get(0) instanceof POLocalRearrange)) {
+            return false;
+        }
+        List<PhysicalOperator> reduceRoots = mr.reducePlan.getRoots();
+        List<PhysicalOperator> reduceLeaves = mr.reducePlan.getLeaves();
+        if (reduceRoots.size() != 1 || !(reduceRoots.get(0) instanceof POCombinerPackage)
+                || reduceLeaves.size() != 1 || !(reduceLeaves.get(0) instanceof POStore)) {
+            return false;
+        }
+        // the combine plan is a package, the foreach with the intermediate
+        // functions and the rearrange
+        List<PhysicalOperator> combineRoots = mr.combinePlan.getRoots();
+        List<PhysicalOperator> combineLeaves = mr.combinePlan.getLeaves();
+        if (mr.combinePlan.size() != 3 || combineRoots.size() != 1
+                || !(combineRoots.get(0) instanceof POCombinerPackage)
+                || combineLeaves.size() != 1 || !(combineLeaves.get(0) instanceof POLocalRearrange)) {
+            return false;
+        }
+        List<PhysicalOperator> succs = mr.combinePlan.getSuccessors(combineRoots.get(0));
+        return succs != null && succs.size() == 1 && succs.get(0) instanceof POForEach;
+    }
+
+    public void adjust() throws IOException, PlanException {
+        for (MapReduceOper mr : opsToSplit) {
+            log.info("Splitting the hot keys of " + mr.getOperatorKey()
+                    + " and merging their partial results in a follow-up job");
+            FileSpec fSpec = new FileSpec(FileLocalizer.getTemporaryPath(pigContext).toString(),
+                    new FuncSpec(Utils.getTmpFileCompressorName(pigContext)));
+
+            // the reducers of the job compute what the combiner does, and
+            // store it
+            PhysicalPlan partialPlan;
+            PhysicalPlan mergeCombinePlan;
+            POLocalRearrange lr;
+            try {
+                partialPlan = mr.combinePlan.clone();
+                mergeCombinePlan = mr.combinePlan.clone();
+                lr = ((POLocalRearrange) mr.combinePlan.getLeaves().get(0)).clone();
+            } catch (CloneNotSupportedException e) {
+                int errCode = 2276;
+                String msg = "Error cloning the combine plan to split hot keys";
+                throw new MRCompilerException(msg, errCode, PigException.BUG, e);
+            }
+            partialPlan.remove(partialPlan.getLeaves().get(0));
+            POStore partialStore = new POStore(new OperatorKey(scope, nig.getNextNodeId(scope)));
+            partialStore.setSFile(fSpec);
+            partialStore.setIsTmpStore(true);
+            partialPlan.addAsLeaf(partialStore);
+
+            // the merge job rearranges the partial results as the combine
+            // plan does, and finishes them with the reduce plan
+            MapReduceOper mergeOp = new MapReduceOper(new OperatorKey(scope, nig.getNextNodeId(scope)));
+            POLoad ld = new POLoad(new OperatorKey(scope, nig.getNextNodeId(scope)));
+            ld.setPc(pigContext);
+            ld.setLFile(fSpec);
+            ld.setIsTmpLoad(true);
+            mergeOp.mapPlan.add(ld);
+            mergeOp.mapPlan.addAsLeaf(lr);
+            mergeOp.combinePlan = mergeCombinePlan;
+            mergeOp.reducePlan = mr.reducePlan;
+            mergeOp.requestedParallelism = mr.requestedParallelism;
+            mergeOp.UDFs.addAll(mr.UDFs);
+            mergeOp.setMapDone(true);
+            mergeOp.setReduceDone(mr.isReduceDone());
+            if (mr.isGroupBy()) {
+                mergeOp.markGroupBy();
+            }
+            // the merge job stores what the job stored, so any splittees
+            // follow it
+            mergeOp.setSplitter(mr.isSplitter());
+
+            mr.reducePlan = partialPlan;
+            mr.setReduceDone(true);
+            mr.setSplitter(false);
+            mr.setSplitHotKeys(true);
+
+            List<MapReduceOper> successors = mPlan.getSuccessors(mr);
+            MapReduceOper[] succs = successors == null ? new MapReduceOper[0]
+                    : successors.toArray(new MapReduceOper[successors.size()]);
+            mPlan.add(mergeOp);
+            for (MapReduceOper succ : succs) {
+                mPlan.disconnect(mr, succ);
+                mPlan.connect(mergeOp, succ);
+            }
+            mPlan.connect(mr, mergeOp);
+        }
+    }
+}
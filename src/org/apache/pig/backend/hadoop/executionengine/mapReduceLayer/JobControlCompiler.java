@@ -28,6 +28,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -44,6 +45,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -67,6 +70,8 @@ import org.apache.pig.StoreFuncInterface;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.HDataType;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.FRJoinIndexPartitioner;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.HotKeyPartitioner;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.SecondaryKeyPartitioner;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.SkewedPartitioner;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.WeightedRangePartitioner;
@@ -78,6 +83,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlan
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
@@ -87,13 +93,21 @@ import org.apache.pig.backend.hadoop.executionengine.shims.HadoopShims;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.InternalMap;
+import org.apache.pig.data.NonSpillableDataBag;
 import org.apache.pig.data.SchemaTupleFrontend;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.PigImplConstants;
+import org.apache.pig.impl.builtin.FindQuantiles;
+import org.apache.pig.impl.builtin.PartitionSkewedKeys;
+import org.apache.pig.impl.builtin.QuantileSketch;
+import org.apache.pig.impl.builtin.SkewedKeySketch;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.io.InterStorage;
 import org.apache.pig.impl.io.NullableBigDecimalWritable;
 import org.apache.pig.impl.io.NullableBigIntegerWritable;
 import org.apache.pig.impl.io.NullableBooleanWritable;
@@ -103,6 +117,7 @@ import org.apache.pig.impl.io.NullableDoubleWritable;
 import org.apache.pig.impl.io.NullableFloatWritable;
 import org.apache.pig.impl.io.NullableIntWritable;
 import org.apache.pig.impl.io.NullableLongWritable;
+import org.apache.pig.impl.io.NullableNormalizedKey;
 import org.apache.pig.impl.io.NullablePartitionWritable;
 import org.apache.pig.impl.io.NullableText;
 import org.apache.pig.impl.io.NullableTuple;
@@ -156,6 +171,10 @@ public class JobControlCompiler{
 
     public static final String LOG_DIR = "_logs";
 
+    // quantiles computed from the sort key sketches, hidden from loads of
+    // the sort input it is written next to
+    private static final String QUANTILES_FILE_NAME = "_quantiles";
+
     public static final String END_OF_INP_IN_MAP = "pig.invoke.close.in.map";
 
     private static final String REDUCER_ESTIMATOR_KEY = "pig.exec.reducer.estimator";
@@ -186,6 +205,10 @@ public class JobControlCompiler{
     private Map<Job, MapReduceOper> jobMroMap;
     private int counterSize;
 
+    // chooses the intermediate file codec of each job, with
+    // pig.tmpfilecompression.codec set to auto
+    private TmpFileCodecSelector codecSelector;
+
     public JobControlCompiler(PigContext pigContext, Configuration conf) {
         this(pigContext, conf, null);
     }
@@ -216,9 +239,24 @@ public class JobControlCompiler{
     public void reset() {
         jobStoreMap = new HashMap<Job, Pair<List<POStore>, Path>>();
         jobMroMap = new HashMap<Job, MapReduceOper>();
+        if (codecSelector != null) {
+            codecSelector.reset();
+        }
         UDFContext.getUDFContext().reset();
     }
 
+    private TmpFileCodecSelector getCodecSelector() {
+        if (pigContext == null || !Utils.TEMPFILE_CODEC_AUTO.equals(pigContext.getProperties()
+                .getProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC))
+                || Utils.getTmpFileStorageClass(pigContext.getProperties()) == InterStorage.class) {
+            return null;
+        }
+        if (codecSelector == null) {
+            codecSelector = new TmpFileCodecSelector(pigContext.getProperties());
+        }
+        return codecSelector;
+    }
+
     /**
      * Gets the map of Job and the MR Operator
      */
@@ -354,6 +392,14 @@ public class JobControlCompiler{
                 MapReduceOper mro = jobMroMap.get(job);
                 if (!pigContext.inIllustrator && mro.isCounterOperation())
                     saveCounters(job,mro.getOperationID());
+                if (getCodecSelector() != null) {
+                    try {
+                        codecSelector.jobSucceeded(plan, mro, HadoopShims.getCounters(job));
+                    } catch (Exception e) {
+                        log.warn("Unable to get the counters of " + job.getAssignedJobID()
+                                + " to choose the codec of the jobs after it", e);
+                    }
+                }
                 plan.remove(mro);
             }
         }
@@ -667,7 +713,14 @@ public class JobControlCompiler{
 
             // tmp file compression setups
             // PIG-3741 This must be done before setStoreLocation on POStores
-            Utils.setTmpFileCompressionOnConf(pigContext, conf);
+            if (getCodecSelector() != null) {
+                long inputBytes = InputSizeReducerEstimator.getTotalInputFileSize(conf, lds, nwJob);
+                String codec = codecSelector.selectCodec(mro, inputBytes);
+                codecSelector.setMapOutputCompression(conf, mro, inputBytes);
+                Utils.setTmpFileCompressionOnConf(pigContext, conf, codec);
+            } else {
+                Utils.setTmpFileCompressionOnConf(pigContext, conf);
+            }
 
             //Process POStore and remove it from the plan
             LinkedList<POStore> mapStores = PlanHelper.getPhysicalOperators(mro.mapPlan, POStore.class);
@@ -806,6 +859,10 @@ public class JobControlCompiler{
 
                 if (mro.customPartitioner != null)
                     nwJob.setPartitionerClass(PigContext.resolveClassName(mro.customPartitioner));
+                else if (mro.isSplitHotKeys())
+                    nwJob.setPartitionerClass(HotKeyPartitioner.class);
+                else if (mro.isIndexReplicatedInput())
+                    nwJob.setPartitionerClass(FRJoinIndexPartitioner.class);
 
                 if(!pigContext.inIllustrator)
                     conf.set("pig.mapPlan", ObjectSerializer.serialize(mro.mapPlan));
@@ -849,8 +906,13 @@ public class JobControlCompiler{
                 // Only set the quantiles file and sort partitioner if we're a
                 // global sort, not for limit after sort.
                 if (mro.isGlobalSort()) {
+                    String quantFile = mro.getQuantFile();
+                    if (mro.getQuantSketchDir() != null) {
+                        quantFile = writeSketchedQuantilesFile(mro, nwJob.getNumReduceTasks(), conf);
+                        conf.setBoolean(MapRedUtil.SKETCHED_QUANTILES_FILE, true);
+                    }
                     String symlink = addSingleFileToDistributedCache(
-                            pigContext, conf, mro.getQuantFile(), "pigsample");
+                            pigContext, conf, quantFile, "pigsample");
                     conf.set("pig.quantilesFile", symlink);
                     nwJob.setPartitionerClass(WeightedRangePartitioner.class);
                 }
@@ -878,10 +940,21 @@ public class JobControlCompiler{
                 } else {
                     conf.set("pig.sortOrder",
                             ObjectSerializer.serialize(mro.getSortOrder()));
+                    if (conf.getBoolean(PigConfiguration.PIG_SHUFFLE_NORMALIZED_KEYS, false)
+                            && canNormalizeKeys(mro, conf)) {
+                        log.info("Shuffling normalized keys for the sort in " + mro.getOperatorKey());
+                        nwJob.setMapperClass(PigMapReduce.MapWithNormalizedKey.class);
+                        nwJob.setMapOutputKeyClass(NullableNormalizedKey.class);
+                        nwJob.setSortComparatorClass(PigNormalizedKeyComparator.class);
+                    }
                 }
             }
 
             if (mro.isSkewedJoin()) {
+                if (mro.getSkewedJoinSketchDir() != null) {
+                    writeSketchedKeyDistFile(mro, nwJob.getNumReduceTasks(), conf);
+                    conf.setBoolean(MapRedUtil.SKETCHED_KEY_DIST_FILE, true);
+                }
                 String symlink = addSingleFileToDistributedCache(pigContext,
                         conf, mro.getSkewedJoinPartitionFile(), "pigdistkey");
                 conf.set("pig.keyDistFile", symlink);
@@ -961,6 +1034,158 @@ public class JobControlCompiler{
         }
     }
 
+    /**
+     * Merge the sort key sketches the tasks storing the input of a sort wrote
+     * next to their output, find the quantiles of the sort in them as the
+     * sampling job would have in its samples, and write them to a file the
+     * partitioners of the sort read.
+     * @return the quantiles file
+     */
+    private String writeSketchedQuantilesFile(MapReduceOper mro, int numQuantiles,
+            Configuration conf) throws IOException {
+        boolean[] asc = mro.getSortOrder();
+        Comparator<Tuple> comparator = QuantileSketch.getSortComparator(asc);
+        int size = conf.getInt(PigConfiguration.PIG_SORT_SKETCH_SIZE, 1024);
+        QuantileSketch merged = new QuantileSketch(comparator, size);
+
+        Path dir = new Path(mro.getQuantSketchDir());
+        FileSystem fs = dir.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(
+                new Path(dir, QuantileSketch.SKETCH_FILE_PREFIX + "-*"));
+        if (files == null || files.length == 0) {
+            // an empty input has no task to sketch it, anything else lost
+            // its sketches and would be sorted by a single reducer
+            if (MapRedUtil.getPathLength(fs, fs.getFileStatus(dir)) > 0) {
+                throw new IOException("No sort key sketches found in " + dir
+                        + " for a non empty sort input. Run the script with "
+                        + PigConfiguration.PIG_SORT_SKETCH + "=false to sample it.");
+            }
+            log.info("No sort key sketches found in empty sort input " + dir);
+        } else {
+            for (FileStatus file : files) {
+                QuantileSketch sketch = new QuantileSketch(comparator, size);
+                FSDataInputStream in = fs.open(file.getPath());
+                try {
+                    sketch.readFields(in);
+                } finally {
+                    in.close();
+                }
+                merged.merge(sketch);
+            }
+            log.info("Merged " + files.length + " sort key sketches of "
+                    + merged.getCount() + " keys in " + dir);
+        }
+
+        Map<String, Object> quantiles;
+        if (merged.getCount() == 0 || numQuantiles <= 1) {
+            // everything goes to the first partition
+            quantiles = new HashMap<String, Object>();
+            quantiles.put(FindQuantiles.QUANTILES_LIST, new NonSpillableDataBag());
+            quantiles.put(FindQuantiles.WEIGHTED_PARTS, new InternalMap());
+        } else {
+            // sample more keys than the sketch keeps for many partitions, so
+            // that every partition has enough of them to pick its quantile from
+            int numSamples = (int) Math.min(merged.getCount(),
+                    Math.max(merged.getNumRetained(), 100L * numQuantiles));
+            FindQuantiles findQuantiles = QuantileSketch.getFindQuantiles(asc);
+            Tuple input = TupleFactory.getInstance().newTuple(2);
+            input.set(0, numQuantiles);
+            input.set(1, new NonSpillableDataBag(merged.getSortedSamples(numSamples)));
+            quantiles = findQuantiles.exec(input);
+        }
+
+        Path quantFile = new Path(dir, QUANTILES_FILE_NAME);
+        FSDataOutputStream out = fs.create(quantFile, true);
+        try {
+            InterSedesFactory.getInterSedesInstance().writeDatum(out, quantiles);
+        } finally {
+            out.close();
+        }
+        return quantFile.toString();
+    }
+
+    /**
+     * Merge the join key sketches the tasks storing the first input of a
+     * skewed join wrote next to their output, and write the reducers of the
+     * hot keys to the partition file of the join, in place of a sampling job.
+     */
+    private void writeSketchedKeyDistFile(MapReduceOper mro, int numReducers,
+            Configuration conf) throws IOException {
+        int size = conf.getInt(PigConfiguration.PIG_SKEWEDJOIN_SKETCH_SIZE, 1024);
+        SkewedKeySketch merged = new SkewedKeySketch(size);
+
+        Path dir = new Path(mro.getSkewedJoinSketchDir());
+        FileSystem fs = dir.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(
+                new Path(dir, SkewedKeySketch.SKETCH_FILE_PREFIX + "-*"));
+        if (files == null || files.length == 0) {
+            log.warn("No join key sketches found in " + dir
+                    + ", the join will not spread any key");
+        } else {
+            for (FileStatus file : files) {
+                SkewedKeySketch sketch = new SkewedKeySketch(size);
+                FSDataInputStream in = fs.open(file.getPath());
+                try {
+                    sketch.readFields(in);
+                } finally {
+                    in.close();
+                }
+                merged.merge(sketch);
+            }
+            log.info("Merged " + files.length + " join key sketches of "
+                    + merged.getCount() + " keys in " + dir);
+        }
+
+        String per = pigContext.getProperties().getProperty("pig.skewedjoin.reduce.memusage",
+                String.valueOf(PartitionSkewedKeys.DEFAULT_PERCENT_MEMUSAGE));
+        String mc = pigContext.getProperties().getProperty("pig.skewedjoin.reduce.maxtuple", "0");
+        PartitionSkewedKeys partitioner = new PartitionSkewedKeys(
+                new String[] {per, mc, dir.toString()});
+        Map<String, Object> distMap = partitioner.exec(Math.max(1, numReducers), merged,
+                getReducerHeapSize(conf));
+
+        Path distFile = new Path(mro.getSkewedJoinPartitionFile());
+        FSDataOutputStream out = distFile.getFileSystem(conf).create(distFile, true);
+        try {
+            InterSedesFactory.getInterSedesInstance().writeDatum(out, distMap);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final Pattern XMX_PATTERN = Pattern.compile("-Xmx(\\d+)([kKmMgG]?)");
+
+    /**
+     * @return the maximum heap size of the reducers, from the -Xmx option of
+     * their java opts, or the heap size of the client if there is none
+     */
+    static long getReducerHeapSize(Configuration conf) {
+        String opts = conf.get("mapred.reduce.child.java.opts");
+        if (opts == null) {
+            opts = conf.get("mapred.child.java.opts");
+        }
+        if (opts != null) {
+            Matcher matcher = XMX_PATTERN.matcher(opts);
+            long heap = -1;
+            // the last -Xmx option wins
+            while (matcher.find()) {
+                heap = Long.parseLong(matcher.group(1));
+                String unit = matcher.group(2).toLowerCase();
+                if (unit.equals("k")) {
+                    heap <<= 10;
+                } else if (unit.equals("m")) {
+                    heap <<= 20;
+                } else if (unit.equals("g")) {
+                    heap <<= 30;
+                }
+            }
+            if (heap > 0) {
+                return heap;
+            }
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
     /**
      * Adjust the number of reducers based on the default_parallel, requested parallel and estimated
      * parallel. For sampler jobs, we also adjust the next job in advance to get its runtime parallel as
@@ -1281,6 +1506,47 @@ public class JobControlCompiler{
         }
     }
 
+    /**
+     * Whether the keys of a sort job can be shuffled as
+     * {@link NullableNormalizedKey}s. Each column of the key has to be of a
+     * type that can be normalized, and the keys have to reach the reducers
+     * as the plain map of the job writes them.
+     */
+    private boolean canNormalizeKeys(MapReduceOper mro, Configuration conf) {
+        if (pigContext.inIllustrator || mro.getUseSecondaryKey() || mro.isSkewedJoin()
+                || mro.isCounterOperation() || mro.customPartitioner != null
+                || conf.get("pig.combinePlan") != null || mro.needsDistinctCombiner()) {
+            return false;
+        }
+        List<PhysicalOperator> leaves = mro.mapPlan.getLeaves();
+        if (leaves == null || leaves.size() != 1
+                || !(leaves.get(0) instanceof POLocalRearrange)) {
+            return false;
+        }
+        for (PhysicalPlan plan : ((POLocalRearrange)leaves.get(0)).getPlans()) {
+            List<PhysicalOperator> planLeaves = plan.getLeaves();
+            if (planLeaves == null || planLeaves.size() != 1) {
+                return false;
+            }
+            // a bytearray can hold values of any type, bags and maps included
+            switch (planLeaves.get(0).getResultType()) {
+            case DataType.BOOLEAN:
+            case DataType.INTEGER:
+            case DataType.LONG:
+            case DataType.FLOAT:
+            case DataType.DOUBLE:
+            case DataType.DATETIME:
+            case DataType.CHARARRAY:
+            case DataType.BIGINTEGER:
+            case DataType.BIGDECIMAL:
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void selectComparator(
             MapReduceOper mro,
             byte keyType,
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Sketches a key of the tuples a {@link POStore} writes, for the job which
+ * reads the output next. When the store is done the sketch is written to the
+ * work directory of the task, so it is committed along with the output of
+ * the task and not at all if the task fails.
+ */
+public abstract class KeySketcher {
+
+    private static final Log log = LogFactory.getLog(KeySketcher.class);
+
+    private static final TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    private final List<PhysicalPlan> plans;
+    private final String filePrefix;
+    private final TaskAttemptContext context;
+    private final OutputCommitter committer;
+
+    /**
+     * @param store the store
+     * @param plans the plans of the key columns
+     * @param filePrefix the name prefix of the sketch file
+     * @param context the context of the task, with the output location of the
+     * store set
+     */
+    protected KeySketcher(POStore store, List<PhysicalPlan> plans, String filePrefix,
+            TaskAttemptContext context) throws IOException {
+        this.plans = plans;
+        this.filePrefix = filePrefix;
+        this.context = context;
+        try {
+            this.committer = store.getStoreFunc().getOutputFormat().getOutputCommitter(context);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the sketcher of the key the store sketches, or null if it
+     * sketches none
+     */
+    public static KeySketcher create(POStore store, TaskAttemptContext context)
+            throws IOException {
+        if (store.getSortKeyPlans() != null) {
+            return new SortKeySketcher(store, context);
+        }
+        if (store.getJoinKeyPlans() != null) {
+            return new JoinKeySketcher(store, context);
+        }
+        return null;
+    }
+
+    /**
+     * Add the key of a stored tuple to the sketch.
+     */
+    public void add(Tuple t) throws ExecException {
+        Tuple key = mTupleFactory.newTuple(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            PhysicalPlan plan = plans.get(i);
+            plan.attachInput(t);
+            ExpressionOperator op = (ExpressionOperator) plan.getLeaves().get(0);
+            Result res = op.getNext(op.getResultType());
+            if (res.returnStatus != POStatus.STATUS_OK) {
+                return;
+            }
+            key.set(i, res.result);
+        }
+        add(key, t);
+    }
+
+    /**
+     * Add a key to the sketch.
+     * @param key the key, a tuple of the key columns
+     * @param t the stored tuple
+     */
+    protected abstract void add(Tuple key, Tuple t);
+
+    /**
+     * Write the sketch.
+     */
+    protected abstract void write(DataOutput out) throws IOException;
+
+    /**
+     * Write the sketch next to the output of the task.
+     */
+    public void close() throws IOException {
+        if (!(committer instanceof FileOutputCommitter)) {
+            log.warn("Cannot write the key sketch with "
+                    + committer.getClass().getName());
+            return;
+        }
+        Path file = new Path(((FileOutputCommitter) committer).getWorkPath(),
+                FileOutputFormat.getUniqueFile(context, filePrefix, ""));
+        FileSystem fs = file.getFileSystem(context.getConfiguration());
+        FSDataOutputStream out = fs.create(file, false);
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
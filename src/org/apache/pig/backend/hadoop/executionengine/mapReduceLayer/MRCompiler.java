@@ -94,6 +94,7 @@ import org.apache.pig.impl.builtin.GetMemNumRows;
 import org.apache.pig.impl.builtin.PartitionSkewedKeys;
 import org.apache.pig.impl.builtin.PoissonSampleLoader;
 import org.apache.pig.impl.builtin.RandomSampleLoader;
+import org.apache.pig.impl.io.FRJoinIndexStorage;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.plan.CompilationMessageCollector;
@@ -1161,6 +1162,7 @@ public class MRCompiler extends PhyPlanVisitor {
                 Configuration conf = 
                     ConfigurationUtil.toConfiguration(pigContext.getProperties());
                 boolean combinable = !conf.getBoolean("pig.noSplitCombination", false);
+                boolean index = conf.getBoolean(PigConfiguration.PIG_JOIN_REPLICATED_INDEX, false);
                 
                 if (!mro.isMapDone()) {   
                     if (combinable && hasTooManyInputFiles(mro, conf)) { 
@@ -1170,11 +1172,11 @@ public class MRCompiler extends PhyPlanVisitor {
                         mro.mapPlan.addAsLeaf(tmpSto);
                         mro.setMapDoneSingle(true);                    
                         MapReduceOper catMROp = getConcatenateJob(fSpec, mro, str); 
-                        MRPlan.connect(catMROp, curMROp);
+                        connectReplicate(op, i, catMROp, index);
                     } else {
                         mro.mapPlan.addAsLeaf(str);
                         mro.setMapDoneSingle(true); 
-                        MRPlan.connect(mro, curMROp);
+                        connectReplicate(op, i, mro, index);
                     }
                 } else if (mro.isMapDone() && !mro.isReduceDone()) {
                     if (combinable && (mro.requestedParallelism >= fileConcatenationThreshold)) {
@@ -1184,11 +1186,11 @@ public class MRCompiler extends PhyPlanVisitor {
                         mro.reducePlan.addAsLeaf(tmpSto);
                         mro.setReduceDone(true);
                         MapReduceOper catMROp = getConcatenateJob(fSpec, mro, str); 
-                        MRPlan.connect(catMROp, curMROp);
+                        connectReplicate(op, i, catMROp, index);
                     } else {
                         mro.reducePlan.addAsLeaf(str);
                         mro.setReduceDone(true);
-                        MRPlan.connect(mro, curMROp);
+                        connectReplicate(op, i, mro, index);
                     }
                 } else {
                     int errCode = 2022;
@@ -1299,6 +1301,52 @@ public class MRCompiler extends PhyPlanVisitor {
         return ret ? true : (numFiles >= fileConcatenationThreshold);
     }
     
+    /**
+     * Connects the job which writes replicated input i of a FR join to the
+     * job running the join. If asked to, and the join keys can be compared
+     * serialized, a job is put in between which writes the input as an index
+     * for POFRJoin to memory map, and the join reads that index instead.
+     */
+    private void connectReplicate(POFRJoin op, int i, MapReduceOper producer,
+            boolean index) throws PlanException, IOException,
+            CloneNotSupportedException {
+        if (!index || !op.canIndex(i)) {
+            MRPlan.connect(producer, curMROp);
+            return;
+        }
+        FileSpec[] replFiles = op.getReplFiles();
+        MapReduceOper idxMROp = startNew(replFiles[i], producer);
+        POLocalRearrange lr = op.getLRs()[i].clone();
+        lr.setIndex(0);
+        idxMROp.mapPlan.addAsLeaf(lr);
+        idxMROp.setMapDone(true);
+        MapReduceOper joinMROp = curMROp;
+        curMROp = idxMROp;
+        for (PhysicalPlan plan : lr.getPlans()) {
+            processUDFs(plan);
+        }
+        curMROp = joinMROp;
+
+        POPackage pkg = new POPackage(new OperatorKey(scope,nig.getNextNodeId(scope)));
+        pkg.setKeyType(lr.getKeyType());
+        pkg.setNumInps(1);
+        boolean[] inner = {false};
+        pkg.setInner(inner);
+        idxMROp.reducePlan.add(pkg);
+
+        FileSpec indexFile = new FileSpec(FileLocalizer.getTemporaryPath(pigContext).toString(),
+                new FuncSpec(FRJoinIndexStorage.class.getName()));
+        POStore st = getStore();
+        st.setSFile(indexFile);
+        idxMROp.reducePlan.addAsLeaf(st);
+        idxMROp.setReduceDone(true);
+        // each reducer writes one part of the index
+        idxMROp.setIndexReplicatedInput(true);
+        MRPlan.connect(idxMROp, curMROp);
+        replFiles[i] = indexFile;
+        LOG.info("Insert a job to index replicated input " + i + " of " + op.getOperatorKey());
+    }
+
     /*
      * Use Mult File Combiner to concatenate small input files
      */
@@ -1819,17 +1867,26 @@ public class MRCompiler extends PhyPlanVisitor {
 			FileSpec partitionFile = getTempFileSpec();
 			int rp = op.getRequestedParallelism();
 			
-			Pair<MapReduceOper, Integer> sampleJobPair = getSkewedJoinSampleJob(op, mro, fSpec, partitionFile, rp);            
-			rp = sampleJobPair.second;
-			
-			// set parallelism of SkewedJoin as the value calculated by sampling job
-			// if "parallel" is specified in join statement, "rp" is equal to that number
-			// if not specified, use the value that sampling process calculated
-			// based on default.
-			op.setRequestedParallelism(rp);
+			MapReduceOper joinPred;
+			boolean sketched = sketchJoinKeys(op, mro, str);
+			if (sketched) {
+			    // the job computes its dist file from the sketches of the
+			    // store at submission, and its parallelism as any other job
+			    joinPred = mro;
+			} else {
+			    Pair<MapReduceOper, Integer> sampleJobPair = getSkewedJoinSampleJob(op, mro, fSpec, partitionFile, rp);
+			    rp = sampleJobPair.second;
+			    joinPred = sampleJobPair.first;
+
+			    // set parallelism of SkewedJoin as the value calculated by sampling job
+			    // if "parallel" is specified in join statement, "rp" is equal to that number
+			    // if not specified, use the value that sampling process calculated
+			    // based on default.
+			    op.setRequestedParallelism(rp);
+			}
 						
 			// load the temp file for first table as input of join            
-			MapReduceOper[] joinInputs = new MapReduceOper[] {startNew(fSpec, sampleJobPair.first), compiledInputs[1]};            
+			MapReduceOper[] joinInputs = new MapReduceOper[] {startNew(fSpec, joinPred), compiledInputs[1]};            
 			MapReduceOper[] rearrangeOutputs = new MapReduceOper[2];                       
 			
 			compiledInputs = new MapReduceOper[] {joinInputs[0]};
@@ -1943,6 +2000,9 @@ public class MRCompiler extends PhyPlanVisitor {
 			fe.visit(this);
 			
 			curMROp.setSkewedJoinPartitionFile(partitionFile.getFileName());
+			if (sketched) {
+			    curMROp.setSkewedJoinSketchDir(fSpec.getFileName());
+			}
 			phyToMROpMap.put(op, curMROp);
         }catch(PlanException e) {
             int errCode = 2034;
@@ -1961,13 +2021,18 @@ public class MRCompiler extends PhyPlanVisitor {
         try{
             FileSpec fSpec = getTempFileSpec();
             MapReduceOper mro = endSingleInputPlanWithStr(fSpec);
-            FileSpec quantFile = getTempFileSpec();
             int rp = op.getRequestedParallelism();
             Pair<POProject, Byte>[] fields = getSortCols(op.getSortPlans());
-            Pair<MapReduceOper, Integer> quantJobParallelismPair = 
-                getQuantileJob(op, mro, fSpec, quantFile, rp);
-            curMROp = getSortJob(op, quantJobParallelismPair.first, fSpec, quantFile, 
-                    quantJobParallelismPair.second, fields);
+            if (sketchSortKeys(op, mro, fSpec, fields)) {
+                curMROp = getSortJob(op, mro, fSpec, null, rp, fields);
+                curMROp.setQuantSketchDir(fSpec.getFileName());
+            } else {
+                FileSpec quantFile = getTempFileSpec();
+                Pair<MapReduceOper, Integer> quantJobParallelismPair =
+                    getQuantileJob(op, mro, fSpec, quantFile, rp);
+                curMROp = getSortJob(op, quantJobParallelismPair.first, fSpec, quantFile,
+                        quantJobParallelismPair.second, fields);
+            }
             
             if(op.isUDFComparatorUsed){
                 curMROp.UDFs.add(op.getMSortFunc().getFuncSpec().toString());
@@ -2069,7 +2134,9 @@ public class MRCompiler extends PhyPlanVisitor {
             int rp,
             Pair<POProject, Byte>[] fields) throws PlanException{
         MapReduceOper mro = startNew(lFile, quantJob);
-        mro.setQuantFile(quantFile.getFileName());
+        if (quantFile != null) {
+            mro.setQuantFile(quantFile.getFileName());
+        }
         mro.setGlobalSort(true);
         mro.requestedParallelism = rp;
 
@@ -2224,6 +2291,112 @@ public class MRCompiler extends PhyPlanVisitor {
         return mro;
     }
 
+    /**
+     * Have the store of the sort input sketch the quantiles of the sort key,
+     * if pig.sort.sketch is set, so that the sort needs no sampling job.
+     * Sorts with a UDF comparator or on expressions are still sampled, and
+     * so is a sort of a loaded file, which the sampling job then reads in
+     * place of a copy of it (see SampleOptimizer).
+     * @return true if the store sketches the sort key
+     */
+    private boolean sketchSortKeys(POSort sort, MapReduceOper prevJob, FileSpec lFile,
+            Pair<POProject, Byte>[] fields) throws PlanException {
+        if (!Boolean.valueOf(pigContext.getProperties().getProperty(
+                PigConfiguration.PIG_SORT_SKETCH, "false"))
+                || pigContext.inIllustrator || sort.isUDFComparatorUsed) {
+            return false;
+        }
+        List<MapReduceOper> preds = MRPlan.getPredecessors(prevJob);
+        if ((preds == null || preds.isEmpty()) && prevJob.reducePlan.isEmpty()
+                && prevJob.mapPlan.size() == 2) {
+            return false;
+        }
+
+        List<PhysicalPlan> keyPlans = new ArrayList<PhysicalPlan>();
+        if (fields == null) {
+            PhysicalPlan ep = new PhysicalPlan();
+            POProject prj = new POProject(new OperatorKey(scope,
+                nig.getNextNodeId(scope)));
+            prj.setStar(true);
+            prj.setOverloaded(false);
+            prj.setResultType(DataType.TUPLE);
+            ep.add(prj);
+            keyPlans.add(ep);
+        } else {
+            for (Pair<POProject, Byte> field : fields) {
+                if (field.first == null || field.first.isProjectToEnd()) {
+                    return false;
+                }
+                PhysicalPlan ep = new PhysicalPlan();
+                try {
+                    ep.add(field.first.clone());
+                } catch (CloneNotSupportedException e) {
+                    //should not get here
+                    throw new AssertionError(
+                            "Error cloning project caught exception" + e
+                    );
+                }
+                keyPlans.add(ep);
+            }
+        }
+
+        List<Boolean> ascCols = sort.getMAscCols();
+        boolean[] asc = new boolean[ascCols.size()];
+        for (int i = 0; i < asc.length; i++) {
+            asc[i] = ascCols.get(i);
+        }
+        int size = Integer.parseInt(pigContext.getProperties().getProperty(
+                PigConfiguration.PIG_SORT_SKETCH_SIZE, "1024"));
+
+        // endSingleInputPlanWithStr added the store as a leaf of either plan
+        List<PhysicalOperator> leaves = new ArrayList<PhysicalOperator>(prevJob.mapPlan.getLeaves());
+        leaves.addAll(prevJob.reducePlan.getLeaves());
+        for (PhysicalOperator leaf : leaves) {
+            if (leaf instanceof POStore && ((POStore) leaf).getSFile() == lFile) {
+                ((POStore) leaf).setSortKeySketch(keyPlans, asc, size);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Have the store of the first input of a skewed join sketch the frequent
+     * join keys, if pig.skewedjoin.sketch is set, so that the join needs no
+     * sampling job. A join of a loaded file is still sampled, as the sampling
+     * job then reads it in place of a copy of it (see SampleOptimizer).
+     * @return true if the store sketches the join key
+     */
+    private boolean sketchJoinKeys(POSkewedJoin join, MapReduceOper prevJob, POStore str)
+            throws PlanException {
+        if (!Boolean.valueOf(pigContext.getProperties().getProperty(
+                PigConfiguration.PIG_SKEWEDJOIN_SKETCH, "false"))
+                || pigContext.inIllustrator) {
+            return false;
+        }
+        List<MapReduceOper> preds = MRPlan.getPredecessors(prevJob);
+        if ((preds == null || preds.isEmpty()) && prevJob.reducePlan.isEmpty()
+                && prevJob.mapPlan.size() == 2) {
+            return false;
+        }
+
+        List<PhysicalOperator> l = plan.getPredecessors(join);
+        List<PhysicalPlan> keyPlans = new ArrayList<PhysicalPlan>();
+        for (PhysicalPlan groupPlan : join.getJoinPlans().get(l.get(0))) {
+            try {
+                keyPlans.add(groupPlan.clone());
+            } catch (CloneNotSupportedException e) {
+                int errCode = 2127;
+                String msg = "Cloning exception caught while compiling skewed join";
+                throw new PlanException(msg, errCode, PigException.BUG, e);
+            }
+        }
+        int size = Integer.parseInt(pigContext.getProperties().getProperty(
+                PigConfiguration.PIG_SKEWEDJOIN_SKETCH_SIZE, "1024"));
+        str.setJoinKeySketch(keyPlans, size);
+        return true;
+    }
+
     private Pair<MapReduceOper,Integer> getQuantileJob(
             POSort inpSort,
             MapReduceOper prevJob,
@@ -63,6 +63,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.backend.hadoop.executionengine.shims.HadoopShims;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.ColumnarInterStorage;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.plan.CompilationMessageCollector;
@@ -646,6 +647,15 @@ public class MapReduceLauncher extends Launcher{
             co.visit();
             //display the warning message(s) from the CombinerOptimizer
             co.getMessageCollector().logMessages(MessageType.Warning, aggregateWarning, log);
+
+            // spread the hot keys of the group by jobs the combiner
+            // computes, before other optimizers add or merge jobs
+            if (Boolean.valueOf(pc.getProperties().getProperty(
+                    PigConfiguration.PIG_GROUPBY_HOTKEYS, "false"))) {
+                HotKeySplitter hks = new HotKeySplitter(plan, pc);
+                hks.visit();
+                hks.adjust();
+            }
         }
 
         // Optimize the jobs that have a load/store only first MR job followed
@@ -702,6 +712,32 @@ public class MapReduceLauncher extends Launcher{
         NoopStoreRemover sRem = new NoopStoreRemover(plan);
         sRem.visit();
 
+        // only read the projected columns of columnar intermediate files,
+        // before the foreach operators of map plans are batched
+        if (!pc.inIllustrator && Utils.getTmpFileStorageClass(pc.getProperties())
+                == ColumnarInterStorage.class) {
+            ColumnarLoadPruner clp = new ColumnarLoadPruner(plan);
+            clp.visit();
+        }
+
+        // fold the partial results of builtin algebraic functions straight
+        // from the serialized values in the reducers
+        boolean isRawAlgebraic = Boolean.parseBoolean(pc.getProperties().getProperty(
+                PigConfiguration.PIG_EXEC_RAW_ALGEBRAIC, "false"));
+        if (!pc.inIllustrator && isRawAlgebraic) {
+            AlgebraicPackageOptimizer apo = new AlgebraicPackageOptimizer(plan);
+            apo.visit();
+        }
+
+        // evaluate simple filters and foreach operators of map plans in
+        // batches, before the EndOfAllInputSetter which has to know of them
+        int batchSize = Integer.parseInt(pc.getProperties().getProperty(
+                PigConfiguration.PIG_EXEC_BATCH_SIZE, "0"));
+        if (!pc.inIllustrator && batchSize > 0) {
+            BatchModeOptimizer bmo = new BatchModeOptimizer(plan, batchSize);
+            bmo.visit();
+        }
+
         // check whether stream operator is present
         // after MultiQueryOptimizer because it can shift streams from
         // map to reduce, etc.
@@ -711,9 +747,20 @@ public class MapReduceLauncher extends Launcher{
         boolean isAccum =
                 "true".equalsIgnoreCase(pc.getProperties().getProperty("opt.accumulator","true"));
         if (isAccum) {
-            AccumulatorOptimizer accum = new AccumulatorOptimizer(plan);
+            boolean isHybrid = Boolean.parseBoolean(pc.getProperties().getProperty(
+                    PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID, "false"));
+            AccumulatorOptimizer accum = new AccumulatorOptimizer(plan, isHybrid);
             accum.visit();
         }
+
+        // after AccumulatorOptimizer, since accumulative foreach operators
+        // run their plans with the operators
+        boolean isCodegen = "true".equalsIgnoreCase(
+                pc.getProperties().getProperty(PigConfiguration.PIG_EXEC_CODEGEN, "false"));
+        if (!pc.inIllustrator && isCodegen) {
+            ExpressionCodegenOptimizer codegen = new ExpressionCodegenOptimizer(plan);
+            codegen.visit();
+        }
         return plan;
     }
 
@@ -98,9 +98,21 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
     
     // If true, we will use secondary key in the map-reduce job
     boolean useSecondaryKey = false;
+
+    // If true, map tasks spread the tuples of hot keys over several reducers,
+    // and the successor of this MROper merges the partial results
+    boolean splitHotKeys = false;
+
+    // If true, this MROper writes a replicated join input as an index, one
+    // part per reducer, and must be partitioned like the index is read
+    boolean indexReplicatedInput = false;
     
     //The quantiles file name if globalSort is true
     String quantFile;
+
+    //The directory with the sort key sketches if globalSort is true
+    //and the input wasn't sampled
+    String quantSketchDir;
     
     //The sort order of the columns;
     //asc is true and desc is false
@@ -148,6 +160,10 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
     // Name of the partition file generated by sampling process,
     // Used by Skewed Join
 	private String skewedJoinPartitionFile;
+
+	// The directory with the join key sketches if this is a skewed join
+	// and its first input wasn't sampled
+	private String skewedJoinSketchDir;
 	
 	// Flag to communicate from MRCompiler to JobControlCompiler what kind of
 	// comparator is used by Hadoop for sorting for this MROper. 
@@ -315,6 +331,14 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
     	return skewedJoinPartitionFile;
     }
 
+    public String getSkewedJoinSketchDir() {
+        return skewedJoinSketchDir;
+    }
+
+    public void setSkewedJoinSketchDir(String skewedJoinSketchDir) {
+        this.skewedJoinSketchDir = skewedJoinSketchDir;
+    }
+
 	public void setSkewedJoin(boolean skJoin) {
 		this.skewedJoin = skJoin;
 	}
@@ -399,6 +423,14 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
         this.quantFile = quantFile;
     }
 
+    public String getQuantSketchDir() {
+        return quantSketchDir;
+    }
+
+    public void setQuantSketchDir(String quantSketchDir) {
+        this.quantSketchDir = quantSketchDir;
+    }
+
     public void setSortOrder(boolean[] sortOrder) {
         if(null == sortOrder) return;
         this.sortOrder = new boolean[sortOrder.length];
@@ -475,6 +507,22 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
         this.useSecondaryKey = useSecondaryKey;
     }
 
+    public boolean isSplitHotKeys() {
+        return splitHotKeys;
+    }
+
+    public void setSplitHotKeys(boolean splitHotKeys) {
+        this.splitHotKeys = splitHotKeys;
+    }
+
+    public boolean isIndexReplicatedInput() {
+        return indexReplicatedInput;
+    }
+
+    public void setIndexReplicatedInput(boolean indexReplicatedInput) {
+        this.indexReplicatedInput = indexReplicatedInput;
+    }
+
     protected boolean usingTypedComparator() {
         return usingTypedComparator;
     }
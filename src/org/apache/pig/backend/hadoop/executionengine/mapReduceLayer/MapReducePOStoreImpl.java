@@ -115,6 +115,15 @@ public class MapReducePOStoreImpl extends POStoreImpl {
         }
     }
     
+    /**
+     * Create the sketcher of the key a store sketches, once the store func is
+     * created.
+     * @return the sketcher, or null if the store sketches no key
+     */
+    public KeySketcher createKeySketcher(POStore store) throws IOException {
+        return KeySketcher.create(store, context);
+    }
+
     public Counter createRecordCounter(POStore store) {
         String name = MRPigStatsUtil.getMultiStoreCounterName(store);
         return (name == null) ? null : reporter.getCounter(
@@ -120,6 +120,16 @@ class MultiQueryOptimizer extends MROpPlanVisitor {
                         + " uses customPartitioner, do not merge it");
                 continue;
             }
+            if (successor.isSplitHotKeys()) {
+                log.debug("Splittee " + successor.getOperatorKey().getId()
+                        + " splits hot keys, do not merge it");
+                continue;
+            }
+            if (successor.isIndexReplicatedInput()) {
+                log.debug("Splittee " + successor.getOperatorKey().getId()
+                        + " indexes a replicated input, do not merge it");
+                continue;
+            }
             if (isMapOnly(successor)) {
                 if (isSingleLoadMapperPlan(successor.mapPlan)
                         && isSinglePredecessor(successor)) {                    
@@ -169,12 +169,13 @@ class NoopStoreRemover extends MROpPlanVisitor {
                     if (op instanceof POStore) {
                         POStore store = (POStore)op;
 
-                        if (store.isTmpStore()) { 
+                        if (store.isTmpStore() && !store.isSketched()) {
                             // tmp store means introduced by the
                             // MRCompiler. User didn't ask for
                             // those. There can be at most one per
                             // split. (Though there can be nested
-                            // splits.)
+                            // splits.) A tmp store which sketches
+                            // the key of the sort reading it stays.
                             tmpStore = plan;
                             sFile = store.getSFile();
                         } else if (store.getInputSpec() != null) {
@@ -47,9 +47,12 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelp
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
+import org.apache.pig.data.OffHeapPagePool;
 import org.apache.pig.data.SchemaTupleBackend;
+import org.apache.pig.data.SpillFiles;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.NullableNormalizedKey;
 import org.apache.pig.impl.io.NullablePartitionWritable;
 import org.apache.pig.impl.io.NullableTuple;
 import org.apache.pig.impl.io.PigNullableWritable;
@@ -160,6 +163,41 @@ public class PigGenericMapReduce {
         }
     }
 
+    /**
+     * This "specialized" map class is used by order by jobs which shuffle
+     * their keys as {@link NullableNormalizedKey}s, that the sort compares
+     * as bytes.
+     */
+    public static class MapWithNormalizedKey extends Map {
+
+        private boolean[] sortOrder;
+
+        @Override
+        public void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            sortOrder = (boolean[])ObjectSerializer.deserialize(
+                    context.getConfiguration().get("pig.sortOrder"));
+            if (sortOrder == null) {
+                sortOrder = new boolean[] { true };
+            }
+        }
+
+        @Override
+        public void collect(Context oc, Tuple tuple)
+                throws InterruptedException, IOException {
+
+            Byte index = (Byte)tuple.get(0);
+            PigNullableWritable key =
+                HDataType.getWritableComparableTypes(tuple.get(1), keyType);
+            NullableTuple val = new NullableTuple((Tuple)tuple.get(2));
+
+            key.setIndex(index);
+            val.setIndex(index);
+
+            oc.write(new NullableNormalizedKey(key, sortOrder), val);
+        }
+    }
+
     /**
      * Used by Skewed Join
      */
@@ -307,6 +345,8 @@ public class PigGenericMapReduce {
                 pack = getPack(context);
             Configuration jConf = context.getConfiguration();
             SpillableMemoryManager.configure(ConfigurationUtil.toProperties(jConf));
+            OffHeapPagePool.configure(ConfigurationUtil.toProperties(jConf));
+            SpillFiles.configure(ConfigurationUtil.toProperties(jConf));
             sJobContext = context;
             sJobConfInternal.set(context.getConfiguration());
             sJobConf = context.getConfiguration();
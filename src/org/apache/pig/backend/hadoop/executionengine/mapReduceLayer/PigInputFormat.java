@@ -36,11 +36,15 @@ import org.apache.pig.CollectableLoadFunc;
 import org.apache.pig.FuncSpec;
 import org.apache.pig.IndexableLoadFunc;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
 import org.apache.pig.OrderedLoadFunc;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigException;
+import org.apache.pig.ResourceStatistics;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.shims.HadoopShims;
+import org.apache.pig.backend.hadoop.executionengine.util.LocalitySplitCombiner;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
@@ -206,7 +210,14 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
             throw new ExecException(msg, errCode, PigException.BUG, e);
         }
 
-        ArrayList<InputSplit> splits = new ArrayList<InputSplit>();
+        // the splits of the inputs are combined once the size of all of them
+        // is known, so that they can be combined into a number of maps
+        List<List<InputSplit>> inputSplits = new ArrayList<List<InputSplit>>();
+        List<Long> blockSizes = new ArrayList<Long>();
+        List<Boolean> combinables = new ArrayList<Boolean>();
+        List<Configuration> inputConfs = new ArrayList<Configuration>();
+        boolean localityCombination = conf.getBoolean(
+                PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, false);
         for (int i = 0; i < inputs.size(); i++) {
             try {
                 Path path = new Path(inputs.get(i).getFileName());
@@ -261,21 +272,41 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
                 List<InputSplit> oneInputSplits = inpFormat.getSplits(
                         HadoopShims.createJobContext(inputSpecificJob.getConfiguration(), 
                                 jobcontext.getJobID()));
+                if (combinable && localityCombination) {
+                    long inputLength = 0;
+                    for (InputSplit split : oneInputSplits) {
+                        inputLength += split.getLength();
+                    }
+                    setBytesPerRecord(loadFunc, inputs.get(i).getFileName(),
+                            inputSpecificJob, inputLength, confClone);
+                }
+                inputSplits.add(oneInputSplits);
+                blockSizes.add(HadoopShims.getDefaultBlockSize(fs, isFsPath? path: fs.getWorkingDirectory()));
+                combinables.add(combinable);
+                inputConfs.add(confClone);
+            } catch (ExecException ee) {
+                throw ee;
+            } catch (Exception e) {
+                throw splitsFailed(inputs.get(i).getFileName(), e);
+            }
+        }
+
+        int targetMappers = localityCombination ? conf.getInt(
+                PigConfiguration.PIG_SPLIT_COMBINATION_TARGET_MAPPERS, 0) : 0;
+        if (targetMappers > 0) {
+            setTargetSplitSize(inputSplits, combinables, inputConfs, targetMappers);
+        }
+        ArrayList<InputSplit> splits = new ArrayList<InputSplit>();
+        for (int i = 0; i < inputs.size(); i++) {
+            try {
                 List<InputSplit> oneInputPigSplits = getPigSplits(
-                        oneInputSplits, i, inpTargets.get(i),
-                        HadoopShims.getDefaultBlockSize(fs, isFsPath? path: fs.getWorkingDirectory()),
-                        combinable, confClone);
+                        inputSplits.get(i), i, inpTargets.get(i), blockSizes.get(i),
+                        combinables.get(i), inputConfs.get(i));
                 splits.addAll(oneInputPigSplits);
             } catch (ExecException ee) {
                 throw ee;
             } catch (Exception e) {
-                int errCode = 2118;
-                String msg = "Unable to create input splits for: " + inputs.get(i).getFileName();
-                if(e.getMessage() !=null && (!e.getMessage().isEmpty()) ){
-                    throw new ExecException(e.getMessage(), errCode, PigException.BUG, e);
-                }else{
-                    throw new ExecException(msg, errCode, PigException.BUG, e);
-                }
+                throw splitsFailed(inputs.get(i).getFileName(), e);
             }
         }
 
@@ -301,6 +332,67 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
         return splits;
     }
 
+    private static ExecException splitsFailed(String fileName, Exception e) {
+        int errCode = 2118;
+        String msg = "Unable to create input splits for: " + fileName;
+        if(e.getMessage() !=null && (!e.getMessage().isEmpty()) ){
+            return new ExecException(e.getMessage(), errCode, PigException.BUG, e);
+        }else{
+            return new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * Pass the average size of the records of an input, from the statistics
+     * of its loader, to {@link LocalitySplitCombiner}.
+     */
+    private static void setBytesPerRecord(LoadFunc loadFunc, String location, Job job,
+            long inputLength, Configuration conf) {
+        if (!(loadFunc instanceof LoadMetadata)
+                || conf.getLong(PigConfiguration.PIG_MAX_COMBINED_SPLIT_RECORDS, 0) <= 0) {
+            return;
+        }
+        try {
+            ResourceStatistics stats = ((LoadMetadata) loadFunc).getStatistics(location, job);
+            if (stats == null || stats.getNumRecords() == null || stats.getNumRecords() <= 0) {
+                return;
+            }
+            long bytes = stats.getSizeInBytes() != null && stats.getSizeInBytes() > 0
+                    ? stats.getSizeInBytes() : inputLength;
+            conf.setFloat(LocalitySplitCombiner.BYTES_PER_RECORD,
+                    bytes / (float) stats.getNumRecords());
+        } catch (IOException e) {
+            log.warn("Unable to get the number of records of " + location, e);
+        }
+    }
+
+    /**
+     * Set the size the splits of the inputs are combined into, so that they
+     * make for targetMappers map tasks. Only the inputs whose splits are
+     * combined count, the others make for a map task per split anyway.
+     */
+    protected void setTargetSplitSize(List<List<InputSplit>> inputSplits,
+            List<Boolean> combinables, List<Configuration> inputConfs, int targetMappers)
+            throws IOException, InterruptedException {
+        long combinedLength = 0;
+        for (int i = 0; i < inputSplits.size(); i++) {
+            if (combinables.get(i)) {
+                for (InputSplit split : inputSplits.get(i)) {
+                    combinedLength += split.getLength();
+                }
+            }
+        }
+        if (combinedLength == 0) {
+            return;
+        }
+        long size = (combinedLength + targetMappers - 1) / targetMappers;
+        for (int i = 0; i < inputConfs.size(); i++) {
+            if (combinables.get(i)) {
+                inputConfs.get(i).setLong("pig.maxCombinedSplitSize", size);
+            }
+        }
+    }
+
     protected List<InputSplit> getPigSplits(List<InputSplit> oneInputSplits, 
             int inputIndex, ArrayList<OperatorKey> targetOps, long blockSize, boolean combinable, Configuration conf)
                     throws IOException, InterruptedException {
@@ -319,8 +411,14 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
             if (maxCombinedSplitSize== 0)
                 // default is the block size
                 maxCombinedSplitSize = blockSize;
-            List<List<InputSplit>> combinedSplits = 
-                    MapRedUtil.getCombinePigSplits(oneInputSplits, maxCombinedSplitSize, conf);
+            List<List<InputSplit>> combinedSplits;
+            if (conf.getBoolean(PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, false)) {
+                combinedSplits = new LocalitySplitCombiner(maxCombinedSplitSize, conf)
+                        .combine(oneInputSplits);
+            } else {
+                combinedSplits = MapRedUtil.getCombinePigSplits(
+                        oneInputSplits, maxCombinedSplitSize, conf);
+            }
             for (int i = 0; i < combinedSplits.size(); i++)
                 pigSplits.add(createPigSplit(combinedSplits.get(i), inputIndex, targetOps, i, conf));
             return pigSplits;
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.impl.io.NullableNormalizedKey;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.util.ObjectSerializer;
+
+/**
+ * Sort comparator of ORDER BY jobs which shuffle their keys as
+ * {@link NullableNormalizedKey}s. Keys compare as their bytes, whatever
+ * their type and sort order.
+ */
+public class PigNormalizedKeyComparator extends WritableComparator implements Configurable {
+
+    private final Log mLog = LogFactory.getLog(getClass());
+    private boolean[] mAsc;
+
+    public PigNormalizedKeyComparator() {
+        super(NullableNormalizedKey.class);
+    }
+
+    public void setConf(Configuration conf) {
+        if (!(conf instanceof JobConf)) {
+            mLog.warn("Expected jobconf in setConf, got " +
+                conf.getClass().getName());
+            return;
+        }
+        JobConf jconf = (JobConf)conf;
+        try {
+            mAsc = (boolean[])ObjectSerializer.deserialize(jconf.get(
+                "pig.sortOrder"));
+        } catch (IOException ioe) {
+            mLog.error("Unable to deserialize pig.sortOrder " +
+                ioe.getMessage());
+            throw new RuntimeException(ioe);
+        }
+        if (mAsc == null) {
+            mAsc = new boolean[1];
+            mAsc[0] = true;
+        }
+    }
+
+    public Configuration getConf() {
+        return null;
+    }
+
+    /**
+     * Normalize a key in the sort order of this job.
+     */
+    public NullableNormalizedKey normalize(PigNullableWritable key) {
+        if (key instanceof NullableNormalizedKey) {
+            return (NullableNormalizedKey)key;
+        }
+        return new NullableNormalizedKey(key, mAsc);
+    }
+
+    /**
+     * Compare two NullableNormalizedKeys as raw bytes, leaving out the index
+     * in their last byte.
+     */
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return compareBytes(b1, s1, l1 - 1, b2, s2, l2 - 1);
+    }
+
+    /**
+     * Compare two keys as their normalized bytes. Keys which are not
+     * normalized yet, such as the quantiles of the partitioner, are
+     * normalized first.
+     */
+    public int compare(Object o1, Object o2) {
+        try {
+            byte[] k1 = normalize((PigNullableWritable)o1).getNormalizedBytes();
+            byte[] k2 = normalize((PigNullableWritable)o2).getNormalizedBytes();
+            return compareBytes(k1, 0, k1.length, k2, 0, k2.length);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to normalize key", e);
+        }
+    }
+}
@@ -87,7 +87,9 @@ public class PigOutputFormat extends OutputFormat<WritableComparable, Tuple> {
             // to have the output location - now call checkOutputSpecs()
             RecordWriter writer = sFunc.getOutputFormat().getRecordWriter(
                     taskattemptcontext);
-            return new PigRecordWriter(writer, sFunc, Mode.SINGLE_STORE);
+            PigRecordWriter pigWriter = new PigRecordWriter(writer, sFunc, Mode.SINGLE_STORE);
+            pigWriter.setSketcher(KeySketcher.create(store, taskattemptcontext));
+            return pigWriter;
         } else {
            // multi store case - in this case, all writing is done through
            // MapReducePOStoreImpl - set up a dummy RecordWriter
@@ -117,6 +119,11 @@ public class PigOutputFormat extends OutputFormat<WritableComparable, Tuple> {
          * Single Query or multi query
          */
         private Mode mode;
+
+        /**
+         * Sketches a key of the written tuples, if they are sorted or joined next
+         */
+        private KeySketcher sketcher;
         
         public PigRecordWriter(RecordWriter wrappedWriter, StoreFuncInterface sFunc, 
                 Mode mode)
@@ -141,6 +148,9 @@ public class PigOutputFormat extends OutputFormat<WritableComparable, Tuple> {
                 throws IOException, InterruptedException {
             if(mode == Mode.SINGLE_STORE) {
                 sFunc.putNext(value);
+                if (sketcher != null) {
+                    sketcher.add(value);
+                }
             } else {
                 throw new IOException("Internal Error: Unexpected code path");
             }
@@ -151,9 +161,16 @@ public class PigOutputFormat extends OutputFormat<WritableComparable, Tuple> {
         IOException, InterruptedException {
             if(mode == Mode.SINGLE_STORE) {
                 wrappedWriter.close(taskattemptcontext);
+                if (sketcher != null) {
+                    sketcher.close();
+                }
             }
         }
 
+        void setSketcher(KeySketcher sketcher) {
+            this.sketcher = sketcher;
+        }
+
     }
     
     /**
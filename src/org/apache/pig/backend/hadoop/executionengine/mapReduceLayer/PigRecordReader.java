@@ -21,6 +21,9 @@ import static org.apache.pig.PigConfiguration.TIME_UDFS_PROP;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,10 +35,14 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigCounters;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
 import org.apache.pig.tools.pigstats.mapreduce.MRPigStatsUtil;
 import org.apache.pig.tools.pigstats.PigStatusReporter;
 
@@ -50,6 +57,11 @@ import org.apache.pig.tools.pigstats.PigStatusReporter;
  * respectively - so PigRecordReader will call underlying Loader's getNext() to
  * get the Tuple value - the key is null text since key is not used in input to
  * map() in Pig.
+ * <p>
+ * With {@link PigConfiguration#PIG_READ_PREFETCH} on, a background thread
+ * calls the loader, and moves on to the next wrapped split, while the
+ * records it already read are processed. It reads up to
+ * {@link PigConfiguration#PIG_READ_PREFETCH_DEPTH} records ahead.
  */
 public class PigRecordReader extends RecordReader<Text, Tuple> {
 
@@ -57,6 +69,7 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
 
     private final static String TIMING_COUNTER = "approx_microsecs";
     private final static int TIMING_FREQ = 100;
+    private final static int DEFAULT_PREFETCH_DEPTH = 1024;
 
     transient private String counterGroup = "";
     private boolean doTiming = false;
@@ -96,6 +109,12 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
     private final long limit;
 
     private long recordCount = 0;
+
+    // the number of records read ahead, 0 to read them synchronously
+    private final int prefetchDepth;
+
+    // the thread reading ahead, started by the first nextKeyValue() call
+    private Prefetcher prefetcher = null;
     
     /**
      * the Configuration object with data specific to the input the underlying
@@ -123,10 +142,21 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
         initNextRecordReader();
         counterGroup = loadFunc.toString();
         doTiming = context.getConfiguration().getBoolean(TIME_UDFS_PROP, false);
+        if (context.getConfiguration().getBoolean(PigConfiguration.PIG_READ_PREFETCH, false)) {
+            prefetchDepth = Math.max(1, context.getConfiguration().getInt(
+                    PigConfiguration.PIG_READ_PREFETCH_DEPTH, DEFAULT_PREFETCH_DEPTH));
+        } else {
+            prefetchDepth = 0;
+        }
     }
     
     @Override
     public void close() throws IOException {
+        // the prefetcher is done with the wrapped reader once it is stopped
+        if (prefetcher != null) {
+            prefetcher.stop();
+            prefetcher = null;
+        }
         if (curReader != null) {
             curReader.close();
             curReader = null;
@@ -163,6 +193,13 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
+        if (prefetcher != null) {
+            return prefetcher.readProgress;
+        }
+        return computeProgress();
+    }
+
+    private float computeProgress() throws IOException, InterruptedException {
         long subprogress = 0;    // bytes processed in current split
         if (null != curReader) {
             // idx is always one past the current subsplit's true index.
@@ -208,10 +245,16 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
         if (timeThis) {
             startNanos = System.nanoTime();
         }
-        while ((curReader == null) || (curValue = loadfunc.getNext()) == null) {
-            if (!initNextRecordReader()) {
-              return false;
+        if (prefetchDepth > 0) {
+            if (prefetcher == null) {
+                prefetcher = new Prefetcher(prefetchDepth);
             }
+            curValue = prefetcher.next();
+        } else {
+            curValue = readNext();
+        }
+        if (curValue == null) {
+            return false;
         }
         if (timeThis) {
             PigStatusReporter.getInstance().getCounter(counterGroup, TIMING_COUNTER).increment(
@@ -221,6 +264,21 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
         return true;
     }
 
+    /**
+     * Read the next record from the wrapped readers, moving on to the next
+     * one at the end of each.
+     * @return the record, or null at the end of the last wrapped reader
+     */
+    private Tuple readNext() throws IOException, InterruptedException {
+        Tuple t;
+        while ((curReader == null) || (t = loadfunc.getNext()) == null) {
+            if (!initNextRecordReader()) {
+                return null;
+            }
+        }
+        return t;
+    }
+
     @SuppressWarnings("unchecked")
     private static String getMultiInputsCounerName(PigSplit pigSplit,
             Configuration conf) throws IOException {
@@ -269,4 +327,143 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
         idx++;
         return true;
     }
+
+    /**
+     * Reads the records in a background thread into a bounded buffer. Only
+     * this thread uses the loader and the wrapped readers until it is
+     * stopped.
+     */
+    private class Prefetcher implements Runnable {
+
+        // the end of the records, or the failure of the thread
+        private final Tuple end = TupleFactory.getInstance().newTuple(0);
+
+        private final BlockingQueue<Tuple> buffer;
+        private final Thread thread;
+        private final UDFContext udfContext = UDFContext.getUDFContext();
+        private final Configuration jobConf = PigMapReduce.sJobConfInternal.get();
+
+        private volatile boolean stopped = false;
+        private volatile Throwable failure = null;
+        private volatile float readProgress = 0.0f;
+        private boolean done = false;
+
+        private long hits = 0;
+        private long stalls = 0;
+        private long stallNanos = 0;
+        private long buffered = 0;
+
+        Prefetcher(int depth) {
+            buffer = new ArrayBlockingQueue<Tuple>(depth);
+            thread = new Thread(this, "Pig record prefetcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            // loaders and input formats look up the UDFContext and the job
+            // conf of the task in thread locals
+            UDFContext.setUdfContext(udfContext);
+            PigMapReduce.sJobConfInternal.set(jobConf);
+            try {
+                long count = 0;
+                while (!stopped && (limit == -1 || count < limit)) {
+                    Tuple t = readNext();
+                    if (t == null) {
+                        break;
+                    }
+                    buffer.put(t);
+                    if (++count % TIMING_FREQ == 0) {
+                        readProgress = computeProgress();
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            } catch (Throwable t) {
+                failure = t;
+            }
+            readProgress = 1.0f;
+            try {
+                while (!stopped && !buffer.offer(end, 100, TimeUnit.MILLISECONDS)) {
+                    // wait for the pipeline to take records
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+
+        /**
+         * @return the next record, or null after the last one
+         */
+        Tuple next() throws IOException, InterruptedException {
+            if (done) {
+                return null;
+            }
+            int depth = buffer.size();
+            Tuple t = buffer.poll();
+            if (t != null) {
+                hits++;
+                buffered += depth;
+            } else {
+                stalls++;
+                long start = System.nanoTime();
+                t = buffer.take();
+                stallNanos += System.nanoTime() - start;
+            }
+            if (t != end) {
+                return t;
+            }
+            done = true;
+            reportCounters();
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IOException("Failed to read ahead the input records", failure);
+            }
+            return null;
+        }
+
+        /**
+         * Stop reading ahead, and wait for the thread to be done with the
+         * loader.
+         */
+        void stop() {
+            stopped = true;
+            while (thread.isAlive()) {
+                // make room for the record the thread may be waiting to add
+                buffer.clear();
+                try {
+                    thread.join(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (!done) {
+                done = true;
+                reportCounters();
+            }
+        }
+
+        private void reportCounters() {
+            incrCounter(PigCounters.PREFETCH_HITS, hits);
+            incrCounter(PigCounters.PREFETCH_STALLS, stalls);
+            incrCounter(PigCounters.PREFETCH_STALL_TIME_MS, stallNanos / 1000000);
+            incrCounter(PigCounters.PREFETCH_BUFFERED_RECORDS, buffered);
+            LOG.info("Took " + hits + " records from the read-ahead buffer without waiting, "
+                    + stalls + " after waiting " + (stallNanos / 1000000) + " ms");
+        }
+
+        private void incrCounter(Enum<?> counter, long incr) {
+            PigStatusReporter reporter = PigStatusReporter.getInstance();
+            if (reporter != null && reporter.getCounter(counter) != null) {
+                reporter.getCounter(counter).increment(incr);
+            }
+        }
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.builtin.QuantileSketch;
+
+/**
+ * Sketches the sort key of the tuples a {@link POStore} writes, for an ORDER
+ * BY which reads the output without sampling it.
+ */
+public class SortKeySketcher extends KeySketcher {
+
+    private final QuantileSketch sketch;
+
+    /**
+     * @param store the store, with the sort key to sketch
+     * @param context the context of the task, with the output location of the
+     * store set
+     */
+    public SortKeySketcher(POStore store, TaskAttemptContext context) throws IOException {
+        super(store, store.getSortKeyPlans(), QuantileSketch.SKETCH_FILE_PREFIX, context);
+        this.sketch = new QuantileSketch(
+                QuantileSketch.getSortComparator(store.getSortKeyAsc()), store.getSketchSize());
+    }
+
+    @Override
+    protected void add(Tuple key, Tuple t) {
+        sketch.add(key);
+    }
+
+    @Override
+    protected void write(DataOutput out) throws IOException {
+        sketch.write(out);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.util.Utils;
+import org.apache.pig.tools.pigstats.mapreduce.MRPigStatsUtil;
+
+/**
+ * Chooses the codec of the intermediate files of each job when
+ * pig.tmpfilecompression.codec is "auto". Jobs with a small input do not
+ * compress them. Jobs which read the output of IO bound jobs, which used
+ * little CPU for the bytes they read and wrote, use gzip, since they can
+ * spend CPU to write less. Other jobs use a fast codec, lz4 or snappy, when
+ * hadoop has its native libraries, and also compress their map output with
+ * it.
+ */
+public class TmpFileCodecSelector {
+
+    private static final Log log = LogFactory.getLog(TmpFileCodecSelector.class);
+
+    static final String CPU_MILLISECONDS = "CPU_MILLISECONDS";
+    static final String FILE_BYTES_READ = "FILE_BYTES_READ";
+    static final String FILE_BYTES_WRITTEN = "FILE_BYTES_WRITTEN";
+
+    private static final String NONE = "none";
+    private static final String DENSE_CODEC = "gz";
+    private static final String[] FAST_CODECS = {"lz4", "snappy"};
+
+    private static final long MB = 1024 * 1024;
+
+    private final Properties properties;
+    private final long minBytes;
+    private final double cpuRatio;
+
+    // the largest CPU milliseconds per MB of IO of the jobs whose output an
+    // operator reads
+    private final Map<OperatorKey, Double> inputCpuRatios = new HashMap<OperatorKey, Double>();
+
+    public TmpFileCodecSelector(Properties properties) {
+        this.properties = properties;
+        this.minBytes = Long.parseLong(properties.getProperty(
+                PigConfiguration.PIG_TEMP_FILE_COMPRESSION_AUTO_MIN_BYTES,
+                String.valueOf(64 * MB)));
+        this.cpuRatio = Double.parseDouble(properties.getProperty(
+                PigConfiguration.PIG_TEMP_FILE_COMPRESSION_AUTO_CPU_RATIO, "200"));
+    }
+
+    /**
+     * Record the CPU and IO used by a job which succeeded, for the jobs which
+     * read its output.
+     * @param plan the plan, which still has the operator of the job
+     * @param mro the operator of the job
+     * @param counters the counters of the job
+     */
+    public void jobSucceeded(MROperPlan plan, MapReduceOper mro, Counters counters) {
+        double ratio = getCpuRatio(counters);
+        List<MapReduceOper> succs = plan.getSuccessors(mro);
+        if (ratio < 0 || succs == null) {
+            return;
+        }
+        for (MapReduceOper succ : succs) {
+            Double previous = inputCpuRatios.get(succ.getOperatorKey());
+            inputCpuRatios.put(succ.getOperatorKey(),
+                    previous == null ? ratio : Math.max(previous, ratio));
+        }
+    }
+
+    /**
+     * @return the CPU milliseconds per MB read and written by a job, or -1 if
+     * the counters do not have them
+     */
+    static double getCpuRatio(Counters counters) {
+        if (counters == null) {
+            return -1;
+        }
+        long cpu = counters.getGroup(MRPigStatsUtil.TASK_COUNTER_GROUP)
+                .getCounterForName(CPU_MILLISECONDS).getCounter();
+        Counters.Group fs = counters.getGroup(MRPigStatsUtil.FS_COUNTER_GROUP);
+        long bytes = fs.getCounterForName(MRPigStatsUtil.HDFS_BYTES_READ).getCounter()
+                + fs.getCounterForName(MRPigStatsUtil.HDFS_BYTES_WRITTEN).getCounter()
+                + fs.getCounterForName(FILE_BYTES_READ).getCounter()
+                + fs.getCounterForName(FILE_BYTES_WRITTEN).getCounter();
+        if (cpu <= 0 || bytes <= 0) {
+            return -1;
+        }
+        return cpu / ((double) bytes / MB);
+    }
+
+    /**
+     * Choose the codec of the intermediate files of a job.
+     * @param mro the operator of the job
+     * @param inputBytes the size of the input of the job, or -1 if unknown
+     * @return the name of the codec, none to not compress them
+     */
+    public String selectCodec(MapReduceOper mro, long inputBytes) {
+        String codec;
+        Double ratio = inputCpuRatios.get(mro.getOperatorKey());
+        if (inputBytes >= 0 && inputBytes < minBytes) {
+            codec = NONE;
+        } else if (ratio != null && ratio < cpuRatio
+                && Utils.isTmpFileCodecSupported(properties, DENSE_CODEC)) {
+            codec = DENSE_CODEC;
+        } else {
+            codec = getFastCodec();
+            if (codec == null) {
+                codec = NONE;
+            }
+        }
+        log.info("Using " + codec + " for the intermediate files of " + mro.getOperatorKey()
+                + " (input of " + inputBytes + " bytes"
+                + (ratio == null ? "" : ", " + Math.round(ratio) + " ms of CPU per MB of IO before it")
+                + ")");
+        return codec;
+    }
+
+    /**
+     * Compress the map output of jobs with a large input with a fast codec,
+     * unless it is already compressed.
+     * @param conf the configuration of the job
+     * @param mro the operator of the job
+     * @param inputBytes the size of the input of the job, or -1 if unknown
+     */
+    public void setMapOutputCompression(Configuration conf, MapReduceOper mro, long inputBytes) {
+        if (mro.reducePlan.isEmpty() || inputBytes < minBytes
+                || conf.getBoolean("mapred.compress.map.output", false)) {
+            return;
+        }
+        String codec = getFastCodec();
+        if (codec != null) {
+            conf.setBoolean("mapred.compress.map.output", true);
+            conf.set("mapred.map.output.compression.codec", Utils.getTmpFileCodecClassName(codec));
+        }
+    }
+
+    /**
+     * @return the first fast codec which the intermediate storage supports
+     * and hadoop can run, or null if there is none
+     */
+    private String getFastCodec() {
+        if (!NativeCodeLoader.isNativeCodeLoaded()) {
+            return null;
+        }
+        for (String codec : FAST_CODECS) {
+            if (Utils.isTmpFileCodecSupported(properties, codec)
+                    && Utils.isCompressionCodecClass(Utils.getTmpFileCodecClassName(codec))) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the jobs recorded so far
+     */
+    public void reset() {
+        inputCpuRatios.clear();
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
 
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.impl.plan.PlanWalker;
@@ -36,4 +37,10 @@ public class UDFFinishVisitor extends PhyPlanVisitor {
         userFunc.finish();
     }
 
+    @Override
+    public void visitFRJoin(POFRJoin join) throws VisitorException {
+        super.visitFRJoin(join);
+        join.finish();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.WritableByteArray;
+import org.apache.pig.impl.io.FRJoinIndexStorage;
+import org.apache.pig.impl.io.PigNullableWritable;
+
+/**
+ * Partitions the keys of the job which indexes a replicated input of a
+ * fragment replicate join. A key goes to the reducer writing the part of the
+ * index POFRJoin looks it up in, which depends on the hash of the key
+ * serialized by {@link InterSedes}, see
+ * {@link FRJoinIndexStorage#partition(int, int)}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class FRJoinIndexPartitioner extends Partitioner<PigNullableWritable, Writable> {
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final WritableByteArray buf = new WritableByteArray(64);
+    private final DataOutputStream out = new DataOutputStream(buf);
+
+    @Override
+    public int getPartition(PigNullableWritable key, Writable value, int numPartitions) {
+        // null keys are not indexed
+        if (numPartitions == 1 || key.isNull()) {
+            return 0;
+        }
+        buf.reset();
+        try {
+            sedes.writeDatum(out, key.getValueAsPigType());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to serialize join key", e);
+        }
+        int h = FRJoinIndexStorage.hash(buf.getData(), buf.getLength());
+        return FRJoinIndexStorage.partition(h, numPartitions);
+    }
+}
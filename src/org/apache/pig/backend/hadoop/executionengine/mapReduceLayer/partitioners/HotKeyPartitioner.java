@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigCounters;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.impl.builtin.SpaceSavingSketch;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * Partitions the keys of a GROUP BY by hash, except for the hot keys, whose
+ * tuples are spread over several reducers starting at the one of the hash.
+ * A key is hot while it makes up a given fraction of the tuples the map task
+ * partitioned so far, which a {@link SpaceSavingSketch} keeps track of.
+ * <p>
+ * The reducers of a job partitioned this way may see part of the tuples of a
+ * key only, and so compute partial results which another job merges, see
+ * {@link org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.HotKeySplitter}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class HotKeyPartitioner extends HashPartitioner<PigNullableWritable, Writable>
+        implements Configurable {
+
+    public static final float DEFAULT_FRACTION = 0.01f;
+
+    public static final int DEFAULT_FANOUT = 8;
+
+    // no key is hot before the task partitioned this many tuples
+    private static final long MIN_TUPLES = 1000;
+
+    private Configuration conf;
+    private float fraction = DEFAULT_FRACTION;
+    private int fanout = DEFAULT_FANOUT;
+    private SpaceSavingSketch<PigNullableWritable> sketch;
+    private final Set<PigNullableWritable> hotKeys = new HashSet<PigNullableWritable>();
+    private final Random random = new Random();
+
+    @Override
+    public int getPartition(PigNullableWritable key, Writable value, int numPartitions) {
+        int partition = super.getPartition(key, value, numPartitions);
+        if (numPartitions == 1 || fanout < 2) {
+            return partition;
+        }
+        long count = sketch.add(key);
+        long tuples = sketch.getCount();
+        if (tuples < MIN_TUPLES || count < fraction * tuples) {
+            return partition;
+        }
+        if (hotKeys.add(key)) {
+            PigStatusReporter reporter = PigStatusReporter.getInstance();
+            if (reporter != null && reporter.getCounter(PigCounters.GROUPBY_HOT_KEYS) != null) {
+                reporter.getCounter(PigCounters.GROUPBY_HOT_KEYS).increment(1);
+            }
+        }
+        int spread = Math.min(fanout, numPartitions);
+        return (partition + random.nextInt(spread)) % numPartitions;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        fraction = conf.getFloat(PigConfiguration.PIG_GROUPBY_HOTKEYS_FRACTION, DEFAULT_FRACTION);
+        fanout = conf.getInt(PigConfiguration.PIG_GROUPBY_HOTKEYS_FANOUT, DEFAULT_FANOUT);
+        // the counters hold every key above the fraction, with an error of
+        // half the fraction at most
+        int capacity = (int) Math.min(100000, Math.ceil(2 / Math.max(fraction, 1e-5f)));
+        sketch = new SpaceSavingSketch<PigNullableWritable>(capacity);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
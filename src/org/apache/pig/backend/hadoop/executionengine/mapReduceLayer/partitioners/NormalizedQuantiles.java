@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.impl.io.NullableNormalizedKey;
+
+/**
+ * The quantiles of a range partitioner as normalized keys, see
+ * {@link NullableNormalizedKey}, which finds the partition of a normalized
+ * key by comparing bytes. The quantiles share a prefix, which is compared
+ * once. Like the first level of a trie, a table on the two bytes after the
+ * prefix then narrows the search down to the quantiles starting with the
+ * same two bytes as the key.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class NormalizedQuantiles {
+
+    // two bytes, each of which may be missing, make 257 * 257 digrams
+    private static final int NUM_DIGRAMS = 257 * 257;
+
+    private final byte[][] quantiles;
+    private final DiscreteProbabilitySampleGenerator[] weighted;
+    private final int prefixLength;
+
+    // the index of the first quantile with each digram after the prefix,
+    // or of the next larger digram
+    private final int[] start;
+
+    /**
+     * @param quantiles the normalized quantiles, in order
+     * @param weighted the generators of the quantiles which span several
+     * partitions, null for the others
+     */
+    public NormalizedQuantiles(byte[][] quantiles, DiscreteProbabilitySampleGenerator[] weighted) {
+        this.quantiles = quantiles;
+        this.weighted = weighted;
+
+        int prefix = quantiles.length == 0 ? 0 : quantiles[0].length;
+        for (int i = 1; i < quantiles.length; i++) {
+            prefix = Math.min(prefix, quantiles[i].length);
+            for (int j = 0; j < prefix; j++) {
+                if (quantiles[i][j] != quantiles[0][j]) {
+                    prefix = j;
+                    break;
+                }
+            }
+        }
+        prefixLength = prefix;
+
+        start = new int[NUM_DIGRAMS + 1];
+        int q = 0;
+        for (int d = 0; d <= NUM_DIGRAMS; d++) {
+            while (q < quantiles.length && digram(quantiles[q]) < d) {
+                q++;
+            }
+            start[d] = q;
+        }
+    }
+
+    /**
+     * @return the partition of a key, as WeightedRangePartitioner picks it
+     */
+    public int getPartition(byte[] key, int numPartitions) {
+        int i = upperBound(key);
+        if (i > 0 && weighted[i - 1] != null && compare(quantiles[i - 1], key) == 0) {
+            return weighted[i - 1].getNext();
+        }
+        return Math.min(i, numPartitions - 1);
+    }
+
+    /**
+     * @return the number of quantiles which are less than or equal to a key
+     */
+    int upperBound(byte[] key) {
+        if (quantiles.length == 0) {
+            return 0;
+        }
+        int c = WritableComparator.compareBytes(key, 0, Math.min(key.length, prefixLength),
+                quantiles[0], 0, prefixLength);
+        if (c != 0) {
+            return c < 0 ? 0 : quantiles.length;
+        }
+        int d = digram(key);
+        int lo = start[d];
+        int hi = start[d + 1];
+        // the quantiles before lo are less than the key, and the ones from
+        // hi on greater
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(quantiles[mid], key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int digram(byte[] b) {
+        return symbol(b, prefixLength) * 257 + symbol(b, prefixLength + 1);
+    }
+
+    // missing bytes sort first
+    private static int symbol(byte[] b, int i) {
+        return i < b.length ? (b[i] & 0xff) + 1 : 0;
+    }
+
+    private static int compare(byte[] b1, byte[] b2) {
+        return WritableComparator.compareBytes(b1, 0, b1.length, b2, 0, b2.length);
+    }
+}
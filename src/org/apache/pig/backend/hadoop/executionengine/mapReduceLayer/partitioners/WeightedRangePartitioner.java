@@ -28,14 +28,20 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.HDataType;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigNormalizedKeyComparator;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InterSedesFactory;
 import org.apache.pig.data.InternalMap;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
@@ -49,6 +55,7 @@ import org.apache.pig.impl.io.NullableDoubleWritable;
 import org.apache.pig.impl.io.NullableFloatWritable;
 import org.apache.pig.impl.io.NullableIntWritable;
 import org.apache.pig.impl.io.NullableLongWritable;
+import org.apache.pig.impl.io.NullableNormalizedKey;
 import org.apache.pig.impl.io.NullableText;
 import org.apache.pig.impl.io.NullableTuple;
 import org.apache.pig.impl.io.PigNullableWritable;
@@ -68,12 +75,33 @@ public class WeightedRangePartitioner extends Partitioner<PigNullableWritable, W
 
     Configuration job;
 
+    // the quantiles as bytes, if keys are looked up by their normalized bytes
+    NormalizedQuantiles normalizedQuantiles;
+    boolean[] sortOrder;
+
     @SuppressWarnings("unchecked")
     @Override
     public int getPartition(PigNullableWritable key, Writable value,
             int numPartitions){
         if (comparator == null) {
             comparator = (RawComparator<PigNullableWritable>)PigMapReduce.sJobContext.getSortComparator();
+            normalizedQuantiles = compileQuantiles();
+            if (comparator instanceof PigNormalizedKeyComparator) {
+                // normalize the quantiles once, rather than at every comparison
+                PigNormalizedKeyComparator nkc = (PigNormalizedKeyComparator)comparator;
+                PigNullableWritable[] normalized = new PigNullableWritable[quantiles.length];
+                for (int i = 0; i < quantiles.length; i++) {
+                    normalized[i] = nkc.normalize(quantiles[i]);
+                }
+                quantiles = normalized;
+            }
+        }
+
+        if (normalizedQuantiles != null) {
+            byte[] bytes = getNormalizedBytes(key);
+            if (bytes != null) {
+                return normalizedQuantiles.getPartition(bytes, numPartitions);
+            }
         }
 
         if(!weightedParts.containsKey(key)){
@@ -88,6 +116,56 @@ public class WeightedRangePartitioner extends Partitioner<PigNullableWritable, W
         return gen.getNext();
     }
 
+    /**
+     * Compile the quantiles into a lookup on normalized bytes, if the keys are
+     * shuffled normalized or are tuples, which compare slower than their
+     * bytes. Single column keys compare about as fast as they normalize.
+     * @return null if the keys are looked up with the sort comparator
+     */
+    private NormalizedQuantiles compileQuantiles() {
+        if (quantiles == null
+                || !job.getBoolean(PigConfiguration.PIG_PARTITION_NORMALIZED_KEYS, true)
+                || "true".equals(job.get("pig.usercomparator"))) {
+            return null;
+        }
+        if (!(comparator instanceof PigNormalizedKeyComparator)
+                && !(quantiles instanceof NullableTuple[])) {
+            return null;
+        }
+        try {
+            sortOrder = (boolean[])ObjectSerializer.deserialize(job.get("pig.sortOrder"));
+            if (sortOrder == null) {
+                sortOrder = new boolean[] { true };
+            }
+            byte[][] normalized = new byte[quantiles.length][];
+            DiscreteProbabilitySampleGenerator[] weighted =
+                new DiscreteProbabilitySampleGenerator[quantiles.length];
+            for (int i = 0; i < quantiles.length; i++) {
+                normalized[i] = NullableNormalizedKey.normalize(quantiles[i], sortOrder);
+                weighted[i] = weightedParts.get(quantiles[i]);
+            }
+            return new NormalizedQuantiles(normalized, weighted);
+        } catch (IOException e) {
+            log.info("Looking up partitions with the sort comparator: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the normalized bytes of a key, or null if it has a type which
+     * is not normalized
+     */
+    private byte[] getNormalizedBytes(PigNullableWritable key) {
+        try {
+            if (key instanceof NullableNormalizedKey) {
+                return ((NullableNormalizedKey)key).getNormalizedBytes();
+            }
+            return NullableNormalizedKey.normalize(key, sortOrder);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void setConf(Configuration configuration) {
@@ -107,6 +185,23 @@ public class WeightedRangePartitioner extends Partitioner<PigNullableWritable, W
                     + " used but no quantiles found");
         }
 
+        if (configuration.getBoolean(MapRedUtil.SKETCHED_QUANTILES_FILE, false)) {
+            // the client computed the quantiles from key sketches and wrote
+            // them as a single datum
+            try {
+                FSDataInputStream in = FileSystem.getLocal(configuration).open(new Path(quantilesFile));
+                try {
+                    setQuantiles((Map<String, Object>) InterSedesFactory.getInterSedesInstance()
+                            .readDatum(in));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
         try{
             // use local file system to get the quantilesFile
             Configuration conf;
@@ -128,22 +223,13 @@ public class WeightedRangePartitioner extends Partitioner<PigNullableWritable, W
 
             ReadToEndLoader loader = new ReadToEndLoader(Utils.getTmpFileStorageObject(conf),
                     conf, quantilesFile, 0);
-            DataBag quantilesList;
             Tuple t = loader.getNext();
             if (t != null) {
                 // the Quantiles file has a tuple as under:
                 // (numQuantiles, bag of samples)
                 // numQuantiles here is the reduce parallelism
                 Map<String, Object> quantileMap = (Map<String, Object>) t.get(0);
-                quantilesList = (DataBag) quantileMap.get(FindQuantiles.QUANTILES_LIST);
-                InternalMap weightedPartsData = (InternalMap) quantileMap.get(FindQuantiles.WEIGHTED_PARTS);
-                convertToArray(quantilesList);
-                for(Entry<Object, Object> ent : weightedPartsData.entrySet()){
-                    Tuple key = (Tuple)ent.getKey(); // sample item which repeats
-                    float[] probVec = getProbVec((Tuple)ent.getValue());
-                    weightedParts.put(getPigNullableWritable(key),
-                            new DiscreteProbabilitySampleGenerator(probVec));
-                }
+                setQuantiles(quantileMap);
             }
             // else - the quantiles file is empty - unless we have a bug, the
             // input must also be empty in which case we don't need to put
@@ -156,6 +242,18 @@ public class WeightedRangePartitioner extends Partitioner<PigNullableWritable, W
         }
     }
 
+    private void setQuantiles(Map<String, Object> quantileMap) throws ExecException {
+        DataBag quantilesList = (DataBag) quantileMap.get(FindQuantiles.QUANTILES_LIST);
+        InternalMap weightedPartsData = (InternalMap) quantileMap.get(FindQuantiles.WEIGHTED_PARTS);
+        convertToArray(quantilesList);
+        for(Entry<Object, Object> ent : weightedPartsData.entrySet()){
+            Tuple key = (Tuple)ent.getKey(); // sample item which repeats
+            float[] probVec = getProbVec((Tuple)ent.getValue());
+            weightedParts.put(getPigNullableWritable(key),
+                    new DiscreteProbabilitySampleGenerator(probVec));
+        }
+    }
+
     /**
      * @param value
      * @return
@@ -21,6 +21,8 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAgg;
@@ -101,6 +103,23 @@ public class EndOfAllInputSetter extends MROpPlanVisitor {
             endOfAllInputFlag = true;
         }
 
+        @Override
+        public void visitFilter(POFilter fl) throws VisitorException {
+            // batched filters flush their last batch at the end of input
+            if (fl.getBatchSize() > 0) {
+                endOfAllInputFlag = true;
+            }
+            super.visitFilter(fl);
+        }
+
+        @Override
+        public void visitPOForEach(POForEach nfe) throws VisitorException {
+            if (nfe.getBatchSize() > 0) {
+                endOfAllInputFlag = true;
+            }
+            super.visitPOForEach(nfe);
+        }
+
         /**
          * @return if end of all input is present
          */
@@ -0,0 +1,520 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.EqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GTOrEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LTOrEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LessThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Multiply;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.NotEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POIsNull;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONot;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Subtract;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.UnaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.SchemaTupleFrontend;
+
+/**
+ * Generates the Java source of a {@link GeneratedExpression} which
+ * evaluates a physical expression plan in a single method, and registers it
+ * with {@link SchemaTupleFrontend} to be compiled and shipped with the
+ * generated SchemaTuples. Only projections of single fields, constants,
+ * arithmetic, comparisons and boolean logic on booleans, numbers and
+ * chararrays are supported; plans with any other operator, such as a UDF
+ * or a cast, are left to be run by their operators.
+ */
+@InterfaceAudience.Private
+public class ExpressionClassGenerator {
+
+    private static final String CLASS_PREFIX = "PigGeneratedExpression_";
+
+    private static final AtomicInteger nextClassIdentifier = new AtomicInteger();
+
+    /**
+     * A value of the generated method: an expression which tells whether it
+     * is null and one for the value itself. Values of UNKNOWN type are the
+     * objects of the input tuple, which are passed on as they are.
+     */
+    private static class Value {
+        final String isNull;
+        final String value;
+        final byte type;
+
+        Value(String isNull, String value, byte type) {
+            this.isNull = isNull;
+            this.value = value;
+            this.type = type;
+        }
+    }
+
+    private final PhysicalPlan plan;
+    private final StringBuilder body = new StringBuilder();
+    // a field read twice in a plan is read out of the tuple once
+    private final Map<String, Value> columns = new HashMap<String, Value>();
+    private final List<Integer> typedColumns = new ArrayList<Integer>();
+    private final List<Byte> typedTypes = new ArrayList<Byte>();
+    private int minSize = 0;
+    private int nextLocal = 0;
+
+    private ExpressionClassGenerator(PhysicalPlan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Generate a class for a boolean plan, such as the plan of a filter.
+     * @return the name of the class, or null if the plan is not supported
+     */
+    public static String generatePredicate(PhysicalPlan plan) {
+        return register(plan, true);
+    }
+
+    /**
+     * Generate a class for a plan whose values are passed on as they are,
+     * such as the plan of a foreach output which is not flattened.
+     * @return the name of the class, or null if the plan is not supported
+     */
+    public static String generateValue(PhysicalPlan plan) {
+        return register(plan, false);
+    }
+
+    private static String register(PhysicalPlan plan, boolean predicate) {
+        String className = CLASS_PREFIX + nextClassIdentifier.getAndIncrement();
+        String source = generateSource(plan, predicate, className);
+        if (source == null) {
+            return null;
+        }
+        SchemaTupleFrontend.registerToCompile(className, source);
+        return className;
+    }
+
+    /**
+     * @return the source of the class, or null if the plan is not supported
+     */
+    static String generateSource(PhysicalPlan plan, boolean predicate, String className) {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        if (leaves == null || leaves.size() != 1) {
+            return null;
+        }
+        return new ExpressionClassGenerator(plan).generate(leaves.get(0), predicate, className);
+    }
+
+    private String generate(PhysicalOperator root, boolean predicate, String className) {
+        Value result = compile(root, !predicate);
+        if (result == null || (predicate && result.type != DataType.BOOLEAN)) {
+            return null;
+        }
+
+        StringBuilder src = new StringBuilder();
+        src.append("import org.apache.pig.backend.executionengine.ExecException;\n");
+        src.append("import ").append(GeneratedExpression.class.getName()).append(";\n");
+        src.append("import org.apache.pig.data.SchemaTuple;\n");
+        src.append("import org.apache.pig.data.Tuple;\n");
+        src.append("\n");
+        src.append("public class ").append(className).append(" extends GeneratedExpression {\n");
+        src.append("    public ").append(className).append("() {\n");
+        src.append("        super(new int[] {");
+        for (int i = 0; i < typedColumns.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append(typedColumns.get(i));
+        }
+        src.append("}, new byte[] {");
+        for (int i = 0; i < typedTypes.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append(typedTypes.get(i));
+        }
+        src.append("});\n");
+        src.append("    }\n");
+        src.append("\n");
+        src.append("    @Override\n");
+        src.append("    public Object evaluate(Tuple input) throws ExecException {\n");
+        if (minSize > 0) {
+            src.append("        if (input.size() < ").append(minSize).append(") {\n");
+            src.append("            return FALLBACK;\n");
+            src.append("        }\n");
+        }
+        if (!typedColumns.isEmpty()) {
+            src.append("        SchemaTuple<?> st = isTyped(input) ? (SchemaTuple<?>) input : null;\n");
+        }
+        src.append(body);
+        if (result.type == DataType.UNKNOWN || result.type == DataType.CHARARRAY) {
+            src.append("        return ").append(result.isNull).append(" ? null : ")
+                .append(result.value).append(";\n");
+        } else {
+            src.append("        return ").append(result.isNull).append(" ? null : ")
+                .append(boxedType(result.type)).append(".valueOf(").append(result.value).append(");\n");
+        }
+        src.append("    }\n");
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /**
+     * @param raw whether the value is only passed on or tested for null, so
+     * that projected fields need not be of their declared type
+     */
+    private Value compile(PhysicalOperator op, boolean raw) {
+        if (op instanceof POProject) {
+            return compileProject((POProject) op, raw);
+        } else if (op instanceof ConstantExpression) {
+            return compileConstant((ConstantExpression) op, raw);
+        } else if (op instanceof Add) {
+            return compileArithmetic("+", (BinaryExpressionOperator) op);
+        } else if (op instanceof Subtract) {
+            return compileArithmetic("-", (BinaryExpressionOperator) op);
+        } else if (op instanceof Multiply) {
+            return compileArithmetic("*", (BinaryExpressionOperator) op);
+        } else if (op instanceof Divide) {
+            return compileArithmetic("/", (BinaryExpressionOperator) op);
+        } else if (op instanceof EqualToExpr) {
+            return compileComparison("==", (BinaryComparisonOperator) op);
+        } else if (op instanceof NotEqualToExpr) {
+            return compileComparison("!=", (BinaryComparisonOperator) op);
+        } else if (op instanceof GreaterThanExpr) {
+            return compileComparison(">", (BinaryComparisonOperator) op);
+        } else if (op instanceof GTOrEqualToExpr) {
+            return compileComparison(">=", (BinaryComparisonOperator) op);
+        } else if (op instanceof LessThanExpr) {
+            return compileComparison("<", (BinaryComparisonOperator) op);
+        } else if (op instanceof LTOrEqualToExpr) {
+            return compileComparison("<=", (BinaryComparisonOperator) op);
+        } else if (op instanceof POAnd) {
+            return compileLogical(false, (BinaryExpressionOperator) op);
+        } else if (op instanceof POOr) {
+            return compileLogical(true, (BinaryExpressionOperator) op);
+        } else if (op instanceof PONot) {
+            Value expr = compile(((UnaryExpressionOperator) op).getExpr(), false);
+            if (expr == null || expr.type != DataType.BOOLEAN) {
+                return null;
+            }
+            int id = nextLocal++;
+            line("boolean n" + id + " = " + expr.isNull + ";");
+            line("boolean v" + id + " = !" + expr.value + ";");
+            return new Value("n" + id, "v" + id, DataType.BOOLEAN);
+        } else if (op instanceof POIsNull) {
+            Value expr = compile(((UnaryExpressionOperator) op).getExpr(), true);
+            if (expr == null) {
+                return null;
+            }
+            return new Value("false", "(" + expr.isNull + ")", DataType.BOOLEAN);
+        }
+        return null;
+    }
+
+    private Value compileProject(POProject project, boolean raw) {
+        if (plan.getPredecessors(project) != null || project.isProjectToEnd()
+                || project.isOverloaded() || project.getColumns().size() != 1) {
+            return null;
+        }
+        byte type = project.getResultType();
+        // bags and tuples are projected differently depending on the caller
+        if (type == DataType.BAG || type == DataType.TUPLE) {
+            return null;
+        }
+        if (raw) {
+            type = DataType.UNKNOWN;
+        } else if (!isSupported(type)) {
+            return null;
+        }
+        int column = project.getColumns().get(0);
+        String key = column + ":" + type;
+        Value value = columns.get(key);
+        if (value != null) {
+            return value;
+        }
+        minSize = Math.max(minSize, column + 1);
+        int id = nextLocal++;
+        String o = "o" + id;
+        if (type == DataType.UNKNOWN) {
+            line("Object " + o + " = input.get(" + column + ");");
+            value = new Value("(" + o + " == null)", o, type);
+        } else {
+            typedColumns.add(column);
+            typedTypes.add(type);
+            String n = "n" + id;
+            String v = "v" + id;
+            String boxed = boxedType(type);
+            line("boolean " + n + ";");
+            line(javaType(type) + " " + v + " = " + defaultValue(type) + ";");
+            line("if (st != null) {");
+            line("    " + n + " = st.isNull(" + column + ");");
+            line("    if (!" + n + ") {");
+            line("        " + v + " = st." + getter(type) + "(" + column + ");");
+            line("    }");
+            line("} else {");
+            line("    Object " + o + " = input.get(" + column + ");");
+            line("    " + n + " = " + o + " == null;");
+            line("    if (!" + n + ") {");
+            line("        if (!(" + o + " instanceof " + boxed + ")) {");
+            line("            return FALLBACK;");
+            line("        }");
+            if (type == DataType.CHARARRAY) {
+                line("        " + v + " = (String) " + o + ";");
+            } else {
+                line("        " + v + " = ((" + boxed + ") " + o + ")." + javaType(type) + "Value();");
+            }
+            line("    }");
+            line("}");
+            value = new Value(n, v, type);
+        }
+        columns.put(key, value);
+        return value;
+    }
+
+    private Value compileConstant(ConstantExpression constant, boolean raw) {
+        Object value = constant.getValue();
+        byte type = constant.getResultType();
+        if (raw) {
+            if (value == null) {
+                return new Value("true", "null", DataType.UNKNOWN);
+            }
+            type = DataType.findType(value);
+            if (!isSupported(type)) {
+                return null;
+            }
+            String literal = literal(value, type);
+            if (type != DataType.CHARARRAY) {
+                literal = boxedType(type) + ".valueOf(" + literal + ")";
+            }
+            return new Value("false", literal, DataType.UNKNOWN);
+        }
+        if (!isSupported(type) || (value != null && DataType.findType(value) != type)) {
+            return null;
+        }
+        if (value == null) {
+            return new Value("true", defaultValue(type), type);
+        }
+        return new Value("false", literal(value, type), type);
+    }
+
+    private Value compileArithmetic(String operator, BinaryExpressionOperator op) {
+        byte type = op.getResultType();
+        if (!isNumber(type)) {
+            return null;
+        }
+        Value lhs = compile(op.getLhs(), false);
+        Value rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.type != type || rhs.type != type) {
+            return null;
+        }
+        int id = nextLocal++;
+        String n = "n" + id;
+        String v = "v" + id;
+        line("boolean " + n + " = " + lhs.isNull + " || " + rhs.isNull + ";");
+        line(javaType(type) + " " + v + " = " + defaultValue(type) + ";");
+        line("if (!" + n + ") {");
+        if (operator.equals("/")) {
+            // only +0.0 is zero, as in Divide
+            String isZero;
+            if (type == DataType.FLOAT) {
+                isZero = "Float.floatToIntBits(" + rhs.value + ") == 0";
+            } else if (type == DataType.DOUBLE) {
+                isZero = "Double.doubleToLongBits(" + rhs.value + ") == 0L";
+            } else {
+                isZero = rhs.value + " == 0";
+            }
+            line("    if (" + isZero + ") {");
+            line("        " + n + " = true;");
+            line("        divideByZero();");
+            line("    } else {");
+            line("        " + v + " = " + lhs.value + " / " + rhs.value + ";");
+            line("    }");
+        } else {
+            line("    " + v + " = " + lhs.value + " " + operator + " " + rhs.value + ";");
+        }
+        line("}");
+        return new Value(n, v, type);
+    }
+
+    private Value compileComparison(String operator, BinaryComparisonOperator op) {
+        byte type = op.getOperandType();
+        if (!isSupported(type)) {
+            return null;
+        }
+        Value lhs = compile(op.getLhs(), false);
+        Value rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.type != type || rhs.type != type) {
+            return null;
+        }
+        // the operators compare with compareTo, which orders NaN and -0.0
+        // differently from the primitive comparisons
+        String comparison;
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+            comparison = lhs.value + " " + operator + " " + rhs.value;
+            break;
+        case DataType.FLOAT:
+            comparison = "Float.compare(" + lhs.value + ", " + rhs.value + ") " + operator + " 0";
+            break;
+        case DataType.DOUBLE:
+            comparison = "Double.compare(" + lhs.value + ", " + rhs.value + ") " + operator + " 0";
+            break;
+        case DataType.BOOLEAN:
+            comparison = "(" + lhs.value + " == " + rhs.value + " ? 0 : (" + lhs.value
+                    + " ? 1 : -1)) " + operator + " 0";
+            break;
+        default:
+            comparison = lhs.value + ".compareTo(" + rhs.value + ") " + operator + " 0";
+        }
+        int id = nextLocal++;
+        String n = "n" + id;
+        String v = "v" + id;
+        line("boolean " + n + " = " + lhs.isNull + " || " + rhs.isNull + ";");
+        line("boolean " + v + " = !" + n + " && " + comparison + ";");
+        return new Value(n, v, DataType.BOOLEAN);
+    }
+
+    /**
+     * AND and OR with the same three valued logic as POAnd and POOr. Both
+     * sides are always evaluated, which is safe since none of the supported
+     * operators has side effects.
+     * @param decisive the value that decides the result on its own: false
+     * for AND, true for OR
+     */
+    private Value compileLogical(boolean decisive, BinaryExpressionOperator op) {
+        Value lhs = compile(op.getLhs(), false);
+        Value rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.type != DataType.BOOLEAN
+                || rhs.type != DataType.BOOLEAN) {
+            return null;
+        }
+        String not = decisive ? "" : "!";
+        int id = nextLocal++;
+        String n = "n" + id;
+        String v = "v" + id;
+        line("boolean " + n + " = false;");
+        line("boolean " + v + " = " + !decisive + ";");
+        line("if ((!" + lhs.isNull + " && " + not + lhs.value + ") || (!"
+                + rhs.isNull + " && " + not + rhs.value + ")) {");
+        line("    " + v + " = " + decisive + ";");
+        line("} else if (" + lhs.isNull + " || " + rhs.isNull + ") {");
+        line("    " + n + " = true;");
+        line("}");
+        return new Value(n, v, DataType.BOOLEAN);
+    }
+
+    private void line(String code) {
+        body.append("        ").append(code).append('\n');
+    }
+
+    private static String literal(Object value, byte type) {
+        switch (type) {
+        case DataType.BOOLEAN:
+            return value.toString();
+        case DataType.INTEGER:
+            return "(" + value + ")";
+        case DataType.LONG:
+            return "(" + value + "L)";
+        case DataType.FLOAT:
+            return "Float.intBitsToFloat(" + Float.floatToRawIntBits((Float) value) + ")";
+        case DataType.DOUBLE:
+            return "Double.longBitsToDouble(" + Double.doubleToRawLongBits((Double) value) + "L)";
+        default:
+            return stringLiteral((String) value);
+        }
+    }
+
+    private static String stringLiteral(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                // unicode escapes are translated before the source is
+                // parsed, so line breaks have to be escaped in octal
+                sb.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String javaType(byte type) {
+        switch (type) {
+        case DataType.BOOLEAN: return "boolean";
+        case DataType.INTEGER: return "int";
+        case DataType.LONG: return "long";
+        case DataType.FLOAT: return "float";
+        case DataType.DOUBLE: return "double";
+        default: return "String";
+        }
+    }
+
+    private static String boxedType(byte type) {
+        switch (type) {
+        case DataType.BOOLEAN: return "Boolean";
+        case DataType.INTEGER: return "Integer";
+        case DataType.LONG: return "Long";
+        case DataType.FLOAT: return "Float";
+        case DataType.DOUBLE: return "Double";
+        default: return "String";
+        }
+    }
+
+    private static String getter(byte type) {
+        switch (type) {
+        case DataType.BOOLEAN: return "getBoolean";
+        case DataType.INTEGER: return "getInt";
+        case DataType.LONG: return "getLong";
+        case DataType.FLOAT: return "getFloat";
+        case DataType.DOUBLE: return "getDouble";
+        default: return "getString";
+        }
+    }
+
+    private static String defaultValue(byte type) {
+        switch (type) {
+        case DataType.BOOLEAN: return "false";
+        case DataType.CHARARRAY: return "((String) null)";
+        case DataType.FLOAT: return "0.0f";
+        case DataType.DOUBLE: return "0.0";
+        case DataType.LONG: return "0L";
+        default: return "0";
+        }
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+                || type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    private static boolean isSupported(byte type) {
+        return isNumber(type) || type == DataType.BOOLEAN || type == DataType.CHARARRAY;
+    }
+}
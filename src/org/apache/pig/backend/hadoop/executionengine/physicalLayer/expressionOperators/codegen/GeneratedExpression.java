@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.SchemaTuple;
+import org.apache.pig.data.SchemaTupleBackend;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The base class of the classes {@link ExpressionClassGenerator} generates
+ * for expression plans. A generated class evaluates its plan in one method,
+ * with typed locals in place of the Result objects the operators pass
+ * around. Fields of SchemaTuples are read with their typed getters when the
+ * schema of the tuple has the types the plan expects.
+ */
+@InterfaceAudience.Private
+public abstract class GeneratedExpression {
+
+    private static final Log log = LogFactory.getLog(GeneratedExpression.class);
+
+    /**
+     * Returned by {@link #evaluate(Tuple)} when the tuple does not hold the
+     * types the plan was compiled for, or lacks one of its fields, in which
+     * case the plan has to be run by its operators.
+     */
+    public static final Object FALLBACK = new Object();
+
+    // instances created by newInstance() in this JVM
+    private static final AtomicInteger numInstances = new AtomicInteger();
+
+    // the fields read with the typed getters of a SchemaTuple, and their types
+    private final int[] typedColumns;
+    private final byte[] typedTypes;
+    // the last SchemaTuple class seen whose schema matches typedTypes
+    private Class<?> typedClass;
+
+    private PhysicalOperator source;
+
+    protected GeneratedExpression(int[] typedColumns, byte[] typedTypes) {
+        this.typedColumns = typedColumns;
+        this.typedTypes = typedTypes;
+    }
+
+    /**
+     * @return the value of the plan for the given input, null, or
+     * {@link #FALLBACK}
+     */
+    public abstract Object evaluate(Tuple input) throws ExecException;
+
+    /**
+     * @param source the operator warnings are reported for
+     */
+    public void setSource(PhysicalOperator source) {
+        this.source = source;
+    }
+
+    /**
+     * Whether the typed fields can be read with the typed getters of the
+     * input. The schema of a SchemaTuple class is fixed, so it is checked
+     * once per class.
+     */
+    protected final boolean isTyped(Tuple input) {
+        if (input.getClass() == typedClass) {
+            return true;
+        }
+        if (!(input instanceof SchemaTuple)) {
+            return false;
+        }
+        Schema schema = ((SchemaTuple<?>) input).getSchema();
+        for (int i = 0; i < typedColumns.length; i++) {
+            if (typedColumns[i] >= schema.size()) {
+                return false;
+            }
+            try {
+                if (schema.getField(typedColumns[i]).type != typedTypes[i]) {
+                    return false;
+                }
+            } catch (FrontendException e) {
+                return false;
+            }
+        }
+        typedClass = input.getClass();
+        return true;
+    }
+
+    protected final void divideByZero() {
+        if (PhysicalOperator.getPigLogger() != null) {
+            PhysicalOperator.getPigLogger().warn(source,
+                    "Divide by zero. Converting it to NULL.", PigWarning.DIVIDE_BY_ZERO);
+        }
+    }
+
+    /**
+     * Load the generated class of the given name, which is shipped along
+     * with the generated SchemaTuples.
+     * @return an instance of the class, or null if it is not available
+     */
+    public static GeneratedExpression newInstance(String className, PhysicalOperator source) {
+        Class<?> clazz = SchemaTupleBackend.getGeneratedClass(className);
+        if (clazz == null || !GeneratedExpression.class.isAssignableFrom(clazz)) {
+            log.warn("Generated class " + className + " is not available, running the plan of "
+                    + source + " with its operators");
+            return null;
+        }
+        try {
+            GeneratedExpression expr = (GeneratedExpression) clazz.newInstance();
+            expr.setSource(source);
+            numInstances.incrementAndGet();
+            return expr;
+        } catch (InstantiationException e) {
+            throw new RuntimeException("Error instantiating generated class: " + className, e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Error accessing generated class: " + className, e);
+        }
+    }
+
+    /**
+     * @return the number of generated expressions operators have run their
+     * plans with in this JVM
+     */
+    @VisibleForTesting
+    public static int getNumInstances() {
+        return numInstances.get();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.data.DataType;
+
+/**
+ * Add, Subtract, Multiply and Divide of two integers, longs, floats or
+ * doubles. Like the row at a time operators, a null operand gives null and
+ * so does a division by zero.
+ */
+class ArithmeticExpression extends VectorExpression {
+
+    enum Op { ADD, SUBTRACT, MULTIPLY, DIVIDE }
+
+    private final Op op;
+    private final VectorExpression lhs;
+    private final VectorExpression rhs;
+    // the operator this was built from, which divide by zero warnings are
+    // reported against
+    private final PhysicalOperator source;
+
+    ArithmeticExpression(Op op, byte type, VectorExpression lhs,
+            VectorExpression rhs, PhysicalOperator source, int capacity) {
+        super(type, capacity);
+        this.op = op;
+        this.lhs = lhs;
+        this.rhs = rhs;
+        this.source = source;
+    }
+
+    @Override
+    protected ColumnVector evaluateBatch(TupleBatch batch) throws ExecException {
+        ColumnVector l = lhs.evaluate(batch);
+        if (l == null) {
+            return null;
+        }
+        ColumnVector r = rhs.evaluate(batch);
+        if (r == null) {
+            return null;
+        }
+        ColumnVector out = output;
+        out.isRepeating = l.isRepeating && r.isRepeating;
+        int n = out.isRepeating ? 1 : batch.size();
+        boolean noNulls = true;
+        for (int i = 0; i < n; i++) {
+            int li = l.isRepeating ? 0 : i;
+            int ri = r.isRepeating ? 0 : i;
+            if ((!l.noNulls && l.isNull[li]) || (!r.noNulls && r.isNull[ri])) {
+                out.isNull[i] = true;
+                noNulls = false;
+                continue;
+            }
+            boolean ok;
+            if (out.longs != null) {
+                ok = compute(l.longs[li], r.longs[ri], i);
+            } else {
+                ok = compute(l.doubles[li], r.doubles[ri], i);
+            }
+            out.isNull[i] = !ok;
+            noNulls &= ok;
+        }
+        out.noNulls = noNulls;
+        return out;
+    }
+
+    private boolean compute(long a, long b, int i) {
+        long[] res = output.longs;
+        boolean isInt = output.type == DataType.INTEGER;
+        switch (op) {
+        case ADD:
+            res[i] = isInt ? (int) a + (int) b : a + b;
+            return true;
+        case SUBTRACT:
+            res[i] = isInt ? (int) a - (int) b : a - b;
+            return true;
+        case MULTIPLY:
+            res[i] = isInt ? (int) a * (int) b : a * b;
+            return true;
+        default:
+            if (b == 0) {
+                divideByZero();
+                return false;
+            }
+            res[i] = isInt ? (int) a / (int) b : a / b;
+            return true;
+        }
+    }
+
+    private boolean compute(double a, double b, int i) {
+        double[] res = output.doubles;
+        // floats are kept widened, rounding each result gives exactly what
+        // float arithmetic gives
+        boolean isFloat = output.type == DataType.FLOAT;
+        switch (op) {
+        case ADD:
+            res[i] = isFloat ? (float) a + (float) b : a + b;
+            return true;
+        case SUBTRACT:
+            res[i] = isFloat ? (float) a - (float) b : a - b;
+            return true;
+        case MULTIPLY:
+            res[i] = isFloat ? (float) a * (float) b : a * b;
+            return true;
+        default:
+            // Divide only checks for positive zero
+            if (Double.doubleToLongBits(b) == 0L) {
+                divideByZero();
+                return false;
+            }
+            res[i] = isFloat ? (float) a / (float) b : a / b;
+            return true;
+        }
+    }
+
+    private void divideByZero() {
+        if (PhysicalOperator.getPigLogger() != null) {
+            PhysicalOperator.getPigLogger().warn(source,
+                    "Divide by zero. Converting it to NULL.", PigWarning.DIVIDE_BY_ZERO);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Reads one field of every tuple of the batch. With type
+ * {@link DataType#UNKNOWN} the values are passed through as they are, like
+ * POProject does; otherwise they are checked against and unboxed to type.
+ */
+class ColumnExpression extends VectorExpression {
+
+    private final int column;
+
+    ColumnExpression(int column, byte type, int capacity) {
+        super(type, capacity);
+        this.column = column;
+    }
+
+    @Override
+    protected ColumnVector evaluateBatch(TupleBatch batch) throws ExecException {
+        ColumnVector out = output;
+        boolean noNulls = true;
+        int n = batch.size();
+        for (int i = 0; i < n; i++) {
+            Tuple t = batch.get(i);
+            if (t == null || column >= t.size()) {
+                // leave the warnings to POProject
+                return null;
+            }
+            Object v = t.get(column);
+            if (v == null) {
+                out.isNull[i] = true;
+                noNulls = false;
+                continue;
+            }
+            out.isNull[i] = false;
+            switch (out.type) {
+            case DataType.BOOLEAN:
+                if (!(v instanceof Boolean)) return null;
+                out.longs[i] = ((Boolean) v).booleanValue() ? 1 : 0;
+                break;
+            case DataType.INTEGER:
+                if (!(v instanceof Integer)) return null;
+                out.longs[i] = ((Integer) v).intValue();
+                break;
+            case DataType.LONG:
+                if (!(v instanceof Long)) return null;
+                out.longs[i] = ((Long) v).longValue();
+                break;
+            case DataType.FLOAT:
+                if (!(v instanceof Float)) return null;
+                out.doubles[i] = ((Float) v).floatValue();
+                break;
+            case DataType.DOUBLE:
+                if (!(v instanceof Double)) return null;
+                out.doubles[i] = ((Double) v).doubleValue();
+                break;
+            case DataType.CHARARRAY:
+                if (!(v instanceof String)) return null;
+                out.objects[i] = v;
+                break;
+            default:
+                out.objects[i] = v;
+            }
+        }
+        out.noNulls = noNulls;
+        out.isRepeating = false;
+        return out;
+    }
+}
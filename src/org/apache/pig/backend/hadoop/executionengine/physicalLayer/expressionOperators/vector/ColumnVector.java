@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.DataType;
+
+/**
+ * The values of one expression for all the rows of a {@link TupleBatch}.
+ * Booleans, integers and longs are kept in {@link #longs}, floats and doubles
+ * in {@link #doubles}, and all other types as objects in {@link #objects}.
+ * A repeating vector, as produced by a constant, holds its value at index 0
+ * only.
+ */
+@InterfaceAudience.Private
+public class ColumnVector {
+
+    final byte type;
+    final long[] longs;
+    final double[] doubles;
+    final Object[] objects;
+    final boolean[] isNull;
+
+    // no value of the current batch is null, isNull need not be checked
+    boolean noNulls;
+    boolean isRepeating;
+
+    ColumnVector(byte type, int capacity) {
+        this.type = type;
+        longs = usesLongs(type) ? new long[capacity] : null;
+        doubles = usesDoubles(type) ? new double[capacity] : null;
+        objects = longs == null && doubles == null ? new Object[capacity] : null;
+        isNull = new boolean[capacity];
+    }
+
+    static boolean usesLongs(byte type) {
+        return type == DataType.BOOLEAN || type == DataType.INTEGER
+                || type == DataType.LONG;
+    }
+
+    static boolean usesDoubles(byte type) {
+        return type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public boolean isNull(int row) {
+        return !noNulls && isNull[isRepeating ? 0 : row];
+    }
+
+    /**
+     * @return whether the boolean value of row is true. Nulls are not true.
+     */
+    public boolean isTrue(int row) {
+        int i = isRepeating ? 0 : row;
+        return (noNulls || !isNull[i]) && longs[i] != 0;
+    }
+
+    /**
+     * @return the value of row, boxed the way the row at a time operators
+     * would return it
+     */
+    public Object get(int row) {
+        int i = isRepeating ? 0 : row;
+        if (!noNulls && isNull[i]) {
+            return null;
+        }
+        switch (type) {
+        case DataType.BOOLEAN:
+            return Boolean.valueOf(longs[i] != 0);
+        case DataType.INTEGER:
+            return Integer.valueOf((int) longs[i]);
+        case DataType.LONG:
+            return Long.valueOf(longs[i]);
+        case DataType.FLOAT:
+            return Float.valueOf((float) doubles[i]);
+        case DataType.DOUBLE:
+            return Double.valueOf(doubles[i]);
+        default:
+            return objects[i];
+        }
+    }
+}
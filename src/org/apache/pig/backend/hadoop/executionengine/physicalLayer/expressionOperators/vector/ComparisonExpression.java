@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+
+/**
+ * Compares two booleans, integers, longs, floats, doubles or chararrays the
+ * way compareTo() does in the row at a time comparison operators. A null
+ * operand gives null.
+ */
+class ComparisonExpression extends VectorExpression {
+
+    enum Op { EQ, NE, GT, GTE, LT, LTE }
+
+    private final Op op;
+    private final VectorExpression lhs;
+    private final VectorExpression rhs;
+
+    ComparisonExpression(Op op, VectorExpression lhs, VectorExpression rhs, int capacity) {
+        super(DataType.BOOLEAN, capacity);
+        this.op = op;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    @Override
+    protected ColumnVector evaluateBatch(TupleBatch batch) throws ExecException {
+        ColumnVector l = lhs.evaluate(batch);
+        if (l == null) {
+            return null;
+        }
+        ColumnVector r = rhs.evaluate(batch);
+        if (r == null) {
+            return null;
+        }
+        ColumnVector out = output;
+        out.isRepeating = l.isRepeating && r.isRepeating;
+        int n = out.isRepeating ? 1 : batch.size();
+        boolean noNulls = true;
+        for (int i = 0; i < n; i++) {
+            int li = l.isRepeating ? 0 : i;
+            int ri = r.isRepeating ? 0 : i;
+            if ((!l.noNulls && l.isNull[li]) || (!r.noNulls && r.isNull[ri])) {
+                out.isNull[i] = true;
+                noNulls = false;
+                continue;
+            }
+            int c;
+            if (l.longs != null) {
+                long a = l.longs[li];
+                long b = r.longs[ri];
+                c = a < b ? -1 : (a == b ? 0 : 1);
+            } else if (l.doubles != null) {
+                c = Double.compare(l.doubles[li], r.doubles[ri]);
+            } else {
+                c = ((String) l.objects[li]).compareTo((String) r.objects[ri]);
+            }
+            out.isNull[i] = false;
+            out.longs[i] = test(c) ? 1 : 0;
+        }
+        out.noNulls = noNulls;
+        return out;
+    }
+
+    private boolean test(int c) {
+        switch (op) {
+        case EQ:
+            return c == 0;
+        case NE:
+            return c != 0;
+        case GT:
+            return c > 0;
+        case GTE:
+            return c >= 0;
+        case LT:
+            return c < 0;
+        default:
+            return c <= 0;
+        }
+    }
+}
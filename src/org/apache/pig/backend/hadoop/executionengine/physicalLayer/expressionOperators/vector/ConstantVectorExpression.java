@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.data.DataType;
+
+/**
+ * A constant, as a repeating vector.
+ */
+class ConstantVectorExpression extends VectorExpression {
+
+    /**
+     * @param value the constant, which has to be of the Java class of type,
+     * or null
+     */
+    ConstantVectorExpression(Object value, byte type) {
+        super(type, 1);
+        output.isRepeating = true;
+        output.noNulls = value != null;
+        output.isNull[0] = value == null;
+        if (value == null) {
+            return;
+        }
+        switch (type) {
+        case DataType.BOOLEAN:
+            output.longs[0] = ((Boolean) value).booleanValue() ? 1 : 0;
+            break;
+        case DataType.INTEGER:
+        case DataType.LONG:
+            output.longs[0] = ((Number) value).longValue();
+            break;
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+            output.doubles[0] = ((Number) value).doubleValue();
+            break;
+        default:
+            output.objects[0] = value;
+        }
+    }
+
+    @Override
+    protected ColumnVector evaluateBatch(TupleBatch batch) {
+        return output;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+
+/**
+ * AND, OR and NOT with the same three valued logic as POAnd, POOr and PONot,
+ * and IS NULL. Both sides of AND and OR are always evaluated. That is safe
+ * since vector expressions have no side effects, except for the divide by
+ * zero warnings of divisions, which {@link VectorExpressionBuilder} does not
+ * put on the right side of AND and OR.
+ */
+class LogicalExpression extends VectorExpression {
+
+    enum Op { AND, OR, NOT, IS_NULL }
+
+    private final Op op;
+    private final VectorExpression lhs;
+    // null for NOT and IS_NULL
+    private final VectorExpression rhs;
+
+    LogicalExpression(Op op, VectorExpression lhs, VectorExpression rhs, int capacity) {
+        super(DataType.BOOLEAN, capacity);
+        this.op = op;
+        this.lhs = lhs;
+        this.rhs = rhs;
+    }
+
+    @Override
+    protected ColumnVector evaluateBatch(TupleBatch batch) throws ExecException {
+        ColumnVector l = lhs.evaluate(batch);
+        if (l == null) {
+            return null;
+        }
+        ColumnVector r = null;
+        if (rhs != null) {
+            r = rhs.evaluate(batch);
+            if (r == null) {
+                return null;
+            }
+        }
+        ColumnVector out = output;
+        out.isRepeating = l.isRepeating && (r == null || r.isRepeating);
+        int n = out.isRepeating ? 1 : batch.size();
+        boolean noNulls = true;
+        for (int i = 0; i < n; i++) {
+            int li = l.isRepeating ? 0 : i;
+            boolean lNull = !l.noNulls && l.isNull[li];
+            if (op == Op.IS_NULL) {
+                out.isNull[i] = false;
+                out.longs[i] = lNull ? 1 : 0;
+                continue;
+            }
+            if (op == Op.NOT) {
+                out.isNull[i] = lNull;
+                noNulls &= !lNull;
+                out.longs[i] = l.longs[li] == 0 ? 1 : 0;
+                continue;
+            }
+            int ri = r.isRepeating ? 0 : i;
+            boolean rNull = !r.noNulls && r.isNull[ri];
+            // the value that decides the result on its own: false for AND,
+            // true for OR
+            long decisive = op == Op.AND ? 0 : 1;
+            if ((!lNull && l.longs[li] == decisive) || (!rNull && r.longs[ri] == decisive)) {
+                out.isNull[i] = false;
+                out.longs[i] = decisive;
+            } else if (lNull || rNull) {
+                out.isNull[i] = true;
+                noNulls = false;
+            } else {
+                out.isNull[i] = false;
+                out.longs[i] = 1 - decisive;
+            }
+        }
+        out.noNulls = noNulls;
+        return out;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import java.util.Arrays;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A batch of input tuples which the vector expressions evaluate together.
+ * Columns are read out of the tuples into {@link ColumnVector}s on demand.
+ */
+@InterfaceAudience.Private
+public class TupleBatch {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final Tuple[] rows;
+    private int size = 0;
+
+    // changes whenever the rows change, so that expressions know when
+    // their last result is stale
+    private int generation = 0;
+
+    public TupleBatch(int capacity) {
+        rows = new Tuple[capacity];
+    }
+
+    public void add(Tuple t) {
+        rows[size++] = t;
+        generation++;
+    }
+
+    public Tuple get(int row) {
+        return rows[row];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return rows.length;
+    }
+
+    public boolean isFull() {
+        return size == rows.length;
+    }
+
+    public void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        generation++;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+}
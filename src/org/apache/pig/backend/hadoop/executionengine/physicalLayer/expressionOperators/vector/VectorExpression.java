@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.classification.InterfaceAudience;
+
+/**
+ * An expression evaluated for a whole {@link TupleBatch} at a time, in tight
+ * loops over primitive arrays instead of one getNext() call per operator and
+ * row. Vector expressions are built from physical expression plans by
+ * {@link VectorExpressionBuilder}.
+ */
+@InterfaceAudience.Private
+public abstract class VectorExpression {
+
+    protected final ColumnVector output;
+
+    private TupleBatch lastBatch;
+    private int lastGeneration;
+    private ColumnVector lastResult;
+
+    protected VectorExpression(byte type, int capacity) {
+        output = new ColumnVector(type, capacity);
+    }
+
+    public byte getType() {
+        return output.type;
+    }
+
+    /**
+     * @return the values of this expression for all rows of batch, or null
+     * if some input value does not have the type the plan declares. The
+     * caller has to evaluate that batch a row at a time then, which also
+     * raises the errors and warnings the row at a time operators would.
+     */
+    public final ColumnVector evaluate(TupleBatch batch) throws ExecException {
+        // an expression shared by several parents is evaluated once
+        if (batch != lastBatch || batch.getGeneration() != lastGeneration) {
+            lastResult = evaluateBatch(batch);
+            lastBatch = batch;
+            lastGeneration = batch.getGeneration();
+        }
+        return lastResult;
+    }
+
+    protected abstract ColumnVector evaluateBatch(TupleBatch batch) throws ExecException;
+}
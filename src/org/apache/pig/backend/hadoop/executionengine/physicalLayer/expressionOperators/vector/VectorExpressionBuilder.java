@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryComparisonOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.EqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GTOrEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LTOrEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.LessThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Multiply;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.NotEqualToExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POIsNull;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PONot;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POOr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Subtract;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.UnaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.DataType;
+
+/**
+ * Builds a {@link VectorExpression} from a physical expression plan. Only
+ * projections of single fields, constants, arithmetic, comparisons and
+ * boolean logic on booleans, numbers and chararrays are supported; for any
+ * other plan the build methods return null and the plan has to be run a row
+ * at a time.
+ */
+@InterfaceAudience.Private
+public class VectorExpressionBuilder {
+
+    private final PhysicalPlan plan;
+    private final int capacity;
+    // a field read twice in a plan is read out of the batch once
+    private final Map<String, ColumnExpression> columns =
+        new HashMap<String, ColumnExpression>();
+
+    private VectorExpressionBuilder(PhysicalPlan plan, int capacity) {
+        this.plan = plan;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Build a boolean expression, such as the plan of a filter.
+     * @return the expression or null
+     */
+    public static VectorExpression buildPredicate(PhysicalPlan plan, int capacity) {
+        VectorExpression expr = build(plan, capacity, false);
+        return expr != null && expr.getType() == DataType.BOOLEAN ? expr : null;
+    }
+
+    /**
+     * Build an expression whose values are passed on as they are, such as
+     * the plan of a foreach output which is not flattened.
+     * @return the expression or null
+     */
+    public static VectorExpression buildValue(PhysicalPlan plan, int capacity) {
+        return build(plan, capacity, true);
+    }
+
+    private static VectorExpression build(PhysicalPlan plan, int capacity, boolean raw) {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        if (leaves == null || leaves.size() != 1) {
+            return null;
+        }
+        return new VectorExpressionBuilder(plan, capacity).compile(leaves.get(0), raw);
+    }
+
+    /**
+     * @param raw whether the values are only passed on or tested for null,
+     * so that projected fields need not be of their declared type
+     */
+    private VectorExpression compile(PhysicalOperator op, boolean raw) {
+        if (op instanceof POProject) {
+            return compileProject((POProject) op, raw);
+        } else if (op instanceof ConstantExpression) {
+            return compileConstant((ConstantExpression) op, raw);
+        } else if (op instanceof Add) {
+            return compileArithmetic(ArithmeticExpression.Op.ADD, (BinaryExpressionOperator) op);
+        } else if (op instanceof Subtract) {
+            return compileArithmetic(ArithmeticExpression.Op.SUBTRACT, (BinaryExpressionOperator) op);
+        } else if (op instanceof Multiply) {
+            return compileArithmetic(ArithmeticExpression.Op.MULTIPLY, (BinaryExpressionOperator) op);
+        } else if (op instanceof Divide) {
+            return compileArithmetic(ArithmeticExpression.Op.DIVIDE, (BinaryExpressionOperator) op);
+        } else if (op instanceof EqualToExpr) {
+            return compileComparison(ComparisonExpression.Op.EQ, (BinaryComparisonOperator) op);
+        } else if (op instanceof NotEqualToExpr) {
+            return compileComparison(ComparisonExpression.Op.NE, (BinaryComparisonOperator) op);
+        } else if (op instanceof GreaterThanExpr) {
+            return compileComparison(ComparisonExpression.Op.GT, (BinaryComparisonOperator) op);
+        } else if (op instanceof GTOrEqualToExpr) {
+            return compileComparison(ComparisonExpression.Op.GTE, (BinaryComparisonOperator) op);
+        } else if (op instanceof LessThanExpr) {
+            return compileComparison(ComparisonExpression.Op.LT, (BinaryComparisonOperator) op);
+        } else if (op instanceof LTOrEqualToExpr) {
+            return compileComparison(ComparisonExpression.Op.LTE, (BinaryComparisonOperator) op);
+        } else if (op instanceof POAnd) {
+            return compileLogical(LogicalExpression.Op.AND, (BinaryExpressionOperator) op);
+        } else if (op instanceof POOr) {
+            return compileLogical(LogicalExpression.Op.OR, (BinaryExpressionOperator) op);
+        } else if (op instanceof PONot) {
+            VectorExpression expr = compile(((UnaryExpressionOperator) op).getExpr(), false);
+            if (expr == null || expr.getType() != DataType.BOOLEAN) {
+                return null;
+            }
+            return new LogicalExpression(LogicalExpression.Op.NOT, expr, null, capacity);
+        } else if (op instanceof POIsNull) {
+            VectorExpression expr = compile(((UnaryExpressionOperator) op).getExpr(), true);
+            if (expr == null) {
+                return null;
+            }
+            return new LogicalExpression(LogicalExpression.Op.IS_NULL, expr, null, capacity);
+        }
+        return null;
+    }
+
+    private VectorExpression compileProject(POProject project, boolean raw) {
+        if (plan.getPredecessors(project) != null || project.isProjectToEnd()
+                || project.isOverloaded() || project.getColumns().size() != 1) {
+            return null;
+        }
+        byte type = project.getResultType();
+        // bags and tuples are projected differently depending on the caller
+        if (type == DataType.BAG || type == DataType.TUPLE) {
+            return null;
+        }
+        if (raw) {
+            type = DataType.UNKNOWN;
+        } else if (!isSupported(type)) {
+            return null;
+        }
+        int column = project.getColumns().get(0);
+        String key = column + ":" + type;
+        ColumnExpression expr = columns.get(key);
+        if (expr == null) {
+            expr = new ColumnExpression(column, type, capacity);
+            columns.put(key, expr);
+        }
+        return expr;
+    }
+
+    private VectorExpression compileConstant(ConstantExpression constant, boolean raw) {
+        Object value = constant.getValue();
+        byte type = constant.getResultType();
+        if (raw) {
+            if (value != null && !DataType.isAtomic(value)) {
+                return null;
+            }
+            return new ConstantVectorExpression(value, DataType.UNKNOWN);
+        }
+        if (!isSupported(type) || (value != null && DataType.findType(value) != type)) {
+            return null;
+        }
+        return new ConstantVectorExpression(value, type);
+    }
+
+    private VectorExpression compileArithmetic(ArithmeticExpression.Op arith,
+            BinaryExpressionOperator op) {
+        byte type = op.getResultType();
+        if (!isNumber(type)) {
+            return null;
+        }
+        VectorExpression lhs = compile(op.getLhs(), false);
+        VectorExpression rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.getType() != type || rhs.getType() != type) {
+            return null;
+        }
+        return new ArithmeticExpression(arith, type, lhs, rhs, op, capacity);
+    }
+
+    private VectorExpression compileComparison(ComparisonExpression.Op cmp,
+            BinaryComparisonOperator op) {
+        byte type = op.getOperandType();
+        if (!isSupported(type)) {
+            return null;
+        }
+        VectorExpression lhs = compile(op.getLhs(), false);
+        VectorExpression rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.getType() != type || rhs.getType() != type) {
+            return null;
+        }
+        return new ComparisonExpression(cmp, lhs, rhs, capacity);
+    }
+
+    private VectorExpression compileLogical(LogicalExpression.Op logical,
+            BinaryExpressionOperator op) {
+        // Both sides are evaluated for every row, while POAnd and POOr skip
+        // the right side when the left one decides. A division there would
+        // warn about rows the row at a time plan never divides.
+        if (containsDivide(op.getRhs())) {
+            return null;
+        }
+        VectorExpression lhs = compile(op.getLhs(), false);
+        VectorExpression rhs = compile(op.getRhs(), false);
+        if (lhs == null || rhs == null || lhs.getType() != DataType.BOOLEAN
+                || rhs.getType() != DataType.BOOLEAN) {
+            return null;
+        }
+        return new LogicalExpression(logical, lhs, rhs, capacity);
+    }
+
+    private boolean containsDivide(PhysicalOperator op) {
+        if (op instanceof Divide) {
+            return true;
+        }
+        List<PhysicalOperator> inputs = plan.getPredecessors(op);
+        if (inputs != null) {
+            for (PhysicalOperator input : inputs) {
+                if (containsDivide(input)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNumber(byte type) {
+        return type == DataType.INTEGER || type == DataType.LONG
+                || type == DataType.FLOAT || type == DataType.DOUBLE;
+    }
+
+    private static boolean isSupported(byte type) {
+        return isNumber(type) || type == DataType.BOOLEAN || type == DataType.CHARARRAY;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.WritableByteArray;
+
+/**
+ * Build side of a fragment replicate join, kept in serialized form.
+ * <p>
+ * Every distinct key is serialized once and every value tuple is serialized
+ * into a few large byte arrays, so a replicated row costs its serialized size
+ * plus 8 bytes instead of a graph of tuple, list and boxed field objects.
+ * Keys are found through an open addressing index over the serialized key
+ * bytes. The values of a key are chained in the order they were added.
+ * <p>
+ * Keys are compared by their serialized bytes, which is only the same as
+ * comparing them with equals() for types which have a single serialized form
+ * for each value, see {@link #supportsKeyTypes(List)}.
+ * <p>
+ * Adding to the table is not thread safe. Once built, the table can be
+ * probed by several threads, each through its own {@link Lookup}.
+ */
+class FRJoinHashTable {
+
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_CAPACITY = 16;
+
+    // hash + key address + head + tail
+    private static final int SLOT_BYTES = 4 + 8 + 8 + 8;
+
+    private static final long NONE = -1L;
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    // Addresses are (chunk index << 32) | offset in chunk. A key record is
+    // [vint length][key bytes], a value record is [8 byte address of the
+    // next value of the same key][vint length][value bytes].
+    private byte[][] chunks = new byte[4][];
+    private int numChunks = 0;
+    private int chunkPos = 0;
+    private long arenaBytes = 0;
+
+    private int[] hashes;
+    private long[] keyAddrs;
+    private long[] heads;
+    private long[] tails;
+    private int numKeys = 0;
+    private long numValues = 0;
+
+    // scratch space for add()
+    private final WritableByteArray keyBuf = new WritableByteArray(64);
+    private final DataOutputStream keyOut = new DataOutputStream(keyBuf);
+    private final WritableByteArray valBuf = new WritableByteArray(256);
+    private final DataOutputStream valOut = new DataOutputStream(valBuf);
+
+    FRJoinHashTable() {
+        allocSlots(MIN_CAPACITY);
+    }
+
+    /**
+     * @param keyTypes types of the join key columns
+     * @return true if keys of these types can be compared by their serialized
+     * form. Maps and bags have no defined order of entries, big decimals and
+     * datetimes have several forms for equal values, and nested tuples are
+     * not typed.
+     */
+    static boolean supportsKeyTypes(List<Byte> keyTypes) {
+        for (Byte type : keyTypes) {
+            if (type == null) {
+                return false;
+            }
+            switch (type.byteValue()) {
+            case DataType.BOOLEAN:
+            case DataType.INTEGER:
+            case DataType.LONG:
+            case DataType.FLOAT:
+            case DataType.DOUBLE:
+            case DataType.BIGINTEGER:
+            case DataType.CHARARRAY:
+            case DataType.BYTEARRAY:
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    int size() {
+        return numKeys;
+    }
+
+    /**
+     * @return number of values for all keys
+     */
+    long numValues() {
+        return numValues;
+    }
+
+    /**
+     * @return bytes held by this table
+     */
+    long getMemorySize() {
+        return arenaBytes + (long) hashes.length * SLOT_BYTES;
+    }
+
+    /**
+     * Add a value for key. Null keys are not joined and must be filtered out
+     * by the caller.
+     */
+    void add(Object key, Tuple value) throws ExecException {
+        try {
+            keyBuf.reset();
+            sedes.writeDatum(keyOut, key);
+            valBuf.reset();
+            sedes.writeDatum(valOut, value, DataType.TUPLE);
+        } catch (IOException e) {
+            throw new ExecException("Unable to serialize replicated tuple",
+                    2272, PigException.BUG, e);
+        }
+        byte[] kb = keyBuf.getData();
+        int klen = keyBuf.getLength();
+        int h = hash(kb, klen);
+
+        if ((numKeys + 1) * 4 > hashes.length * 3) {
+            rehash(hashes.length * 2);
+        }
+        int slot = find(kb, klen, h);
+        if (keyAddrs[slot] == NONE) {
+            long addr = reserve(vintSize(klen) + klen);
+            int pos = writeVInt(chunk(addr), offset(addr), klen);
+            System.arraycopy(kb, 0, chunk(addr), pos, klen);
+            hashes[slot] = h;
+            keyAddrs[slot] = addr;
+            heads[slot] = NONE;
+            numKeys++;
+        }
+
+        int vlen = valBuf.getLength();
+        long addr = reserve(8 + vintSize(vlen) + vlen);
+        byte[] c = chunk(addr);
+        int off = offset(addr);
+        putLong(c, off, NONE);
+        int pos = writeVInt(c, off + 8, vlen);
+        System.arraycopy(valBuf.getData(), 0, c, pos, vlen);
+        if (heads[slot] == NONE) {
+            heads[slot] = addr;
+        } else {
+            long tail = tails[slot];
+            putLong(chunk(tail), offset(tail), addr);
+        }
+        tails[slot] = addr;
+        numValues++;
+    }
+
+    /**
+     * Probe state of one thread.
+     */
+    Lookup newLookup() {
+        return new Lookup();
+    }
+
+    class Lookup {
+        private final WritableByteArray probeBuf = new WritableByteArray(64);
+        private final DataOutputStream probeOut = new DataOutputStream(probeBuf);
+        private final DataInputBuffer in = new DataInputBuffer();
+
+        // consecutive probes often use the same key
+        private int lastSlot = -1;
+        private List<Tuple> lastValues;
+
+        private Lookup() {
+        }
+
+        /**
+         * @return the values of key, or null if it is not in the table. The
+         * list and its tuples are shared by probes of the same key and must
+         * not be modified.
+         */
+        List<Tuple> get(Object key) throws ExecException {
+            probeBuf.reset();
+            try {
+                sedes.writeDatum(probeOut, key);
+            } catch (IOException e) {
+                throw new ExecException("Unable to serialize join key",
+                        2272, PigException.BUG, e);
+            }
+            byte[] kb = probeBuf.getData();
+            int klen = probeBuf.getLength();
+            int slot = find(kb, klen, hash(kb, klen));
+            if (keyAddrs[slot] == NONE) {
+                return null;
+            }
+            if (slot != lastSlot) {
+                lastValues = readValues(slot);
+                lastSlot = slot;
+            }
+            return lastValues;
+        }
+
+        private List<Tuple> readValues(int slot) throws ExecException {
+            List<Tuple> values = new ArrayList<Tuple>(1);
+            try {
+                for (long addr = heads[slot]; addr != NONE; ) {
+                    byte[] c = chunk(addr);
+                    int off = offset(addr);
+                    long next = getLong(c, off);
+                    int len = readVInt(c, off + 8);
+                    in.reset(c, off + 8 + vintSize(len), len);
+                    values.add((Tuple) sedes.readDatum(in));
+                    addr = next;
+                }
+            } catch (IOException e) {
+                throw new ExecException("Unable to deserialize replicated tuple",
+                        2272, PigException.BUG, e);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * @return slot holding the key, or the empty slot where it would go
+     */
+    private int find(byte[] kb, int klen, int h) {
+        int mask = hashes.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            long addr = keyAddrs[slot];
+            if (addr == NONE || (hashes[slot] == h && keyEquals(addr, kb, klen))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(long addr, byte[] kb, int klen) {
+        byte[] c = chunk(addr);
+        int off = offset(addr);
+        if (readVInt(c, off) != klen) {
+            return false;
+        }
+        off += vintSize(klen);
+        for (int i = 0; i < klen; i++) {
+            if (c[off + i] != kb[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void allocSlots(int cap) {
+        hashes = new int[cap];
+        keyAddrs = new long[cap];
+        heads = new long[cap];
+        tails = new long[cap];
+        Arrays.fill(keyAddrs, NONE);
+    }
+
+    private void rehash(int newCap) {
+        int[] oldHashes = hashes;
+        long[] oldKeys = keyAddrs;
+        long[] oldHeads = heads;
+        long[] oldTails = tails;
+        allocSlots(newCap);
+        int mask = newCap - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == NONE) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (keyAddrs[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = oldHashes[i];
+            keyAddrs[slot] = oldKeys[i];
+            heads[slot] = oldHeads[i];
+            tails[slot] = oldTails[i];
+        }
+    }
+
+    /**
+     * Reserve len contiguous bytes in the arena.
+     * @return address of the reserved bytes
+     */
+    private long reserve(int len) {
+        if (numChunks == 0 || chunkPos + len > chunks[numChunks - 1].length) {
+            // Chunks grow with the table so that small tables stay small.
+            int size = numChunks == 0 ? MIN_CHUNK_SIZE
+                    : (int) Math.min((long) chunks[numChunks - 1].length * 2, MAX_CHUNK_SIZE);
+            if (numChunks == chunks.length) {
+                chunks = Arrays.copyOf(chunks, numChunks * 2);
+            }
+            chunks[numChunks++] = new byte[Math.max(size, len)];
+            arenaBytes += Math.max(size, len);
+            chunkPos = 0;
+        }
+        long addr = ((long) (numChunks - 1) << 32) | chunkPos;
+        chunkPos += len;
+        return addr;
+    }
+
+    private byte[] chunk(long addr) {
+        return chunks[(int) (addr >>> 32)];
+    }
+
+    private static int offset(long addr) {
+        return (int) addr;
+    }
+
+    private static int hash(byte[] b, int len) {
+        int h = 1;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + b[i];
+        }
+        // spread the bits, since we mask with a power of two
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private static int vintSize(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) {
+            n++;
+        }
+        return n;
+    }
+
+    private static int writeVInt(byte[] b, int off, int v) {
+        while ((v & ~0x7F) != 0) {
+            b[off++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        b[off++] = (byte) v;
+        return off;
+    }
+
+    private static int readVInt(byte[] b, int off) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte x = b[off++];
+            v |= (x & 0x7F) << shift;
+            if ((x & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process wide cache of built replicate tables, so that map tasks which run
+ * in a reused JVM do not build the same table again.
+ * <p>
+ * A table is held strongly while some {@link POFRJoin} uses it. Once it has
+ * been released by all of them it is only softly reachable, so the GC can
+ * take it back when the next task needs the memory. Tables which are not in
+ * use are evicted least recently used first to keep the cache under its
+ * size limit. A table bigger than the limit is not cached at all.
+ */
+class FRJoinTableCache {
+
+    private static final Log log = LogFactory.getLog(FRJoinTableCache.class);
+
+    private static final FRJoinTableCache instance = new FRJoinTableCache();
+
+    private static class Entry {
+        final long size;
+        SoftReference<FRJoinHashTable> ref;
+        // null when no POFRJoin is using the table
+        FRJoinHashTable pinned;
+        int refCount = 0;
+
+        Entry(FRJoinHashTable table) {
+            size = table.getMemorySize();
+            ref = new SoftReference<FRJoinHashTable>(table);
+        }
+    }
+
+    // in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long maxBytes = 0;
+    private long cachedBytes = 0;
+
+    FRJoinTableCache() {
+    }
+
+    static FRJoinTableCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param maxBytes limit on the memory of cached tables, 0 disables
+     * caching
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict(0);
+    }
+
+    synchronized boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Get a cached table and mark it used. Every table returned by this
+     * method or {@link #put(String, FRJoinHashTable)} has to be given back
+     * with {@link #release(String)}.
+     * @return the table or null if it is not cached
+     */
+    synchronized FRJoinHashTable acquire(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            return null;
+        }
+        FRJoinHashTable table = e.ref.get();
+        if (table == null) {
+            remove(key, e);
+            return null;
+        }
+        e.pinned = table;
+        e.refCount++;
+        return table;
+    }
+
+    /**
+     * Cache a table that was just built, and mark it used. If another caller
+     * cached a table for the same key in the meantime, that one is returned
+     * instead.
+     * @return the cached table to use, or null if the table is too big to be
+     * cached
+     */
+    synchronized FRJoinHashTable put(String key, FRJoinHashTable table) {
+        FRJoinHashTable cached = acquire(key);
+        if (cached != null) {
+            return cached;
+        }
+        Entry e = new Entry(table);
+        if (e.size > maxBytes) {
+            return null;
+        }
+        evict(e.size);
+        e.pinned = table;
+        e.refCount = 1;
+        entries.put(key, e);
+        cachedBytes += e.size;
+        return table;
+    }
+
+    /**
+     * Mark a table obtained from this cache as no longer used by the caller.
+     */
+    synchronized void release(String key) {
+        Entry e = entries.get(key);
+        if (e == null || e.refCount == 0) {
+            return;
+        }
+        if (--e.refCount == 0) {
+            e.pinned = null;
+            evict(0);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Drop unused tables, least recently used first, until extra bytes fit
+     * under the limit. Tables in use are never dropped, so the cache can be
+     * over its limit while they are.
+     */
+    private void evict(long extra) {
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                it.hasNext() && cachedBytes + extra > maxBytes;) {
+            Map.Entry<String, Entry> me = it.next();
+            Entry e = me.getValue();
+            if (e.refCount == 0) {
+                log.info("Evicting cached replicate table of " + e.size + " bytes");
+                it.remove();
+                cachedBytes -= e.size;
+            }
+        }
+    }
+
+    private void remove(String key, Entry e) {
+        entries.remove(key);
+        cachedBytes -= e.size;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.WritableByteArray;
+import org.apache.pig.impl.io.FRJoinIndexStorage;
+
+/**
+ * Read only view of a replicated join index written by
+ * {@link FRJoinIndexStorage}. The files are memory mapped, so opening them
+ * costs no heap and no parsing, they can be bigger than the heap, and the
+ * page cache is shared by all tasks on a node which read the same files.
+ * <p>
+ * The index is made of the parts the reducers of the index job wrote, in
+ * the order of their partitions. A key is only looked up in the part
+ * {@link FRJoinIndexStorage#partition(int, int)} puts it in.
+ * <p>
+ * Like {@link FRJoinHashTable}, the mapped table can be probed by several
+ * threads, each through its own {@link Lookup}.
+ */
+class MappedFRJoinTable {
+
+    // Each mapping is at most 1GB. Records may cross mappings.
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final Part[] parts;
+    private final long numKeys;
+
+    private MappedFRJoinTable(Part[] parts) {
+        this.parts = parts;
+        long n = 0;
+        for (Part part : parts) {
+            n += part.numKeys;
+        }
+        numKeys = n;
+    }
+
+    /**
+     * Map the parts of an index.
+     * @param files the parts, in the order of their partitions
+     */
+    static MappedFRJoinTable open(File... files) throws IOException {
+        Part[] parts = new Part[files.length];
+        for (int i = 0; i < files.length; i++) {
+            parts[i] = Part.open(files[i]);
+        }
+        return new MappedFRJoinTable(parts);
+    }
+
+    long size() {
+        return numKeys;
+    }
+
+    Lookup newLookup() {
+        return new Lookup();
+    }
+
+    class Lookup {
+        private final WritableByteArray probeBuf = new WritableByteArray(64);
+        private final DataOutputStream probeOut = new DataOutputStream(probeBuf);
+        private final SegmentInputStream stream = new SegmentInputStream();
+        private final DataInputStream in = new DataInputStream(stream);
+
+        // consecutive probes often use the same key
+        private Part lastPart;
+        private long lastKey = -1;
+        private List<Tuple> lastValues;
+
+        private Lookup() {
+        }
+
+        /**
+         * @return the values of key, or null if it is not in the index. The
+         * list and its tuples are shared by probes of the same key and must
+         * not be modified.
+         */
+        List<Tuple> get(Object key) throws IOException {
+            probeBuf.reset();
+            sedes.writeDatum(probeOut, key);
+            byte[] kb = probeBuf.getData();
+            int klen = probeBuf.getLength();
+            int h = FRJoinIndexStorage.hash(kb, klen);
+            Part part = parts[FRJoinIndexStorage.partition(h, parts.length)];
+            int mask = part.capacity - 1;
+            for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+                long pos = part.indexOffset + (long) slot * FRJoinIndexStorage.SLOT_SIZE;
+                long addr = part.getLong(pos + 4);
+                if (addr == -1L) {
+                    return null;
+                }
+                if (part.getInt(pos) == h && part.keyEquals(addr, kb, klen)) {
+                    if (part != lastPart || addr != lastKey) {
+                        lastValues = readValues(part, addr + 4 + klen);
+                        lastPart = part;
+                        lastKey = addr;
+                    }
+                    return lastValues;
+                }
+            }
+        }
+
+        private List<Tuple> readValues(Part part, long pos) throws IOException {
+            int n = part.getInt(pos);
+            pos += 4;
+            List<Tuple> values = new ArrayList<Tuple>(n);
+            stream.part = part;
+            for (int i = 0; i < n; i++) {
+                int len = part.getInt(pos);
+                pos += 4;
+                stream.pos = pos;
+                values.add((Tuple) sedes.readDatum(in));
+                pos += len;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * One mapped index file.
+     */
+    private static class Part {
+        private final MappedByteBuffer[] segments;
+        private final long indexOffset;
+        private final int capacity;
+        private final long numKeys;
+
+        private Part(MappedByteBuffer[] segments, long length) throws IOException {
+            this.segments = segments;
+            long trailer = length - FRJoinIndexStorage.TRAILER_SIZE;
+            if (trailer < 0 || getInt(trailer + 20) != FRJoinIndexStorage.MAGIC) {
+                throw new IOException("Not a replicated join index");
+            }
+            indexOffset = getLong(trailer);
+            capacity = getInt(trailer + 8);
+            numKeys = getLong(trailer + 12);
+        }
+
+        static Part open(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size();
+                int n = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+                MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(n, 1)];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = (long) i << SEGMENT_SHIFT;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(length - start, 1L << SEGMENT_SHIFT));
+                }
+                // the mappings stay valid after the file is closed
+                return new Part(segments, length);
+            } finally {
+                raf.close();
+            }
+        }
+
+        private boolean keyEquals(long addr, byte[] kb, int klen) {
+            if (getInt(addr) != klen) {
+                return false;
+            }
+            addr += 4;
+            for (int i = 0; i < klen; i++) {
+                if (getByte(addr + i) != kb[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte getByte(long pos) {
+            return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+        }
+
+        private int getInt(long pos) {
+            int off = (int) (pos & SEGMENT_MASK);
+            MappedByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            if (off + 4 <= seg.limit()) {
+                return seg.getInt(off);
+            }
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (getByte(pos + i) & 0xFF);
+            }
+            return v;
+        }
+
+        private long getLong(long pos) {
+            int off = (int) (pos & SEGMENT_MASK);
+            MappedByteBuffer seg = segments[(int) (pos >>> SEGMENT_SHIFT)];
+            if (off + 8 <= seg.limit()) {
+                return seg.getLong(off);
+            }
+            return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Reads a mapped part from an absolute position, across mappings.
+     */
+    private static class SegmentInputStream extends InputStream {
+        Part part;
+        long pos;
+
+        @Override
+        public int read() {
+            return part.getByte(pos++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            MappedByteBuffer seg = part.segments[(int) (pos >>> SEGMENT_SHIFT)];
+            int segOff = (int) (pos & SEGMENT_MASK);
+            int n = Math.min(len, seg.limit() - segOff);
+            if (n <= 0) {
+                return -1;
+            }
+            // absolute bulk get on a duplicate, the mapping is shared
+            ByteBuffer dup = seg.duplicate();
+            dup.position(segOff);
+            dup.get(b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
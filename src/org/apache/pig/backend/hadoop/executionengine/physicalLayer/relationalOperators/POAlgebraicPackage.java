@@ -0,0 +1,625 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.builtin.AVG;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.COUNT_STAR;
+import org.apache.pig.builtin.DoubleAvg;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.DoubleMin;
+import org.apache.pig.builtin.DoubleSum;
+import org.apache.pig.builtin.FloatAvg;
+import org.apache.pig.builtin.FloatMax;
+import org.apache.pig.builtin.FloatMin;
+import org.apache.pig.builtin.IntAvg;
+import org.apache.pig.builtin.IntMax;
+import org.apache.pig.builtin.IntMin;
+import org.apache.pig.builtin.LongAvg;
+import org.apache.pig.builtin.LongMax;
+import org.apache.pig.builtin.LongMin;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.builtin.MAX;
+import org.apache.pig.builtin.MIN;
+import org.apache.pig.builtin.SUM;
+import org.apache.pig.data.BinInterSedes;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * A {@link POCombinerPackage} fused with the foreach which follows it in the
+ * reduce plan of a GROUP BY, when the foreach only projects the group key and
+ * applies the Final functions of builtin COUNT, SUM, MIN, MAX and AVG on
+ * numbers. Instead of putting the partial results of the combiners into bags
+ * for the Final functions, it folds them into primitive accumulators with the
+ * same arithmetic as the functions. The values are read raw (see
+ * {@link NullableTuple#setReadRaw(boolean)}), and the partial results are
+ * decoded straight from the serialized values, so that no tuple is created
+ * per value.
+ */
+public class POAlgebraicPackage extends POCombinerPackage {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUM_OP = 0;
+    private static final int MIN_OP = 1;
+    private static final int MAX_OP = 2;
+
+    // the types of the numbers of a partial result
+    private static final byte T_NULL = 0;
+    private static final byte T_INT = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_FLOAT = 3;
+    private static final byte T_DOUBLE = 4;
+    private static final byte T_OTHER = 5;
+    // a number of any of the types above but null
+    private static final byte T_NUMBER = 6;
+
+    /**
+     * How an aggregate folds the partial results of a Final function, which
+     * are tuples of one number, or of a sum and a count for averages.
+     */
+    static enum Aggregate {
+        COUNT(DataType.LONG, SUM_OP, T_LONG),
+        LONG_SUM(DataType.LONG, SUM_OP, T_NUMBER),
+        LONG_MIN(DataType.LONG, MIN_OP, T_NUMBER),
+        LONG_MAX(DataType.LONG, MAX_OP, T_NUMBER),
+        INT_MIN(DataType.INTEGER, MIN_OP, T_INT),
+        INT_MAX(DataType.INTEGER, MAX_OP, T_INT),
+        DOUBLE_SUM(DataType.DOUBLE, SUM_OP, T_NUMBER),
+        DOUBLE_MIN(DataType.DOUBLE, MIN_OP, T_NUMBER),
+        DOUBLE_MAX(DataType.DOUBLE, MAX_OP, T_NUMBER),
+        // SUM, MIN and MAX of bytearrays, with partial results of doubles
+        BYTEARRAY_SUM(DataType.DOUBLE, SUM_OP, T_DOUBLE),
+        BYTEARRAY_MIN(DataType.DOUBLE, MIN_OP, T_DOUBLE),
+        BYTEARRAY_MAX(DataType.DOUBLE, MAX_OP, T_DOUBLE),
+        FLOAT_MIN(DataType.FLOAT, MIN_OP, T_FLOAT),
+        FLOAT_MAX(DataType.FLOAT, MAX_OP, T_FLOAT),
+        // averages of a long sum and of a double sum
+        LONG_AVG(DataType.LONG, SUM_OP, T_LONG),
+        DOUBLE_AVG(DataType.DOUBLE, SUM_OP, T_DOUBLE);
+
+        // the type of the sum
+        final byte type;
+        final int op;
+        // the type the partial results have to have
+        final byte valueType;
+
+        Aggregate(byte type, int op, byte valueType) {
+            this.type = type;
+            this.op = op;
+            this.valueType = valueType;
+        }
+
+        boolean isAverage() {
+            return this == LONG_AVG || this == DOUBLE_AVG;
+        }
+    }
+
+    private static final Map<String, Aggregate> FINALS = new HashMap<String, Aggregate>();
+    static {
+        FINALS.put(COUNT.Final.class.getName(), Aggregate.COUNT);
+        FINALS.put(COUNT_STAR.Final.class.getName(), Aggregate.COUNT);
+        // IntSum sums to a long with the Final of LongSum
+        FINALS.put(LongSum.Final.class.getName(), Aggregate.LONG_SUM);
+        FINALS.put(LongMin.Final.class.getName(), Aggregate.LONG_MIN);
+        FINALS.put(LongMax.Final.class.getName(), Aggregate.LONG_MAX);
+        FINALS.put(IntMin.Final.class.getName(), Aggregate.INT_MIN);
+        FINALS.put(IntMax.Final.class.getName(), Aggregate.INT_MAX);
+        // FloatSum sums to a double with the Final of DoubleSum
+        FINALS.put(DoubleSum.Final.class.getName(), Aggregate.DOUBLE_SUM);
+        FINALS.put(DoubleMin.Final.class.getName(), Aggregate.DOUBLE_MIN);
+        FINALS.put(DoubleMax.Final.class.getName(), Aggregate.DOUBLE_MAX);
+        FINALS.put(SUM.Final.class.getName(), Aggregate.BYTEARRAY_SUM);
+        FINALS.put(MIN.Final.class.getName(), Aggregate.BYTEARRAY_MIN);
+        FINALS.put(MAX.Final.class.getName(), Aggregate.BYTEARRAY_MAX);
+        FINALS.put(FloatMin.Final.class.getName(), Aggregate.FLOAT_MIN);
+        FINALS.put(FloatMax.Final.class.getName(), Aggregate.FLOAT_MAX);
+        FINALS.put(LongAvg.Final.class.getName(), Aggregate.LONG_AVG);
+        FINALS.put(IntAvg.Final.class.getName(), Aggregate.LONG_AVG);
+        FINALS.put(AVG.Final.class.getName(), Aggregate.DOUBLE_AVG);
+        FINALS.put(DoubleAvg.Final.class.getName(), Aggregate.DOUBLE_AVG);
+        FINALS.put(FloatAvg.Final.class.getName(), Aggregate.DOUBLE_AVG);
+    }
+
+    // for each column of the output, the aggregate, or null for the key
+    private final Aggregate[] aggregates;
+    // for each column of the output, the Final function, or null for the key
+    private final String[] funcs;
+    // for each column of the output, the index of its partial result in the
+    // values, or -1 for the key
+    private final int[] valueFields;
+    // the number of partial results in a value
+    private final int numValueFields;
+
+    // the partial results of the value being folded, two numbers per field
+    private transient int[] sizes;
+    private transient byte[] types;
+    private transient long[] longValues;
+    private transient double[] doubleValues;
+    private transient int pos;
+
+    // the accumulators of the columns
+    private transient long[] longs;
+    private transient double[] doubles;
+    private transient float[] floats;
+    private transient long[] counts;
+    private transient boolean[] seen;
+
+    private POAlgebraicPackage(POCombinerPackage pkg, Aggregate[] aggregates, String[] funcs,
+            int[] valueFields, int numValueFields) {
+        super(pkg, pkg.getBags());
+        setKeyInfo(pkg.getKeyInfo());
+        this.isKeyTuple = pkg.isKeyTuple;
+        this.isKeyCompound = pkg.isKeyCompound;
+        this.useSecondaryKey = pkg.useSecondaryKey;
+        this.aggregates = aggregates;
+        this.funcs = funcs;
+        this.valueFields = valueFields;
+        this.numValueFields = numValueFields;
+    }
+
+    /**
+     * Fuse a package with the foreach which follows it.
+     * @param pkg the package
+     * @param foreach the foreach, which only projects the fields of the
+     * package output
+     * @return the fused package, or null if the foreach does more than
+     * project the key and apply builtin Final functions on numbers
+     */
+    public static POAlgebraicPackage create(POCombinerPackage pkg, POForEach foreach)
+            throws ExecException {
+        Map<Integer, Pair<Boolean, Map<Integer, Integer>>> keyInfo = pkg.getKeyInfo();
+        if (keyInfo == null || keyInfo.size() != 1 || keyInfo.get(0) == null
+                || keyInfo.get(0).first) {
+            return null;
+        }
+        Map<Integer, Integer> keyLookup = keyInfo.get(0).second;
+        boolean[] bags = pkg.getBags();
+        // the index of the partial result of each field of the package
+        // output in the values, as POCombinerPackage puts them in bags
+        int[] valueIndex = new int[bags.length];
+        int numValueFields = 0;
+        for (int i = 0; i < bags.length; i++) {
+            if (bags[i] && keyLookup.get(i) == null) {
+                valueIndex[i] = numValueFields++;
+            } else {
+                valueIndex[i] = -1;
+            }
+        }
+
+        List<PhysicalPlan> plans = foreach.getInputPlans();
+        for (boolean flatten : foreach.getToBeFlattened()) {
+            if (flatten) {
+                return null;
+            }
+        }
+        Aggregate[] aggregates = new Aggregate[plans.size()];
+        String[] funcs = new String[plans.size()];
+        int[] valueFields = new int[plans.size()];
+        for (int i = 0; i < plans.size(); i++) {
+            PhysicalPlan plan = plans.get(i);
+            if (plan.getLeaves().size() != 1) {
+                return null;
+            }
+            PhysicalOperator leaf = plan.getLeaves().get(0);
+            if (leaf instanceof POProject && plan.size() == 1) {
+                // the key
+                int column = getColumn((POProject) leaf, bags.length);
+                if (column < 0 || valueIndex[column] >= 0) {
+                    return null;
+                }
+                valueFields[i] = -1;
+            } else if (leaf instanceof POUserFunc && plan.size() == 2) {
+                funcs[i] = ((POUserFunc) leaf).getFuncSpec().getClassName();
+                aggregates[i] = FINALS.get(funcs[i]);
+                List<PhysicalOperator> preds = plan.getPredecessors(leaf);
+                if (aggregates[i] == null || preds == null || preds.size() != 1
+                        || !(preds.get(0) instanceof POProject)) {
+                    return null;
+                }
+                int column = getColumn((POProject) preds.get(0), bags.length);
+                if (column < 0 || valueIndex[column] < 0) {
+                    return null;
+                }
+                valueFields[i] = valueIndex[column];
+            } else {
+                return null;
+            }
+        }
+
+        POAlgebraicPackage fused = new POAlgebraicPackage(pkg, aggregates, funcs,
+                valueFields, numValueFields);
+        fused.setResultType(foreach.getResultType());
+        fused.addOriginalLocation(pkg.getAlias(), pkg.getOriginalLocations());
+        fused.addOriginalLocation(foreach.getAlias(), foreach.getOriginalLocations());
+        return fused;
+    }
+
+    // the column a project of a single column projects, or -1
+    private static int getColumn(POProject project, int numFields) throws ExecException {
+        if (project.isStar() || project.isProjectToEnd() || project.getColumns().size() != 1) {
+            return -1;
+        }
+        int column = project.getColumn();
+        return column < numFields ? column : -1;
+    }
+
+    @Override
+    public String name() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < aggregates.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(aggregates[i] == null ? "key" : aggregates[i].name());
+        }
+        return "POAlgebraicPackage" + "(" + sb + ")" + "[" + DataType.findTypeName(resultType)
+                + "]" + "{" + DataType.findTypeName(keyType) + "}" + " - " + mKey.toString();
+    }
+
+    @Override
+    public Result getNextTuple() throws ExecException {
+        if (longs == null) {
+            sizes = new int[numValueFields];
+            types = new byte[2 * numValueFields];
+            longValues = new long[2 * numValueFields];
+            doubleValues = new double[2 * numValueFields];
+            longs = new long[aggregates.length];
+            doubles = new double[aggregates.length];
+            floats = new float[aggregates.length];
+            counts = new long[aggregates.length];
+            seen = new boolean[aggregates.length];
+        }
+        for (int i = 0; i < aggregates.length; i++) {
+            if (aggregates[i] != null) {
+                reset(i);
+            }
+        }
+
+        while (tupIter.hasNext()) {
+            NullableTuple ntup = tupIter.next();
+            // the values after this one are read raw, hadoop reuses the
+            // value object for all of them
+            ntup.setReadRaw(true);
+            if (ntup.isNull()) {
+                continue;
+            }
+            byte[] raw = ntup.getRawBytes();
+            if (raw == null || !readRaw(raw, ntup.getRawStart(), ntup.getRawEnd())) {
+                readTuple((Tuple) ntup.getValueAsPigType());
+            }
+            for (int i = 0; i < aggregates.length; i++) {
+                if (aggregates[i] != null) {
+                    accumulate(i);
+                }
+            }
+        }
+
+        Tuple res = mTupleFactory.newTuple(aggregates.length);
+        for (int i = 0; i < aggregates.length; i++) {
+            res.set(i, aggregates[i] == null ? key : getValue(i));
+        }
+        Result r = new Result();
+        r.result = res;
+        r.returnStatus = POStatus.STATUS_OK;
+        return r;
+    }
+
+    private void reset(int i) {
+        Aggregate agg = aggregates[i];
+        seen[i] = false;
+        counts[i] = 0;
+        switch (agg.type) {
+        case DataType.LONG:
+            longs[i] = agg.op == MIN_OP ? Long.MAX_VALUE
+                    : agg.op == MAX_OP ? Long.MIN_VALUE : 0L;
+            break;
+        case DataType.INTEGER:
+            longs[i] = agg.op == MIN_OP ? Integer.MAX_VALUE
+                    : agg.op == MAX_OP ? Integer.MIN_VALUE : 0;
+            break;
+        case DataType.DOUBLE:
+            doubles[i] = agg.op == MIN_OP ? Double.POSITIVE_INFINITY
+                    : agg.op == MAX_OP ? Double.NEGATIVE_INFINITY : 0.0;
+            break;
+        case DataType.FLOAT:
+            floats[i] = agg.op == MIN_OP ? Float.POSITIVE_INFINITY
+                    : agg.op == MAX_OP ? Float.NEGATIVE_INFINITY : 0.0f;
+            break;
+        }
+    }
+
+    /**
+     * Fold the partial result of a value into the accumulator of a column,
+     * the way the Final function of the column folds the bag of them.
+     */
+    private void accumulate(int i) throws ExecException {
+        Aggregate agg = aggregates[i];
+        int field = valueFields[i];
+        int slot = 2 * field;
+        if (sizes[field] < (agg.isAverage() ? 2 : 1)) {
+            throw unexpected(i);
+        }
+        byte type = types[slot];
+
+        if (agg.isAverage()) {
+            // a null sum counts as 0
+            if (type != T_NULL) {
+                if (type != agg.valueType) {
+                    throw unexpected(i);
+                }
+                seen[i] = true;
+            }
+            if (types[slot + 1] != T_LONG) {
+                throw unexpected(i);
+            }
+            if (agg == Aggregate.LONG_AVG) {
+                longs[i] += type == T_NULL ? 0L : longValues[slot];
+            } else {
+                doubles[i] += type == T_NULL ? 0.0 : doubleValues[slot];
+            }
+            counts[i] += longValues[slot + 1];
+            return;
+        }
+
+        if (agg == Aggregate.COUNT) {
+            if (type != T_LONG) {
+                throw unexpected(i);
+            }
+            longs[i] += longValues[slot];
+            return;
+        }
+
+        if (type == T_NULL) {
+            return;
+        }
+        if (agg.valueType == T_NUMBER ? type == T_OTHER : type != agg.valueType) {
+            throw unexpected(i);
+        }
+        seen[i] = true;
+        boolean integral = type == T_INT || type == T_LONG;
+        switch (agg.type) {
+        case DataType.LONG: {
+            long v = integral ? longValues[slot] : (long) doubleValues[slot];
+            long sofar = longs[i];
+            longs[i] = agg.op == SUM_OP ? sofar + v
+                    : agg.op == MIN_OP ? Math.min(sofar, v) : Math.max(sofar, v);
+            break;
+        }
+        case DataType.INTEGER: {
+            int v = (int) longValues[slot];
+            int sofar = (int) longs[i];
+            longs[i] = agg.op == MIN_OP ? Math.min(sofar, v) : Math.max(sofar, v);
+            break;
+        }
+        case DataType.DOUBLE: {
+            double v = integral ? (double) longValues[slot] : doubleValues[slot];
+            double sofar = doubles[i];
+            doubles[i] = agg.op == SUM_OP ? sofar + v
+                    : agg.op == MIN_OP ? Math.min(sofar, v) : Math.max(sofar, v);
+            break;
+        }
+        case DataType.FLOAT: {
+            float v = (float) doubleValues[slot];
+            float sofar = floats[i];
+            floats[i] = agg.op == MIN_OP ? Math.min(sofar, v) : Math.max(sofar, v);
+            break;
+        }
+        }
+    }
+
+    private Object getValue(int i) {
+        Aggregate agg = aggregates[i];
+        if (agg == Aggregate.COUNT) {
+            return Long.valueOf(longs[i]);
+        }
+        if (!seen[i]) {
+            return null;
+        }
+        if (agg.isAverage()) {
+            if (counts[i] <= 0) {
+                return null;
+            }
+            double sum = agg == Aggregate.LONG_AVG ? (double) longs[i] : doubles[i];
+            return Double.valueOf(sum / counts[i]);
+        }
+        switch (agg.type) {
+        case DataType.LONG:
+            return Long.valueOf(longs[i]);
+        case DataType.INTEGER:
+            return Integer.valueOf((int) longs[i]);
+        case DataType.DOUBLE:
+            return Double.valueOf(doubles[i]);
+        default:
+            return Float.valueOf(floats[i]);
+        }
+    }
+
+    private ExecException unexpected(int i) {
+        int errCode = 2106;
+        String msg = "Unexpected partial result for " + funcs[i] + " in " + name();
+        return new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    /**
+     * Read the partial results of a value which was deserialized.
+     */
+    private void readTuple(Tuple value) throws ExecException {
+        if (value.size() != numValueFields) {
+            throw new ExecException("Unexpected value with " + value.size()
+                    + " fields in " + name(), 2106, PigException.BUG);
+        }
+        for (int field = 0; field < numValueFields; field++) {
+            Object o = value.get(field);
+            if (!(o instanceof Tuple)) {
+                sizes[field] = 0;
+                continue;
+            }
+            Tuple partial = (Tuple) o;
+            sizes[field] = Math.min(partial.size(), 2);
+            for (int j = 0; j < sizes[field]; j++) {
+                int slot = 2 * field + j;
+                Object n = partial.get(j);
+                if (n == null) {
+                    types[slot] = T_NULL;
+                } else if (n instanceof Integer) {
+                    types[slot] = T_INT;
+                    longValues[slot] = (Integer) n;
+                } else if (n instanceof Long) {
+                    types[slot] = T_LONG;
+                    longValues[slot] = (Long) n;
+                } else if (n instanceof Float) {
+                    types[slot] = T_FLOAT;
+                    doubleValues[slot] = (Float) n;
+                } else if (n instanceof Double) {
+                    types[slot] = T_DOUBLE;
+                    doubleValues[slot] = (Double) n;
+                } else {
+                    types[slot] = T_OTHER;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the partial results of a value from its serialized tuple.
+     * @return false if the value holds anything else than generic tuples of
+     * up to two numbers, in which case it has to be deserialized
+     */
+    private boolean readRaw(byte[] b, int start, int end) {
+        pos = start;
+        if (readTupleSize(b) != numValueFields) {
+            return false;
+        }
+        for (int field = 0; field < numValueFields; field++) {
+            if (b[pos] == BinInterSedes.NULL) {
+                pos++;
+                sizes[field] = 0;
+                continue;
+            }
+            int size = readTupleSize(b);
+            if (size < 0 || size > 2) {
+                return false;
+            }
+            sizes[field] = size;
+            for (int j = 0; j < size; j++) {
+                if (!readNumber(b, 2 * field + j)) {
+                    return false;
+                }
+            }
+        }
+        return pos == end;
+    }
+
+    private int readTupleSize(byte[] b) {
+        byte type = b[pos++];
+        if (type >= BinInterSedes.TUPLE_0 && type <= BinInterSedes.TUPLE_9) {
+            return type - BinInterSedes.TUPLE_0;
+        }
+        switch (type) {
+        case BinInterSedes.TINYTUPLE:
+            return b[pos++] & 0xff;
+        case BinInterSedes.SMALLTUPLE:
+            pos += 2;
+            return readShort(b, pos - 2) & 0xffff;
+        case BinInterSedes.TUPLE:
+            pos += 4;
+            return readInt(b, pos - 4);
+        default:
+            return -1;
+        }
+    }
+
+    private boolean readNumber(byte[] b, int slot) {
+        byte type = b[pos++];
+        switch (type) {
+        case BinInterSedes.NULL:
+            types[slot] = T_NULL;
+            return true;
+        case BinInterSedes.INTEGER_0:
+            return setLong(slot, T_INT, 0, 0);
+        case BinInterSedes.INTEGER_1:
+            return setLong(slot, T_INT, 1, 0);
+        case BinInterSedes.INTEGER_INBYTE:
+            return setLong(slot, T_INT, b[pos], 1);
+        case BinInterSedes.INTEGER_INSHORT:
+            return setLong(slot, T_INT, readShort(b, pos), 2);
+        case BinInterSedes.INTEGER:
+            return setLong(slot, T_INT, readInt(b, pos), 4);
+        case BinInterSedes.LONG_0:
+            return setLong(slot, T_LONG, 0, 0);
+        case BinInterSedes.LONG_1:
+            return setLong(slot, T_LONG, 1, 0);
+        case BinInterSedes.LONG_INBYTE:
+            return setLong(slot, T_LONG, b[pos], 1);
+        case BinInterSedes.LONG_INSHORT:
+            return setLong(slot, T_LONG, readShort(b, pos), 2);
+        case BinInterSedes.LONG_ININT:
+            return setLong(slot, T_LONG, readInt(b, pos), 4);
+        case BinInterSedes.LONG:
+            return setLong(slot, T_LONG, readLong(b, pos), 8);
+        case BinInterSedes.FLOAT:
+            types[slot] = T_FLOAT;
+            doubleValues[slot] = Float.intBitsToFloat(readInt(b, pos));
+            pos += 4;
+            return true;
+        case BinInterSedes.DOUBLE:
+            types[slot] = T_DOUBLE;
+            doubleValues[slot] = Double.longBitsToDouble(readLong(b, pos));
+            pos += 8;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private boolean setLong(int slot, byte type, long value, int length) {
+        types[slot] = type;
+        longValues[slot] = value;
+        pos += length;
+        return true;
+    }
+
+    private static short readShort(byte[] b, int off) {
+        return (short) (((b[off] & 0xff) << 8) | (b[off + 1] & 0xff));
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return ((long) readInt(b, off) << 32) | (readInt(b, off + 4) & 0xffffffffL);
+    }
+}
@@ -113,6 +113,14 @@ public class POCombinerPackage extends POPackage {
         keyLookup = lrKeyInfo.second;
     }
 
+    /**
+     * @return for each field of the output, whether the values are put in a
+     * bag in it rather than the key
+     */
+    public boolean[] getBags() {
+        return mBags;
+    }
+
     private DataBag createDataBag(int numBags) {
     	String bagType = null;
         if (PigMapReduce.sJobConfInternal.get() != null) {
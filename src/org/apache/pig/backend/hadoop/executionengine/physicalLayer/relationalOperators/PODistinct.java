@@ -18,6 +18,7 @@
 
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -51,6 +52,10 @@ public class PODistinct extends PhysicalOperator implements Cloneable {
     private boolean inputsAccumulated = false;
     private DataBag distinctBag = null;
     transient Iterator<Tuple> it;
+    // in accumulative mode, the tuples passed on in the earlier batches of
+    // the input, one spillable bag per batch, which has to be reset for each
+    // input
+    private transient List<DataBag> seen;
 
     // PIG-3385: Since GlobalRearrange is not used by PODistinct, passing the
     // custom partioner through here
@@ -115,6 +120,11 @@ public class PODistinct extends PhysicalOperator implements Cloneable {
                 }
             }
 
+            // in accumulative mode, distinct the tuples across the batches,
+            // so that accumulators see each one once
+            if (isAccumulative() && isAccumStarted()) {
+                distinctBag = removeSeen(distinctBag);
+            }
             inputsAccumulated = true;
         }
         if (it == null) {
@@ -123,13 +133,49 @@ public class PODistinct extends PhysicalOperator implements Cloneable {
         res.result = it.next();
         if (res.result == null){
             res.returnStatus = POStatus.STATUS_EOP;
-            reset();
+            resetBatch();
         } else {
             res.returnStatus = POStatus.STATUS_OK;
         }
         return res;
     }
 
+    /**
+     * Remove the tuples passed on in the earlier batches from a batch. The
+     * distinct bags iterate in sorted order, so the batch is merged with the
+     * bag of each earlier batch.
+     * @return the tuples of the batch not seen before
+     */
+    private DataBag removeSeen(DataBag batch) {
+        if (seen == null) {
+            seen = new ArrayList<DataBag>();
+        }
+        DataBag fresh = batch;
+        if (!seen.isEmpty()) {
+            fresh = new InternalDistinctBag(3);
+            List<Iterator<Tuple>> its = new ArrayList<Iterator<Tuple>>(seen.size());
+            Tuple[] heads = new Tuple[seen.size()];
+            for (int i = 0; i < heads.length; i++) {
+                its.add(seen.get(i).iterator());
+                heads[i] = its.get(i).hasNext() ? its.get(i).next() : null;
+            }
+            for (Tuple t : batch) {
+                boolean found = false;
+                for (int i = 0; i < heads.length; i++) {
+                    while (heads[i] != null && heads[i].compareTo(t) < 0) {
+                        heads[i] = its.get(i).hasNext() ? its.get(i).next() : null;
+                    }
+                    found |= heads[i] != null && heads[i].compareTo(t) == 0;
+                }
+                if (!found) {
+                    fresh.add(t);
+                }
+            }
+        }
+        seen.add(fresh);
+        return fresh;
+    }
+
     @Override
     public String name() {
         return getAliasString() + "PODistinct" + "["
@@ -149,6 +195,11 @@ public class PODistinct extends PhysicalOperator implements Cloneable {
 
     @Override
     public void reset() {
+        resetBatch();
+        seen = null;
+    }
+
+    private void resetBatch() {
         inputsAccumulated = false;
         distinctBag = null;
         it = null;
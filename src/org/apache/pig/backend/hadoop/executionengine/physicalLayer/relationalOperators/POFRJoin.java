@@ -17,10 +17,12 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,10 +30,14 @@ import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
@@ -48,6 +54,7 @@ import org.apache.pig.data.SchemaTupleFactory;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FRJoinIndexStorage;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.plan.NodeIdGenerator;
@@ -92,7 +99,7 @@ public class POFRJoin extends PhysicalOperator {
     // The array of Hashtables one per replicated input. replicates[fragment] =
     // null
     // fragment is the input which is fragmented and not replicated.
-    private TupleToMapKey replicates[];
+    private Replicate replicates[];
     // varaible which denotes whether we are returning tuples from the foreach
     // operator
     private boolean processingPlan;
@@ -109,6 +116,9 @@ public class POFRJoin extends PhysicalOperator {
     private DataBag nullBag;
     private Schema[] inputSchemas;
     private Schema[] keySchemas;
+    // Keys of the replicate tables taken from FRJoinTableCache, given back
+    // in finish()
+    private transient List<String> cachedTableKeys;
 
     public POFRJoin(OperatorKey k, int rp, List<PhysicalOperator> inp,
             List<List<PhysicalPlan>> ppLists, List<List<Byte>> keyTypes,
@@ -130,7 +140,7 @@ public class POFRJoin extends PhysicalOperator {
         this.fragment = fragment;
         this.keyTypes = keyTypes;
         this.replFiles = replFiles;
-        replicates = new TupleToMapKey[ppLists.size()];
+        replicates = new Replicate[ppLists.size()];
         LRs = new POLocalRearrange[ppLists.size()];
         constExps = new ConstantExpression[ppLists.size()];
         createJoinPlans(k);
@@ -274,8 +284,7 @@ public class POFRJoin extends PhysicalOperator {
                 return new Result();
             }
             Tuple lrOutTuple = (Tuple) lrOut.result;
-            Tuple key = TupleFactory.getInstance().newTuple(1);
-            key.set(0, lrOutTuple.get(1));
+            Object key = lrOutTuple.get(1);
             Tuple value = getValueTuple(lr, lrOutTuple);
             lr.detachInput();
             // Configure the for each operator with the relevant bags
@@ -288,15 +297,15 @@ public class POFRJoin extends PhysicalOperator {
                     ce.setValue(value);
                     continue;
                 }
-                TupleToMapKey replicate = replicates[i];
-                if (replicate.get(key) == null) {
+                List<Tuple> values = replicates[i].getValues(key);
+                if (values == null) {
                     if (isLeftOuterJoin) {
                         ce.setValue(nullBag);
                     }
                     noMatch = true;
                     break;
                 }
-                ce.setValue(new NonSpillableDataBag(replicate.get(key).getList()));
+                ce.setValue(new NonSpillableDataBag(values));
             }
 
             // If this is not LeftOuter Join and there was no match we
@@ -318,7 +327,51 @@ public class POFRJoin extends PhysicalOperator {
         }
     }
 
-    private static class TupleToMapKey {
+    /**
+     * Lookup structure for one replicated input.
+     */
+    private interface Replicate {
+        /**
+         * @param key join key of a fragment tuple
+         * @return tuples of the replicated input with this key, or null if
+         * there are none
+         */
+        List<Tuple> getValues(Object key) throws ExecException;
+    }
+
+    private static class CompactReplicate implements Replicate {
+        private FRJoinHashTable.Lookup lookup;
+
+        public CompactReplicate(FRJoinHashTable table) {
+            lookup = table.newLookup();
+        }
+
+        @Override
+        public List<Tuple> getValues(Object key) throws ExecException {
+            return lookup.get(key);
+        }
+    }
+
+    private static class MappedReplicate implements Replicate {
+        private MappedFRJoinTable.Lookup lookup;
+
+        public MappedReplicate(MappedFRJoinTable table) {
+            lookup = table.newLookup();
+        }
+
+        @Override
+        public List<Tuple> getValues(Object key) throws ExecException {
+            try {
+                return lookup.get(key);
+            } catch (IOException e) {
+                int errCode = 2273;
+                String msg = "Unable to read replicated join index";
+                throw new ExecException(msg, errCode, PigException.BUG, e);
+            }
+        }
+    }
+
+    private static class TupleToMapKey implements Replicate {
         private HashMap<Tuple, TuplesToSchemaTupleList> tuples;
         private SchemaTupleFactory tf;
 
@@ -340,6 +393,14 @@ public class POFRJoin extends PhysicalOperator {
             }
             return tuples.get(key);
         }
+
+        @Override
+        public List<Tuple> getValues(Object key) throws ExecException {
+            Tuple keyTuple = TupleFactory.getInstance().newTuple(1);
+            keyTuple.set(0, key);
+            TuplesToSchemaTupleList values = get(keyTuple);
+            return values == null ? null : values.getList();
+        }
     }
 
     /**
@@ -364,6 +425,19 @@ public class POFRJoin extends PhysicalOperator {
             }
         }
 
+        Configuration conf = PigMapReduce.sJobConfInternal.get();
+        boolean useCompactTable = conf == null
+                || conf.getBoolean(PigConfiguration.PIG_JOIN_REPLICATED_COMPACT, true);
+        // Caching only pays off if later tasks can run in this JVM
+        FRJoinTableCache cache = FRJoinTableCache.getInstance();
+        boolean useCache = false;
+        if (conf != null && conf.getInt("mapred.job.reuse.jvm.num.tasks", 1) != 1) {
+            cache.setMaxBytes(conf.getLong(PigConfiguration.PIG_JOIN_REPLICATED_CACHE_BYTES,
+                    Runtime.getRuntime().maxMemory() / 4));
+            useCache = cache.isEnabled();
+        }
+        cachedTableKeys = new ArrayList<String>();
+
         int i = -1;
         long time1 = System.currentTimeMillis();
         for (FileSpec replFile : replFiles) {
@@ -377,6 +451,40 @@ public class POFRJoin extends PhysicalOperator {
                 continue;
             }
 
+            if (isIndex(replFile)) {
+                File[] indexFiles = getIndexFiles(replFile.getFileName());
+                try {
+                    MappedFRJoinTable table = MappedFRJoinTable.open(indexFiles);
+                    long bytes = 0;
+                    for (File f : indexFiles) {
+                        bytes += f.length();
+                    }
+                    log.info("Mapped index of replicated input " + i + ": " + table.size()
+                            + " keys in " + indexFiles.length + " parts of " + bytes + " bytes");
+                    replicates[i] = new MappedReplicate(table);
+                } catch (IOException e) {
+                    int errCode = 2273;
+                    String msg = "Unable to read replicated join index " + replFile.getFileName();
+                    throw new ExecException(msg, errCode, PigException.BUG, e);
+                }
+                continue;
+            }
+
+            // Keys whose serialized form is not unique have to be kept as
+            // objects
+            boolean compact = useCompactTable
+                    && FRJoinHashTable.supportsKeyTypes(keyTypes.get(i));
+            String cacheKey = compact && useCache ? getCacheKey(i) : null;
+            if (cacheKey != null) {
+                FRJoinHashTable cached = cache.acquire(cacheKey);
+                if (cached != null) {
+                    log.info("Using cached table for replicated input " + i);
+                    cachedTableKeys.add(cacheKey);
+                    replicates[i] = new CompactReplicate(cached);
+                    continue;
+                }
+            }
+
             POLoad ld = new POLoad(new OperatorKey("Repl File Loader", 1L),
                     replFile);
             
@@ -392,7 +500,13 @@ public class POFRJoin extends PhysicalOperator {
             POLocalRearrange lr = LRs[i];
             lr.setInputs(Arrays.asList((PhysicalOperator) ld));
 
-            TupleToMapKey replicate = new TupleToMapKey(1000, keySchemaTupleFactory);
+            FRJoinHashTable table = null;
+            TupleToMapKey replicate = null;
+            if (compact) {
+                table = new FRJoinHashTable();
+            } else {
+                replicate = new TupleToMapKey(1000, keySchemaTupleFactory);
+            }
 
             log.debug("Completed setup. Trying to build replication hash table");
             for (Result res = lr.getNextTuple(); res.returnStatus != POStatus.STATUS_EOP; res = lr.getNextTuple()) {
@@ -400,22 +514,127 @@ public class POFRJoin extends PhysicalOperator {
                     getReporter().progress();
                 Tuple tuple = (Tuple) res.result;
                 if (isKeyNull(tuple.get(1))) continue;
-                Tuple key = mTupleFactory.newTuple(1);
-                key.set(0, tuple.get(1));
                 Tuple value = getValueTuple(lr, tuple);
 
-                if (replicate.get(key) == null) {
-                    replicate.put(key, new TuplesToSchemaTupleList(1, inputSchemaTupleFactory));
+                if (table != null) {
+                    table.add(tuple.get(1), value);
+                    continue;
                 }
 
-                replicate.get(key).add(value);
+                Tuple key = mTupleFactory.newTuple(1);
+                key.set(0, tuple.get(1));
+                TuplesToSchemaTupleList values = replicate.get(key);
+                if (values == null) {
+                    values = new TuplesToSchemaTupleList(1, inputSchemaTupleFactory);
+                    replicate.put(key, values);
+                }
+                values.add(value);
+            }
+            if (table != null) {
+                log.info("Replicated input " + i + ": " + table.numValues() + " tuples, "
+                        + table.size() + " keys in " + table.getMemorySize() + " bytes");
+                if (cacheKey != null) {
+                    FRJoinHashTable cached = cache.put(cacheKey, table);
+                    if (cached != null) {
+                        cachedTableKeys.add(cacheKey);
+                        table = cached;
+                    }
+                }
+                replicates[i] = new CompactReplicate(table);
+            } else {
+                replicates[i] = replicate;
             }
-            replicates[i] = replicate;
         }
         long time2 = System.currentTimeMillis();
         log.debug("Hash Table built. Time taken: " + (time2 - time1));
     }
 
+    private static boolean isIndex(FileSpec replFile) {
+        return replFile.getFuncSpec() != null && FRJoinIndexStorage.class.getName()
+                .equals(replFile.getFuncSpec().getClassName());
+    }
+
+    /**
+     * @param location output directory of the index job, or a link to it in
+     * the task's working directory
+     * @return the parts of the index, one per reducer of the index job, in
+     * the order of their partitions
+     */
+    private static File[] getIndexFiles(String location) throws ExecException {
+        File f = new File(new Path(location).toUri().getPath());
+        List<File> parts = new ArrayList<File>();
+        if (f.isDirectory()) {
+            File[] files = f.listFiles();
+            for (int i = 0; files != null && i < files.length; i++) {
+                if (files[i].getName().startsWith("part") && files[i].isFile()) {
+                    parts.add(files[i]);
+                }
+            }
+        } else if (f.isFile()) {
+            parts.add(f);
+        }
+        if (!parts.isEmpty()) {
+            // part-r-00000, part-r-00001, ...
+            Collections.sort(parts);
+            return parts.toArray(new File[parts.size()]);
+        }
+        int errCode = 2273;
+        String msg = "Unable to find replicated join index in " + location;
+        throw new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    /**
+     * @param i index of a replicated input
+     * @return true if the replicated input can be written by
+     * {@link FRJoinIndexStorage}
+     */
+    public boolean canIndex(int i) {
+        return i != fragment && FRJoinHashTable.supportsKeyTypes(keyTypes.get(i));
+    }
+
+    /**
+     * @return the Local Rearrange operators which take the join key out of
+     * the tuples of each input
+     */
+    public POLocalRearrange[] getLRs() {
+        return LRs;
+    }
+
+    /**
+     * Identifies the table built for a replicated input by the local file it
+     * is read from and by how keys and values are taken out of its tuples.
+     * @return the key, or null if the input is not a local file
+     */
+    private String getCacheKey(int i) {
+        File f = new File(replFiles[i].getFileName());
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            return f.getCanonicalPath() + "@" + f.lastModified() + ":" + f.length()
+                    + "#" + replFiles[i].getFuncSpec() + "#" + mKey + "#" + i
+                    + "#" + phyPlanLists.get(i);
+        } catch (IOException e) {
+            log.warn("Not caching replicated input " + i, e);
+            return null;
+        }
+    }
+
+    /**
+     * Give back the replicate tables this operator took from the process wide
+     * cache, so that they can be evicted once no task uses them.
+     */
+    public void finish() {
+        if (cachedTableKeys == null) {
+            return;
+        }
+        FRJoinTableCache cache = FRJoinTableCache.getInstance();
+        for (String key : cachedTableKeys) {
+            cache.release(key);
+        }
+        cachedTableKeys = null;
+    }
+
     private boolean isKeyNull(Object key) throws ExecException {
         if (key == null) return true;
         if (key instanceof Tuple) {
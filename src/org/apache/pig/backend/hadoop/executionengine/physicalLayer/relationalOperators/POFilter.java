@@ -23,6 +23,11 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.GeneratedExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.ColumnVector;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.TupleBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.VectorExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.VectorExpressionBuilder;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.data.DataType;
@@ -61,6 +66,25 @@ public class POFilter extends PhysicalOperator {
     // appropriate type
     byte compOperandType;
 
+    // When greater than 0, input tuples are buffered and the plan is
+    // evaluated for batchSize of them at a time, see setBatchSize
+    private int batchSize = 0;
+
+    private transient TupleBatch batch;
+    private transient VectorExpression vectorPlan;
+    private transient boolean batchEvaluated;
+    // the rows of batch which pass the filter
+    private transient int[] selected;
+    private transient int numSelected;
+    private transient int nextSelected;
+
+    // The name of a class generated for the expression plan, see
+    // setGeneratedClassName
+    private String generatedClassName;
+
+    private transient GeneratedExpression generatedPlan;
+    private transient boolean generatedPlanLoaded;
+
     public POFilter(OperatorKey k) {
         this(k, -1, null);
     }
@@ -85,6 +109,9 @@ public class POFilter extends PhysicalOperator {
      */
     @Override
     public Result getNextTuple() throws ExecException {
+        if (batchSize > 0 && illustrator == null) {
+            return getNextTupleBatched();
+        }
         Result res = null;
         Result inp = null;
         while (true) {
@@ -96,6 +123,22 @@ public class POFilter extends PhysicalOperator {
                 continue;
             }
 
+            if (generatedClassName != null && illustrator == null) {
+                if (!generatedPlanLoaded) {
+                    generatedPlan = GeneratedExpression.newInstance(generatedClassName, this);
+                    generatedPlanLoaded = true;
+                }
+                if (generatedPlan != null) {
+                    Object passed = generatedPlan.evaluate((Tuple) inp.result);
+                    if (passed != GeneratedExpression.FALLBACK) {
+                        if (passed != null && (Boolean) passed) {
+                            return inp;
+                        }
+                        continue;
+                    }
+                }
+            }
+
             plan.attachInput((Tuple) inp.result);
 
             /*
@@ -155,6 +198,110 @@ public class POFilter extends PhysicalOperator {
         return inp;
     }
 
+    /**
+     * Buffers input tuples until a batch is full, or until the end of all
+     * input, filters the whole batch and then returns the tuples which
+     * passed one at a time.
+     */
+    private Result getNextTupleBatched() throws ExecException {
+        if (batch == null) {
+            batch = new TupleBatch(batchSize);
+            selected = new int[batchSize];
+            vectorPlan = VectorExpressionBuilder.buildPredicate(plan, batchSize);
+        }
+        while (true) {
+            if (nextSelected < numSelected) {
+                return new Result(POStatus.STATUS_OK, batch.get(selected[nextSelected++]));
+            }
+            if (batchEvaluated) {
+                batch.clear();
+                batchEvaluated = false;
+                numSelected = nextSelected = 0;
+            }
+            Result inp = processInput();
+            if (inp.returnStatus == POStatus.STATUS_OK) {
+                batch.add((Tuple) inp.result);
+                if (!batch.isFull()) {
+                    continue;
+                }
+            } else if (inp.returnStatus == POStatus.STATUS_NULL) {
+                continue;
+            } else if (inp.returnStatus != POStatus.STATUS_EOP
+                    || batch.size() == 0
+                    || parentPlan == null || !parentPlan.endOfAllInput) {
+                // keep what is buffered for the next call
+                return inp;
+            }
+            Result err = filterBatch();
+            if (err != null) {
+                return err;
+            }
+            batchEvaluated = true;
+        }
+    }
+
+    /**
+     * Select the rows of the batch which pass the filter, with the vector
+     * plan or, if the batch does not fit it, a row at a time.
+     * @return an error result or null
+     */
+    private Result filterBatch() throws ExecException {
+        ColumnVector result = vectorPlan == null ? null : vectorPlan.evaluate(batch);
+        int n = batch.size();
+        numSelected = 0;
+        if (result != null) {
+            for (int i = 0; i < n; i++) {
+                if (result.isTrue(i)) {
+                    selected[numSelected++] = i;
+                }
+            }
+            return null;
+        }
+        for (int i = 0; i < n; i++) {
+            plan.attachInput(batch.get(i));
+            Result res = comOp.getNextBoolean();
+            plan.detachInput();
+            if (res.returnStatus == POStatus.STATUS_ERR) {
+                return res;
+            }
+            if (res.returnStatus == POStatus.STATUS_OK && res.result != null
+                    && (Boolean) res.result) {
+                selected[numSelected++] = i;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make this filter evaluate its plan for batchSize input tuples at a
+     * time, with a {@link VectorExpression} where the plan allows. Tuples are
+     * held back until a batch is full, so this may only be used in plans
+     * which are run once more at the end of all input.
+     * @param batchSize number of tuples per batch, 0 for a tuple at a time
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Make this filter evaluate its plan with a class generated for it by
+     * {@link org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.ExpressionClassGenerator},
+     * when the class is available on the backend. The plan is still run by
+     * its operators for tuples the class was not generated for.
+     * @param generatedClassName name of the generated class, or null
+     */
+    public void setGeneratedClassName(String generatedClassName) {
+        this.generatedClassName = generatedClassName;
+    }
+
+    public String getGeneratedClassName() {
+        return generatedClassName;
+    }
+
     @Override
     public String name() {
         return getAliasString() + "Filter" + "["
@@ -31,6 +31,11 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.PORelationToExprProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.GeneratedExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.ColumnVector;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.TupleBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.VectorExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector.VectorExpressionBuilder;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.data.AccumulativeBag;
@@ -94,6 +99,34 @@ public class POForEach extends PhysicalOperator {
 
     private Schema schema;
 
+    // When greater than 0, input tuples are buffered and the plans are
+    // evaluated for batchSize of them at a time, see setBatchSize
+    private int batchSize = 0;
+
+    private transient TupleBatch batch;
+    private transient boolean batchEvaluated;
+    private transient int nextRow;
+    private transient VectorExpression[] vectorPlans;
+    // per plan, the values for the batch from its vector plan, or if there
+    // is none or the batch does not fit it, from running it a row at a time
+    private transient ColumnVector[] batchColumns;
+    private transient Object[][] rowColumns;
+    private transient Object[] batchData;
+
+    // In accumulative mode, for each input plan whether it is evaluated once
+    // with all the tuples rather than a batch at a time, see
+    // setMaterializedPlans
+    private boolean[] materializedPlans;
+
+    // The names of classes generated for the input plans, with null for
+    // plans which have none, see setGeneratedClassNames
+    private String[] generatedClassNames;
+
+    private transient GeneratedExpression[] generatedPlans;
+    // whether the generated plans are yet to be evaluated for the input
+    // attached to the plans
+    private transient boolean generatedPlansPending;
+
     public POForEach(OperatorKey k) {
         this(k,-1,null,null);
     }
@@ -160,8 +193,11 @@ public class POForEach extends PhysicalOperator {
     @Override
     public void setAccumulative() {
         super.setAccumulative();
-        for(PhysicalPlan p : inputPlans) {
-            Iterator<PhysicalOperator> iter = p.iterator();
+        for(int i = 0; i < inputPlans.size(); i++) {
+            if (isMaterialized(i)) {
+                continue;
+            }
+            Iterator<PhysicalOperator> iter = inputPlans.get(i).iterator();
             while(iter.hasNext()) {
                 PhysicalOperator po = iter.next();
                 if (po instanceof ExpressionOperator || po instanceof PODistinct) {
@@ -174,8 +210,11 @@ public class POForEach extends PhysicalOperator {
     @Override
     public void setAccumStart() {
         super.setAccumStart();
-        for(PhysicalPlan p : inputPlans) {
-            Iterator<PhysicalOperator> iter = p.iterator();
+        for(int i = 0; i < inputPlans.size(); i++) {
+            if (isMaterialized(i)) {
+                continue;
+            }
+            Iterator<PhysicalOperator> iter = inputPlans.get(i).iterator();
             while(iter.hasNext()) {
                 PhysicalOperator po = iter.next();
                 if (po instanceof ExpressionOperator || po instanceof PODistinct) {
@@ -188,8 +227,11 @@ public class POForEach extends PhysicalOperator {
     @Override
     public void setAccumEnd() {
         super.setAccumEnd();
-        for(PhysicalPlan p : inputPlans) {
-            Iterator<PhysicalOperator> iter = p.iterator();
+        for(int i = 0; i < inputPlans.size(); i++) {
+            if (isMaterialized(i)) {
+                continue;
+            }
+            Iterator<PhysicalOperator> iter = inputPlans.get(i).iterator();
             while(iter.hasNext()) {
                 PhysicalOperator po = iter.next();
                 if (po instanceof ExpressionOperator || po instanceof PODistinct) {
@@ -206,6 +248,9 @@ public class POForEach extends PhysicalOperator {
      */
     @Override
     public Result getNextTuple() throws ExecException {
+        if (batchSize > 0 && illustrator == null) {
+            return getNextTupleBatched();
+        }
         try {
             Result res = null;
             Result inp = null;
@@ -277,6 +322,7 @@ public class POForEach extends PhysicalOperator {
                             inpTuple = ((POPackage.POPackageTupleBuffer) buffer).illustratorMarkup(null, inpTuple, 0);
                             //                       buffer.clear();
                             setAccumEnd();
+                            attachMaterializedInput(inpTuple);
                         }
 
                         res = processPlan();
@@ -294,7 +340,22 @@ public class POForEach extends PhysicalOperator {
                         }
                     }
 
+                    // the package leaves the keys without tuples of an
+                    // inner input to the foreach in accumulative mode,
+                    // which only flattens nothing then
+                    if (res.returnStatus == POStatus.STATUS_OK
+                            && ((POPackage.POPackageTupleBuffer) buffer).isInnerInputEmpty()) {
+                        res.returnStatus = POStatus.STATUS_NULL;
+                        res.result = null;
+                    }
+
                 } else {
+                    if (generatedClassNames != null && illustrator == null) {
+                        if (generatedPlans == null) {
+                            loadGeneratedPlans();
+                        }
+                        generatedPlansPending = true;
+                    }
                     res = processPlan();
                 }
 
@@ -319,7 +380,182 @@ public class POForEach extends PhysicalOperator {
         isEarlyTerminated = true;
     }
 
-    protected Result processPlan() throws ExecException{
+    /**
+     * Buffers input tuples until a batch is full, or until the end of all
+     * input, evaluates the plans for the whole batch and then returns the
+     * output tuples one at a time.
+     */
+    private Result getNextTupleBatched() throws ExecException {
+        if (batch == null) {
+            batch = new TupleBatch(batchSize);
+            vectorPlans = new VectorExpression[noItems];
+            for (int i = 0; i < noItems; i++) {
+                vectorPlans[i] = VectorExpressionBuilder.buildValue(inputPlans.get(i), batchSize);
+            }
+            batchColumns = new ColumnVector[noItems];
+            rowColumns = new Object[noItems][];
+            batchData = new Object[noItems];
+            initTupleMaker();
+        }
+        while (true) {
+            if (batchEvaluated && nextRow < batch.size()) {
+                int row = nextRow++;
+                for (int i = 0; i < noItems; i++) {
+                    batchData[i] = batchColumns[i] != null
+                            ? batchColumns[i].get(row) : rowColumns[i][row];
+                }
+                inpTuple = batch.get(row);
+                return new Result(POStatus.STATUS_OK, createTuple(batchData));
+            }
+            if (batchEvaluated) {
+                batch.clear();
+                batchEvaluated = false;
+                nextRow = 0;
+            }
+            Result inp = processInput();
+            if (inp.returnStatus == POStatus.STATUS_OK) {
+                batch.add((Tuple) inp.result);
+                if (!batch.isFull()) {
+                    continue;
+                }
+            } else if (inp.returnStatus == POStatus.STATUS_NULL) {
+                continue;
+            } else if (inp.returnStatus != POStatus.STATUS_EOP
+                    || batch.size() == 0
+                    || parentPlan == null || !parentPlan.endOfAllInput) {
+                // keep what is buffered for the next call
+                return inp;
+            }
+            Result err = evaluateBatch();
+            if (err != null) {
+                return err;
+            }
+            batchEvaluated = true;
+        }
+    }
+
+    /**
+     * Evaluate every plan for the batch, with its vector plan or, if the
+     * batch does not fit it, a row at a time.
+     * @return an error result or null
+     */
+    private Result evaluateBatch() throws ExecException {
+        int n = batch.size();
+        for (int i = 0; i < noItems; i++) {
+            batchColumns[i] = vectorPlans[i] == null ? null : vectorPlans[i].evaluate(batch);
+            if (batchColumns[i] != null) {
+                continue;
+            }
+            if (rowColumns[i] == null) {
+                rowColumns[i] = new Object[batchSize];
+            }
+            PhysicalPlan plan = inputPlans.get(i);
+            for (int row = 0; row < n; row++) {
+                plan.attachInput(batch.get(row));
+                Result res = planLeafOps[i].getNext(resultTypes[i]);
+                plan.detachInput();
+                if (res.returnStatus == POStatus.STATUS_ERR) {
+                    return res;
+                }
+                rowColumns[i][row] = res.result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make this foreach evaluate its plans for batchSize input tuples at a
+     * time, with {@link VectorExpression}s where the plans allow. Only
+     * foreach operators which flatten nothing, are not accumulative and
+     * reset no nested operators can run in batches. Tuples are held back
+     * until a batch is full, so this may only be used in plans which are
+     * run once more at the end of all input.
+     * @param batchSize number of tuples per batch, 0 for a tuple at a time
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * In accumulative mode, evaluate some of the input plans only once all
+     * the tuples of the package are read, with the bags the package
+     * materializes for them instead of the accumulative bags. Their
+     * operators do not accumulate. This has to be called before
+     * {@link #setAccumulative()}.
+     * @param materializedPlans for each input plan, whether it is evaluated
+     * with all the tuples
+     */
+    public void setMaterializedPlans(boolean[] materializedPlans) {
+        this.materializedPlans = materializedPlans;
+    }
+
+    public boolean[] getMaterializedPlans() {
+        return materializedPlans;
+    }
+
+    private boolean isMaterialized(int plan) {
+        return materializedPlans != null && materializedPlans[plan];
+    }
+
+    /**
+     * Attach the input to the materialized plans with the accumulative bags
+     * replaced by the bags of all their tuples.
+     */
+    private void attachMaterializedInput(Tuple input) throws ExecException {
+        if (materializedPlans == null || input == null) {
+            return;
+        }
+        Tuple t = TupleFactory.getInstance().newTuple(input.size());
+        for (int i = 0; i < input.size(); i++) {
+            Object o = input.get(i);
+            if (o instanceof AccumulativeBag) {
+                DataBag bag = ((POPackage.POPackageTupleBuffer) buffer)
+                        .getMaterializedBag(((AccumulativeBag) o).getIndex());
+                if (bag != null) {
+                    o = bag;
+                }
+            }
+            t.set(i, o);
+        }
+        for (int i = 0; i < noItems; i++) {
+            if (materializedPlans[i]) {
+                inputPlans.get(i).attachInput(t);
+            }
+        }
+    }
+
+    /**
+     * Make this foreach evaluate its plans with classes generated for them
+     * by {@link org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.ExpressionClassGenerator},
+     * when the classes are available on the backend. Plans without a class,
+     * and plans for tuples their class was not generated for, are still run
+     * by their operators. Accumulative foreach operators always run their
+     * plans with the operators.
+     * @param generatedClassNames per input plan, the name of its generated
+     * class or null
+     */
+    public void setGeneratedClassNames(String[] generatedClassNames) {
+        this.generatedClassNames = generatedClassNames;
+    }
+
+    public String[] getGeneratedClassNames() {
+        return generatedClassNames;
+    }
+
+    private void loadGeneratedPlans() {
+        generatedPlans = new GeneratedExpression[noItems];
+        for (int i = 0; i < noItems; i++) {
+            if (generatedClassNames[i] != null) {
+                generatedPlans[i] = GeneratedExpression.newInstance(generatedClassNames[i], this);
+            }
+        }
+    }
+
+    private void initTupleMaker() {
         if (schema != null && tupleMaker == null) {
             // Note here that if SchemaTuple is currently turned on, then any UDF's in the chain
             // must follow good practices. Namely, they should not append to the Tuple that comes
@@ -332,6 +568,10 @@ public class POForEach extends PhysicalOperator {
         if (tupleMaker == null) {
             tupleMaker = TupleFactory.getInstance();
         }
+    }
+
+    protected Result processPlan() throws ExecException{
+        initTupleMaker();
 
         Result res = new Result();
 
@@ -358,8 +598,23 @@ public class POForEach extends PhysicalOperator {
             earlyTermination = new BitSet(noItems);
 
             for(int i = 0; i < noItems; ++i) {
+                // materialized plans only run once all the tuples are read
+                if (isAccumStarted() && isMaterialized(i)) {
+                    continue;
+                }
                 //Getting the iterators
                 //populate the input data
+                if (generatedPlansPending && generatedPlans[i] != null) {
+                    Object value = generatedPlans[i].evaluate(inpTuple);
+                    if (value != GeneratedExpression.FALLBACK) {
+                        // consume the input like the operators of the plan do,
+                        // so that the next call sees the end of the plan
+                        inputPlans.get(i).detachInput();
+                        bags[i] = value;
+                        its[i] = null;
+                        continue;
+                    }
+                }
                 Result inputData = null;
                 switch(resultTypes[i]) {
                 case DataType.BAG:
@@ -419,6 +674,7 @@ public class POForEach extends PhysicalOperator {
                     its[i] = null;
                 }
             }
+            generatedPlansPending = false;
         }
 
         // if accumulating, we haven't got data yet for some fields, just return
@@ -19,6 +19,7 @@ package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOp
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -121,6 +122,10 @@ public class POPackage extends PhysicalOperator {
 
     private PackageType pkgType;
 
+    // In accumulative mode, for each input whether its tuples are also kept
+    // in a bag for the expressions which cannot accumulate, or null if none
+    private boolean[] materialized;
+
     public POPackage(OperatorKey k) {
         this(k, -1, null);
     }
@@ -404,6 +409,9 @@ public class POPackage extends PhysicalOperator {
         }
         else
             clone.inner = null;
+        if (materialized != null) {
+            clone.materialized = Arrays.copyOf(materialized, materialized.length);
+        }
         return clone;
     }
 
@@ -449,6 +457,24 @@ public class POPackage extends PhysicalOperator {
         this.distinct = distinct;
     }
 
+    /**
+     * In accumulative mode, also keep all the tuples of some inputs in
+     * spillable bags, for expressions after this package which cannot be
+     * evaluated a batch at a time.
+     * @param materialized for each input, whether to keep its tuples
+     */
+    public void setMaterialized(boolean[] materialized) {
+        this.materialized = materialized;
+    }
+
+    /**
+     * @return for each input, whether its tuples are kept in accumulative
+     * mode, or null if none are
+     */
+    public boolean[] getMaterialized() {
+        return materialized;
+    }
+
     public void setUseSecondaryKey(boolean useSecondaryKey) {
         this.useSecondaryKey = useSecondaryKey;
     }
@@ -463,6 +489,10 @@ public class POPackage extends PhysicalOperator {
 
     class POPackageTupleBuffer implements AccumulativeTupleBuffer {
         private List<Tuple>[] bags;
+        // all the tuples of the materialized inputs read so far
+        private DataBag[] materializedBags;
+        // whether any tuple of each input was read so far
+        private boolean[] seen;
         private Iterator<NullableTuple> iter;
         private int batchSize;
         private Object currKey;
@@ -481,6 +511,16 @@ public class POPackage extends PhysicalOperator {
             for(int i=0; i<numInputs; i++) {
                 this.bags[i] = new ArrayList<Tuple>();
             }
+            if (materialized != null) {
+                this.materializedBags = new DataBag[numInputs];
+                for (int i = 0; i < numInputs; i++) {
+                    if (materialized[i]) {
+                        materializedBags[i] = useDefaultBag ? BagFactory.getInstance().newDefaultBag()
+                                : new InternalCachedBag(numInputs);
+                    }
+                }
+            }
+            this.seen = new boolean[numInputs];
             this.iter = tupIter;
             this.currKey = key;
         }
@@ -502,15 +542,15 @@ public class POPackage extends PhysicalOperator {
                      NullableTuple ntup = iter.next();
                      int index = ntup.getIndex();
                      Tuple copy = getValueTuple(ntup, index);
-                     if (numInputs == 1) {
-
-                            // this is for multi-query merge where
-                            // the numInputs is always 1, but the index
-                            // (the position of the inner plan in the
-                            // enclosed operator) may not be 1.
-                            bags[0].add(copy);
-                     } else {
-                            bags[index].add(copy);
+                     // this is for multi-query merge where
+                     // the numInputs is always 1, but the index
+                     // (the position of the inner plan in the
+                     // enclosed operator) may not be 1.
+                     int bag = numInputs == 1 ? 0 : index;
+                     bags[bag].add(copy);
+                     seen[bag] = true;
+                     if (materializedBags != null && materializedBags[bag] != null) {
+                         materializedBags[bag].add(copy);
                      }
                 }else{
                     break;
@@ -529,6 +569,38 @@ public class POPackage extends PhysicalOperator {
             return bags[index].iterator();
         }
 
+        /**
+         * @return all the tuples of an input read so far, or null if the
+         * input is not materialized
+         */
+        public DataBag getMaterializedBag(int index) {
+            return materializedBags == null ? null : materializedBags[index];
+        }
+
+        /**
+         * Whether an inner input of the package has no tuples for the key,
+         * in which case the key has no output. The rest of the tuples are
+         * skipped, so this may only be called after the last batch is used.
+         */
+        public boolean isInnerInputEmpty() {
+            if (inner == null) {
+                return false;
+            }
+            boolean empty = false;
+            for (int i = 0; i < numInputs; i++) {
+                empty |= inner[i] && !seen[i];
+            }
+            while (empty && iter.hasNext()) {
+                int index = iter.next().getIndex();
+                seen[numInputs == 1 ? 0 : index] = true;
+                empty = false;
+                for (int i = 0; i < numInputs; i++) {
+                    empty |= inner[i] && !seen[i];
+                }
+            }
+            return empty;
+        }
+
         public Tuple illustratorMarkup(Object in, Object out, int eqClassIndex) {
             return POPackage.this.illustratorMarkup(in, out, eqClassIndex);
         }
@@ -18,15 +18,13 @@
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.WeakHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigCounters;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
@@ -39,15 +37,14 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.Physica
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
-import org.apache.pig.data.SelfSpillBag.MemoryLimits;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.plan.VisitorException;
 import org.apache.pig.impl.util.Spillable;
 import org.apache.pig.impl.util.SpillableMemoryManager;
-
-import com.google.common.collect.Maps;
+import org.apache.pig.impl.util.SpillableRegistry;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
 
 /**
  * Do partial aggregation in map plan. Inputs are buffered up in
@@ -80,8 +77,28 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
     private static final int FIRST_TIER_THRESHOLD = 20000;
     private static final int SECOND_TIER_THRESHOLD = FIRST_TIER_THRESHOLD / DEFAULT_MIN_REDUCTION;
 
+    // Number of first level aggregations the reduction is averaged over once
+    // the initial check passed, and the least number of raw records one of
+    // them must have seen to count.
+    private static final int NUM_REDUCTION_WINDOWS = 4;
+    private static final int MIN_WINDOW_RECS = 1000;
+
+    // Once disabled, number of records to pass through before measuring the
+    // reduction again. Doubles every time the reduction is still too low, up
+    // to MAX_REENABLE_FACTOR times the configured value.
+    private static final int DEFAULT_REENABLE_INTERVAL = 1000000;
+    private static final int MAX_REENABLE_FACTOR = 64;
+
+    // how many records to pass through between counter updates while
+    // aggregation is off
+    private static final int COUNTER_REPORT_INTERVAL = 65536;
+
     private static final WeakHashMap<POPartialAgg, Byte> ALL_POPARTS = new WeakHashMap<POPartialAgg, Byte>();
 
+    // Bumped whenever an instance is added, disabled or re-enabled, so that
+    // the others recompute their share of memory.
+    private static volatile int memShareVersion = 0;
+
     private static final TupleFactory TF = TupleFactory.getInstance();
     private static final BagFactory BG = BagFactory.getInstance();
 
@@ -94,22 +111,55 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
     private int numRecsInRawMap = 0;
     private int numRecsInProcessedMap = 0;
 
-    private Map<Object, List<Tuple>> rawInputMap = Maps.newHashMap();
-    private Map<Object, List<Tuple>> processedInputMap = Maps.newHashMap();
+    // created by init(), the tables are not serializable
+    private transient PartialAggHashTable rawInputMap;
+    private transient PartialAggHashTable processedInputMap;
+
+    // When all the value plans are builtin Intermediate functions, they are
+    // applied in place to primitive partial aggregates of processedInputMap
+    // as the records come, and rawInputMap stays empty. numRecsInRawMap
+    // then counts the records aggregated, and numRecsInProcessedMap the keys.
+    private transient PartialAggFunc[] inPlaceFuncs;
+    private transient int newKeysInWindow = 0;
 
     private boolean disableMapAgg = false;
     private boolean sizeReductionChecked = false;
     private boolean inputsExhausted = false;
     private volatile boolean doSpill = false;
-    private transient MemoryLimits memLimits;
 
     private transient boolean initialized = false;
     private int firstTierThreshold = FIRST_TIER_THRESHOLD;
     private int secondTierThreshold = SECOND_TIER_THRESHOLD;
+    // Once estimated, the memory thresholds replace the tuple count ones.
+    private long firstTierMemThreshold = -1;
+    private long secondTierMemThreshold = -1;
     private int sizeReduction = 1;
-    private int avgTupleSize = 0;
-    private Iterator<Entry<Object, List<Tuple>>> spillingIterator;
+    // next slot of processedInputMap to emit, -1 when we are not spilling
+    private int spillCursor = -1;
     private boolean estimatedMemThresholds = false;
+    private int memShareVersionSeen = -1;
+
+    // raw records in and keys out of the last first level aggregations
+    private final int[] windowIn = new int[NUM_REDUCTION_WINDOWS];
+    private final int[] windowOut = new int[NUM_REDUCTION_WINDOWS];
+    private int numWindows = 0;
+    private int minReduction = DEFAULT_MIN_REDUCTION;
+
+    // -1 if aggregation should never be turned back on
+    private int reenableInterval = -1;
+    private int recsSinceDisabled = 0;
+    // true while we measure the reduction again after being disabled
+    private boolean reenabled = false;
+
+    // not yet reported to the counters
+    private long numInputRecs = 0;
+    private long numOutputRecs = 0;
+    private long numSpills = 0;
+
+    // Handle from the SpillableMemoryManager, and our memory size when it
+    // last measured us.
+    private transient SpillableRegistry.Entry spillableEntry;
+    private transient long sizeAtLastReport = 0;
 
 
     public POPartialAgg(OperatorKey k) {
@@ -118,13 +168,41 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
 
     private void init() throws ExecException {
         ALL_POPARTS.put(this, null);
+        memShareVersion++;
+        reenableInterval = getReenableIntervalFromProp();
+        minReduction = getMinOutputReductionFromProp();
         float percent = getPercentUsageFromProp();
         if (percent <= 0) {
             LOG.info("No memory allocated to intermediate memory buffers. Turning off partial aggregation.");
+            reenableInterval = -1;
             disableMapAgg();
         }
+        inPlaceFuncs = PartialAggFunc.forPlans(valuePlans);
+        if (inPlaceFuncs != null) {
+            LOG.info("Aggregating the builtin algebraic functions in place.");
+        }
+        rawInputMap = new PartialAggHashTable();
+        processedInputMap = new PartialAggHashTable(0, inPlaceFuncs == null ? 0 : inPlaceFuncs.length);
         initialized = true;
-        SpillableMemoryManager.getInstance().registerSpillable(this);
+        spillableEntry = SpillableMemoryManager.getInstance().registerResizableSpillable(this);
+    }
+
+    /**
+     * Let the memory manager know we moved up a size bucket, so that it
+     * considers spilling us.
+     */
+    private void markResizedIfNecessary() {
+        if (spillableEntry == null) {
+            return;
+        }
+        long size = getMemorySize();
+        if (size >= 2 * sizeAtLastReport) {
+            spillableEntry.markResized();
+            sizeAtLastReport = size;
+        } else if (size < sizeAtLastReport / 2) {
+            // emptied by an aggregation or a spill, report from there
+            sizeAtLastReport = size;
+        }
     }
 
     @Override
@@ -150,12 +228,18 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
             }
             if (!estimatedMemThresholds && numRecsInRawMap >= NUM_RECS_TO_SAMPLE) {
                 estimateMemThresholds();
+            } else if (estimatedMemThresholds && memShareVersionSeen != memShareVersion) {
+                // some other POPartialAgg came, went away or changed mode
+                estimateMemThresholds();
             }
             if (doSpill) {
                 startSpill();
                 Result result = spillResult();
                 if (result.returnStatus == POStatus.STATUS_EOP) {
                     doSpill = false;
+                    reportCounters();
+                } else if (result.returnStatus == POStatus.STATUS_OK) {
+                    numOutputRecs++;
                 }
                 if (result.returnStatus != POStatus.STATUS_EOP
                         || inputsExhausted) {
@@ -164,8 +248,20 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
             }
             if (mapAggDisabled()) {
                 // disableMapAgg() sets doSpill, so we can't get here while there is still contents in the buffered maps.
-                // if we get to this point, everything is flushed, so we can simply return the raw tuples from now on.
-                return processInput();
+                // if we get to this point, everything is flushed, so we can simply return the raw tuples
+                // until it is time to measure the reduction again.
+                Result inp = processInput();
+                if (inp.returnStatus == POStatus.STATUS_OK) {
+                    numInputRecs++;
+                    numOutputRecs++;
+                    if (reenableInterval > 0 && ++recsSinceDisabled >= reenableInterval) {
+                        enableMapAgg();
+                    }
+                } else if (inp.returnStatus == POStatus.STATUS_EOP
+                        && (parentPlan.endOfAllInput || numInputRecs >= COUNTER_REPORT_INTERVAL)) {
+                    reportCounters();
+                }
+                return inp;
             } else {
                 Result inp = processInput();
                 if (inp.returnStatus == POStatus.STATUS_ERR) {
@@ -195,7 +291,13 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
                     Object key = keyRes.result;
                     keyPlan.detachInput();
                     numRecsInRawMap += 1;
-                    addKeyValToMap(rawInputMap, key, inpTuple);
+                    numInputRecs++;
+                    if (inPlaceFuncs != null) {
+                        aggregateInPlace(key, inpTuple);
+                    } else {
+                        addKeyValToMap(rawInputMap, key, inpTuple);
+                    }
+                    markResizedIfNecessary();
 
                     if (shouldAggregateFirstLevel()) {
                         aggregateFirstLevel();
@@ -203,7 +305,9 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
                     if (shouldAggregateSecondLevel()) {
                         aggregateSecondLevel();
                     }
-                    if (shouldSpill()) {
+                    if (sizeReductionChecked && windowReductionTooLow()) {
+                        disableMapAgg(); // flushes what we have
+                    } else if (shouldSpill()) {
                         LOG.info("Starting spill.");
                         startSpill(); // next time around, we'll start emitting.
                     }
@@ -217,48 +321,123 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
             LOG.info("Getting mem limits; considering " + ALL_POPARTS.size() + " POPArtialAgg objects.");
 
             float percent = getPercentUsageFromProp();
-            memLimits = new MemoryLimits(ALL_POPARTS.size(), percent);
-            int estTotalMem = 0;
-            int estTuples = 0;
-            for (Map.Entry<Object, List<Tuple>> entry : rawInputMap.entrySet()) {
-                for (Tuple t : entry.getValue()) {
-                    estTuples += 1;
-                    int mem = (int) t.getMemorySize();
-                    estTotalMem += mem;
-                    memLimits.addNewObjSize(mem);
-                }
+            // The hash tables measure every tuple they hold, so there is no
+            // need to sample tuple sizes, we can work in bytes directly.
+            // Instances which turned aggregation off hold nothing, so the
+            // memory is shared among the active ones only.
+            memShareVersionSeen = memShareVersion;
+            long totalMem = (long) (Runtime.getRuntime().maxMemory() * percent / numActivePOPartialAggs());
+            if (inPlaceFuncs != null) {
+                // there are no raw records, the partial aggregates can
+                // have it all
+                firstTierMemThreshold = 0;
+                secondTierMemThreshold = totalMem;
+            } else {
+                firstTierMemThreshold = (long) (0.5 + totalMem * (1f - (1f / sizeReduction)));
+                secondTierMemThreshold = (long) (0.5 + totalMem * (1f / sizeReduction));
             }
-            avgTupleSize = estTotalMem / estTuples;
-            int totalTuples = memLimits.getCacheLimit();
-            LOG.info("Estimated total tuples to buffer, based on " + estTuples + " tuples that took up " + estTotalMem + " bytes: " + totalTuples);
-            firstTierThreshold = (int) (0.5 + totalTuples * (1f - (1f / sizeReduction)));
-            secondTierThreshold = (int) (0.5 + totalTuples *  (1f / sizeReduction));
-            LOG.info("Setting thresholds. Primary: " + firstTierThreshold + ". Secondary: " + secondTierThreshold);
+            LOG.info("Setting memory thresholds. Primary: " + firstTierMemThreshold
+                    + " bytes. Secondary: " + secondTierMemThreshold + " bytes.");
         }
         estimatedMemThresholds = true;
     }
 
     private void checkSizeReduction() throws ExecException {
-        int numBeforeReduction = numRecsInProcessedMap + numRecsInRawMap;
-        aggregateFirstLevel();
-        aggregateSecondLevel();
-        int numAfterReduction = numRecsInProcessedMap + numRecsInRawMap;
+        int numBeforeReduction;
+        int numAfterReduction;
+        if (inPlaceFuncs != null) {
+            // the records were already aggregated into the keys
+            numBeforeReduction = numRecsInRawMap;
+            numAfterReduction = Math.max(newKeysInWindow, 1);
+            aggregateFirstLevel();
+        } else {
+            numBeforeReduction = numRecsInProcessedMap + numRecsInRawMap;
+            aggregateFirstLevel();
+            aggregateSecondLevel();
+            numAfterReduction = numRecsInProcessedMap + numRecsInRawMap;
+        }
         LOG.info("After reduction, processed map: " + numRecsInProcessedMap + "; raw map: " + numRecsInRawMap);
-        int minReduction = getMinOutputReductionFromProp();
         LOG.info("Observed reduction factor: from " + numBeforeReduction +
                 " to " + numAfterReduction +
                 " => " + numBeforeReduction / numAfterReduction + ".");
-        if ( numBeforeReduction / numAfterReduction < minReduction) {
+        sizeReduction = numBeforeReduction / numAfterReduction;
+        sizeReductionChecked = true;
+        if (sizeReduction < minReduction) {
             LOG.info("Disabling in-memory aggregation, since observed reduction is less than " + minReduction);
             disableMapAgg();
+            if (reenabled && reenableInterval > 0) {
+                // still not worth it, wait longer before trying again
+                reenableInterval = (int) Math.min(reenableInterval * 2L,
+                        Math.min(Integer.MAX_VALUE, getReenableIntervalFromProp() * (long) MAX_REENABLE_FACTOR));
+            }
+        } else if (reenabled) {
+            reenableInterval = getReenableIntervalFromProp();
         }
-        sizeReduction = numBeforeReduction / numAfterReduction;
-        sizeReductionChecked = true;
+        reenabled = false;
+    }
 
+    /**
+     * @return true if the reduction averaged over the last first level
+     * aggregations fell below the minimum, e.g. because the input is
+     * clustered and the first sample was not representative
+     */
+    private boolean windowReductionTooLow() {
+        if (numWindows < NUM_REDUCTION_WINDOWS) {
+            return false;
+        }
+        long in = 0;
+        long out = 0;
+        for (int i = 0; i < NUM_REDUCTION_WINDOWS; i++) {
+            in += windowIn[i];
+            out += windowOut[i];
+        }
+        if (out > 0 && in / out < minReduction) {
+            LOG.info("Disabling in-memory aggregation, since reduction over the last "
+                    + NUM_REDUCTION_WINDOWS + " aggregations dropped to " + in / out
+                    + ", less than " + minReduction);
+            return true;
+        }
+        return false;
     }
+
     private void disableMapAgg() throws ExecException {
         startSpill();
         disableMapAgg = true;
+        recsSinceDisabled = 0;
+        numWindows = 0;
+        memShareVersion++;
+        incrCounter(PigCounters.MAP_PARTIAL_AGG_DISABLED_COUNT, 1);
+    }
+
+    /**
+     * Turn aggregation back on after it was disabled, to measure the
+     * reduction on the current input again. If it is still too low,
+     * checkSizeReduction() turns it off for a longer period.
+     */
+    private void enableMapAgg() {
+        LOG.info("Re-enabling in-memory aggregation after " + recsSinceDisabled
+                + " records, to measure the reduction again.");
+        disableMapAgg = false;
+        reenabled = true;
+        sizeReductionChecked = false;
+        estimatedMemThresholds = false;
+        firstTierThreshold = FIRST_TIER_THRESHOLD;
+        secondTierThreshold = SECOND_TIER_THRESHOLD;
+        firstTierMemThreshold = -1;
+        secondTierMemThreshold = -1;
+        numRecsInRawMap = 0;
+        memShareVersion++;
+        incrCounter(PigCounters.MAP_PARTIAL_AGG_REENABLED_COUNT, 1);
+    }
+
+    private static int numActivePOPartialAggs() {
+        int active = 0;
+        for (POPartialAgg p : ALL_POPARTS.keySet()) {
+            if (p != null && !p.disableMapAgg) {
+                active++;
+            }
+        }
+        return Math.max(active, 1);
     }
 
     private boolean mapAggDisabled() {
@@ -266,17 +445,24 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
     }
 
     private boolean shouldAggregateFirstLevel() {
-        if (LOG.isInfoEnabled() && numRecsInRawMap > firstTierThreshold) {
+        // in place, the first level only closes a reduction window
+        boolean aggregate = inPlaceFuncs == null && estimatedMemThresholds && firstTierMemThreshold >= 0
+                ? rawInputMap.getMemorySize() > firstTierMemThreshold
+                : numRecsInRawMap > firstTierThreshold;
+        if (LOG.isInfoEnabled() && aggregate) {
             LOG.info("Aggregating " + numRecsInRawMap + " raw records.");
         }
-        return (numRecsInRawMap > firstTierThreshold);
+        return aggregate;
     }
 
     private boolean shouldAggregateSecondLevel() {
-        if (LOG.isInfoEnabled() && numRecsInProcessedMap > secondTierThreshold) {
+        boolean aggregate = estimatedMemThresholds && secondTierMemThreshold >= 0
+                ? processedInputMap.getMemorySize() > secondTierMemThreshold
+                : numRecsInProcessedMap > secondTierThreshold;
+        if (LOG.isInfoEnabled() && aggregate) {
             LOG.info("Aggregating " + numRecsInProcessedMap + " secondary records.");
         }
-        return (numRecsInProcessedMap > secondTierThreshold);
+        return aggregate;
     }
 
     private boolean shouldSpill() {
@@ -284,15 +470,10 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         return shouldAggregateSecondLevel();
     }
 
-    private void addKeyValToMap(Map<Object, List<Tuple>> map,
+    private void addKeyValToMap(PartialAggHashTable map,
             Object key, Tuple inpTuple) throws ExecException {
-        List<Tuple> value = map.get(key);
-        if (value == null) {
-            value = new ArrayList<Tuple>();
-            map.put(key, value);
-        }
-        value.add(inpTuple);
-        if (value.size() >= MAX_LIST_SIZE) {
+        int numValues = map.add(key, inpTuple);
+        if (numValues >= MAX_LIST_SIZE) {
             boolean isFirst = (map == rawInputMap);
             if (LOG.isDebugEnabled()){
                 LOG.debug("The cache for key " + key + " has grown too large. Aggregating " + ((isFirst) ? "first level." : "second level."));
@@ -305,9 +486,25 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         }
     }
 
+    /**
+     * Apply the Intermediate functions of the value plans to the partial
+     * aggregates of the key, in place.
+     */
+    private void aggregateInPlace(Object key, Tuple inpTuple) throws ExecException {
+        int before = processedInputMap.size();
+        int slot = processedInputMap.addKey(key);
+        if (processedInputMap.size() > before) {
+            numRecsInProcessedMap++;
+            newKeysInWindow++;
+        }
+        for (int i = 0; i < inPlaceFuncs.length; i++) {
+            inPlaceFuncs[i].accumulate(processedInputMap, slot, i, (Tuple) inpTuple.get(i + 1));
+        }
+    }
+
     private void startSpill() throws ExecException {
-        // If spillingIterator is null, we are already spilling and don't need to set up.
-        if (spillingIterator != null) return;
+        // If spillCursor is set, we are already spilling and don't need to set up.
+        if (spillCursor != -1) return;
 
         if (!rawInputMap.isEmpty()) {
             if (LOG.isInfoEnabled()) {
@@ -328,30 +525,48 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
             }
         }
         doSpill = true;
-        spillingIterator = processedInputMap.entrySet().iterator();
+        spillCursor = 0;
+        numSpills++;
     }
 
     private Result spillResult() throws ExecException {
         // if no more to spill, return EOP_RESULT.
         if (processedInputMap.isEmpty()) {
-            spillingIterator = null;
+            spillCursor = -1;
             LOG.info("In spillResults(), processed map is empty -- done spilling.");
             return EOP_RESULT;
         } else {
-            Map.Entry<Object, List<Tuple>> entry = spillingIterator.next();
-            Tuple valueTuple = createValueTuple(entry.getKey(), entry.getValue());
-            numRecsInProcessedMap -= entry.getValue().size();
-            spillingIterator.remove();
-            Result res = getOutput(entry.getKey(), valueTuple);
+            int slot = processedInputMap.nextSlot(spillCursor);
+            if (slot == -1) {
+                // keys were added behind the cursor, start over
+                slot = processedInputMap.nextSlot(0);
+            }
+            Object key = processedInputMap.keyAt(slot);
+            if (inPlaceFuncs != null) {
+                Tuple output = TF.newTuple(inPlaceFuncs.length + 1);
+                output.set(0, key);
+                for (int i = 0; i < inPlaceFuncs.length; i++) {
+                    output.set(i + 1, TF.newTuple(inPlaceFuncs[i].result(processedInputMap, slot, i)));
+                }
+                numRecsInProcessedMap--;
+                processedInputMap.removeAt(slot);
+                spillCursor = slot + 1;
+                return new Result(POStatus.STATUS_OK, output);
+            }
+            Tuple valueTuple = createValueTuple(key, processedInputMap.valuesAt(slot));
+            numRecsInProcessedMap -= processedInputMap.countAt(slot);
+            processedInputMap.removeAt(slot);
+            spillCursor = slot + 1;
+            Result res = getOutput(key, valueTuple);
             return res;
         }
     }
 
     private void aggregateRawRow(Object key) throws ExecException {
-        List<Tuple> value = rawInputMap.get(key);
-        Tuple valueTuple = createValueTuple(key, value);
+        int slot = rawInputMap.find(key);
+        Tuple valueTuple = createValueTuple(key, rawInputMap.valuesAt(slot));
         Result res = getOutput(key, valueTuple);
-        rawInputMap.remove(key);
+        rawInputMap.removeAt(slot);
         addKeyValToMap(processedInputMap, key, getAggResultTuple(res.result));
         numRecsInProcessedMap += valueTuple.size() - 1;
     }
@@ -361,31 +576,45 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
      * and add the results to processedInputMap. Remove the entries from rawInputMap as we go.
      * @throws ExecException
      */
-    private int aggregate(Map<Object, List<Tuple>> fromMap, Map<Object, List<Tuple>> toMap, int numEntriesInTarget) throws ExecException {
-        Iterator<Map.Entry<Object, List<Tuple>>> iter = fromMap.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<Object, List<Tuple>> entry = iter.next();
-            Tuple valueTuple = createValueTuple(entry.getKey(), entry.getValue());
-            Result res = getOutput(entry.getKey(), valueTuple);
-            iter.remove();
-            addKeyValToMap(toMap, entry.getKey(), getAggResultTuple(res.result));
+    private int aggregate(PartialAggHashTable fromMap, PartialAggHashTable toMap, int numEntriesInTarget) throws ExecException {
+        for (int slot = fromMap.nextSlot(0); slot != -1; slot = fromMap.nextSlot(slot + 1)) {
+            Object key = fromMap.keyAt(slot);
+            Tuple valueTuple = createValueTuple(key, fromMap.valuesAt(slot));
+            Result res = getOutput(key, valueTuple);
+            fromMap.removeAt(slot);
+            addKeyValToMap(toMap, key, getAggResultTuple(res.result));
             numEntriesInTarget++;
         }
+        fromMap.clear();
         return numEntriesInTarget;
     }
 
     private void aggregateFirstLevel() throws ExecException {
+        if (sizeReductionChecked && numRecsInRawMap >= MIN_WINDOW_RECS) {
+            int w = numWindows++ % NUM_REDUCTION_WINDOWS;
+            windowIn[w] = numRecsInRawMap;
+            windowOut[w] = inPlaceFuncs != null ? newKeysInWindow : rawInputMap.size();
+        }
+        if (inPlaceFuncs != null) {
+            numRecsInRawMap = 0;
+            newKeysInWindow = 0;
+            return;
+        }
         numRecsInProcessedMap = aggregate(rawInputMap, processedInputMap, numRecsInProcessedMap);
         numRecsInRawMap = 0;
     }
 
     private void aggregateSecondLevel() throws ExecException {
-        Map<Object, List<Tuple>> newMap = Maps.newHashMapWithExpectedSize(processedInputMap.size());
+        if (inPlaceFuncs != null) {
+            // the partial aggregates are already up to date
+            return;
+        }
+        PartialAggHashTable newMap = new PartialAggHashTable(processedInputMap.size());
         numRecsInProcessedMap = aggregate(processedInputMap, newMap, 0);
         processedInputMap = newMap;
     }
 
-    private Tuple createValueTuple(Object key, List<Tuple> inpTuples) throws ExecException {
+    private Tuple createValueTuple(Object key, Iterable<Tuple> inpTuples) throws ExecException {
         Tuple valueTuple = TF.newTuple(valuePlans.size() + 1);
         valueTuple.set(0, key);
 
@@ -434,6 +663,38 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
         return minReduction;
     }
 
+    private int getReenableIntervalFromProp() {
+        if (PigMapReduce.sJobConfInternal.get() == null) {
+            return DEFAULT_REENABLE_INTERVAL;
+        }
+        return PigMapReduce.sJobConfInternal.get().getInt(
+                PigConfiguration.PARTAGG_REENABLE_INTERVAL, DEFAULT_REENABLE_INTERVAL);
+    }
+
+    /**
+     * Report what we saw since the last call to the task counters. The
+     * ratio of the input and output record counters is the reduction
+     * achieved by in-map aggregation.
+     */
+    private void reportCounters() {
+        incrCounter(PigCounters.MAP_PARTIAL_AGG_INPUT_RECORDS, numInputRecs);
+        incrCounter(PigCounters.MAP_PARTIAL_AGG_OUTPUT_RECORDS, numOutputRecs);
+        incrCounter(PigCounters.MAP_PARTIAL_AGG_SPILL_COUNT, numSpills);
+        numInputRecs = 0;
+        numOutputRecs = 0;
+        numSpills = 0;
+    }
+
+    private void incrCounter(PigCounters counter, long n) {
+        if (n == 0) {
+            return;
+        }
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        if (reporter != null && reporter.getCounter(counter) != null) {
+            reporter.getCounter(counter).increment(n);
+        }
+    }
+
     private float getPercentUsageFromProp() {
         float percent = 0.2F;
         if (PigMapReduce.sJobConfInternal.get() != null) {
@@ -543,7 +804,7 @@ public class POPartialAgg extends PhysicalOperator implements Spillable {
 
     @Override
     public long getMemorySize() {
-        return avgTupleSize * (numRecsInProcessedMap + numRecsInRawMap);
+        return rawInputMap.getMemorySize() + processedInputMap.getMemorySize();
     }
 
 }
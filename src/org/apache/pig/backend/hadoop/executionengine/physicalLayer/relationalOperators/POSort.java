@@ -25,6 +25,7 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
@@ -39,6 +40,8 @@ import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.InternalSortedBag;
+import org.apache.pig.data.PrefixComparator;
+import org.apache.pig.data.PrefixKeySorter;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.plan.NodeIdGenerator;
 import org.apache.pig.impl.plan.OperatorKey;
@@ -74,6 +77,8 @@ public class POSort extends PhysicalOperator {
 	private Comparator<Tuple> mComparator;
 
 	private boolean inputsAccumulated = false;
+	// whether the comparator computes no prefix keys for the sorted bag
+	private transient boolean prefixKeysDisabled = false;
 	private long limit;
 	public boolean isUDFComparatorUsed = false;
 	private DataBag sortedBag;
@@ -129,12 +134,69 @@ public class POSort extends PhysicalOperator {
 
 	}
 
-	public class SortComparator implements Comparator<Tuple>,Serializable {
+	public class SortComparator implements PrefixComparator,Serializable {
 		/**
          *
          */
         private static final long serialVersionUID = 1L;
 
+        /**
+         * The prefix key of a tuple is the key of its first sort column, if
+         * that is an int, long, float, double or chararray.
+         */
+        @Override
+        public boolean computePrefixKeys(Tuple[] tuples, int n, long[] keys) {
+            if (prefixKeysDisabled || sortPlans == null || sortPlans.size() == 0) {
+                return false;
+            }
+            byte type = ExprOutputTypes.get(0);
+            if (type != DataType.INTEGER && type != DataType.LONG && type != DataType.FLOAT
+                    && type != DataType.DOUBLE && type != DataType.CHARARRAY) {
+                return false;
+            }
+            PhysicalPlan plan = sortPlans.get(0);
+            boolean asc = mAscCols.get(0);
+            try {
+                for (int i = 0; i < n; i++) {
+                    plan.attachInput(tuples[i]);
+                    Result res = getResult(plan, type);
+                    if (res.returnStatus != POStatus.STATUS_OK) {
+                        // compare() skips such keys, which a prefix cannot
+                        return false;
+                    }
+                    Object o = res.result;
+                    long key;
+                    if (o == null) {
+                        key = PrefixKeySorter.NULL_KEY;
+                    } else if (type == DataType.INTEGER && o instanceof Integer) {
+                        key = PrefixKeySorter.intKey((Integer) o);
+                    } else if (type == DataType.LONG && o instanceof Long) {
+                        key = PrefixKeySorter.longKey((Long) o);
+                    } else if (type == DataType.FLOAT && o instanceof Float) {
+                        key = PrefixKeySorter.doubleKey((Float) o);
+                    } else if (type == DataType.DOUBLE && o instanceof Double) {
+                        key = PrefixKeySorter.doubleKey((Double) o);
+                    } else if (type == DataType.CHARARRAY && o instanceof String) {
+                        key = PrefixKeySorter.stringKey((String) o);
+                    } else {
+                        // not the declared type, DataType.compare orders
+                        // it by its type
+                        return false;
+                    }
+                    keys[i] = asc ? key : PrefixKeySorter.descending(key);
+                }
+            } catch (ExecException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isPrefixKeyExact() {
+            // ints and nulls have keys of their own
+            return sortPlans.size() == 1 && ExprOutputTypes.get(0) == DataType.INTEGER;
+        }
+
         @Override
         public int compare(Tuple o1, Tuple o2) {
 			int count = 0;
@@ -262,6 +324,10 @@ public class POSort extends PhysicalOperator {
 	        if (PigMapReduce.sJobConfInternal.get() != null) {
 	   			bagType = PigMapReduce.sJobConfInternal.get().get("pig.cachedbag.sort.type");
 	   	    }
+            if (PigMapReduce.sJobConfInternal.get() != null) {
+                prefixKeysDisabled = "false".equalsIgnoreCase(PigMapReduce.sJobConfInternal.get()
+                        .get(PigConfiguration.PIG_SORT_PREFIX_KEYS));
+            }
             if (bagType != null && bagType.equalsIgnoreCase("default")) {
             	sortedBag = BagFactory.getInstance().newSortedBag(mComparator);
        	    } else {
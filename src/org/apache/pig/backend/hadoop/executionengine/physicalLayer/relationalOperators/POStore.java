@@ -27,10 +27,12 @@ import org.apache.pig.SortInfo;
 import org.apache.pig.StoreFuncInterface;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReducePOStoreImpl;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.KeySketcher;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileSpec;
@@ -81,6 +83,18 @@ public class POStore extends PhysicalOperator {
     // then sortInfo will have information of the sort 
     // column names and the asc/dsc info
     private SortInfo sortInfo;
+
+    // if the output is the input of an order by which doesn't sample
+    // it, the plans of the sort key and their asc/dsc info
+    private List<PhysicalPlan> sortKeyPlans;
+    private boolean[] sortKeyAsc;
+    private int sketchSize;
+
+    // if the output is the first input of a skewed join which doesn't
+    // sample it, the plans of the join key
+    private List<PhysicalPlan> joinKeyPlans;
+
+    transient private KeySketcher sketcher;
     
     private String signature;
     
@@ -108,6 +122,9 @@ public class POStore extends PhysicalOperator {
                     outputRecordCounter = 
                         ((MapReducePOStoreImpl) impl).createRecordCounter(this);
                 }
+                if (impl instanceof MapReducePOStoreImpl) {
+                    sketcher = ((MapReducePOStoreImpl) impl).createKeySketcher(this);
+                }
             }catch (IOException ioe) {
                 int errCode = 2081;
                 String msg = "Unable to setup the store function.";            
@@ -124,6 +141,10 @@ public class POStore extends PhysicalOperator {
         if (impl != null) {
             impl.tearDown();
         }
+        if (sketcher != null) {
+            sketcher.close();
+            sketcher = null;
+        }
    }
     
     /**
@@ -144,6 +165,9 @@ public class POStore extends PhysicalOperator {
             case POStatus.STATUS_OK:
                 if (illustrator == null) {
                     storer.putNext((Tuple)res.result);
+                    if (sketcher != null) {
+                        sketcher.add((Tuple)res.result);
+                    }
                 } else
                     illustratorMarkup(res.result, res.result, 0);
                 res = empty;
@@ -250,6 +274,59 @@ public class POStore extends PhysicalOperator {
         return sortInfo;
     }
     
+    /**
+     * Sketch the quantiles of a sort key of the stored tuples, which the
+     * task writes next to its output.
+     * @param plans the plans of the sort key columns
+     * @param asc the asc/dsc info of the sort key
+     * @param size the size of the sketch
+     */
+    public void setSortKeySketch(List<PhysicalPlan> plans, boolean[] asc, int size) {
+        this.sortKeyPlans = plans;
+        this.sortKeyAsc = asc;
+        this.sketchSize = size;
+    }
+
+    /**
+     * @return the plans of the sort key to sketch, or null if none
+     */
+    public List<PhysicalPlan> getSortKeyPlans() {
+        return sortKeyPlans;
+    }
+
+    public boolean[] getSortKeyAsc() {
+        return sortKeyAsc;
+    }
+
+    /**
+     * Sketch the frequent join keys of the stored tuples, which the task
+     * writes next to its output.
+     * @param plans the plans of the join key columns
+     * @param size the number of keys each task counts
+     */
+    public void setJoinKeySketch(List<PhysicalPlan> plans, int size) {
+        this.joinKeyPlans = plans;
+        this.sketchSize = size;
+    }
+
+    /**
+     * @return the plans of the join key to sketch, or null if none
+     */
+    public List<PhysicalPlan> getJoinKeyPlans() {
+        return joinKeyPlans;
+    }
+
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    /**
+     * @return whether the store sketches a key of the stored tuples
+     */
+    public boolean isSketched() {
+        return sortKeyPlans != null || joinKeyPlans != null;
+    }
+
     public String getSignature() {
         return signature;
     }
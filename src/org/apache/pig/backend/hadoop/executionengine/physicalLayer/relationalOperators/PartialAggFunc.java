@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.COUNT_STAR;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.DoubleMin;
+import org.apache.pig.builtin.DoubleSum;
+import org.apache.pig.builtin.LongMax;
+import org.apache.pig.builtin.LongMin;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The Intermediate function of a builtin algebraic function, applied in
+ * place to a primitive partial aggregate of a {@link PartialAggHashTable}.
+ * {@link POPartialAgg} uses these when all its value plans are such a
+ * function of the bag of Initial results, so that it does not have to
+ * buffer the tuples of each key.
+ * <p>
+ * The results are the same as the ones of the Intermediate functions: a
+ * count never is null, and the other functions skip null values and are
+ * null if there was none.
+ */
+class PartialAggFunc {
+
+    private enum Op { COUNT, SUM, MIN, MAX }
+
+    private static final Map<String, PartialAggFunc> BUILTINS = new HashMap<String, PartialAggFunc>();
+
+    static {
+        BUILTINS.put(COUNT.Intermediate.class.getName(), new PartialAggFunc(Op.COUNT, false));
+        BUILTINS.put(COUNT_STAR.Intermediate.class.getName(), new PartialAggFunc(Op.COUNT, false));
+        BUILTINS.put(LongSum.Intermediate.class.getName(), new PartialAggFunc(Op.SUM, false));
+        BUILTINS.put(LongMin.Intermediate.class.getName(), new PartialAggFunc(Op.MIN, false));
+        BUILTINS.put(LongMax.Intermediate.class.getName(), new PartialAggFunc(Op.MAX, false));
+        BUILTINS.put(DoubleSum.Intermediate.class.getName(), new PartialAggFunc(Op.SUM, true));
+        BUILTINS.put(DoubleMin.Intermediate.class.getName(), new PartialAggFunc(Op.MIN, true));
+        BUILTINS.put(DoubleMax.Intermediate.class.getName(), new PartialAggFunc(Op.MAX, true));
+    }
+
+    private final Op op;
+    private final boolean isDouble;
+
+    private PartialAggFunc(Op op, boolean isDouble) {
+        this.op = op;
+        this.isDouble = isDouble;
+    }
+
+    /**
+     * @param plans the value plans of a POPartialAgg
+     * @return the function of each plan, or null if a plan is not a builtin
+     * Intermediate function of its bag
+     */
+    static PartialAggFunc[] forPlans(List<PhysicalPlan> plans) throws ExecException {
+        PartialAggFunc[] funcs = new PartialAggFunc[plans.size()];
+        for (int i = 0; i < funcs.length; i++) {
+            funcs[i] = forPlan(plans.get(i), i + 1);
+            if (funcs[i] == null) {
+                return null;
+            }
+        }
+        return funcs;
+    }
+
+    /**
+     * @return the function of a plan which projects column of the value
+     * tuple into a builtin Intermediate function, or null
+     */
+    private static PartialAggFunc forPlan(PhysicalPlan plan, int column) throws ExecException {
+        if (plan.getLeaves().size() != 1 || !(plan.getLeaves().get(0) instanceof POUserFunc)) {
+            return null;
+        }
+        POUserFunc func = (POUserFunc) plan.getLeaves().get(0);
+        List<PhysicalOperator> inputs = plan.getPredecessors(func);
+        if (inputs == null || inputs.size() != 1 || !(inputs.get(0) instanceof POProject)) {
+            return null;
+        }
+        POProject project = (POProject) inputs.get(0);
+        if (project.isStar() || project.isProjectToEnd() || project.getColumns().size() != 1
+                || project.getColumn() != column || plan.getPredecessors(project) != null) {
+            return null;
+        }
+        return BUILTINS.get(func.getFuncSpec().getClassName());
+    }
+
+    /**
+     * Add the result of the Initial function for a tuple to partial
+     * aggregate i of the key in slot.
+     */
+    void accumulate(PartialAggHashTable table, int slot, int i, Tuple initial) throws ExecException {
+        Object value = initial.get(0);
+        try {
+            if (op == Op.COUNT) {
+                long count = table.hasStateAt(slot, i) ? table.stateAt(slot, i) : 0;
+                table.setStateAt(slot, i, count + (Long) value);
+                return;
+            }
+            if (value == null) {
+                return;
+            }
+            Number n = (Number) value;
+            boolean has = table.hasStateAt(slot, i);
+            if (isDouble) {
+                // start from the seed of AlgebraicDoubleMathBase, for the
+                // same results
+                double sofar = has ? Double.longBitsToDouble(table.stateAt(slot, i))
+                        : op == Op.SUM ? 0.0
+                        : op == Op.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+                double d = n.doubleValue();
+                double result = op == Op.SUM ? sofar + d
+                        : op == Op.MIN ? Math.min(sofar, d) : Math.max(sofar, d);
+                table.setStateAt(slot, i, Double.doubleToRawLongBits(result));
+            } else {
+                long l = n.longValue();
+                long result = !has ? l
+                        : op == Op.SUM ? table.stateAt(slot, i) + l
+                        : op == Op.MIN ? Math.min(table.stateAt(slot, i), l)
+                        : Math.max(table.stateAt(slot, i), l);
+                table.setStateAt(slot, i, result);
+            }
+        } catch (RuntimeException e) {
+            int errCode = 2103;
+            String msg = "Problem doing partial aggregation work on " + value;
+            throw new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * @return what the Intermediate function returns for partial aggregate
+     * i of the key in slot
+     */
+    Object result(PartialAggHashTable table, int slot, int i) {
+        if (op == Op.COUNT) {
+            return table.hasStateAt(slot, i) ? table.stateAt(slot, i) : 0L;
+        }
+        if (!table.hasStateAt(slot, i)) {
+            return null;
+        }
+        long state = table.stateAt(slot, i);
+        return isDouble ? (Object) Double.longBitsToDouble(state) : (Object) state;
+    }
+}
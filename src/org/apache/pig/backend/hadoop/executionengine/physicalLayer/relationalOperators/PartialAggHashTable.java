@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.data.SizeUtil;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Open addressing multi-map from group key to the tuples buffered for that
+ * key, used by {@link POPartialAgg} in place of a HashMap of ArrayLists.
+ * <p>
+ * Slots are kept in parallel arrays and the tuples of all keys share one
+ * value arena, chained through an int array, so a key costs no Map.Entry or
+ * ArrayList. Integer and long keys are kept unboxed in a long array and
+ * compared without calling equals(). The table counts the bytes it holds:
+ * its own arrays plus the size of every key and tuple. Measuring a tuple
+ * walks all its fields, so only a sample of them is measured and the others
+ * are counted at the average size of the sample.
+ * <p>
+ * Instead of tuples, each key can hold a fixed number of primitive partial
+ * aggregates, which {@link PartialAggFunc} updates in place.
+ * <p>
+ * This class is not thread safe.
+ */
+class PartialAggHashTable {
+
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_INT = 1;
+    private static final byte KIND_LONG = 2;
+
+    // key ref + primitive key + hash + head + tail + count + key size + state + kind
+    private static final int SLOT_BYTES = 4 + 8 + 4 + 4 + 4 + 4 + 4 + 1 + 1;
+    // tuple ref + next + size
+    private static final int VALUE_BYTES = 4 + 4 + 4;
+
+    // state + has state
+    private static final int STATE_BYTES = 8 + 1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // measure the first tuples and keys, then one in SAMPLE_FREQUENCY
+    private static final int MIN_SAMPLES = 100;
+    private static final int SAMPLE_FREQUENCY = 100;
+
+    private byte[] state;
+    private byte[] kind;
+    private Object[] keys;
+    private long[] primKeys;
+    private int[] hashes;
+    private int[] head;
+    private int[] tail;
+    private int[] counts;
+    private int[] keySizes;
+    private int numKeys = 0;
+    private int numDeleted = 0;
+
+    // primitive partial aggregates, numStates per slot
+    private final int numStates;
+    private long[] states;
+    private boolean[] hasStates;
+
+    private Tuple[] values;
+    private int[] next;
+    private int[] valueSizes;
+    // next never used arena index, and list of released ones
+    private int valueTop = 0;
+    private int freeValue = -1;
+    private int numValues = 0;
+
+    // bytes of keys and tuples held, not counting the arrays
+    private long contentBytes = 0;
+
+    private final SizeSampler valueSampler = new SizeSampler();
+    private final SizeSampler keySampler = new SizeSampler();
+
+    private final ValueView view = new ValueView();
+
+    PartialAggHashTable() {
+        this(MIN_CAPACITY);
+    }
+
+    PartialAggHashTable(int expectedKeys) {
+        this(expectedKeys, 0);
+    }
+
+    /**
+     * @param expectedKeys number of keys to size the table for
+     * @param numStates number of primitive partial aggregates of each key
+     */
+    PartialAggHashTable(int expectedKeys, int numStates) {
+        this.numStates = numStates;
+        int cap = MIN_CAPACITY;
+        while (cap * 3 / 4 < expectedKeys) {
+            cap <<= 1;
+        }
+        allocSlots(cap);
+        values = new Tuple[cap];
+        next = new int[cap];
+        valueSizes = new int[cap];
+    }
+
+    private void allocSlots(int cap) {
+        state = new byte[cap];
+        kind = new byte[cap];
+        keys = new Object[cap];
+        primKeys = new long[cap];
+        hashes = new int[cap];
+        head = new int[cap];
+        tail = new int[cap];
+        counts = new int[cap];
+        keySizes = new int[cap];
+        states = new long[cap * numStates];
+        hasStates = new boolean[cap * numStates];
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    int size() {
+        return numKeys;
+    }
+
+    boolean isEmpty() {
+        return numKeys == 0;
+    }
+
+    /**
+     * @return number of tuples held for all keys
+     */
+    int numValues() {
+        return numValues;
+    }
+
+    /**
+     * @return bytes held by this table, including its arrays
+     */
+    long getMemorySize() {
+        return contentBytes + (long) state.length * (SLOT_BYTES + numStates * STATE_BYTES)
+                + (long) values.length * VALUE_BYTES;
+    }
+
+    /**
+     * Add a tuple to the ones held for key.
+     * @return number of tuples now held for key
+     */
+    int add(Object key, Tuple t) {
+        int slot = findOrInsert(key);
+        int idx = allocValue();
+        int size = (int) valueSampler.sizeOf(t);
+        values[idx] = t;
+        valueSizes[idx] = size;
+        next[idx] = -1;
+        contentBytes += size;
+        numValues++;
+        if (counts[slot] == 0) {
+            head[slot] = idx;
+        } else {
+            next[tail[slot]] = idx;
+        }
+        tail[slot] = idx;
+        return ++counts[slot];
+    }
+
+    /**
+     * Find the slot of a key, adding the key with empty partial aggregates
+     * if it is not in the table yet. The slot is only valid until the next
+     * key is added.
+     * @return slot of key
+     */
+    int addKey(Object key) {
+        return findOrInsert(key);
+    }
+
+    /**
+     * @return whether partial aggregate i of the key in slot has a value
+     */
+    boolean hasStateAt(int slot, int i) {
+        return hasStates[slot * numStates + i];
+    }
+
+    /**
+     * @return partial aggregate i of the key in slot
+     */
+    long stateAt(int slot, int i) {
+        return states[slot * numStates + i];
+    }
+
+    void setStateAt(int slot, int i, long value) {
+        states[slot * numStates + i] = value;
+        hasStates[slot * numStates + i] = true;
+    }
+
+    /**
+     * @return slot of key, or -1 if it is not in the table
+     */
+    int find(Object key) {
+        byte k = kindOf(key);
+        long prim = k == KIND_OBJECT ? 0 : ((Number) key).longValue();
+        int h = k == KIND_OBJECT ? objectHash(key) : primHash(prim);
+        int mask = state.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            byte s = state[slot];
+            if (s == EMPTY) {
+                return -1;
+            }
+            if (s == FULL && matches(slot, k, prim, h, key)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return first full slot at or after from, or -1
+     */
+    int nextSlot(int from) {
+        for (int slot = from; slot < state.length; slot++) {
+            if (state[slot] == FULL) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    Object keyAt(int slot) {
+        switch (kind[slot]) {
+        case KIND_INT:
+            return Integer.valueOf((int) primKeys[slot]);
+        case KIND_LONG:
+            return Long.valueOf(primKeys[slot]);
+        default:
+            return keys[slot];
+        }
+    }
+
+    int countAt(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Tuples held in slot, in the order they were added. The returned
+     * Iterable is owned by the table and is only valid until the next call.
+     */
+    Iterable<Tuple> valuesAt(int slot) {
+        view.first = counts[slot] == 0 ? -1 : head[slot];
+        return view;
+    }
+
+    /**
+     * Remove a key and its tuples. Slots of other keys do not move, so this
+     * can be called while walking the table with {@link #nextSlot(int)}.
+     */
+    void removeAt(int slot) {
+        for (int idx = counts[slot] == 0 ? -1 : head[slot]; idx != -1; ) {
+            int n = next[idx];
+            contentBytes -= valueSizes[idx];
+            values[idx] = null;
+            next[idx] = freeValue;
+            freeValue = idx;
+            numValues--;
+            idx = n;
+        }
+        if (kind[slot] == KIND_OBJECT) {
+            contentBytes -= keySizes[slot];
+        }
+        state[slot] = DELETED;
+        keys[slot] = null;
+        counts[slot] = 0;
+        numKeys--;
+        numDeleted++;
+    }
+
+    void clear() {
+        Arrays.fill(state, EMPTY);
+        Arrays.fill(keys, null);
+        Arrays.fill(counts, 0);
+        Arrays.fill(values, 0, valueTop, null);
+        numKeys = 0;
+        numDeleted = 0;
+        valueTop = 0;
+        freeValue = -1;
+        numValues = 0;
+        contentBytes = 0;
+    }
+
+    private int findOrInsert(Object key) {
+        if ((numKeys + numDeleted + 1) * 4 > state.length * 3) {
+            rehash(numKeys * 2 > state.length / 2 ? state.length * 2 : state.length);
+        }
+        byte k = kindOf(key);
+        long prim = k == KIND_OBJECT ? 0 : ((Number) key).longValue();
+        int h = k == KIND_OBJECT ? objectHash(key) : primHash(prim);
+        int mask = state.length - 1;
+        int firstDeleted = -1;
+        int slot = h & mask;
+        for (; ; slot = (slot + 1) & mask) {
+            byte s = state[slot];
+            if (s == EMPTY) {
+                break;
+            }
+            if (s == DELETED) {
+                if (firstDeleted == -1) {
+                    firstDeleted = slot;
+                }
+            } else if (matches(slot, k, prim, h, key)) {
+                return slot;
+            }
+        }
+        if (firstDeleted != -1) {
+            slot = firstDeleted;
+            numDeleted--;
+        }
+        state[slot] = FULL;
+        kind[slot] = k;
+        hashes[slot] = h;
+        counts[slot] = 0;
+        Arrays.fill(hasStates, slot * numStates, (slot + 1) * numStates, false);
+        if (k == KIND_OBJECT) {
+            keys[slot] = key;
+            keySizes[slot] = key == null ? 0 : (int) keySampler.sizeOf(key);
+            contentBytes += keySizes[slot];
+        } else {
+            primKeys[slot] = prim;
+        }
+        numKeys++;
+        return slot;
+    }
+
+    private boolean matches(int slot, byte k, long prim, int h, Object key) {
+        if (hashes[slot] != h || kind[slot] != k) {
+            return false;
+        }
+        if (k != KIND_OBJECT) {
+            return primKeys[slot] == prim;
+        }
+        Object other = keys[slot];
+        return key == null ? other == null : key.equals(other);
+    }
+
+    private void rehash(int newCap) {
+        byte[] oldState = state;
+        byte[] oldKind = kind;
+        Object[] oldKeys = keys;
+        long[] oldPrim = primKeys;
+        int[] oldHashes = hashes;
+        int[] oldHead = head;
+        int[] oldTail = tail;
+        int[] oldCounts = counts;
+        int[] oldKeySizes = keySizes;
+        long[] oldStates = states;
+        boolean[] oldHasStates = hasStates;
+        allocSlots(newCap);
+        int mask = newCap - 1;
+        for (int i = 0; i < oldState.length; i++) {
+            if (oldState[i] != FULL) {
+                continue;
+            }
+            int slot = oldHashes[i] & mask;
+            while (state[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            state[slot] = FULL;
+            kind[slot] = oldKind[i];
+            keys[slot] = oldKeys[i];
+            primKeys[slot] = oldPrim[i];
+            hashes[slot] = oldHashes[i];
+            head[slot] = oldHead[i];
+            tail[slot] = oldTail[i];
+            counts[slot] = oldCounts[i];
+            keySizes[slot] = oldKeySizes[i];
+            System.arraycopy(oldStates, i * numStates, states, slot * numStates, numStates);
+            System.arraycopy(oldHasStates, i * numStates, hasStates, slot * numStates, numStates);
+        }
+        numDeleted = 0;
+    }
+
+    private int allocValue() {
+        if (freeValue != -1) {
+            int idx = freeValue;
+            freeValue = next[idx];
+            return idx;
+        }
+        if (valueTop == values.length) {
+            int cap = values.length * 2;
+            values = Arrays.copyOf(values, cap);
+            next = Arrays.copyOf(next, cap);
+            valueSizes = Arrays.copyOf(valueSizes, cap);
+        }
+        return valueTop++;
+    }
+
+    private static byte kindOf(Object key) {
+        if (key instanceof Integer) {
+            return KIND_INT;
+        }
+        if (key instanceof Long) {
+            return KIND_LONG;
+        }
+        return KIND_OBJECT;
+    }
+
+    /**
+     * Measures the first objects it is given, then one in SAMPLE_FREQUENCY,
+     * and gives the others the average size of the measured ones.
+     */
+    private static class SizeSampler {
+        private long seen = 0;
+        private long sampled = 0;
+        private long sampledBytes = 0;
+
+        long sizeOf(Object o) {
+            if (sampled < MIN_SAMPLES || seen++ % SAMPLE_FREQUENCY == 0) {
+                sampled++;
+                sampledBytes += o instanceof Tuple
+                        ? ((Tuple) o).getMemorySize() : SizeUtil.getPigObjMemSize(o);
+            }
+            return sampledBytes / sampled;
+        }
+    }
+
+    private static int objectHash(Object key) {
+        return key == null ? 0 : mix(key.hashCode());
+    }
+
+    private static int primHash(long v) {
+        return mix((int) (v ^ (v >>> 32)));
+    }
+
+    // spread the bits, since we mask with a power of two
+    private static int mix(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private class ValueView implements Iterable<Tuple> {
+        int first;
+
+        @Override
+        public Iterator<Tuple> iterator() {
+            final int start = first;
+            return new Iterator<Tuple>() {
+                int idx = start;
+
+                @Override
+                public boolean hasNext() {
+                    return idx != -1;
+                }
+
+                @Override
+                public Tuple next() {
+                    if (idx == -1) {
+                        throw new NoSuchElementException();
+                    }
+                    Tuple t = values[idx];
+                    idx = PartialAggHashTable.this.next[idx];
+                    return t;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.ScriptBasedMapping;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.PigConfiguration;
+
+/**
+ * Combines the small splits of an input into splits of up to a maximum size,
+ * keeping them local first to a node, then to a rack. The splits local to
+ * each node, from the node with the most bytes of splits down, are packed
+ * first-fit decreasing, and the combined splits at least half full are kept.
+ * The splits left are packed the same way by rack, and the ones still left
+ * are packed together.
+ * <p>
+ * The maximum size is lowered so that combined splits have at most
+ * {@link PigConfiguration#PIG_MAX_COMBINED_SPLIT_RECORDS} records, when the
+ * loader gave the number of records of the input.
+ */
+public class LocalitySplitCombiner {
+
+    private static final Log log = LogFactory.getLog(LocalitySplitCombiner.class);
+
+    /**
+     * The average number of bytes of a record of the input, set by
+     * PigInputFormat from the statistics of the loader
+     */
+    public static final String BYTES_PER_RECORD = "pig.splitCombination.bytesPerRecord";
+
+    private static final String SWITCH_MAPPING = "topology.node.switch.mapping.impl";
+
+    private final long maxSize;
+    private final Configuration conf;
+
+    private static class Item {
+        final InputSplit split;
+        final long length;
+        final String[] hosts;
+        boolean assigned = false;
+
+        Item(InputSplit split) throws IOException, InterruptedException {
+            this.split = split;
+            this.length = split.getLength();
+            String[] locations = split.getLocations();
+            this.hosts = locations == null ? new String[0] : locations;
+        }
+    }
+
+    private static class Bin {
+        final List<Item> items = new ArrayList<Item>();
+        long length = 0;
+
+        void add(Item item) {
+            items.add(item);
+            length += item.length;
+        }
+    }
+
+    // in decreasing length, the first added first among equal ones
+    private static final Comparator<Item> DECREASING_LENGTH = new Comparator<Item>() {
+        @Override
+        public int compare(Item o1, Item o2) {
+            return o1.length == o2.length ? 0 : o1.length < o2.length ? 1 : -1;
+        }
+    };
+
+    /**
+     * @param maxCombinedSplitSize the maximum size in bytes of the combined
+     * splits
+     * @param conf the configuration of the input
+     */
+    public LocalitySplitCombiner(long maxCombinedSplitSize, Configuration conf) {
+        this.conf = conf;
+        long max = maxCombinedSplitSize;
+        long maxRecords = conf.getLong(PigConfiguration.PIG_MAX_COMBINED_SPLIT_RECORDS, 0);
+        float bytesPerRecord = conf.getFloat(BYTES_PER_RECORD, 0);
+        if (maxRecords > 0 && bytesPerRecord > 0) {
+            max = Math.min(max, (long) Math.ceil(maxRecords * (double) bytesPerRecord));
+        }
+        this.maxSize = Math.max(1, max);
+    }
+
+    /**
+     * @param splits the splits of an input
+     * @return the splits combined, in the order they are combined
+     */
+    public List<List<InputSplit>> combine(List<InputSplit> splits)
+            throws IOException, InterruptedException {
+        List<List<InputSplit>> result = new ArrayList<List<InputSplit>>();
+        List<Item> small = new ArrayList<Item>();
+        int emptyCnt = 0;
+        for (InputSplit split : splits) {
+            Item item = new Item(split);
+            if (item.length == 0) {
+                emptyCnt++;
+            } else if (item.length >= maxSize) {
+                result.add(Collections.singletonList(split));
+            } else {
+                small.add(item);
+            }
+        }
+        if (!splits.isEmpty() && emptyCnt == splits.size()) {
+            // as in MapRedUtil.getCombinePigSplits, an input of only empty
+            // splits gets one
+            result.add(Collections.singletonList(splits.get(0)));
+            return result;
+        }
+        Collections.sort(small, DECREASING_LENGTH);
+
+        int combined = result.size();
+        for (List<Item> local : groupByNode(small)) {
+            pack(local, maxSize / 2, result);
+        }
+        int nodeLocal = result.size() - combined;
+        for (List<Item> local : groupByRack(small)) {
+            pack(local, maxSize / 2, result);
+        }
+        int rackLocal = result.size() - combined - nodeLocal;
+        pack(small, 0, result);
+
+        log.info("Combined " + small.size() + " splits into " + (result.size() - combined)
+                + " splits of up to " + maxSize + " bytes, " + nodeLocal + " node local and "
+                + rackLocal + " rack local");
+        return result;
+    }
+
+    /**
+     * @return the splits local to each node, from the node with the most
+     * bytes of splits down
+     */
+    private List<List<Item>> groupByNode(List<Item> items) {
+        Map<String, List<Item>> byNode = new HashMap<String, List<Item>>();
+        for (Item item : items) {
+            for (String host : new LinkedHashSet<String>(Arrays.asList(item.hosts))) {
+                List<Item> local = byNode.get(host);
+                if (local == null) {
+                    local = new ArrayList<Item>();
+                    byNode.put(host, local);
+                }
+                local.add(item);
+            }
+        }
+        return sortByLength(byNode);
+    }
+
+    /**
+     * @return the splits local to each rack, from the rack with the most
+     * bytes of splits down
+     */
+    private List<List<Item>> groupByRack(List<Item> items) {
+        Set<String> hosts = new LinkedHashSet<String>();
+        for (Item item : items) {
+            if (!item.assigned) {
+                hosts.addAll(Arrays.asList(item.hosts));
+            }
+        }
+        Map<String, String> racks = resolveRacks(new ArrayList<String>(hosts));
+        Map<String, List<Item>> byRack = new HashMap<String, List<Item>>();
+        for (Item item : items) {
+            if (item.assigned) {
+                continue;
+            }
+            Set<String> itemRacks = new LinkedHashSet<String>();
+            for (String host : item.hosts) {
+                itemRacks.add(racks.get(host));
+            }
+            for (String rack : itemRacks) {
+                List<Item> local = byRack.get(rack);
+                if (local == null) {
+                    local = new ArrayList<Item>();
+                    byRack.put(rack, local);
+                }
+                local.add(item);
+            }
+        }
+        return sortByLength(byRack);
+    }
+
+    private Map<String, String> resolveRacks(List<String> hosts) {
+        Map<String, String> racks = new HashMap<String, String>();
+        List<String> resolved = null;
+        try {
+            DNSToSwitchMapping mapping = ReflectionUtils.newInstance(conf.getClass(
+                    SWITCH_MAPPING, ScriptBasedMapping.class, DNSToSwitchMapping.class), conf);
+            resolved = mapping.resolve(hosts);
+        } catch (RuntimeException e) {
+            log.warn("Unable to resolve the racks of the split locations", e);
+        }
+        for (int i = 0; i < hosts.size(); i++) {
+            racks.put(hosts.get(i), resolved == null || resolved.size() != hosts.size()
+                    ? NetworkTopology.DEFAULT_RACK : resolved.get(i));
+        }
+        return racks;
+    }
+
+    private static List<List<Item>> sortByLength(Map<String, List<Item>> groups) {
+        List<String> keys = new ArrayList<String>(groups.keySet());
+        // sort the keys first so that the order of groups of equal length,
+        // and so the combined splits, do not change from run to run
+        Collections.sort(keys);
+        final Map<String, Long> lengths = new HashMap<String, Long>();
+        for (String key : keys) {
+            long length = 0;
+            for (Item item : groups.get(key)) {
+                length += item.length;
+            }
+            lengths.put(key, length);
+        }
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return -lengths.get(o1).compareTo(lengths.get(o2));
+            }
+        });
+        List<List<Item>> sorted = new ArrayList<List<Item>>();
+        for (String key : keys) {
+            sorted.add(groups.get(key));
+        }
+        return sorted;
+    }
+
+    /**
+     * Pack the splits not combined yet first-fit decreasing, and keep the
+     * combined splits of at least minLength bytes.
+     * @param items the splits, in decreasing length
+     */
+    private void pack(List<Item> items, long minLength, List<List<InputSplit>> result) {
+        if (items.isEmpty()) {
+            return;
+        }
+        long smallest = items.get(items.size() - 1).length;
+        List<Bin> bins = new ArrayList<Bin>();
+        // the bins with room for at least the smallest split
+        LinkedList<Bin> open = new LinkedList<Bin>();
+        for (Item item : items) {
+            if (item.assigned) {
+                continue;
+            }
+            Bin target = null;
+            for (Bin bin : open) {
+                if (bin.length + item.length <= maxSize) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Bin();
+                bins.add(target);
+                open.add(target);
+            }
+            target.add(item);
+            if (maxSize - target.length < smallest) {
+                open.remove(target);
+            }
+        }
+        for (Bin bin : bins) {
+            if (bin.length < minLength) {
+                continue;
+            }
+            List<InputSplit> combined = new ArrayList<InputSplit>(bin.items.size());
+            for (Item item : bin.items) {
+                item.assigned = true;
+                combined.add(item.split);
+            }
+            result.add(combined);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -48,6 +49,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.Physica
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedesFactory;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
@@ -70,6 +72,18 @@ public class MapRedUtil {
          
     public static final String FILE_SYSTEM_NAME = "fs.default.name";
 
+    /**
+     * Set if the key distribution file of a skewed join holds the dist map
+     * computed from key sketches instead of the output of a sampling job
+     */
+    public static final String SKETCHED_KEY_DIST_FILE = "pig.keyDistFile.sketched";
+
+    /**
+     * Set if the quantiles file of an order by holds the quantiles computed
+     * from key sketches instead of the output of a sampling job
+     */
+    public static final String SKETCHED_QUANTILES_FILE = "pig.quantilesFile.sketched";
+
     /**
      * Loads the key distribution sampler file
      *
@@ -100,18 +114,31 @@ public class MapRedUtil {
 
         conf.set(MapRedUtil.FILE_SYSTEM_NAME, "file:///");
 
-        ReadToEndLoader loader = new ReadToEndLoader(Utils.getTmpFileStorageObject(PigMapReduce.sJobConfInternal.get()), conf,
-                keyDistFile, 0);
-        DataBag partitionList;
-        Tuple t = loader.getNext();
-        if (t == null) {
-            // this could happen if the input directory for sampling is empty
-            log.warn("Empty dist file: " + keyDistFile);
-            return reducerMap;
+        Map<String, Object> distMap;
+        if (mapConf.getBoolean(SKETCHED_KEY_DIST_FILE, false)) {
+            // the client computed the dist map from key sketches and wrote
+            // it as a single datum
+            FSDataInputStream in = FileSystem.getLocal(conf).open(new Path(keyDistFile));
+            try {
+                distMap = (Map<String, Object>) InterSedesFactory.getInterSedesInstance()
+                        .readDatum(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            ReadToEndLoader loader = new ReadToEndLoader(Utils.getTmpFileStorageObject(PigMapReduce.sJobConfInternal.get()), conf,
+                    keyDistFile, 0);
+            Tuple t = loader.getNext();
+            if (t == null) {
+                // this could happen if the input directory for sampling is empty
+                log.warn("Empty dist file: " + keyDistFile);
+                return reducerMap;
+            }
+            distMap = (Map<String, Object>) t.get(0);
         }
         // The keydist file is structured as (key, min, max)
         // min, max being the index of the reducers
-        Map<String, Object > distMap = (Map<String, Object>) t.get (0);
+        DataBag partitionList;
         partitionList = (DataBag) distMap.get(PartitionSkewedKeys.PARTITION_LIST);
         totalReducers[0] = Integer.valueOf(""+distMap.get(PartitionSkewedKeys.TOTAL_REDUCERS));
         Iterator<Tuple> it = partitionList.iterator();
@@ -55,6 +55,7 @@ import org.apache.pig.LoadFunc;
 import org.apache.pig.LoadMetadata;
 import org.apache.pig.LoadPushDown;
 import org.apache.pig.OverwritableStoreFunc;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigException;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceSchema.ResourceFieldSchema;
@@ -69,6 +70,7 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTextOutpu
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.bzip2r.Bzip2TextInputFormat;
 import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.LazyTextTuple;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.PigContext;
@@ -163,6 +165,18 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
     private static final String TAG_SOURCE_PATH = "tagPath";
     private Path sourcePath = null;
 
+    // Whether lines are read into LazyTextTuples, see
+    // PigConfiguration.PIG_STORAGE_LAZY_TUPLES
+    private boolean lazyTuples = false;
+    // the offsets of the fields of the current line
+    private int[] lazyStarts = null;
+    private int[] lazyEnds = null;
+    private byte[] tagBytes = null;
+    // the schemas of the fields of the tuples, and the number of fields
+    // they are padded to with nulls
+    private ResourceFieldSchema[] lazyFieldSchemas = null;
+    private int lazyPaddedSize = 0;
+
     private void populateValidOptions() {
         validOptions.addOption("schema", false, "Loads / Stores the schema of the relation using a hidden JSON file.");
         validOptions.addOption("noschema", false, "Disable attempting to load data schema from the filesystem.");
@@ -236,7 +250,6 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
 
     @Override
     public Tuple getNext() throws IOException {
-        mProtoTuple = new ArrayList<Object>();
         if (!mRequiredColumnsInitialized) {
             if (signature!=null) {
                 Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass());
@@ -244,6 +257,17 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
             }
             mRequiredColumnsInitialized = true;
         }
+        if (lazyTuples) {
+            try {
+                return getNextLazy();
+            } catch (InterruptedException e) {
+                int errCode = 6018;
+                String errMsg = "Error while reading input";
+                throw new ExecException(errMsg, errCode,
+                        PigException.REMOTE_ENVIRONMENT, e);
+            }
+        }
+        mProtoTuple = new ArrayList<Object>();
         //Prepend input source path if source tagging is enabled
         if(tagFile) {
             mProtoTuple.add(new DataByteArray(sourcePath.getName()));
@@ -285,24 +309,7 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
     }
 
     private Tuple applySchema(Tuple tup) throws IOException {
-        if ( caster == null) {
-            caster = getLoadCaster();
-        }
-        if (signature != null && schema == null) {
-            Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass(),
-                    new String[] {signature});
-            String serializedSchema = p.getProperty(signature+".schema");
-            if (serializedSchema != null) {
-                try {
-                    schema = new ResourceSchema(Utils.getSchemaFromString(serializedSchema));
-                } catch (ParserException e) {
-                    mLog.error("Unable to parse serialized schema " + serializedSchema, e);
-                    // all bets are off - there's no guarantee that we'll return
-                    // either the fields in the data or the fields in the schema
-                    // the user specified (or required)
-                }
-            }
-        }
+        initSchema();
 
         if (schema == null) {
             // if the number of required fields are less than or equal to 
@@ -343,6 +350,133 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
         return tup;
     }
 
+    private void initSchema() throws IOException {
+        if ( caster == null) {
+            caster = getLoadCaster();
+        }
+        if (signature != null && schema == null) {
+            Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass(),
+                    new String[] {signature});
+            String serializedSchema = p.getProperty(signature+".schema");
+            if (serializedSchema != null) {
+                try {
+                    schema = new ResourceSchema(Utils.getSchemaFromString(serializedSchema));
+                } catch (ParserException e) {
+                    mLog.error("Unable to parse serialized schema " + serializedSchema, e);
+                    // all bets are off - there's no guarantee that we'll return
+                    // either the fields in the data or the fields in the schema
+                    // the user specified (or required)
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the next line as a {@link LazyTextTuple}, which holds the
+     * same fields applySchema would give, but only reads and casts a field
+     * when it is used.
+     */
+    private Tuple getNextLazy() throws IOException, InterruptedException {
+        if (!in.nextKeyValue()) {
+            return null;
+        }
+        if (lazyStarts == null) {
+            initLazy();
+        }
+        Text value = (Text) in.getCurrentValue();
+        int len = value.getLength();
+        int tagLen = tagBytes == null ? 0 : tagBytes.length;
+        // the record reader reuses its buffer, so the line is copied once
+        byte[] line = new byte[len + tagLen];
+        System.arraycopy(value.getBytes(), 0, line, 0, len);
+        int n = 0;
+        if (tagBytes != null) {
+            System.arraycopy(tagBytes, 0, line, len, tagLen);
+            n = addLazyField(n, len, len + tagLen);
+        }
+        int start = 0;
+        int fieldID = 0;
+        for (int i = 0; i < len; i++) {
+            if (line[i] == fieldDel) {
+                if (mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID]))
+                    n = addLazyField(n, start, i);
+                start = i + 1;
+                fieldID++;
+            }
+        }
+        // pick up the last field
+        if (mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID])) {
+            n = addLazyField(n, start, len);
+        }
+        // pad with nulls up to the number of required fields, as applySchema does
+        int size = Math.max(n, lazyPaddedSize);
+        int[] starts = Arrays.copyOf(lazyStarts, size);
+        int[] ends = Arrays.copyOf(lazyEnds, size);
+        for (int i = n; i < size; i++) {
+            starts[i] = -1;
+        }
+        return new LazyTextTuple(line, starts, ends, lazyFieldSchemas, caster);
+    }
+
+    private int addLazyField(int n, int start, int end) {
+        if (n == lazyStarts.length) {
+            lazyStarts = Arrays.copyOf(lazyStarts, n * 2);
+            lazyEnds = Arrays.copyOf(lazyEnds, n * 2);
+        }
+        lazyStarts[n] = start;
+        lazyEnds[n] = end;
+        return n + 1;
+    }
+
+    private void initLazy() throws IOException {
+        lazyStarts = new int[16];
+        lazyEnds = new int[16];
+        lazyFieldSchemas = null;
+        lazyPaddedSize = 0;
+        if (tagFile) {
+            tagBytes = new DataByteArray(sourcePath.getName()).get();
+        } else if (tagPath) {
+            tagBytes = new DataByteArray(sourcePath.toString()).get();
+        }
+        if (dontLoadSchema) {
+            return;
+        }
+        initSchema();
+        if (schema == null) {
+            for (int i = 0; mRequiredColumns != null && i < mRequiredColumns.length; i++)
+                if(mRequiredColumns[i])
+                    ++lazyPaddedSize;
+        } else {
+            // the tuple only holds the required fields, so the k-th field of
+            // the tuple has the schema of the k-th required field
+            List<ResourceFieldSchema> required = new ArrayList<ResourceFieldSchema>();
+            ResourceFieldSchema[] fieldSchemas = schema.getFields();
+            for (int i = 0; i < fieldSchemas.length; i++) {
+                if (mRequiredColumns == null || (mRequiredColumns.length>i && mRequiredColumns[i])) {
+                    required.add(fieldSchemas[i]);
+                }
+            }
+            lazyFieldSchemas = required.toArray(new ResourceFieldSchema[required.size()]);
+            lazyPaddedSize = lazyFieldSchemas.length;
+        }
+    }
+
+    /**
+     * Whether readField is left as it is, so that lines can be read into
+     * lazy tuples, which do not call it.
+     */
+    private boolean readsFieldsAsIs() {
+        for (Class<?> c = getClass(); c != PigStorage.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("readField", byte[].class, int.class, int.class);
+                return false;
+            } catch (NoSuchMethodException e) {
+                // not overridden here
+            }
+        }
+        return true;
+    }
+
     @Override
     public void putNext(Tuple f) throws IOException {
         try {
@@ -428,6 +562,12 @@ LoadPushDown, LoadMetadata, StoreMetadata, OverwritableStoreFunc {
         if (tagFile || tagPath) {
             sourcePath = ((FileSplit)split.getWrappedSplit()).getPath();
         }
+        Configuration conf = split == null ? null : split.getConf();
+        lazyTuples = conf != null && conf.getBoolean(PigConfiguration.PIG_STORAGE_LAZY_TUPLES, false)
+                && readsFieldsAsIs();
+        // the tag and the required fields may differ between splits
+        lazyStarts = null;
+        tagBytes = null;
     }
 
     @Override
@@ -59,6 +59,13 @@ public class AccumulativeBag implements DataBag {
         return buffer;
     }
 
+    /**
+     * @return the index of the input of the package this bag holds
+     */
+    public int getIndex() {
+        return index;
+    }
+
     public Iterator<Tuple> iterator() {				
         return buffer.getTuples(index);
     }
@@ -17,19 +17,24 @@
  */
 package org.apache.pig.data;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.pig.PigException;
 import org.apache.pig.PigWarning;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigHadoopLogger;
@@ -37,6 +42,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOpera
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
 import org.apache.pig.impl.util.BagFormat;
 import org.apache.pig.impl.util.SpillableMemoryManager;
+import org.apache.pig.impl.util.SpillableRegistry;
 import org.apache.pig.tools.pigstats.PigStatusReporter;
 
 /**
@@ -75,6 +81,11 @@ public abstract class DefaultAbstractBag implements DataBag {
 
     private boolean spillableRegistered = false;
 
+    // Handle from the SpillableMemoryManager, and the number of tuples we had
+    // in memory when it last measured us.
+    private transient SpillableRegistry.Entry spillableEntry;
+    private long sizeAtLastReport = 0;
+
     /**
      * Get the number of elements in the bag, both in memory and on disk.
      */
@@ -126,12 +137,33 @@ public abstract class DefaultAbstractBag implements DataBag {
         if (!spillableRegistered) {
             long estimate = getMemorySize();
             if ( estimate >= SPILL_REGISTER_THRESHOLD) {
-                SpillableMemoryManager.getInstance().registerSpillable(this);
+                spillableEntry = SpillableMemoryManager.getInstance().registerResizableSpillable(this);
                 spillableRegistered = true;
+                sizeAtLastReport = mContents.size();
+            }
+        } else if (spillableEntry != null) {
+            // Only the tuples in memory count, spilled ones take no heap.
+            int inMemory = mContents.size();
+            if (inMemory > 0 && inMemory >= 2 * sizeAtLastReport) {
+                // Let the memory manager know we moved up a size bucket.
+                spillableEntry.markResized();
+                sizeAtLastReport = inMemory;
             }
         }
     }
 
+    /**
+     * Bag implementations should call this method after they have written
+     * their in-memory contents to disk, so that the memory manager measures
+     * them again and they report their growth from zero.
+     */
+    protected void markSpilled() {
+        sizeAtLastReport = 0;
+        if (spillableEntry != null) {
+            spillableEntry.markResized();
+        }
+    }
+
     @Override
     public void addAll(DataBag b) {
         addAll((Iterable<Tuple>) b);
@@ -380,38 +412,84 @@ public abstract class DefaultAbstractBag implements DataBag {
             mSpillFiles = new FileList(1);
         }
 
-        String tmpDirName= System.getProperties().getProperty("java.io.tmpdir") ;
-        File tmpDir = new File(tmpDirName);
-
-        // if the directory does not exist, create it.
-        if (!tmpDir.exists()){
-            log.info("Temporary directory doesn't exists. Trying to create: " + tmpDir.getAbsolutePath());
-          // Create the directory and see if it was successful
-          if (tmpDir.mkdir()){
-            log.info("Successfully created temporary directory: " + tmpDir.getAbsolutePath());
-          } else {
-              // If execution reaches here, it means that we needed to create the directory but
-              // were not successful in doing so.
-              //
-              // If this directory is created recently then we can simply
-              // skip creation. This is to address a rare issue occuring in a cluster despite the
-              // the fact that spill() makes call to getSpillFile() in a synchronized
-              // block.
-              if (tmpDir.exists()) {
-                log.info("Temporary directory already exists: " + tmpDir.getAbsolutePath());
-              } else {
-                int errCode = 2111;
-                String msg = "Unable to create temporary directory: " + tmpDir.getAbsolutePath();
-                throw new ExecException(msg, errCode, PigException.BUG);
-              }
-          }
-        }
+        File f = newSpillFile();
+        mSpillFiles.add(f);
+        return openSpillOutputStream(f);
+    }
 
-        File f = File.createTempFile("pigbag", null);
+    /**
+     * Create a spill file without registering it in the mSpillFiles array.
+     * @return the new spill file, to be opened with
+     * {@link #openSpillOutputStream(File)}
+     */
+    File newSpillFile() throws IOException {
+        SpillFiles spillFiles = SpillFiles.getInstance();
+        File tmpDir = spillFiles.nextDirectory();
+
+        // Spill to direct memory first if there is room for it, the
+        // off-heap spill file moves on to disk by itself once the budget
+        // is used up.
+        OffHeapPagePool pool = OffHeapPagePool.getInstance();
+        if (pool.isEnabled() && pool.getAllocated() + pool.getPageSize() <= pool.getBudget()) {
+            return new OffHeapSpillFile(tmpDir, pool, spillFiles.getSuffix());
+        }
+        File f = File.createTempFile("pigbag", spillFiles.getSuffix(), tmpDir);
         f.deleteOnExit();
-        mSpillFiles.add(f);
+        return f;
+    }
+
+    /**
+     * Open a spill file created by {@link #newSpillFile()} for writing.
+     * @param f spill file
+     * @return stream to write tuples to.
+     */
+    DataOutputStream openSpillOutputStream(File f) throws IOException {
+        OutputStream out;
+        if (f instanceof OffHeapSpillFile) {
+            out = ((OffHeapSpillFile)f).openOutputStream();
+        } else {
+            out = new FileOutputStream(f);
+        }
         return new DataOutputStream(new BufferedOutputStream(
-            new FileOutputStream(f)));
+            SpillFiles.getInstance().wrapOutputStream(out)));
+    }
+
+    /**
+     * Open a spill file previously created by {@link #getSpillFile()} for
+     * reading.
+     * @param f spill file
+     * @return stream to read tuples from.
+     * @throws FileNotFoundException if the spill file is gone
+     */
+    protected DataInputStream openSpillFile(File f) throws FileNotFoundException {
+        return openSpillFile(f, DEFAULT_SPILL_READ_BUFFER);
+    }
+
+    /**
+     * Open a spill file previously created by {@link #getSpillFile()} for
+     * reading, reading ahead the given number of bytes at a time.
+     * @param f spill file
+     * @param bufferSize size of the read buffer
+     * @return stream to read tuples from.
+     * @throws FileNotFoundException if the spill file is gone
+     */
+    protected DataInputStream openSpillFile(File f, int bufferSize) throws FileNotFoundException {
+        InputStream in;
+        if (f instanceof OffHeapSpillFile) {
+            in = ((OffHeapSpillFile)f).openInputStream();
+        } else {
+            in = new FileInputStream(f);
+        }
+        try {
+            in = SpillFiles.getInstance().wrapInputStream(f, in);
+        } catch (FileNotFoundException fnfe) {
+            throw fnfe;
+        } catch (IOException ioe) {
+            String msg = "Unable to read our spill file.";
+            log.fatal(msg, ioe);
+            throw new RuntimeException(msg, ioe);
+        }
+        return new DataInputStream(new BufferedInputStream(in, bufferSize));
     }
 
     /**
@@ -460,4 +538,7 @@ public abstract class DefaultAbstractBag implements DataBag {
 
     protected static final int MAX_SPILL_FILES = 100;
 
+    // the buffer size of BufferedInputStream
+    static final int DEFAULT_SPILL_READ_BUFFER = 8192;
+
 }
@@ -17,16 +17,13 @@
  */
 package org.apache.pig.data;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -62,6 +59,8 @@ public class InternalSortedBag extends SortedSpillBag{
 
     private transient Comparator<Tuple> mComp;
     private transient boolean mReadStarted = false;
+    // merges spill files in the background, see mergeInBackground()
+    private transient SortedSpillMerger mMerger;
 
     static private class DefaultComparator implements Comparator<Tuple> {
         @Override
@@ -197,8 +196,11 @@ public class InternalSortedBag extends SortedSpillBag{
             // If this is the first read, we need to sort the data.
         	synchronized(mContents) {
 	        	if (!mReadStarted) {
+	                if (mMerger != null) {
+	                    mMerger.finish(mSpillFiles);
+	                }
 	                preMerge();
-	                Collections.sort((ArrayList<Tuple>)mContents, mComp);
+	                PrefixKeySorter.sort((ArrayList<Tuple>)mContents, mComp);
 	                mReadStarted = true;
 	            }            
         	}
@@ -255,8 +257,7 @@ public class InternalSortedBag extends SortedSpillBag{
                 while (i.hasNext()) {
                     try {
                         DataInputStream in = 
-                            new DataInputStream(new BufferedInputStream(
-                                new FileInputStream(i.next())));
+                            openSpillFile(i.next(), mergeBufferSize());
                         mStreams.add(in);
                         // Add the first tuple from this file into the
                         // merge queue.
@@ -381,8 +382,7 @@ public class InternalSortedBag extends SortedSpillBag{
                         try {
                             File f = i.next();
                             DataInputStream in =
-                                new DataInputStream(new BufferedInputStream(
-                                    new FileInputStream(f)));
+                                openSpillFile(f, mergeBufferSize());
                             mStreams.add(in);
                             addToQueue(null, mStreams.size() - 1);
                             i.remove();
@@ -449,8 +449,38 @@ public class InternalSortedBag extends SortedSpillBag{
 	    	if (this.mReadStarted) {
 	    		return 0L;
 	    	}
-	    	return super.proactive_spill(comp);
+	    	long spilled = super.proactive_spill(comp);
+	    	mergeInBackground();
+	    	return spilled;
 		}
 	}
 
+    /**
+     * Merge the oldest spill files in the background while tuples are still
+     * being added, if enabled. Assumes the lock on mContents is held.
+     */
+    private void mergeInBackground() {
+        if (!SpillFiles.getInstance().isAsyncMerge()) {
+            return;
+        }
+        if (mMerger == null) {
+            mMerger = new SortedSpillMerger(this, mComp);
+        }
+        mMerger.spilled(mSpillFiles);
+    }
+
+    private static int mergeBufferSize() {
+        return SpillFiles.getInstance().getMergeBufferSize();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mContents) {
+            if (mMerger != null) {
+                mMerger.cancel();
+            }
+            super.clear();
+        }
+    }
+
 }
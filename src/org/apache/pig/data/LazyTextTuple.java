@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pig.LoadCaster;
+import org.apache.pig.PigException;
+import org.apache.pig.ResourceSchema.ResourceFieldSchema;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.impl.util.CastUtils;
+
+/**
+ * A tuple over one line of delimited text, such as the lines PigStorage
+ * reads. It holds a single copy of the line and the offsets of its fields,
+ * and only turns a field into a DataByteArray, or casts it to the type of
+ * its field schema, when the field is read. Lines of wide files of which a
+ * script reads a few fields are then parsed with far fewer allocations.
+ * <p>
+ * Changing the tuple, or writing, comparing or hashing it, turns all fields
+ * into objects first, after which it behaves as a regular tuple.
+ */
+@InterfaceAudience.Private
+public class LazyTextTuple extends AbstractTuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Object UNREAD = new Object();
+
+    private static final TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    private transient byte[] line;
+    // per field, the offsets of its bytes in line, or -1 for a field which
+    // is missing from the line and is null
+    private transient int[] starts;
+    private transient int[] ends;
+    // per field, the schema to cast it to, or null to leave it a DataByteArray
+    private transient ResourceFieldSchema[] fieldSchemas;
+    private transient LoadCaster caster;
+    private transient Object[] fields;
+
+    // the fields as objects, once they all have been read
+    private Tuple materialized;
+
+    /**
+     * @param line the bytes of the line, which the tuple takes over
+     * @param starts per field, the offset of its first byte, or -1 if the
+     * field is null
+     * @param ends per field, the offset after its last byte
+     * @param fieldSchemas per field, the schema of the field, or null, for
+     * a field or all of them, to leave it as a DataByteArray
+     * @param caster the caster for fields with a schema
+     */
+    public LazyTextTuple(byte[] line, int[] starts, int[] ends,
+            ResourceFieldSchema[] fieldSchemas, LoadCaster caster) {
+        this.line = line;
+        this.starts = starts;
+        this.ends = ends;
+        this.fieldSchemas = fieldSchemas;
+        this.caster = caster;
+        fields = new Object[starts.length];
+        Arrays.fill(fields, UNREAD);
+    }
+
+    @Override
+    public int size() {
+        return materialized != null ? materialized.size() : fields.length;
+    }
+
+    @Override
+    public Object get(int fieldNum) throws ExecException {
+        if (materialized != null) {
+            return materialized.get(fieldNum);
+        }
+        Object val = fields[fieldNum];
+        if (val == UNREAD) {
+            val = read(fieldNum);
+            fields[fieldNum] = val;
+        }
+        return val;
+    }
+
+    @Override
+    public boolean isNull(int fieldNum) throws ExecException {
+        if (materialized == null && fields[fieldNum] == UNREAD
+                && (starts[fieldNum] < 0 || starts[fieldNum] == ends[fieldNum])) {
+            // empty fields are null whatever their type
+            return true;
+        }
+        return get(fieldNum) == null;
+    }
+
+    private Object read(int fieldNum) throws ExecException {
+        int start = starts[fieldNum];
+        int end = ends[fieldNum];
+        if (start < 0 || start == end) {
+            return null;
+        }
+        byte[] bytes = Arrays.copyOfRange(line, start, end);
+        ResourceFieldSchema fs = fieldSchemas == null || fieldNum >= fieldSchemas.length
+                ? null : fieldSchemas[fieldNum];
+        if (fs == null) {
+            return new DataByteArray(bytes);
+        }
+        try {
+            return CastUtils.convertToType(caster, bytes, fs, fs.getType());
+        } catch (ExecException e) {
+            throw e;
+        } catch (IOException e) {
+            int errCode = 2274;
+            String msg = "Unable to cast field " + fieldNum + " of a delimited text line";
+            throw new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * Read all fields, after which the line is no longer needed.
+     */
+    private Tuple materialize() {
+        if (materialized == null) {
+            List<Object> list = new ArrayList<Object>(fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                try {
+                    list.add(get(i));
+                } catch (ExecException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            materialized = mTupleFactory.newTupleNoCopy(list);
+            line = null;
+            starts = ends = null;
+            fieldSchemas = null;
+            caster = null;
+            fields = null;
+        }
+        return materialized;
+    }
+
+    @Override
+    public List<Object> getAll() {
+        return materialize().getAll();
+    }
+
+    @Override
+    public void set(int fieldNum, Object val) throws ExecException {
+        materialize().set(fieldNum, val);
+    }
+
+    @Override
+    public void append(Object val) {
+        materialize().append(val);
+    }
+
+    @Override
+    public long getMemorySize() {
+        if (materialized != null) {
+            return materialized.getMemorySize();
+        }
+        long sum = 8 /* tuple object header */
+            + 8 * 7 /* references */
+            + SizeUtil.roundToEight(16 + line.length)
+            + 2 * SizeUtil.roundToEight(16 + 4 * starts.length)
+            + SizeUtil.roundToEight(16 + 4 * fields.length);
+        for (Object o : fields) {
+            if (o != UNREAD) {
+                sum += SizeUtil.getPigObjMemSize(o);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public int compareTo(Object other) {
+        return materialize().compareTo(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return materialize().hashCode();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        materialize().write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        materialized = mTupleFactory.newTuple();
+        materialized.readFields(in);
+        line = null;
+        starts = ends = null;
+        fieldSchemas = null;
+        caster = null;
+        fields = null;
+    }
+
+    private Object writeReplace() {
+        return materialize();
+    }
+}
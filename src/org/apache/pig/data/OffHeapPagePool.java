@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * A process wide pool of fixed size direct memory pages used to hold the
+ * serialized contents of spilled bags outside of the java heap. The pool
+ * never holds more than the configured budget. Pages are recycled instead
+ * of being handed back to the GC, since direct buffers are only freed when
+ * their owning object is collected.
+ * <p>
+ * The pool is disabled (budget of 0) unless
+ * {@link PigConfiguration#PROP_SPILL_OFFHEAP_SIZE} is set.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class OffHeapPagePool {
+
+    private static final Log log = LogFactory.getLog(OffHeapPagePool.class);
+
+    // 1 MB pages by default
+    static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private static OffHeapPagePool instance = new OffHeapPagePool(0, DEFAULT_PAGE_SIZE);
+
+    private final long budget;
+    private final int pageSize;
+
+    // number of bytes currently handed out to spill files
+    private long allocated = 0;
+
+    // pages which have been released and can be handed out again
+    private final ArrayDeque<ByteBuffer> freePages = new ArrayDeque<ByteBuffer>();
+
+    OffHeapPagePool(long budget, int pageSize) {
+        this.budget = budget;
+        this.pageSize = pageSize;
+    }
+
+    public static OffHeapPagePool getInstance() {
+        return instance;
+    }
+
+    /**
+     * (Re)configure the process wide pool from the job properties. The pool
+     * is only replaced if the budget or page size changed, so tasks reusing
+     * the same JVM keep their pages.
+     * @param properties job properties
+     */
+    public static synchronized void configure(Properties properties) {
+        long budget = 0;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        try {
+            String size = properties.getProperty(PigConfiguration.PROP_SPILL_OFFHEAP_SIZE);
+            if (size != null) {
+                budget = Long.parseLong(size);
+            }
+            String page = properties.getProperty(PigConfiguration.PROP_SPILL_OFFHEAP_PAGESIZE);
+            if (page != null) {
+                pageSize = Integer.parseInt(page);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new RuntimeException("Error while converting system configurations "
+                    + PigConfiguration.PROP_SPILL_OFFHEAP_SIZE + ", "
+                    + PigConfiguration.PROP_SPILL_OFFHEAP_PAGESIZE, nfe);
+        }
+        if (pageSize <= 0) {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        if (budget != instance.budget || pageSize != instance.pageSize) {
+            if (budget > 0) {
+                log.info("Using " + budget + " bytes of direct memory in "
+                        + pageSize + " byte pages for spilled bags");
+            }
+            instance = new OffHeapPagePool(budget, pageSize);
+        }
+    }
+
+    public boolean isEnabled() {
+        return budget >= pageSize;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return number of bytes currently held by spill files
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Hand out a cleared page, or null if the budget has been used up.
+     * @return a page or null
+     */
+    public synchronized ByteBuffer allocate() {
+        if (allocated + pageSize > budget) {
+            return null;
+        }
+        ByteBuffer page = freePages.poll();
+        if (page == null) {
+            try {
+                page = ByteBuffer.allocateDirect(pageSize);
+            } catch (OutOfMemoryError e) {
+                // -XX:MaxDirectMemorySize is lower than our budget, fall
+                // back to disk.
+                log.warn("Unable to allocate direct memory page", e);
+                return null;
+            }
+        }
+        page.clear();
+        allocated += pageSize;
+        return page;
+    }
+
+    /**
+     * Give a page back to the pool.
+     * @param page page previously obtained from {@link #allocate()}
+     */
+    public synchronized void release(ByteBuffer page) {
+        allocated -= pageSize;
+        freePages.push(page);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * A spill "file" whose contents live in direct memory pages taken from the
+ * {@link OffHeapPagePool}. Once the pool runs out of pages the remaining
+ * bytes go to a regular temporary file on local disk, so a spill never
+ * fails because the off-heap budget is used up.
+ * <p>
+ * This extends File so that it can be kept in a {@link FileList} next to
+ * regular spill files. Bags must open it through
+ * {@link DefaultAbstractBag#openSpillFile(File)}, and {@link #delete()}
+ * hands the pages back to the pool.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class OffHeapSpillFile extends File {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final transient OffHeapPagePool pool;
+    private transient ArrayList<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+    // number of bytes written to the last page
+    private int lastPageLength = 0;
+    // disk file holding whatever did not fit into the pages
+    private File overflow = null;
+    private boolean deleted = false;
+
+    OffHeapSpillFile(File tmpDir, OffHeapPagePool pool, String suffix) {
+        super(tmpDir, "pigbag-offheap" + counter.incrementAndGet()
+                + (suffix == null ? "" : suffix));
+        this.pool = pool;
+    }
+
+    /**
+     * @return a stream writing to this spill file. Only one stream should be
+     * opened per spill file.
+     */
+    public OutputStream openOutputStream() {
+        return new PageOutputStream();
+    }
+
+    /**
+     * @return a new stream reading this spill file from the beginning
+     */
+    public InputStream openInputStream() throws FileNotFoundException {
+        if (deleted) {
+            throw new FileNotFoundException(getPath());
+        }
+        return new PageInputStream();
+    }
+
+    /**
+     * @return number of bytes held in direct memory
+     */
+    public synchronized long getOffHeapSize() {
+        return (long)pool.getPageSize() * pages.size();
+    }
+
+    @Override
+    public boolean exists() {
+        return !deleted;
+    }
+
+    @Override
+    public synchronized long length() {
+        if (pages.isEmpty()) {
+            return overflow == null ? 0 : overflow.length();
+        }
+        long len = (long)pool.getPageSize() * (pages.size() - 1) + lastPageLength;
+        if (overflow != null) {
+            len += overflow.length();
+        }
+        return len;
+    }
+
+    @Override
+    public synchronized boolean delete() {
+        if (deleted) {
+            return false;
+        }
+        deleted = true;
+        for (ByteBuffer page : pages) {
+            pool.release(page);
+        }
+        pages.clear();
+        if (overflow != null) {
+            return overflow.delete();
+        }
+        return true;
+    }
+
+    @Override
+    public void deleteOnExit() {
+        // Nothing on disk until we overflow; the overflow file is
+        // registered itself when it is created.
+    }
+
+    private class PageOutputStream extends OutputStream {
+        private ByteBuffer current = null;
+        private OutputStream out = null;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (out == null && !ensurePage()) {
+                openOverflow();
+            }
+            if (out != null) {
+                out.write(b);
+                return;
+            }
+            current.put((byte)b);
+            lastPageLength = current.position();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0 && out == null) {
+                if (!ensurePage()) {
+                    openOverflow();
+                    break;
+                }
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                lastPageLength = current.position();
+                off += n;
+                len -= n;
+            }
+            if (len > 0) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        /**
+         * Make sure there is room in the current page, taking a new one
+         * from the pool if needed.
+         * @return false if the pool has no more pages
+         */
+        private boolean ensurePage() {
+            if (current != null && current.hasRemaining()) {
+                return true;
+            }
+            ByteBuffer page = pool.allocate();
+            if (page == null) {
+                return false;
+            }
+            synchronized (OffHeapSpillFile.this) {
+                pages.add(page);
+            }
+            current = page;
+            lastPageLength = 0;
+            return true;
+        }
+
+        private void openOverflow() throws IOException {
+            File f = File.createTempFile("pigbag", null, getParentFile());
+            f.deleteOnExit();
+            synchronized (OffHeapSpillFile.this) {
+                overflow = f;
+            }
+            out = new BufferedOutputStream(new FileOutputStream(f));
+        }
+    }
+
+    private class PageInputStream extends InputStream {
+        private int pageIdx = 0;
+        private ByteBuffer current = null;
+        private InputStream in = null;
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) {
+                return in == null ? -1 : in.read();
+            }
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureData()) {
+                return in == null ? -1 : in.read(b, off, len);
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        /**
+         * Position on a page with unread bytes.
+         * @return false once all pages have been read
+         */
+        private boolean ensureData() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                synchronized (OffHeapSpillFile.this) {
+                    if (deleted) {
+                        throw new IOException("Spill file " + getPath() + " has been deleted");
+                    }
+                    if (pageIdx >= pages.size()) {
+                        if (in == null && overflow != null) {
+                            in = new BufferedInputStream(new FileInputStream(overflow));
+                        }
+                        return false;
+                    }
+                    // Each reader gets its own view of the page so that
+                    // several iterators can read the same bag.
+                    current = pages.get(pageIdx).duplicate();
+                    current.clear();
+                    if (pageIdx == pages.size() - 1) {
+                        current.limit(lastPageLength);
+                    } else {
+                        current.limit(pool.getPageSize());
+                    }
+                    pageIdx++;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.util.Comparator;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * A tuple comparator which can also map tuples to 64 bit prefix keys that
+ * are ordered as the tuples are: if the key of one tuple is smaller than the
+ * key of another, the comparator orders it first as well. Sorted bags sort
+ * such keys with a radix sort and only compare tuples whose keys are equal,
+ * see {@link PrefixKeySorter}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public interface PrefixComparator extends Comparator<Tuple> {
+
+    /**
+     * Compute the prefix keys of the first n tuples.
+     * @param tuples tuples to compute the keys of
+     * @param n number of tuples
+     * @param keys array of at least n elements to store the keys in
+     * @return false if keys cannot be computed for all tuples, in which case
+     * they are sorted with {@link #compare(Object, Object)} only
+     */
+    boolean computePrefixKeys(Tuple[] tuples, int n, long[] keys);
+
+    /**
+     * @return whether tuples with equal prefix keys are always equal, so
+     * they do not need to be compared
+     */
+    boolean isPrefixKeyExact();
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * Sorts tuples in memory for the sorted bags. With a
+ * {@link PrefixComparator} the tuples are radix sorted on their prefix keys,
+ * which evaluates the sort key of each tuple once instead of at every
+ * comparison, and only runs of tuples with equal keys are sorted with the
+ * comparator. Other comparators sort as {@link Arrays#sort(Object[], Comparator)}
+ * does. Either way the sort is stable and gives the same order.
+ * <p>
+ * The static key methods map values to prefix keys in the order
+ * {@link DataType#compare(Object, Object)} puts them in, nulls first.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class PrefixKeySorter {
+
+    // below this many tuples a comparison sort is as fast
+    static final int MIN_RADIX_SORT_SIZE = 64;
+
+    /**
+     * The key of a null value, which sorts before the key of any other value.
+     * Keys of other values may be equal to it.
+     */
+    public static final long NULL_KEY = Long.MIN_VALUE;
+
+    private PrefixKeySorter() {
+    }
+
+    /**
+     * @return the prefix key of an int, unique to the value
+     */
+    public static long intKey(int i) {
+        // never NULL_KEY
+        return i;
+    }
+
+    /**
+     * @return the prefix key of a long
+     */
+    public static long longKey(long l) {
+        return l;
+    }
+
+    /**
+     * @return the prefix key of a double, in the order of Double.compare
+     */
+    public static long doubleKey(double d) {
+        long bits = Double.doubleToLongBits(d);
+        // negative values sort in reverse order of their bits
+        return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+    }
+
+    /**
+     * @return the prefix key of a String, from its first four chars
+     */
+    public static long stringKey(String s) {
+        long key = 0;
+        int len = Math.min(4, s.length());
+        for (int i = 0; i < len; i++) {
+            key |= (long) s.charAt(i) << (48 - 16 * i);
+        }
+        // the chars compare unsigned
+        return key ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the prefix key for the reverse order of the given key
+     */
+    public static long descending(long key) {
+        return ~key;
+    }
+
+    /**
+     * Sort a list of tuples, as {@link java.util.Collections#sort(List, Comparator)}
+     * does.
+     */
+    public static void sort(List<Tuple> list, Comparator<Tuple> comp) {
+        Tuple[] a = list.toArray(new Tuple[list.size()]);
+        sort(a, comp);
+        ListIterator<Tuple> it = list.listIterator();
+        for (Tuple t : a) {
+            it.next();
+            it.set(t);
+        }
+    }
+
+    /**
+     * Sort an array of tuples, as {@link Arrays#sort(Object[], Comparator)}
+     * does.
+     */
+    public static void sort(Tuple[] a, Comparator<Tuple> comp) {
+        if (!(comp instanceof PrefixComparator) || a.length < MIN_RADIX_SORT_SIZE) {
+            Arrays.sort(a, comp);
+            return;
+        }
+        PrefixComparator pc = (PrefixComparator) comp;
+        int n = a.length;
+        long[] keys = new long[n];
+        if (!pc.computePrefixKeys(a, n, keys)) {
+            Arrays.sort(a, comp);
+            return;
+        }
+        int[] order = radixSort(keys);
+
+        Tuple[] sorted = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = a[order[i]];
+        }
+        System.arraycopy(sorted, 0, a, 0, n);
+
+        if (pc.isPrefixKeyExact()) {
+            return;
+        }
+        // keys is sorted now, compare the runs of equal keys
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || keys[i] != keys[start]) {
+                if (i - start > 1) {
+                    Arrays.sort(a, start, i, comp);
+                }
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Stable LSD radix sort on 8 bit digits, skipping the digits which are
+     * the same for all keys.
+     * @param sortKeys the keys to sort, which are sorted when done
+     * @return the original positions of the sorted keys
+     */
+    static int[] radixSort(long[] sortKeys) {
+        long[] keys = sortKeys;
+        int n = keys.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            // sort signed keys as unsigned
+            keys[i] ^= Long.MIN_VALUE;
+        }
+        long[] keysTmp = new long[n];
+        int[] orderTmp = new int[n];
+        int[] counts = new int[256];
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (keys[i] >>> shift) & 0xff]++;
+            }
+            if (counts[(int) (keys[0] >>> shift) & 0xff] == n) {
+                continue;
+            }
+            int pos = 0;
+            for (int d = 0; d < 256; d++) {
+                int c = counts[d];
+                counts[d] = pos;
+                pos += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int d = (int) (keys[i] >>> shift) & 0xff;
+                int to = counts[d]++;
+                keysTmp[to] = keys[i];
+                orderTmp[to] = order[i];
+            }
+            long[] k = keys;
+            keys = keysTmp;
+            keysTmp = k;
+            int[] o = order;
+            order = orderTmp;
+            orderTmp = o;
+        }
+        // the sorted keys may have ended up in the scratch array
+        if (keys != sortKeys) {
+            System.arraycopy(keys, 0, sortKeys, 0, n);
+        }
+        for (int i = 0; i < n; i++) {
+            sortKeys[i] ^= Long.MIN_VALUE;
+        }
+        return order;
+    }
+}
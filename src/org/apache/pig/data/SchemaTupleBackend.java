@@ -150,15 +150,16 @@ public class SchemaTupleBackend {
             LOG.debug("Nothing to resolve on the backend.");
             return;
         }
-        // Step one is to see if there are any classes in the distributed cache
+        // Step one is to copy everything from the distributed cache if we are in distributed mode.
+        // This is done even if SchemaTuples are off, as other generated classes may be shipped.
+        if (!isLocal) {
+            copyAllFromDistributedCache();
+        }
+        // Step two is to see if the SchemaTuples should be resolved
         if (!jConf.getBoolean(SHOULD_USE_SCHEMA_TUPLE, SCHEMA_TUPLE_ON_BY_DEFAULT)) {
             LOG.info("Key [" + SHOULD_USE_SCHEMA_TUPLE +"] was not set... will not generate code.");
             return;
         }
-        // Step two is to copy everything from the distributed cache if we are in distributed mode
-        if (!isLocal) {
-            copyAllFromDistributedCache();
-        }
         // Step three is to see if the file needs to be resolved
         // If there is a "$" in the name, we know that it is an inner
         // class and thus doesn't need to be instantiated directly.
@@ -216,7 +217,7 @@ public class SchemaTupleBackend {
             // we do not attempt to resolve it, because it is support code, such
             // as anonymous classes.
             if (!SchemaTuple.class.isAssignableFrom(clazz)) {
-                return;
+                continue;
             }
 
             Class<SchemaTuple<?>> stClass = (Class<SchemaTuple<?>>)clazz;
@@ -280,6 +281,26 @@ public class SchemaTupleBackend {
         }
     }
 
+    /**
+     * This method loads a generated class which is not a SchemaTuple, such as one registered
+     * with {@link SchemaTupleFrontend#registerToCompile(String, String)}. IMPORTANT: if no such
+     * class is available, this returns null.
+     * @param   className
+     * @return  the class, null otherwise
+     */
+    public static Class<?> getGeneratedClass(String className) {
+        if (stb == null || stb.classLoader == null) {
+            LOG.debug("No generated code to load class from: " + className);
+            return null;
+        }
+        try {
+            return stb.classLoader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            LOG.debug("Generated class not present: " + className);
+            return null;
+        }
+    }
+
     public static SchemaTupleFactory newSchemaTupleFactory(Schema s, boolean isAppendable, GenContext context)  {
         if (stb == null) {
             // It is possible (though ideally should be avoided) for this to be called on the frontend if
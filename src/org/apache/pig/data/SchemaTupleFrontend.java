@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -43,7 +44,10 @@ import org.apache.pig.data.utils.StructuresHelper.SchemaKey;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.util.JavaCompilerHelper;
+import org.apache.pig.impl.util.JavaCompilerHelper.JavaSourceFromString;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -88,6 +92,15 @@ public class SchemaTupleFrontend {
         return schemasToGenerate;
     }
 
+    /**
+     * Sources of other generated classes, such as compiled expressions, by class name.
+     */
+    private static Map<String, String> sourcesToCompile = Maps.newHashMap();
+
+    private Map<String, String> getSourcesToCompile() {
+        return sourcesToCompile;
+    }
+
     private static class SchemaTupleFrontendGenHelper {
         private File codeDir;
         private PigContext pigContext;
@@ -174,11 +187,12 @@ public class SchemaTupleFrontend {
          * into the temporary directory.
          * @return true of false depending on if there are any files to copy to the distributed cache
          */
-        private boolean generateAll(Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemasToGenerate) {
-            boolean filesToShip = false;
+        private boolean generateAll(Map<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> schemasToGenerate,
+                Map<String, String> sourcesToCompile) {
+            boolean filesToShip = compileAll(sourcesToCompile);
             if (!conf.getBoolean(SHOULD_USE_SCHEMA_TUPLE, SCHEMA_TUPLE_ON_BY_DEFAULT)) {
                 LOG.info("Key ["+SHOULD_USE_SCHEMA_TUPLE+"] is false, will not generate code.");
-                return false;
+                return filesToShip;
             }
             LOG.info("Generating all registered Schemas.");
             for (Map.Entry<Pair<SchemaKey, Boolean>, Pair<Integer, Set<GenContext>>> entry : schemasToGenerate.entrySet()) {
@@ -205,6 +219,30 @@ public class SchemaTupleFrontend {
             }
             return filesToShip;
         }
+
+        /**
+         * This compiles the registered sources of other classes into the temporary directory. Those
+         * are only an optimization, so if they cannot be compiled, the jobs are run without them.
+         * @return true if any classes were compiled
+         */
+        private boolean compileAll(Map<String, String> sourcesToCompile) {
+            if (sourcesToCompile.isEmpty()) {
+                return false;
+            }
+            List<JavaSourceFromString> sources = Lists.newArrayList();
+            for (Map.Entry<String, String> entry : sourcesToCompile.entrySet()) {
+                sources.add(new JavaSourceFromString(entry.getKey(), entry.getValue()));
+            }
+            LOG.info("Compiling " + sources.size() + " registered classes.");
+            try {
+                new JavaCompilerHelper().compile(codeDir.getAbsolutePath(),
+                        sources.toArray(new JavaSourceFromString[sources.size()]));
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to compile registered classes, jobs will run without them", e);
+                return false;
+            }
+            return true;
+        }
     }
 
     /**
@@ -214,6 +252,7 @@ public class SchemaTupleFrontend {
     public static void reset() {
         stf = null;
         schemasToGenerate.clear();
+        sourcesToCompile.clear();
     }
 
     /**
@@ -228,17 +267,7 @@ public class SchemaTupleFrontend {
      * @return  identifier
      */
     public static int registerToGenerateIfPossible(Schema udfSchema, boolean isAppendable, GenContext context) {
-        if (stf == null) {
-            if (pigContextToReset != null) {
-                Properties prop = pigContextToReset.getProperties();
-                prop.remove(GENERATED_CLASSES_KEY);
-                prop.remove(LOCAL_CODE_DIR);
-                pigContextToReset = null;
-            }
-            SchemaTupleBackend.reset();
-            SchemaTupleClassGenerator.resetGlobalClassIdentifier();
-            stf = new SchemaTupleFrontend();
-        }
+        initIfNeeded();
 
         if (udfSchema == null) {
             return -1;
@@ -254,6 +283,34 @@ public class SchemaTupleFrontend {
         return stf.internalRegisterToGenerateIfPossible(udfSchema, isAppendable, context);
     }
 
+    /**
+     * This method "registers" the source of a class to be compiled and shipped along with
+     * the generated SchemaTuples, so that it can be loaded on the backend with
+     * {@link SchemaTupleBackend#getGeneratedClass(String)}. Unlike Schemas, these are
+     * compiled whether or not SchemaTuples are enabled.
+     * @param   className   The name of the class, which must be in the default package
+     * @param   source      The Java source of the class
+     */
+    public static void registerToCompile(String className, String source) {
+        initIfNeeded();
+        LOG.debug("Registering class for compilation [" + className + "]");
+        stf.getSourcesToCompile().put(className, source);
+    }
+
+    private static void initIfNeeded() {
+        if (stf == null) {
+            if (pigContextToReset != null) {
+                Properties prop = pigContextToReset.getProperties();
+                prop.remove(GENERATED_CLASSES_KEY);
+                prop.remove(LOCAL_CODE_DIR);
+                pigContextToReset = null;
+            }
+            SchemaTupleBackend.reset();
+            SchemaTupleClassGenerator.resetGlobalClassIdentifier();
+            stf = new SchemaTupleFrontend();
+        }
+    }
+
     private static void stripAliases(Schema s) {
         for (Schema.FieldSchema fs : s.getFields()) {
             fs.alias = null;
@@ -275,7 +332,7 @@ public class SchemaTupleFrontend {
             return;
         }
         SchemaTupleFrontendGenHelper stfgh = new SchemaTupleFrontendGenHelper(pigContext, conf);
-        stfgh.generateAll(stf.getSchemasToGenerate());
+        stfgh.generateAll(stf.getSchemasToGenerate(), stf.getSourcesToCompile());
         stfgh.internalCopyAllGeneratedToDistributedCache();
 
         Properties prop = pigContext.getProperties();
@@ -17,16 +17,13 @@
  */
 package org.apache.pig.data;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -61,6 +58,8 @@ public class SortedDataBag extends DefaultAbstractBag{
 
     transient private Comparator<Tuple> mComp;
     private boolean mReadStarted = false;
+    // merges spill files in the background, see mergeInBackground()
+    transient private SortedSpillMerger mMerger;
 
     private static class DefaultComparator implements Comparator<Tuple> {
         @Override
@@ -135,7 +134,11 @@ public class SortedDataBag extends DefaultAbstractBag{
                 // phase, in which case more (unsorted) will be added
                 // later.
                 if (!mReadStarted) {
-                    Collections.sort((ArrayList<Tuple>)mContents, mComp);
+                    // the comparator may be in use by a background merge
+                    // of older spill files, see SortedSpillMerger
+                    synchronized (mComp) {
+                        PrefixKeySorter.sort((ArrayList<Tuple>)mContents, mComp);
+                    }
                 }
                 Iterator<Tuple> i = mContents.iterator();
                 while (i.hasNext()) {
@@ -162,12 +165,44 @@ public class SortedDataBag extends DefaultAbstractBag{
                 }
             }
             mContents.clear();
+            markSpilled();
+            if (!mReadStarted) {
+                mergeInBackground();
+            }
         }
         // Increment the spill count
         incSpillCount(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_COUNT);
         return spilled;
     }
 
+    /**
+     * Merge the oldest spill files in the background while tuples are still
+     * being added, if enabled. Assumes the lock on mContents is held.
+     */
+    private void mergeInBackground() {
+        if (!SpillFiles.getInstance().isAsyncMerge()) {
+            return;
+        }
+        if (mMerger == null) {
+            mMerger = new SortedSpillMerger(this, mComp);
+        }
+        mMerger.spilled(mSpillFiles);
+    }
+
+    private static int mergeBufferSize() {
+        return SpillFiles.getInstance().getMergeBufferSize();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mContents) {
+            if (mMerger != null) {
+                mMerger.cancel();
+            }
+            super.clear();
+        }
+    }
+
     /**
      * An iterator that handles getting the next tuple from the bag.  This
      * iterator has a couple of issues to deal with.  First, data can be
@@ -220,8 +255,11 @@ public class SortedDataBag extends DefaultAbstractBag{
             // If this is the first read, we need to sort the data.
             synchronized (mContents) {
                 if (!mReadStarted) {
+                    if (mMerger != null) {
+                        mMerger.finish(mSpillFiles);
+                    }
                     preMerge();
-                    Collections.sort((ArrayList<Tuple>)mContents, mComp);
+                    PrefixKeySorter.sort((ArrayList<Tuple>)mContents, mComp);
                     mReadStarted = true;
                 }
             }
@@ -274,9 +312,8 @@ public class SortedDataBag extends DefaultAbstractBag{
                 // because we don't support calls to add() after calls to
                 // iterator(), and spill() won't create empty files.
                 try {
-                    in = new DataInputStream(new BufferedInputStream(
-                        new FileInputStream(mSpillFiles.get(
-                                mSpillFiles.size() - 1))));
+                    in = openSpillFile(mSpillFiles.get(
+                                mSpillFiles.size() - 1));
                     if (mStreams == null) {
                         // We didn't have any files before this spill.
                         mMergeQ = new PriorityQueue<PQContainer>(1);
@@ -342,8 +379,7 @@ public class SortedDataBag extends DefaultAbstractBag{
                 while (i.hasNext()) {
                     try {
                         DataInputStream in = 
-                            new DataInputStream(new BufferedInputStream(
-                                new FileInputStream(i.next())));
+                            openSpillFile(i.next(), mergeBufferSize());
                         mStreams.add(in);
                         // Add the first tuple from this file into the
                         // merge queue.
@@ -472,8 +508,7 @@ public class SortedDataBag extends DefaultAbstractBag{
                         try {
                             File f = i.next();
                             DataInputStream in =
-                                new DataInputStream(new BufferedInputStream(
-                                    new FileInputStream(f)));
+                                openSpillFile(f, mergeBufferSize());
                             mStreams.add(in);
                             addToQueue(null, mStreams.size() - 1);
                             i.remove();
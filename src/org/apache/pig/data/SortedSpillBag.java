@@ -77,8 +77,13 @@ public abstract class SortedSpillBag extends SelfSpillBag {
             mContents.toArray(array);
             if(comp == null)
                 Arrays.sort(array);
-            else 
-                Arrays.sort(array,comp);
+            else {
+                // the comparator may be in use by a background merge of
+                // older spill files, see SortedSpillMerger
+                synchronized (comp) {
+                    PrefixKeySorter.sort(array,comp);
+                }
+            }
 
             //dump the array
             for (Tuple t : array) {
@@ -106,6 +111,7 @@ public abstract class SortedSpillBag extends SelfSpillBag {
             }
         }
         mContents.clear();
+        markSpilled();
         
         incSpillCount(PigCounters.PROACTIVE_SPILL_COUNT_RECS, spilled);
         
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Merges the oldest spill files of a sorted bag into one in a background
+ * thread, while tuples are still added to the bag. Once the bag is read it
+ * then has few enough spill files left to merge them all at once, instead
+ * of first pre-merging them in the thread that asked for the iterator.
+ * <p>
+ * One merge per bag is in flight at a time, and the merges of all bags run
+ * in a single daemon thread. The spill files of the bag are only changed by
+ * the thread owning the bag, when it calls {@link #spilled(FileList)} or
+ * {@link #finish(FileList)} with the lock on the contents of the bag held.
+ * <p>
+ * Comparators, such as the ones of POSort, evaluate plans and cannot be used
+ * by two threads at once. The merge holds the lock on the comparator while
+ * comparing, and bags have to do the same when they sort.
+ */
+class SortedSpillMerger {
+
+    private static final Log log = LogFactory.getLog(SortedSpillMerger.class);
+
+    private static final InterSedes SEDES = InterSedesFactory.getInterSedesInstance();
+
+    // start merging once a bag has as many spill files as would be merged
+    // in one go, and merge the oldest half of them
+    private static final int MERGE_THRESHOLD = DefaultAbstractBag.MAX_SPILL_FILES;
+    private static final int MERGE_FAN_IN = DefaultAbstractBag.MAX_SPILL_FILES / 2;
+
+    private static ExecutorService executor = null;
+
+    private final DefaultAbstractBag bag;
+    private final Comparator<Tuple> comp;
+
+    // the merge in flight, its inputs and its output. Outputs stay in
+    // outputs until they are handed to the bag, and are deleted when this
+    // object is collected if they never are.
+    private Future<Void> pending = null;
+    private List<File> pendingInputs = null;
+    private File pendingOutput = null;
+    private final FileList outputs = new FileList(1);
+    private volatile boolean cancelled = false;
+
+    SortedSpillMerger(DefaultAbstractBag bag, final Comparator<Tuple> comp) {
+        this.bag = bag;
+        this.comp = new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple t1, Tuple t2) {
+                synchronized (comp) {
+                    return comp.compare(t1, t2);
+                }
+            }
+        };
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Pig spill merger");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * To be called after the bag spilled. Hands a finished merge to the bag,
+     * and starts merging the oldest spill files if there are too many.
+     * @param spillFiles the spill files of the bag
+     */
+    void spilled(FileList spillFiles) {
+        if (pending != null && pending.isDone()) {
+            adopt(spillFiles);
+        }
+        if (pending == null && spillFiles != null && spillFiles.size() >= MERGE_THRESHOLD) {
+            start(spillFiles);
+        }
+    }
+
+    /**
+     * Wait for the merge in flight, if any, and hand its output to the bag.
+     * @param spillFiles the spill files of the bag
+     */
+    void finish(FileList spillFiles) {
+        if (pending != null) {
+            adopt(spillFiles);
+        }
+    }
+
+    /**
+     * Stop the merge in flight, if any, and delete its output. The spill
+     * files of the bag are left alone.
+     */
+    void cancel() {
+        if (pending != null) {
+            cancelled = true;
+            if (await()) {
+                deleteOutput();
+            }
+            pending = null;
+            pendingInputs = null;
+            pendingOutput = null;
+            cancelled = false;
+        }
+    }
+
+    private void start(FileList spillFiles) {
+        final List<File> inputs = new ArrayList<File>(spillFiles.subList(0, MERGE_FAN_IN));
+        final File output;
+        try {
+            output = bag.newSpillFile();
+        } catch (IOException e) {
+            log.warn("Unable to create spill file to merge into, merging later", e);
+            return;
+        }
+        outputs.add(output);
+        pendingInputs = inputs;
+        pendingOutput = output;
+        pending = getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                merge(inputs, output);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait for the merge in flight to end.
+     * @return false if interrupted while waiting, in which case the merge
+     * is told to stop and its output is left to be deleted once this object
+     * is collected
+     */
+    private boolean await() {
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if (!cancelled) {
+                log.warn("Unable to merge spill files in the background", e.getCause());
+                deleteOutput();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the merge in flight and replace its inputs in the spill files
+     * of the bag by its output. If the merge failed the inputs are kept.
+     */
+    private void adopt(FileList spillFiles) {
+        if (await() && outputs.contains(pendingOutput)) {
+            if (spillFiles != null && spillFiles.containsAll(pendingInputs)) {
+                spillFiles.removeAll(pendingInputs);
+                // The new spill file goes at the end, as pre-merging does.
+                spillFiles.add(pendingOutput);
+                outputs.remove(pendingOutput);
+                for (File f : pendingInputs) {
+                    if (!f.delete()) {
+                        log.warn("Failed to delete spill file: " + f.getPath());
+                    }
+                }
+            } else {
+                deleteOutput();
+            }
+        }
+        pending = null;
+        pendingInputs = null;
+        pendingOutput = null;
+        cancelled = false;
+    }
+
+    private void deleteOutput() {
+        if (outputs.remove(pendingOutput) && !pendingOutput.delete()) {
+            log.warn("Failed to delete spill file: " + pendingOutput.getPath());
+        }
+    }
+
+    private static class Run implements Comparable<Run> {
+        final DataInputStream in;
+        final Comparator<Tuple> comp;
+        Tuple tuple;
+
+        Run(DataInputStream in, Comparator<Tuple> comp) {
+            this.in = in;
+            this.comp = comp;
+        }
+
+        /**
+         * @return false once the run is exhausted
+         */
+        boolean advance() throws IOException {
+            try {
+                tuple = (Tuple) SEDES.readDatum(in);
+                return true;
+            } catch (EOFException eof) {
+                in.close();
+                tuple = null;
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return comp.compare(tuple, other.tuple);
+        }
+    }
+
+    private void merge(List<File> inputs, File output) throws IOException {
+        int bufferSize = SpillFiles.getInstance().getMergeBufferSize();
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(inputs.size());
+        List<DataInputStream> streams = new ArrayList<DataInputStream>(inputs.size());
+        DataOutputStream out = null;
+        try {
+            for (File f : inputs) {
+                DataInputStream in = bag.openSpillFile(f, bufferSize);
+                streams.add(in);
+                Run run = new Run(in, comp);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            out = bag.openSpillOutputStream(output);
+            Run run;
+            while (!cancelled && (run = queue.poll()) != null) {
+                run.tuple.write(out);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            out.flush();
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            for (DataInputStream in : streams) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close spill file.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigCounters;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * The process wide settings for the files bags spill to: the directories to
+ * put them in, the codec to compress them with, and how sorted bags merge
+ * them. Spill files are spread
+ * over the directories, either round robin or by picking the directory with
+ * the most free space. Bytes written and time spent writing spill files are
+ * reported in the {@link PigCounters#SPILL_BYTES} and
+ * {@link PigCounters#SPILL_TIME_MS} counters.
+ * <p>
+ * Without configuration spill files go uncompressed to java.io.tmpdir.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SpillFiles {
+
+    private static final Log log = LogFactory.getLog(SpillFiles.class);
+
+    static final String POLICY_ROUND_ROBIN = "roundrobin";
+    static final String POLICY_LEAST_USED = "leastused";
+
+    // the hadoop 2 and hadoop 1 names of the task local directories
+    private static final String[] LOCAL_DIRS_KEYS = {
+        "mapreduce.cluster.local.dir", "mapred.local.dir" };
+
+    private static SpillFiles instance = new SpillFiles(null, null, false, false,
+            DefaultAbstractBag.DEFAULT_SPILL_READ_BUFFER);
+
+    // the codecs spill files have been compressed with, by file extension,
+    // so spill files remain readable if the codec is reconfigured
+    private static final Map<String, CompressionCodec> codecs =
+        new ConcurrentHashMap<String, CompressionCodec>();
+
+    private final File[] dirs;
+    private final CompressionCodec codec;
+    private final boolean leastUsed;
+    private final boolean asyncMerge;
+    private final int mergeBufferSize;
+    private int next = 0;
+
+    SpillFiles(File[] dirs, CompressionCodec codec, boolean leastUsed,
+            boolean asyncMerge, int mergeBufferSize) {
+        if (dirs == null || dirs.length == 0) {
+            dirs = new File[] { new File(System.getProperty("java.io.tmpdir")) };
+        }
+        this.dirs = dirs;
+        this.codec = codec;
+        this.leastUsed = leastUsed;
+        this.asyncMerge = asyncMerge;
+        this.mergeBufferSize = mergeBufferSize;
+        if (codec != null) {
+            codecs.put(codec.getDefaultExtension(), codec);
+        }
+    }
+
+    public static SpillFiles getInstance() {
+        return instance;
+    }
+
+    /**
+     * (Re)configure the spill directories and codec from the job properties.
+     * @param properties job properties
+     */
+    public static synchronized void configure(Properties properties) {
+        String dirList = properties.getProperty(PigConfiguration.PIG_SPILL_DIRS);
+        for (int i = 0; dirList == null && i < LOCAL_DIRS_KEYS.length; i++) {
+            dirList = properties.getProperty(LOCAL_DIRS_KEYS[i]);
+        }
+        List<File> dirs = new ArrayList<File>();
+        if (dirList != null) {
+            for (String dir : dirList.split(",")) {
+                if (dir.trim().length() > 0) {
+                    dirs.add(new File(dir.trim()));
+                }
+            }
+        }
+
+        String policy = properties.getProperty(PigConfiguration.PIG_SPILL_DIRS_POLICY,
+                POLICY_ROUND_ROBIN);
+        if (!policy.equals(POLICY_ROUND_ROBIN) && !policy.equals(POLICY_LEAST_USED)) {
+            throw new RuntimeException("Invalid value " + policy + " of "
+                    + PigConfiguration.PIG_SPILL_DIRS_POLICY + ", expected "
+                    + POLICY_ROUND_ROBIN + " or " + POLICY_LEAST_USED);
+        }
+
+        CompressionCodec codec = null;
+        String codecName = properties.getProperty(PigConfiguration.PIG_SPILL_COMPRESS_CODEC);
+        if (codecName != null && codecName.trim().length() > 0) {
+            codec = newCodec(codecName.trim(), ConfigurationUtil.toConfiguration(properties));
+            log.info("Compressing spilled bags with " + codec.getClass().getName());
+        }
+
+        boolean asyncMerge = Boolean.parseBoolean(
+                properties.getProperty(PigConfiguration.PIG_SPILL_MERGE_ASYNC, "false"));
+        int mergeBufferSize = DefaultAbstractBag.DEFAULT_SPILL_READ_BUFFER;
+        try {
+            String size = properties.getProperty(PigConfiguration.PIG_SPILL_MERGE_BUFFER_SIZE);
+            if (size != null) {
+                mergeBufferSize = Integer.parseInt(size);
+            }
+        } catch (NumberFormatException nfe) {
+            throw new RuntimeException("Error while converting system configuration "
+                    + PigConfiguration.PIG_SPILL_MERGE_BUFFER_SIZE, nfe);
+        }
+        if (mergeBufferSize <= 0) {
+            mergeBufferSize = DefaultAbstractBag.DEFAULT_SPILL_READ_BUFFER;
+        }
+
+        instance = new SpillFiles(dirs.toArray(new File[dirs.size()]), codec,
+                policy.equals(POLICY_LEAST_USED), asyncMerge, mergeBufferSize);
+    }
+
+    private static CompressionCodec newCodec(String name, Configuration conf) {
+        String className = name;
+        if (name.equalsIgnoreCase("deflate")) {
+            className = "org.apache.hadoop.io.compress.DefaultCodec";
+        } else if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("gz")) {
+            className = "org.apache.hadoop.io.compress.GzipCodec";
+        } else if (name.equalsIgnoreCase("lz4")) {
+            className = "org.apache.hadoop.io.compress.Lz4Codec";
+        } else if (name.equalsIgnoreCase("snappy")) {
+            className = "org.apache.hadoop.io.compress.SnappyCodec";
+        }
+        try {
+            Class<?> clazz = Class.forName(className);
+            if (!CompressionCodec.class.isAssignableFrom(clazz)) {
+                throw new RuntimeException(className + " set in "
+                        + PigConfiguration.PIG_SPILL_COMPRESS_CODEC
+                        + " is not a CompressionCodec");
+            }
+            return (CompressionCodec) ReflectionUtils.newInstance(clazz, conf);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Unknown codec " + name + " set in "
+                    + PigConfiguration.PIG_SPILL_COMPRESS_CODEC, e);
+        }
+    }
+
+    /**
+     * @return whether sorted bags merge their oldest spill files in the
+     * background while tuples are still added to them
+     */
+    public boolean isAsyncMerge() {
+        return asyncMerge;
+    }
+
+    /**
+     * @return the read buffer size of the spill files sorted bags merge
+     */
+    public int getMergeBufferSize() {
+        return mergeBufferSize;
+    }
+
+    /**
+     * @return the suffix to give spill files, which identifies their codec
+     */
+    public String getSuffix() {
+        return codec == null ? null : codec.getDefaultExtension();
+    }
+
+    /**
+     * Pick the directory for the next spill file, creating it if needed.
+     * Directories which cannot be created are skipped.
+     * @return spill directory
+     * @throws ExecException if none of the directories can be created
+     */
+    public File nextDirectory() throws ExecException {
+        int first;
+        synchronized (this) {
+            first = next;
+            next = (next + 1) % dirs.length;
+        }
+        if (leastUsed && dirs.length > 1) {
+            // start at the directory with the most free space, and fall
+            // back to the others in turn
+            long mostFree = -1;
+            for (int i = 0; i < dirs.length; i++) {
+                long free = dirs[i].getUsableSpace();
+                if (free > mostFree) {
+                    mostFree = free;
+                    first = i;
+                }
+            }
+        }
+        for (int i = 0; i < dirs.length; i++) {
+            File dir = dirs[(first + i) % dirs.length];
+            if (ensureExists(dir)) {
+                return dir;
+            }
+        }
+        int errCode = 2111;
+        String msg = "Unable to create temporary directory: " + dirs[first].getAbsolutePath();
+        throw new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    private static boolean ensureExists(File dir) {
+        if (dir.exists()) {
+            return true;
+        }
+        log.info("Temporary directory doesn't exists. Trying to create: " + dir.getAbsolutePath());
+        if (dir.mkdirs()) {
+            log.info("Successfully created temporary directory: " + dir.getAbsolutePath());
+            return true;
+        }
+        // Another bag may have created the directory in the meantime.
+        if (dir.exists()) {
+            log.info("Temporary directory already exists: " + dir.getAbsolutePath());
+            return true;
+        }
+        log.warn("Unable to create temporary directory: " + dir.getAbsolutePath());
+        return false;
+    }
+
+    /**
+     * Wrap the stream a spill file is written to, compressing it with the
+     * configured codec. Closing the returned stream updates the spill
+     * counters.
+     * @param out stream writing to the spill file
+     * @return stream to write to
+     * @throws IOException
+     */
+    public OutputStream wrapOutputStream(OutputStream out) throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        if (codec == null) {
+            return counted;
+        }
+        Compressor compressor = CodecPool.getCompressor(codec);
+        return new PooledCompressionOutputStream(
+                codec.createOutputStream(counted, compressor), compressor);
+    }
+
+    /**
+     * Wrap the stream a spill file is read from, decompressing it with the
+     * codec it was written with.
+     * @param f spill file
+     * @param in stream reading from the spill file
+     * @return stream to read from
+     * @throws IOException
+     */
+    public InputStream wrapInputStream(File f, InputStream in) throws IOException {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        CompressionCodec c = dot < 0 ? null : codecs.get(name.substring(dot));
+        if (c == null) {
+            return in;
+        }
+        // Decompressors are not handed back to the pool, as readers of
+        // spill files do not always close them.
+        Decompressor decompressor = c.createDecompressor();
+        return c.createInputStream(new BufferedInputStream(in), decompressor);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void incrCounter(Enum counter, long incr) {
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        if (reporter != null && reporter.getCounter(counter) != null) {
+            reporter.getCounter(counter).increment(incr);
+        }
+    }
+
+    /**
+     * Counts the bytes going to a spill file, and the time from its creation
+     * until it is closed.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final long start = System.nanoTime();
+        private long written = 0;
+        private boolean closed = false;
+
+        CountingOutputStream(OutputStream out) {
+            super(new BufferedOutputStream(out));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                incrCounter(PigCounters.SPILL_BYTES, written);
+                incrCounter(PigCounters.SPILL_TIME_MS, (System.nanoTime() - start) / 1000000);
+            }
+        }
+    }
+
+    /**
+     * Hands the compressor back to the pool once the stream is closed.
+     */
+    private static class PooledCompressionOutputStream extends FilterOutputStream {
+        private Compressor compressor;
+
+        PooledCompressionOutputStream(CompressionOutputStream out, Compressor compressor) {
+            super(out);
+            this.compressor = compressor;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (compressor != null) {
+                    CodecPool.returnCompressor(compressor);
+                    compressor = null;
+                }
+            }
+        }
+    }
+}
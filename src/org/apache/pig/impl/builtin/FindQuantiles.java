@@ -145,6 +145,13 @@ public class FindQuantiles extends EvalFunc<Map<String, Object>>{
                                      // defaults to all ascending.
     }
 
+    /**
+     * @return the comparator the samples are sorted by
+     */
+    public Comparator<Tuple> getComparator() {
+        return mComparator;
+    }
+
     /**
      * first field in the input tuple is the number of quantiles to generate
      * second field is the *sorted* bag of samples
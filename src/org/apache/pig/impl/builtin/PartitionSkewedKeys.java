@@ -19,8 +19,10 @@ package org.apache.pig.impl.builtin;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -221,6 +223,55 @@ public class PartitionSkewedKeys extends EvalFunc<Map<String, Object>> {
 	    }
 	}
 
+	/**
+	 * Partition reducers for the keys of a {@link SkewedKeySketch}, whose
+	 * counts are known rather than sampled. The output is the same as the
+	 * one of {@link #exec(Tuple)}.
+	 * @param totalReducers the number of reducers of the join
+	 * @param sketch the merged sketch of the first join input
+	 * @param heapSize the maximum heap size of a reducer
+	 */
+	public Map<String, Object> exec(int totalReducers, SkewedKeySketch sketch, long heapSize)
+	        throws ExecException {
+	    Map<String, Object> output = new HashMap<String, Object>();
+	    totalReducers_ = totalReducers;
+	    totalMemory_ = (long) (heapSize * heapPercentage_);
+	    totalSampleCount_ = sketch.getCount();
+	    log.info("Maximum of available memory is " + totalMemory_);
+
+	    ArrayList<Tuple> reducerList = new ArrayList<Tuple>();
+	    int maxReducers = 0;
+	    double avgM = Math.max(1, sketch.getAverageMemorySize());
+	    Map<Tuple, Long> counts = sketch.getKeyCounts();
+	    List<Tuple> keys = new ArrayList<Tuple>(counts.keySet());
+	    // allot the reducers in the order the sampling job does
+	    Collections.sort(keys, Collections.reverseOrder());
+	    for (Tuple key : keys) {
+	        long count = counts.get(key);
+	        // calculateReducers expects the memory size and number of rows
+	        // after the key columns
+	        Tuple t = mTupleFactory.newTuple(key.size() + 2);
+	        for (int i = 0; i < key.size(); i++) {
+	            t.set(i, key.get(i));
+	        }
+	        Pair<Tuple, Integer> p = calculateReducers(t, count, (long) (count * avgM),
+	                totalSampleCount_);
+	        if (p.first != null) {
+	            reducerList.add(p.first);
+	        }
+	        maxReducers = Math.max(maxReducers, p.second);
+	    }
+
+	    if (maxReducers > totalReducers_) {
+	        log.warn("You need at least " + maxReducers
+	                + " reducers to avoid spillage and run this job efficiently.");
+	    }
+	    output.put(PARTITION_LIST, mBagFactory.newDefaultBag(reducerList));
+	    output.put(TOTAL_REDUCERS, Integer.valueOf(totalReducers_));
+	    log.info(output.toString());
+	    return output;
+	}
+
 	private Pair<Tuple, Integer> calculateReducers(Tuple currentTuple,
 	        long count, long totalMSize, long totalTuples) {
 	    // get average memory size per tuple
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.builtin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A mergeable sketch of the quantiles of sort keys, after Karnin, Lang and
+ * Liberty (KLL). Keys are kept in levels, and a key at level h stands for
+ * 2^h keys added to the sketch. A full level is sorted and every other key of
+ * it, starting at a random one of the first two, moves up a level. The levels
+ * hold fewer keys the lower they are, so the sketch keeps about 3 * size keys,
+ * however many keys are added or merged into it.
+ * <p>
+ * Sketches sample ORDER BY keys in place of the sampling job, and
+ * {@link #getSortedSamples(int)} gives the samples {@link FindQuantiles} picks
+ * the quantiles from.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class QuantileSketch {
+
+    /**
+     * Name prefix of the files tasks write their sketches to. The name starts
+     * with an underscore so that loading the directory skips the files.
+     */
+    public static final String SKETCH_FILE_PREFIX = "_sketch";
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final Comparator<Tuple> comparator;
+    private final int size;
+    private final Random random;
+
+    private final List<List<Tuple>> levels = new ArrayList<List<Tuple>>();
+
+    // the number of keys in all levels, and the number it compacts at
+    private int numRetained;
+    private int maxRetained;
+
+    private long count;
+
+    public QuantileSketch(Comparator<Tuple> comparator, int size) {
+        this(comparator, size, new Random());
+    }
+
+    public QuantileSketch(Comparator<Tuple> comparator, int size, Random random) {
+        this.comparator = comparator;
+        this.size = Math.max(2, size);
+        this.random = random;
+        grow();
+    }
+
+    /**
+     * @return the {@link FindQuantiles} of a sort with the given asc flags
+     */
+    public static FindQuantiles getFindQuantiles(boolean[] asc) {
+        String[] args = new String[asc.length];
+        for (int i = 0; i < asc.length; i++) {
+            args[i] = Boolean.toString(asc[i]);
+        }
+        return new FindQuantiles(args);
+    }
+
+    /**
+     * @return the comparator {@link FindQuantiles} orders the keys of a sort
+     * with the given asc flags by
+     */
+    public static Comparator<Tuple> getSortComparator(boolean[] asc) {
+        return getFindQuantiles(asc).getComparator();
+    }
+
+    /**
+     * @return the number of keys added to this sketch and the sketches merged
+     * into it
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of keys the sketch keeps
+     */
+    public int getNumRetained() {
+        return numRetained;
+    }
+
+    public void add(Tuple key) {
+        levels.get(0).add(key);
+        numRetained++;
+        count++;
+        if (numRetained >= maxRetained) {
+            compress();
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        while (levels.size() < other.levels.size()) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.size(); h++) {
+            levels.get(h).addAll(other.levels.get(h));
+        }
+        numRetained += other.numRetained;
+        count += other.count;
+        while (numRetained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Pick keys at evenly spaced ranks.
+     * @param numSamples the number of keys to pick
+     * @return the keys in sort order, as many as asked for unless the sketch
+     * is empty
+     */
+    public List<Tuple> getSortedSamples(int numSamples) {
+        List<Tuple> samples = new ArrayList<Tuple>(numSamples);
+        if (numRetained == 0) {
+            return samples;
+        }
+        final List<Tuple> keys = new ArrayList<Tuple>(numRetained);
+        List<Integer> order = new ArrayList<Integer>(numRetained);
+        final List<Integer> levelOf = new ArrayList<Integer>(numRetained);
+        long total = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            for (Tuple key : levels.get(h)) {
+                order.add(keys.size());
+                keys.add(key);
+                levelOf.add(h);
+                total += 1L << h;
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return comparator.compare(keys.get(i1), keys.get(i2));
+            }
+        });
+
+        // the sample at a rank is the first key whose weight reaches past it
+        int next = 0;
+        long weight = 1L << levelOf.get(order.get(0));
+        for (int i = 0; i < numSamples; i++) {
+            double rank = (i + 0.5) * total / numSamples;
+            while (weight <= rank && next < order.size() - 1) {
+                next++;
+                weight += 1L << levelOf.get(order.get(next));
+            }
+            samples.add(keys.get(order.get(next)));
+        }
+        return samples;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeInt(levels.size());
+        for (List<Tuple> level : levels) {
+            out.writeInt(level.size());
+            for (Tuple key : level) {
+                sedes.writeDatum(out, key);
+            }
+        }
+    }
+
+    /**
+     * Read a sketch written by {@link #write(DataOutput)} into this one, which
+     * has to be empty.
+     */
+    public void readFields(DataInput in) throws IOException {
+        count = in.readLong();
+        int numLevels = in.readInt();
+        while (levels.size() < numLevels) {
+            grow();
+        }
+        for (int h = 0; h < numLevels; h++) {
+            int n = in.readInt();
+            List<Tuple> level = levels.get(h);
+            for (int i = 0; i < n; i++) {
+                level.add((Tuple) sedes.readDatum(in));
+            }
+            numRetained += n;
+        }
+    }
+
+    private int capacity(int h) {
+        // each level down holds 2/3 the keys of the one above it
+        int depth = levels.size() - h - 1;
+        return Math.max(2, (int) Math.ceil(size * Math.pow(2.0 / 3, depth)));
+    }
+
+    private void grow() {
+        levels.add(new ArrayList<Tuple>());
+        maxRetained = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            maxRetained += capacity(h);
+        }
+    }
+
+    private void compress() {
+        for (int h = 0; h < levels.size(); h++) {
+            if (levels.get(h).size() >= capacity(h)) {
+                if (h + 1 == levels.size()) {
+                    grow();
+                }
+                compact(h);
+                if (numRetained < maxRetained) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compact(int h) {
+        List<Tuple> level = levels.get(h);
+        List<Tuple> up = levels.get(h + 1);
+        Collections.sort(level, comparator);
+        int pairs = level.size() / 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = 0; i < pairs; i++) {
+            up.add(level.get(2 * i + offset));
+        }
+        // the last key of an odd level stays
+        Tuple odd = level.size() % 2 == 1 ? level.get(level.size() - 1) : null;
+        level.clear();
+        if (odd != null) {
+            level.add(odd);
+        }
+        numRetained -= pairs;
+    }
+}
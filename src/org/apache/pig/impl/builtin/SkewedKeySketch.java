@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.builtin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A mergeable sketch of the frequent keys of the first input of a skewed
+ * join, and of the memory size of its tuples. Each task counts the keys of
+ * the tuples it stores with a {@link SpaceSavingSketch}, and measures the
+ * memory size of every {@value #SIZE_SAMPLE_RATE}th tuple. Merged sketches
+ * sum the counts of the keys.
+ * <p>
+ * {@link PartitionSkewedKeys} allots reducers to the keys of the merged
+ * sketch in place of the sampling job.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SkewedKeySketch {
+
+    /**
+     * Name prefix of the files tasks write their sketches to. The name starts
+     * with an underscore so that loading the directory skips the files.
+     */
+    public static final String SKETCH_FILE_PREFIX = "_keysketch";
+
+    public static final int SIZE_SAMPLE_RATE = 100;
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final SpaceSavingSketch<Tuple> counters;
+
+    // the counts of the keys of sketches read or merged into this one
+    private final Map<Tuple, Long> mergedCounts = new HashMap<Tuple, Long>();
+
+    private long count;
+    private long sampledTuples;
+    private long sampledMemorySize;
+
+    /**
+     * @param capacity the number of keys each task counts
+     */
+    public SkewedKeySketch(int capacity) {
+        counters = new SpaceSavingSketch<Tuple>(capacity);
+    }
+
+    /**
+     * Count the key of a tuple.
+     * @param key the join key, a tuple of the key columns
+     * @param input the tuple
+     */
+    public void add(Tuple key, Tuple input) {
+        if (count++ % SIZE_SAMPLE_RATE == 0) {
+            sampledTuples++;
+            sampledMemorySize += input.getMemorySize();
+        }
+        counters.add(key);
+    }
+
+    public void merge(SkewedKeySketch other) {
+        for (Map.Entry<Tuple, Long> e : other.getKeyCounts().entrySet()) {
+            Long c = mergedCounts.get(e.getKey());
+            mergedCounts.put(e.getKey(), c == null ? e.getValue() : c + e.getValue());
+        }
+        count += other.count;
+        sampledTuples += other.sampledTuples;
+        sampledMemorySize += other.sampledMemorySize;
+    }
+
+    /**
+     * @return the number of tuples counted by this sketch and the sketches
+     * merged into it
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the average memory size of the tuples, 0 if none were counted
+     */
+    public double getAverageMemorySize() {
+        return sampledTuples == 0 ? 0 : sampledMemorySize / (double) sampledTuples;
+    }
+
+    /**
+     * @return the frequent keys, with the number of tuples each of them was
+     * counted in at least
+     */
+    public Map<Tuple, Long> getKeyCounts() {
+        Map<Tuple, Long> counts = new HashMap<Tuple, Long>(mergedCounts);
+        for (Tuple key : counters.getItems()) {
+            long c = counters.getLowerBound(key);
+            if (c > 0) {
+                Long merged = counts.get(key);
+                counts.put(key, merged == null ? c : merged + c);
+            }
+        }
+        return counts;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeLong(sampledTuples);
+        out.writeLong(sampledMemorySize);
+        Map<Tuple, Long> counts = getKeyCounts();
+        out.writeInt(counts.size());
+        for (Map.Entry<Tuple, Long> e : counts.entrySet()) {
+            sedes.writeDatum(out, e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    /**
+     * Read a sketch written by {@link #write(DataOutput)} into this one, which
+     * has to be empty.
+     */
+    public void readFields(DataInput in) throws IOException {
+        count = in.readLong();
+        sampledTuples = in.readLong();
+        sampledMemorySize = in.readLong();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            Tuple key = (Tuple) sedes.readDatum(in);
+            mergedCounts.put(key, in.readLong());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.builtin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * Counts the heavy hitters of a stream with a fixed number of counters, after
+ * Metwally, Agrawal and El Abbadi (space saving). An item without a counter
+ * takes over the counter of the least counted item, and inherits its count as
+ * the error of its own. Every item which makes up more than 1 / capacity of
+ * the stream has a counter, and its count is off by at most that much.
+ * <p>
+ * The counters are kept in a min heap on their counts, so that adding an item
+ * takes a lookup and O(log capacity) steps.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SpaceSavingSketch<T> {
+
+    private final Object[] items;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<T, Integer> positions;
+    private int size;
+    private long count;
+
+    /**
+     * @param capacity the number of counters
+     */
+    public SpaceSavingSketch(int capacity) {
+        capacity = Math.max(1, capacity);
+        items = new Object[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        positions = new HashMap<T, Integer>(capacity * 2);
+    }
+
+    /**
+     * Count an item.
+     * @return the number of times the item has been added at least, as
+     * {@link #getLowerBound(Object)}
+     */
+    public long add(T item) {
+        count++;
+        Integer pos = positions.get(item);
+        int i;
+        if (pos != null) {
+            i = pos;
+            counts[i]++;
+        } else if (size < items.length) {
+            i = size++;
+            items[i] = item;
+            counts[i] = 1;
+            errors[i] = 0;
+            positions.put(item, i);
+            i = siftUp(i);
+        } else {
+            // take over the counter of the least counted item
+            i = 0;
+            positions.remove(items[i]);
+            items[i] = item;
+            errors[i] = counts[i];
+            counts[i]++;
+            positions.put(item, i);
+        }
+        i = siftDown(i);
+        return counts[i] - errors[i];
+    }
+
+    /**
+     * @return the number of items added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the items with a counter, which include every item making up
+     * more than 1 / capacity of the items added
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getItems() {
+        List<T> list = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            list.add((T) items[i]);
+        }
+        return list;
+    }
+
+    /**
+     * @return the number of times an item has been added at least
+     */
+    public long getLowerBound(T item) {
+        Integer pos = positions.get(item);
+        return pos == null ? 0 : counts[pos] - errors[pos];
+    }
+
+    /**
+     * @return the number of times an item has been added at most
+     */
+    public long getUpperBound(T item) {
+        Integer pos = positions.get(item);
+        if (pos != null) {
+            return counts[pos];
+        }
+        // an item without a counter was added no more often than the least
+        // counted item
+        return size < items.length ? 0 : counts[0];
+    }
+
+    private int siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+        return i;
+    }
+
+    private int siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[i] <= counts[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+        return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void swap(int i, int j) {
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        long c = counts[i];
+        counts[i] = counts[j];
+        counts[j] = c;
+        long e = errors[i];
+        errors[i] = errors[j];
+        errors[j] = e;
+        positions.put((T) items[i], i);
+        positions.put((T) items[j], j);
+    }
+}
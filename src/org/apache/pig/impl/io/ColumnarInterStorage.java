@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.Expression;
+import org.apache.pig.FileInputLoadFunc;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.LoadPushDown;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.ResourceSchema;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.StoreFunc;
+import org.apache.pig.StoreFuncInterface;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigFileInputFormat;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.impl.util.Utils;
+
+/**
+ * LOAD FUNCTION FOR PIG INTERNAL USE ONLY!
+ * This load function is used for storing intermediate data between MR jobs of
+ * a pig query, in row groups laid out column by column. See
+ * {@link ColumnarRecordWriter} for the format. It is used when
+ * pig.tmpfilecompression.storage is set to "columnar".
+ * <p>
+ * The columns to read can be pushed down either with
+ * {@link #pushProjection(RequiredFieldList)} or with the constructor, which
+ * takes them as a comma separated list. The loaded tuples only have the
+ * required columns, in increasing order.
+ * The serialization format of this load function can change in newer
+ * versions of pig, so this should NOT be used to store any persistent data.
+ */
+@InterfaceAudience.Private
+public class ColumnarInterStorage extends FileInputLoadFunc
+implements StoreFuncInterface, LoadMetadata, LoadPushDown {
+
+    private static final Log mLog = LogFactory.getLog(ColumnarInterStorage.class);
+    public static final String useLog = "Pig columnar internal storage in use";
+
+    private ColumnarRecordReader recReader = null;
+    private ColumnarRecordWriter recWriter = null;
+
+    private int[] requiredColumns = null;
+    private String signature;
+
+    public ColumnarInterStorage() {
+        mLog.debug(useLog);
+    }
+
+    /**
+     * @param columns the comma separated, increasing indexes of the columns
+     * to load
+     */
+    public ColumnarInterStorage(String columns) {
+        this();
+        if (columns.trim().isEmpty()) {
+            requiredColumns = new int[0];
+            return;
+        }
+        String[] cols = columns.split(",");
+        requiredColumns = new int[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            requiredColumns[i] = Integer.parseInt(cols[i].trim());
+        }
+    }
+
+    /**
+     * @return the constructor argument which loads the given columns
+     */
+    public static String toColumnsArgument(int[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Tuple getNext() throws IOException {
+        if (recReader.nextKeyValue()) {
+            return recReader.getCurrentValue();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void putNext(Tuple t) throws IOException {
+        try {
+            recWriter.write(null, t);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static class ColumnarInputFormat extends PigFileInputFormat<Text, Tuple> {
+
+        @Override
+        public RecordReader<Text, Tuple> createRecordReader(InputSplit split,
+                TaskAttemptContext context) throws IOException,
+                InterruptedException {
+            return new ColumnarRecordReader();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public InputFormat getInputFormat() {
+        return new ColumnarInputFormat();
+    }
+
+    @Override
+    public int hashCode() {
+        return 42;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void prepareToRead(RecordReader reader, PigSplit split) throws IOException {
+        recReader = (ColumnarRecordReader) reader;
+        if (requiredColumns == null && signature != null) {
+            Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass());
+            String serialized = p.getProperty(signature);
+            if (serialized != null) {
+                requiredColumns = (int[]) ObjectSerializer.deserialize(serialized);
+            }
+        }
+        recReader.setRequiredColumns(requiredColumns);
+    }
+
+    @Override
+    public void setLocation(String location, Job job) throws IOException {
+        FileInputFormat.setInputPaths(job, location);
+    }
+
+    @Override
+    public void setUDFContextSignature(String signature) {
+        this.signature = signature;
+    }
+
+    @Override
+    public List<OperatorSet> getFeatures() {
+        return Arrays.asList(LoadPushDown.OperatorSet.PROJECTION);
+    }
+
+    @Override
+    public RequiredFieldResponse pushProjection(RequiredFieldList requiredFieldList)
+            throws FrontendException {
+        if (requiredFieldList == null || requiredFieldList.getFields() == null) {
+            return new RequiredFieldResponse(false);
+        }
+        boolean[] required = new boolean[0];
+        for (RequiredField rf : requiredFieldList.getFields()) {
+            if (rf.getIndex() < 0) {
+                return new RequiredFieldResponse(false);
+            }
+            if (rf.getIndex() >= required.length) {
+                required = Arrays.copyOf(required, rf.getIndex() + 1);
+            }
+            required[rf.getIndex()] = true;
+        }
+        int n = 0;
+        for (boolean b : required) {
+            if (b) {
+                n++;
+            }
+        }
+        requiredColumns = new int[n];
+        n = 0;
+        for (int i = 0; i < required.length; i++) {
+            if (required[i]) {
+                requiredColumns[n++] = i;
+            }
+        }
+        Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass());
+        try {
+            p.setProperty(signature, ObjectSerializer.serialize(requiredColumns));
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot serialize requiredColumns");
+        }
+        return new RequiredFieldResponse(true);
+    }
+
+    public static class ColumnarOutputFormat extends FileOutputFormat<WritableComparable, Tuple> {
+
+        @Override
+        public RecordWriter<WritableComparable, Tuple> getRecordWriter(
+                TaskAttemptContext job) throws IOException, InterruptedException {
+            Configuration conf = job.getConfiguration();
+            String codecClassName = Utils.getTmpFileCodecClassName(
+                    conf.get(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, ""));
+            CompressionCodec codec = null;
+            if (codecClassName != null) {
+                try {
+                    codec = (CompressionCodec) ReflectionUtils.newInstance(
+                            conf.getClassByName(codecClassName), conf);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unable to load the temporary file compression codec "
+                            + codecClassName, e);
+                }
+                mLog.info(codecClassName + " compression codec in use");
+            }
+            Path file = getDefaultWorkFile(job, "");
+            FileSystem fs = file.getFileSystem(conf);
+            return new ColumnarRecordWriter(fs.create(file, false), codec);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public OutputFormat getOutputFormat() {
+        return new ColumnarOutputFormat();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void prepareToWrite(RecordWriter writer) {
+        this.recWriter = (ColumnarRecordWriter) writer;
+    }
+
+    @Override
+    public void setStoreLocation(String location, Job job) throws IOException {
+        FileOutputFormat.setOutputPath(job, new Path(location));
+    }
+
+    @Override
+    public void checkSchema(ResourceSchema s) throws IOException {
+
+    }
+
+    @Override
+    public String relToAbsPathForStoreLocation(String location, Path curDir)
+            throws IOException {
+        return LoadFunc.getAbsolutePath(location, curDir);
+    }
+
+    @Override
+    public String[] getPartitionKeys(String location, Job job)
+            throws IOException {
+        return null;
+    }
+
+    @Override
+    public ResourceSchema getSchema(String location, Job job)
+            throws IOException {
+        return Utils.getSchema(this, location, true, job);
+    }
+
+    @Override
+    public ResourceStatistics getStatistics(String location, Job job)
+            throws IOException {
+        return null;
+    }
+
+    @Override
+    public void setPartitionFilter(Expression plan) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStoreFuncUDFContextSignature(String signature) {
+    }
+
+    @Override
+    public void cleanupOnFailure(String location, Job job) throws IOException {
+        StoreFunc.cleanupOnFailureImpl(location, job);
+    }
+
+    @Override
+    public void cleanupOnSuccess(String location, Job job) throws IOException {
+        // DEFAULT: do nothing
+    }
+}
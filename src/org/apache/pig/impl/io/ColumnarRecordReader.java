@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * A record reader used to read data written using
+ * {@link ColumnarRecordWriter}. A split reads the row groups whose sync
+ * marker starts in it. Only the chunks of the required columns are read and
+ * decoded, the others are skipped.
+ */
+public class ColumnarRecordReader extends RecordReader<Text, Tuple> {
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+    private static TupleFactory tupleFactory = TupleFactory.getInstance();
+
+    private long start;
+    private long end;
+    private FSDataInputStream in;
+    private byte[] sync = new byte[ColumnarRecordWriter.SYNC_SIZE];
+    private CompressionCodec codec = null;
+    private Decompressor decompressor = null;
+    private DataInputBuffer compressedBuffer = new DataInputBuffer();
+    private CompressionInputStream compressedIn = null;
+
+    // the columns to read, in the order they are returned, null for all
+    private int[] requiredColumns = null;
+
+    // the current row group
+    private int rows = 0;
+    private int row = 0;
+    private int[] arities;
+    private Object[][] values;
+    private Tuple value = null;
+
+    @Override
+    public void initialize(InputSplit genericSplit,
+            TaskAttemptContext context) throws IOException {
+        FileSplit split = (FileSplit) genericSplit;
+        Configuration conf = context.getConfiguration();
+        start = split.getStart();
+        end = start + split.getLength();
+        FileSystem fs = split.getPath().getFileSystem(conf);
+        if (fs.getFileStatus(split.getPath()).getLen() == 0) {
+            return;
+        }
+        in = fs.open(split.getPath());
+        readHeader(split.getPath(), conf);
+        // the splits which start in the header read from the first row group
+        if (start > in.getPos()) {
+            in.seek(start);
+            seekToSync();
+        }
+    }
+
+    private void readHeader(Path file, Configuration conf) throws IOException {
+        byte[] magic = new byte[ColumnarRecordWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarRecordWriter.MAGIC)) {
+            throw new IOException(file + " is not a columnar intermediate file");
+        }
+        byte version = in.readByte();
+        if (version != ColumnarRecordWriter.VERSION) {
+            throw new IOException("Unsupported version " + version + " of " + file);
+        }
+        String codecClassName = in.readUTF();
+        if (!codecClassName.isEmpty()) {
+            try {
+                codec = (CompressionCodec) ReflectionUtils.newInstance(
+                        conf.getClassByName(codecClassName), conf);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to load the codec " + codecClassName
+                        + " of " + file, e);
+            }
+            decompressor = CodecPool.getDecompressor(codec);
+            compressedIn = codec.createInputStream(compressedBuffer, decompressor);
+        }
+        in.readFully(sync);
+    }
+
+    /**
+     * Position the stream on the next sync marker, or at the end of the split
+     * if there is none in it.
+     */
+    private void seekToSync() throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedPositionedInputStream(in, start));
+        byte[] window = new byte[sync.length];
+        long pos = start;
+        int filled = 0;
+        while (pos - filled < end) {
+            int b = data.read();
+            if (b == -1) {
+                break;
+            }
+            pos++;
+            if (filled < window.length) {
+                window[filled++] = (byte) b;
+            } else {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[window.length - 1] = (byte) b;
+            }
+            if (filled == window.length && Arrays.equals(window, sync)) {
+                in.seek(pos - sync.length);
+                return;
+            }
+        }
+        in.seek(end);
+    }
+
+    /**
+     * Set the columns to read, in the order they are returned in the tuples.
+     * @param requiredColumns the columns, or null to read all of them
+     */
+    public void setRequiredColumns(int[] requiredColumns) {
+        this.requiredColumns = requiredColumns;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        while (row >= rows) {
+            if (!readRowGroup()) {
+                value = null;
+                return false;
+            }
+        }
+        if (requiredColumns == null) {
+            int arity = arities[row];
+            value = tupleFactory.newTuple(arity);
+            for (int i = 0; i < arity; i++) {
+                value.set(i, values[i][row]);
+            }
+        } else {
+            value = tupleFactory.newTuple(requiredColumns.length);
+            for (int i = 0; i < requiredColumns.length; i++) {
+                Object[] column = values[i];
+                value.set(i, column == null ? null : column[row]);
+            }
+        }
+        row++;
+        return true;
+    }
+
+    private boolean readRowGroup() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        long pos = in.getPos();
+        if (pos >= end) {
+            return false;
+        }
+        byte[] marker = new byte[sync.length];
+        try {
+            in.readFully(marker);
+        } catch (EOFException e) {
+            return false;
+        }
+        if (!Arrays.equals(marker, sync)) {
+            throw new IOException("Missing sync marker at position " + pos);
+        }
+        rows = WritableUtils.readVInt(in);
+        int n = WritableUtils.readVInt(in);
+        byte[] encodings = new byte[n + 1];
+        int[] rawLengths = new int[n + 1];
+        int[] storedLengths = new int[n + 1];
+        for (int i = 0; i <= n; i++) {
+            encodings[i] = in.readByte();
+            rawLengths[i] = WritableUtils.readVInt(in);
+            storedLengths[i] = WritableUtils.readVInt(in);
+        }
+
+        // the columns to decode, and the index of each in values
+        int[] targets = new int[n];
+        Arrays.fill(targets, -1);
+        if (requiredColumns == null) {
+            values = new Object[n][];
+            for (int i = 0; i < n; i++) {
+                targets[i] = i;
+            }
+        } else {
+            values = new Object[requiredColumns.length][];
+            for (int i = 0; i < requiredColumns.length; i++) {
+                if (requiredColumns[i] < n) {
+                    targets[requiredColumns[i]] = i;
+                }
+            }
+        }
+
+        DataInputBuffer chunk = new DataInputBuffer();
+        readChunk(chunk, encodings[0], rawLengths[0], storedLengths[0]);
+        arities = decodeRuns(chunk, rows);
+        for (int i = 0; i < n; i++) {
+            if (targets[i] == -1) {
+                in.seek(in.getPos() + storedLengths[i + 1]);
+                continue;
+            }
+            readChunk(chunk, encodings[i + 1], rawLengths[i + 1], storedLengths[i + 1]);
+            values[targets[i]] = decode(chunk, (byte) (encodings[i + 1] & ~ColumnarRecordWriter.COMPRESSED));
+        }
+        row = 0;
+        return true;
+    }
+
+    private void readChunk(DataInputBuffer chunk, byte encoding, int rawLength,
+            int storedLength) throws IOException {
+        byte[] stored = new byte[storedLength];
+        in.readFully(stored);
+        if ((encoding & ColumnarRecordWriter.COMPRESSED) == 0) {
+            chunk.reset(stored, storedLength);
+            return;
+        }
+        compressedBuffer.reset(stored, storedLength);
+        compressedIn.resetState();
+        byte[] raw = new byte[rawLength];
+        IOUtils.readFully(compressedIn, raw, 0, rawLength);
+        chunk.reset(raw, rawLength);
+    }
+
+    private static int[] decodeRuns(DataInputBuffer chunk, int rows) throws IOException {
+        int[] decoded = new int[rows];
+        int i = 0;
+        while (i < rows) {
+            int run = WritableUtils.readVInt(chunk);
+            int v = WritableUtils.readVInt(chunk);
+            Arrays.fill(decoded, i, i + run, v);
+            i += run;
+        }
+        return decoded;
+    }
+
+    private Object[] decode(DataInputBuffer chunk, byte encoding) throws IOException {
+        Object[] column = new Object[rows];
+        switch (encoding) {
+        case ColumnarRecordWriter.ENCODING_PLAIN:
+            for (int i = 0; i < rows; i++) {
+                column[i] = sedes.readDatum(chunk);
+            }
+            break;
+        case ColumnarRecordWriter.ENCODING_DELTA:
+            byte type = chunk.readByte();
+            long l = 0;
+            for (int i = 0; i < rows; i++) {
+                l += WritableUtils.readVLong(chunk);
+                column[i] = type == DataType.INTEGER ? Integer.valueOf((int) l) : Long.valueOf(l);
+            }
+            break;
+        case ColumnarRecordWriter.ENCODING_DICTIONARY:
+            Object[] dictionary = new Object[WritableUtils.readVInt(chunk)];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = sedes.readDatum(chunk);
+            }
+            int[] ids = decodeRuns(chunk, rows);
+            for (int i = 0; i < rows; i++) {
+                column[i] = dictionary[ids[i]];
+            }
+            break;
+        default:
+            throw new IOException("Unknown column encoding " + encoding);
+        }
+        return column;
+    }
+
+    @Override
+    public Text getCurrentKey() {
+        // the key is always null since we don't really have a key for each
+        // input record
+        return null;
+    }
+
+    @Override
+    public Tuple getCurrentValue() {
+        return value;
+    }
+
+    /**
+     * Get the progress within the split
+     */
+    @Override
+    public float getProgress() throws IOException {
+        if (start == end || in == null) {
+            return 0.0f;
+        } else {
+            return Math.min(1.0f, (in.getPos() - start) / (float) (end - start));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (decompressor != null) {
+            CodecPool.returnDecompressor(decompressor);
+            decompressor = null;
+        }
+        if (in != null) {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.rmi.server.UID;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A record writer which buffers tuples into row groups and writes each row
+ * group column by column, to be read with {@link ColumnarRecordReader}.
+ * <p>
+ * A file starts with a header with the magic bytes, the format version, the
+ * class name of the compression codec (empty if none) and a sync marker. Each
+ * row group then has the sync marker, the number of rows and columns, the
+ * encoding and lengths of its chunks and the chunks: first the run length
+ * encoded arities of the rows, then one chunk for each column. A column chunk
+ * is delta encoded if it only has ints or only longs, dictionary encoded with
+ * run length encoded ids if it has few distinct atomic values, and written
+ * with the default InterSedes otherwise. Each chunk is compressed on its own,
+ * so that a reader can skip the columns it does not need.
+ */
+public class ColumnarRecordWriter extends RecordWriter<WritableComparable, Tuple> {
+
+    static final byte[] MAGIC = new byte[] {'P', 'C', 'O', 'L'};
+    static final byte VERSION = 1;
+    static final int SYNC_SIZE = 16;
+
+    static final byte ENCODING_PLAIN = 0;
+    static final byte ENCODING_DICTIONARY = 1;
+    static final byte ENCODING_DELTA = 2;
+    static final byte ENCODING_RLE = 3;
+    /** Set on the encoding of a chunk whose bytes are compressed */
+    static final byte COMPRESSED = (byte) 0x80;
+
+    /** Rows buffered in a row group */
+    static final int ROW_GROUP_ROWS = 8192;
+    /** Serialized bytes of the plain columns after which a row group is written early */
+    static final int ROW_GROUP_BYTES = 8 * 1024 * 1024;
+    /** Distinct values after which a column is no longer dictionary encoded */
+    static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final DataOutputStream out;
+    private final CompressionCodec codec;
+    private final Compressor compressor;
+    private final DataOutputBuffer compressedBuffer = new DataOutputBuffer();
+    private final CompressionOutputStream compressedOut;
+    private final byte[] sync;
+
+    private final List<Column> columns = new ArrayList<Column>();
+    private final DataOutputBuffer arities = new DataOutputBuffer();
+    private int lastArity = -1;
+    private int arityRun = 0;
+    private int rows = 0;
+
+    /**
+     * @param out the stream to write to, closed with the writer
+     * @param codec the codec to compress the chunks with, or null
+     */
+    public ColumnarRecordWriter(FSDataOutputStream out, CompressionCodec codec)
+            throws IOException {
+        this.out = out;
+        this.codec = codec;
+        if (codec == null) {
+            this.compressor = null;
+            this.compressedOut = null;
+        } else {
+            this.compressor = CodecPool.getCompressor(codec);
+            this.compressedOut = codec.createOutputStream(compressedBuffer, compressor);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update((new UID() + "@" + System.currentTimeMillis()).getBytes());
+            this.sync = digest.digest();
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(codec == null ? "" : codec.getClass().getName());
+        out.write(sync);
+    }
+
+    @Override
+    public void write(WritableComparable wc, Tuple t) throws IOException,
+            InterruptedException {
+        int arity = t.size();
+        while (columns.size() < arity) {
+            Column c = new Column();
+            // rows before the first one this long have nulls in the column
+            for (int i = 0; i < rows; i++) {
+                c.add(null);
+            }
+            columns.add(c);
+        }
+        long plainBytes = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            Column c = columns.get(i);
+            c.add(i < arity ? t.get(i) : null);
+            plainBytes += c.plainBytes();
+        }
+        if (arity == lastArity) {
+            arityRun++;
+        } else {
+            writeRun(arities, arityRun, lastArity);
+            lastArity = arity;
+            arityRun = 1;
+        }
+        rows++;
+        if (rows >= ROW_GROUP_ROWS || plainBytes >= ROW_GROUP_BYTES) {
+            writeRowGroup();
+        }
+    }
+
+    private static void writeRun(DataOutputBuffer buf, int run, int value) throws IOException {
+        if (run > 0) {
+            WritableUtils.writeVInt(buf, run);
+            WritableUtils.writeVInt(buf, value);
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        writeRun(arities, arityRun, lastArity);
+
+        int n = columns.size();
+        byte[] encodings = new byte[n + 1];
+        int[] rawLengths = new int[n + 1];
+        DataOutputBuffer[] chunks = new DataOutputBuffer[n + 1];
+        encodings[0] = ENCODING_RLE;
+        rawLengths[0] = arities.getLength();
+        chunks[0] = arities;
+        for (int i = 0; i < n; i++) {
+            DataOutputBuffer chunk = new DataOutputBuffer();
+            encodings[i + 1] = columns.get(i).encode(chunk);
+            rawLengths[i + 1] = chunk.getLength();
+            chunks[i + 1] = chunk;
+        }
+        for (int i = 0; i <= n; i++) {
+            DataOutputBuffer compressed = compress(chunks[i]);
+            if (compressed != null) {
+                chunks[i] = compressed;
+                encodings[i] |= COMPRESSED;
+            }
+        }
+
+        out.write(sync);
+        WritableUtils.writeVInt(out, rows);
+        WritableUtils.writeVInt(out, n);
+        for (int i = 0; i <= n; i++) {
+            out.writeByte(encodings[i]);
+            WritableUtils.writeVInt(out, rawLengths[i]);
+            WritableUtils.writeVInt(out, chunks[i].getLength());
+        }
+        for (int i = 0; i <= n; i++) {
+            out.write(chunks[i].getData(), 0, chunks[i].getLength());
+        }
+
+        columns.clear();
+        arities.reset();
+        lastArity = -1;
+        arityRun = 0;
+        rows = 0;
+    }
+
+    /**
+     * @return the compressed chunk, or null if there is no codec or the
+     * chunk does not get any smaller
+     */
+    private DataOutputBuffer compress(DataOutputBuffer chunk) throws IOException {
+        if (codec == null || chunk.getLength() == 0) {
+            return null;
+        }
+        compressedBuffer.reset();
+        compressedOut.resetState();
+        compressedOut.write(chunk.getData(), 0, chunk.getLength());
+        compressedOut.flush();
+        compressedOut.finish();
+        if (compressedBuffer.getLength() >= chunk.getLength()) {
+            return null;
+        }
+        DataOutputBuffer compressed = new DataOutputBuffer(compressedBuffer.getLength());
+        compressed.write(compressedBuffer.getData(), 0, compressedBuffer.getLength());
+        return compressed;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException,
+            InterruptedException {
+        try {
+            writeRowGroup();
+        } finally {
+            if (compressor != null) {
+                CodecPool.returnCompressor(compressor);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * The values of a column of the current row group. The values are kept as
+     * long as they are atomic, so that the column can be delta or dictionary
+     * encoded, and are serialized as soon as the column has a complex one.
+     */
+    private static class Column {
+        private List<Object> values = new ArrayList<Object>();
+        private DataOutputBuffer plain = null;
+
+        void add(Object o) throws IOException {
+            if (plain != null) {
+                sedes.writeDatum(plain, o);
+                return;
+            }
+            byte type = DataType.findType(o);
+            if (type != DataType.NULL && (!DataType.isAtomic(type)
+                    || type == DataType.GENERIC_WRITABLECOMPARABLE)) {
+                plain = new DataOutputBuffer();
+                for (Object v : values) {
+                    sedes.writeDatum(plain, v);
+                }
+                values = null;
+                sedes.writeDatum(plain, o);
+                return;
+            }
+            values.add(o);
+        }
+
+        long plainBytes() {
+            return plain == null ? 0 : plain.getLength();
+        }
+
+        byte encode(DataOutputBuffer chunk) throws IOException {
+            if (plain != null) {
+                chunk.write(plain.getData(), 0, plain.getLength());
+                return ENCODING_PLAIN;
+            }
+            if (encodeDelta(chunk)) {
+                return ENCODING_DELTA;
+            }
+            if (encodeDictionary(chunk)) {
+                return ENCODING_DICTIONARY;
+            }
+            for (Object v : values) {
+                sedes.writeDatum(chunk, v);
+            }
+            return ENCODING_PLAIN;
+        }
+
+        private boolean encodeDelta(DataOutputBuffer chunk) throws IOException {
+            byte type = DataType.findType(values.get(0));
+            if (type != DataType.INTEGER && type != DataType.LONG) {
+                return false;
+            }
+            for (Object v : values) {
+                if (v == null || DataType.findType(v) != type) {
+                    return false;
+                }
+            }
+            chunk.writeByte(type);
+            long prev = 0;
+            for (Object v : values) {
+                long l = ((Number) v).longValue();
+                WritableUtils.writeVLong(chunk, l - prev);
+                prev = l;
+            }
+            return true;
+        }
+
+        private boolean encodeDictionary(DataOutputBuffer chunk) throws IOException {
+            Map<Object, Integer> ids = new HashMap<Object, Integer>();
+            List<Object> dictionary = new ArrayList<Object>();
+            int[] encoded = new int[values.size()];
+            for (int i = 0; i < encoded.length; i++) {
+                Object v = values.get(i);
+                Integer id = ids.get(v);
+                if (id == null) {
+                    if (dictionary.size() >= MAX_DICTIONARY_SIZE
+                            || (dictionary.size() + 1) * 2 > encoded.length) {
+                        return false;
+                    }
+                    id = dictionary.size();
+                    ids.put(v, id);
+                    dictionary.add(v);
+                }
+                encoded[i] = id;
+            }
+            WritableUtils.writeVInt(chunk, dictionary.size());
+            for (Object v : dictionary) {
+                sedes.writeDatum(chunk, v);
+            }
+            int run = 0;
+            for (int i = 0; i < encoded.length; i++) {
+                if (i > 0 && encoded[i] != encoded[i - 1]) {
+                    writeRun(chunk, run, encoded[i - 1]);
+                    run = 0;
+                }
+                run++;
+            }
+            writeRun(chunk, run, encoded[encoded.length - 1]);
+            return true;
+        }
+    }
+}
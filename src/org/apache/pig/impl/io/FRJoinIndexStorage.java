@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.pig.StoreFunc;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.WritableByteArray;
+
+/**
+ * Writes the replicated input of a fragment replicate join as an immutable
+ * hashed index, which POFRJoin memory maps instead of building a hash table.
+ * It stores the (key, bag of values) tuples of a POPackage. Each reducer
+ * writes one part of the index, and the job must be partitioned with
+ * FRJoinIndexPartitioner so a key is in the part {@link #partition(int, int)}
+ * gives for its hash.
+ * <p>
+ * File layout, all numbers big endian:
+ * <pre>
+ * for each key:  [int key length][key][int number of values]
+ *                ([int value length][value])*
+ * index:         capacity slots of [int key hash][long key offset or -1]
+ * trailer:       [long index offset][int capacity][long number of keys][int MAGIC]
+ * </pre>
+ * Keys and values are serialized with {@link InterSedes}. A key is found by
+ * linear probing from slot hash(key bytes) &amp; (capacity - 1).
+ */
+@InterfaceAudience.Private
+public class FRJoinIndexStorage extends StoreFunc {
+
+    public static final int MAGIC = 0x50465249;
+    public static final int SLOT_SIZE = 4 + 8;
+    public static final int TRAILER_SIZE = 8 + 4 + 8 + 4;
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private IndexRecordWriter writer;
+
+    /**
+     * Hash of a serialized key, shared by the writer and the readers of the
+     * index.
+     */
+    public static int hash(byte[] b, int len) {
+        int h = 1;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + b[i];
+        }
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * Part of the index which holds a key, from the hash of the key. The
+     * hash is mixed again so the partitions do not depend on the low bits,
+     * which pick the slot inside a part.
+     */
+    public static int partition(int hash, int numParts) {
+        int h = hash * 0x9E3779B9;
+        h ^= (h >>> 15);
+        return (h & Integer.MAX_VALUE) % numParts;
+    }
+
+    public static class IndexOutputFormat extends FileOutputFormat<WritableComparable, Tuple> {
+        @Override
+        public RecordWriter<WritableComparable, Tuple> getRecordWriter(
+                TaskAttemptContext job) throws IOException, InterruptedException {
+            Configuration conf = job.getConfiguration();
+            Path file = getDefaultWorkFile(job, "");
+            FileSystem fs = file.getFileSystem(conf);
+            return new IndexRecordWriter(fs.create(file, false));
+        }
+    }
+
+    public static class IndexRecordWriter extends RecordWriter<WritableComparable, Tuple> {
+        private final FSDataOutputStream out;
+        private final WritableByteArray buf = new WritableByteArray(256);
+        private final DataOutputStream bufOut = new DataOutputStream(buf);
+
+        private int[] hashes = new int[1024];
+        private long[] offsets = new long[1024];
+        private int numKeys = 0;
+
+        public IndexRecordWriter(FSDataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(WritableComparable k, Tuple t) throws IOException {
+            Object key = t.get(0);
+            // null keys never join
+            if (isKeyNull(key)) {
+                return;
+            }
+            if (numKeys == hashes.length) {
+                hashes = Arrays.copyOf(hashes, numKeys * 2);
+                offsets = Arrays.copyOf(offsets, numKeys * 2);
+            }
+            buf.reset();
+            sedes.writeDatum(bufOut, key);
+            hashes[numKeys] = hash(buf.getData(), buf.getLength());
+            offsets[numKeys] = out.getPos();
+            numKeys++;
+            writeBuf();
+
+            DataBag values = (DataBag) t.get(1);
+            out.writeInt((int) values.size());
+            for (Tuple value : values) {
+                buf.reset();
+                sedes.writeDatum(bufOut, value, DataType.TUPLE);
+                writeBuf();
+            }
+        }
+
+        private void writeBuf() throws IOException {
+            out.writeInt(buf.getLength());
+            out.write(buf.getData(), 0, buf.getLength());
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException,
+                InterruptedException {
+            int capacity = 16;
+            while (capacity * 3 / 4 < numKeys) {
+                capacity <<= 1;
+            }
+            int[] slotHashes = new int[capacity];
+            long[] slotOffsets = new long[capacity];
+            Arrays.fill(slotOffsets, -1L);
+            int mask = capacity - 1;
+            for (int i = 0; i < numKeys; i++) {
+                int slot = hashes[i] & mask;
+                while (slotOffsets[slot] != -1L) {
+                    slot = (slot + 1) & mask;
+                }
+                slotHashes[slot] = hashes[i];
+                slotOffsets[slot] = offsets[i];
+            }
+            long indexOffset = out.getPos();
+            for (int i = 0; i < capacity; i++) {
+                out.writeInt(slotHashes[i]);
+                out.writeLong(slotOffsets[i]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(capacity);
+            out.writeLong(numKeys);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+
+        private static boolean isKeyNull(Object key) throws IOException {
+            if (key == null) return true;
+            if (key instanceof Tuple) {
+                Tuple t = (Tuple) key;
+                for (int i = 0; i < t.size(); i++) {
+                    if (t.isNull(i)) return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public OutputFormat getOutputFormat() throws IOException {
+        return new IndexOutputFormat();
+    }
+
+    @Override
+    public void setStoreLocation(String location, Job job) throws IOException {
+        FileOutputFormat.setOutputPath(job, new Path(location));
+    }
+
+    @Override
+    public void prepareToWrite(RecordWriter writer) throws IOException {
+        this.writer = (IndexRecordWriter) writer;
+    }
+
+    @Override
+    public void putNext(Tuple t) throws IOException {
+        writer.write(null, t);
+    }
+}
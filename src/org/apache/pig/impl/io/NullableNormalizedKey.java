@@ -0,0 +1,563 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.HDataType;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * NullableNormalizedKey is an adaptor class around PigNullableWritable that
+ * serializes the key of an ORDER BY job so that comparing the bytes of two
+ * keys orders them as the raw comparator of their type would, sort order
+ * included. The shuffle then sorts the keys with
+ * {@link org.apache.hadoop.io.WritableComparator#compareBytes} instead of
+ * parsing them field by field.
+ * <p>
+ * A key is written as its type, a null flag, its value and its index. The
+ * index is the last byte and is left out of comparisons, as the other
+ * ORDER BY comparators leave it out. A value is written as its type
+ * followed by:
+ * <ul>
+ * <li>a byte for booleans</li>
+ * <li>ints, longs, floats and doubles in big endian order with their sign
+ * bit flipped, and for negative floats and doubles their other bits too</li>
+ * <li>the millis of datetimes as a long, then their offset in minutes</li>
+ * <li>the chars of chararrays and the bytes of bytearrays, encoded so that
+ * they contain no zero byte, terminated by two zero bytes</li>
+ * <li>the sign, length and bytes of bigintegers, and the sign, exponent and
+ * digits of bigdecimals</li>
+ * <li>the size and then the values of the fields of tuples</li>
+ * </ul>
+ * Descending values have all their bytes inverted. As for the other ORDER BY
+ * comparators, the size of a tuple key is compared before its fields
+ * whatever the sort order, and a null key sorts last only if the whole key
+ * is sorted descending. Bags and maps cannot be normalized.
+ */
+public class NullableNormalizedKey extends PigNullableWritable {
+
+    private static final int NULL_KEY = 0x00;
+    private static final int NOT_NULL_KEY = 0x01;
+    // chars and bytes which are zero are escaped by a zero and this byte
+    private static final int ESCAPED_ZERO = 0xff;
+    private static final int ONE_MINUTE = 60000;
+
+    private static final TupleFactory mFactory = TupleFactory.getInstance();
+
+    private PigNullableWritable key;
+    private boolean[] asc;
+    // the key as written, without its index
+    private byte[] bytes;
+
+    public NullableNormalizedKey() {
+    }
+
+    /**
+     * @param k the key to normalize
+     * @param sortOrder the sort order of the whole key, or of each field of
+     * a tuple key, as in pig.sortOrder
+     */
+    public NullableNormalizedKey(PigNullableWritable k, boolean[] sortOrder) {
+        key = k;
+        asc = sortOrder;
+    }
+
+    public PigNullableWritable getKey() {
+        return key;
+    }
+
+    /**
+     * @return the normalized bytes of this key, without its index
+     */
+    public byte[] getNormalizedBytes() throws IOException {
+        if (bytes == null) {
+            bytes = normalize(key, asc);
+        }
+        return bytes;
+    }
+
+    /**
+     * Normalize a key.
+     * @param key the key
+     * @param asc the sort order of the whole key, or of each field of a
+     * tuple key
+     * @return the normalized bytes of the key, without its index
+     * @throws ExecException if the key holds a value which cannot be
+     * normalized
+     */
+    public static byte[] normalize(PigNullableWritable key, boolean[] asc) throws IOException {
+        byte keyType = HDataType.findTypeFromNullableWritable(key);
+        boolean wholeKeyDesc = asc.length == 1 && !asc[0];
+        Output out = new Output();
+        out.write(keyType);
+        int flag = key.isNull() ? NULL_KEY : NOT_NULL_KEY;
+        out.write(wholeKeyDesc ? ~flag : flag);
+        if (!key.isNull()) {
+            if (keyType == DataType.TUPLE) {
+                Tuple t = (Tuple) key.getValueAsPigType();
+                int size = t.size();
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    boolean desc = asc.length == 1 ? wholeKeyDesc : (i < asc.length && !asc[i]);
+                    writeField(out, t.get(i), desc);
+                }
+            } else {
+                writeField(out, key.getValueAsPigType(), wholeKeyDesc);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeField(Output out, Object o, boolean desc) throws ExecException {
+        int start = out.length();
+        writeValue(out, o);
+        if (desc) {
+            out.invert(start);
+        }
+    }
+
+    private static void writeValue(Output out, Object o) throws ExecException {
+        byte type = DataType.findType(o);
+        out.write(type);
+        switch (type) {
+        case DataType.NULL:
+            break;
+
+        case DataType.BOOLEAN:
+            out.write((Boolean) o ? 1 : 0);
+            break;
+
+        case DataType.INTEGER:
+            out.writeInt((Integer) o ^ Integer.MIN_VALUE);
+            break;
+
+        case DataType.LONG:
+            out.writeLong((Long) o ^ Long.MIN_VALUE);
+            break;
+
+        case DataType.FLOAT: {
+            // negative floats sort in reverse order of their bits
+            int bits = Float.floatToIntBits((Float) o);
+            out.writeInt(bits ^ ((bits >> 31) | Integer.MIN_VALUE));
+            break;
+        }
+
+        case DataType.DOUBLE: {
+            long bits = Double.doubleToLongBits((Double) o);
+            out.writeLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+            break;
+        }
+
+        case DataType.DATETIME: {
+            // datetimes compare on their millis, the offset is only kept
+            DateTime dt = (DateTime) o;
+            out.writeLong(dt.getMillis() ^ Long.MIN_VALUE);
+            int offset = dt.getZone().getOffset(dt) / ONE_MINUTE;
+            out.write((offset >> 8) ^ 0x80);
+            out.write(offset);
+            break;
+        }
+
+        case DataType.BYTEARRAY:
+            for (byte b : ((DataByteArray) o).get()) {
+                writeUnit(out, b & 0xff);
+            }
+            out.write(0);
+            out.write(0);
+            break;
+
+        case DataType.CHARARRAY: {
+            // chars are written as in UTF-8, each on its own, so that the
+            // bytes compare as String.compareTo compares the chars
+            String s = (String) o;
+            int len = s.length();
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    writeUnit(out, c);
+                } else if (c < 0x800) {
+                    out.write(0xc0 | (c >> 6));
+                    out.write(0x80 | (c & 0x3f));
+                } else {
+                    out.write(0xe0 | (c >> 12));
+                    out.write(0x80 | ((c >> 6) & 0x3f));
+                    out.write(0x80 | (c & 0x3f));
+                }
+            }
+            out.write(0);
+            out.write(0);
+            break;
+        }
+
+        case DataType.BIGINTEGER: {
+            BigInteger bi = (BigInteger) o;
+            int signum = bi.signum();
+            out.write(signum + 1);
+            if (signum != 0) {
+                // longer negative numbers are smaller, and numbers of the
+                // same length compare as their two's complement bytes
+                byte[] b = bi.toByteArray();
+                out.writeInt(signum > 0 ? b.length : ~b.length);
+                out.write(b);
+            }
+            break;
+        }
+
+        case DataType.BIGDECIMAL: {
+            BigDecimal bd = (BigDecimal) o;
+            int signum = bd.signum();
+            out.write(signum + 1);
+            if (signum != 0) {
+                // 0.d1d2... times ten to the power of exponent + 1, so that
+                // numbers which are equal, whatever their scale, are written
+                // the same
+                bd = bd.stripTrailingZeros();
+                String digits = bd.unscaledValue().abs().toString();
+                int start = out.length();
+                out.writeLong(((long) digits.length() - bd.scale() - 1) ^ Long.MIN_VALUE);
+                for (int i = 0; i < digits.length(); i++) {
+                    out.write(digits.charAt(i));
+                }
+                out.write(0);
+                if (signum < 0) {
+                    out.invert(start);
+                }
+            }
+            break;
+        }
+
+        case DataType.TUPLE: {
+            Tuple t = (Tuple) o;
+            int size = t.size();
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                writeValue(out, t.get(i));
+            }
+            break;
+        }
+
+        default:
+            int errCode = 2275;
+            String msg = "Cannot normalize a key holding a "
+                    + DataType.findTypeName(type);
+            throw new ExecException(msg, errCode, PigException.BUG);
+        }
+    }
+
+    private static void writeUnit(Output out, int b) {
+        if (b == 0) {
+            out.write(0);
+            out.write(ESCAPED_ZERO);
+        } else {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        byte[] b = getNormalizedBytes();
+        out.write(b, 0, b.length);
+        out.writeByte(key.getIndex());
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        Input input = new Input(in);
+        byte keyType = (byte) input.read();
+        int flag = input.read();
+        if (flag == NULL_KEY || flag == (~NULL_KEY & 0xff)) {
+            key = HDataType.getWritableComparableTypes(null, keyType);
+        } else if (keyType == DataType.TUPLE) {
+            int size = input.readInt();
+            Tuple t = mFactory.newTuple(size);
+            for (int i = 0; i < size; i++) {
+                t.set(i, readField(input));
+            }
+            key = HDataType.getWritableComparableTypes(t, keyType);
+        } else {
+            key = HDataType.getWritableComparableTypes(readField(input), keyType);
+        }
+        bytes = input.getBytes();
+        asc = null;
+        key.setIndex(in.readByte());
+    }
+
+    private static Object readField(Input in) throws IOException {
+        // the types of all values that can be normalized are below 0x80
+        // and inverted above it
+        int first = in.read();
+        in.mask = (first & 0x80) != 0 ? 0xff : 0;
+        Object o = readValue(in, (byte) (first ^ in.mask));
+        in.mask = 0;
+        return o;
+    }
+
+    private static Object readValue(Input in, byte type) throws IOException {
+        switch (type) {
+        case DataType.NULL:
+            return null;
+
+        case DataType.BOOLEAN:
+            return Boolean.valueOf(in.read() != 0);
+
+        case DataType.INTEGER:
+            return Integer.valueOf(in.readInt() ^ Integer.MIN_VALUE);
+
+        case DataType.LONG:
+            return Long.valueOf(in.readLong() ^ Long.MIN_VALUE);
+
+        case DataType.FLOAT: {
+            int bits = in.readInt() ^ Integer.MIN_VALUE;
+            return Float.valueOf(Float.intBitsToFloat(bits ^ ((bits >> 31) & Integer.MAX_VALUE)));
+        }
+
+        case DataType.DOUBLE: {
+            long bits = in.readLong() ^ Long.MIN_VALUE;
+            return Double.valueOf(Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE)));
+        }
+
+        case DataType.DATETIME: {
+            long millis = in.readLong() ^ Long.MIN_VALUE;
+            int offset = (short) (((in.read() ^ 0x80) << 8) | in.read());
+            return new DateTime(millis, DateTimeZone.forOffsetMillis(offset * ONE_MINUTE));
+        }
+
+        case DataType.BYTEARRAY: {
+            Output b = new Output();
+            for (int u = in.readUnit(); u >= 0; u = in.readUnit()) {
+                b.write(u);
+            }
+            return new DataByteArray(b.toByteArray());
+        }
+
+        case DataType.CHARARRAY: {
+            StringBuilder sb = new StringBuilder();
+            for (int u = in.readUnit(); u >= 0; u = in.readUnit()) {
+                if (u < 0x80) {
+                    sb.append((char) u);
+                } else if (u < 0xe0) {
+                    sb.append((char) (((u & 0x1f) << 6) | (in.read() & 0x3f)));
+                } else {
+                    int c = (u & 0x0f) << 12;
+                    c |= (in.read() & 0x3f) << 6;
+                    sb.append((char) (c | (in.read() & 0x3f)));
+                }
+            }
+            return sb.toString();
+        }
+
+        case DataType.BIGINTEGER: {
+            int signum = in.read() - 1;
+            if (signum == 0) {
+                return BigInteger.ZERO;
+            }
+            int len = in.readInt();
+            byte[] b = new byte[signum > 0 ? len : ~len];
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (byte) in.read();
+            }
+            return new BigInteger(b);
+        }
+
+        case DataType.BIGDECIMAL: {
+            int signum = in.read() - 1;
+            if (signum == 0) {
+                return BigDecimal.ZERO;
+            }
+            int mask = in.mask;
+            if (signum < 0) {
+                in.mask ^= 0xff;
+            }
+            long exponent = in.readLong() ^ Long.MIN_VALUE;
+            StringBuilder digits = new StringBuilder();
+            for (int d = in.read(); d != 0; d = in.read()) {
+                digits.append((char) d);
+            }
+            in.mask = mask;
+            BigDecimal bd = new BigDecimal(new BigInteger(digits.toString()),
+                    (int) (digits.length() - 1 - exponent));
+            return signum < 0 ? bd.negate() : bd;
+        }
+
+        case DataType.TUPLE: {
+            int size = in.readInt();
+            Tuple t = mFactory.newTuple(size);
+            for (int i = 0; i < size; i++) {
+                t.set(i, readValue(in, (byte) in.read()));
+            }
+            return t;
+        }
+
+        default:
+            int errCode = 2275;
+            String msg = "Unexpected type " + type + " in a normalized key";
+            throw new ExecException(msg, errCode, PigException.BUG);
+        }
+    }
+
+    /**
+     * Growable byte buffer the keys are normalized into.
+     */
+    private static class Output {
+        private byte[] buf = new byte[32];
+        private int len = 0;
+
+        void write(int b) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = (byte) b;
+        }
+
+        void write(byte[] b) {
+            for (byte x : b) {
+                write(x);
+            }
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        int length() {
+            return len;
+        }
+
+        /**
+         * Invert the bytes written from start on.
+         */
+        void invert(int start) {
+            for (int i = start; i < len; i++) {
+                buf[i] = (byte) ~buf[i];
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    /**
+     * Reads a normalized key, keeping the bytes read. Bytes are read
+     * inverted while mask is 0xff.
+     */
+    private static class Input {
+        private final DataInput in;
+        private final Output read = new Output();
+        int mask = 0;
+
+        Input(DataInput in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            int b = in.readUnsignedByte();
+            read.write(b);
+            return b ^ mask;
+        }
+
+        int readInt() throws IOException {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        /**
+         * @return the next unescaped byte of a chararray or bytearray, or -1
+         * at its end
+         */
+        int readUnit() throws IOException {
+            int b = read();
+            if (b != 0) {
+                return b;
+            }
+            return read() == ESCAPED_ZERO ? 0 : -1;
+        }
+
+        byte[] getBytes() {
+            return read.toByteArray();
+        }
+    }
+
+    @Override
+    public int compareTo(Object o) {
+        if (o instanceof NullableNormalizedKey) {
+            o = ((NullableNormalizedKey) o).getKey();
+        }
+        return key.compareTo(o);
+    }
+
+    @Override
+    public boolean isNull() {
+        return key.isNull();
+    }
+
+    @Override
+    public void setNull(boolean isNull) {
+        key.setNull(isNull);
+        bytes = null;
+    }
+
+    @Override
+    public byte getIndex() {
+        return key.getIndex();
+    }
+
+    @Override
+    public void setIndex(byte index) {
+        key.setIndex(index);
+    }
+
+    @Override
+    public Object getValueAsPigType() {
+        return key.getValueAsPigType();
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Normalized: " + key.toString();
+    }
+}
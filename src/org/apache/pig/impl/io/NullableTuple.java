@@ -17,9 +17,13 @@
  */
 package org.apache.pig.impl.io;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.pig.data.BinInterSedes;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -32,6 +36,13 @@ public class NullableTuple extends PigNullableWritable {
     private TupleFactory mFactory = null;
     private static final BinInterSedes bis = new BinInterSedes();
 
+    // if set, readFields only notes where the serialized tuple is when it
+    // reads from a buffer, and the tuple is deserialized on first access
+    private boolean readRaw = false;
+    private byte[] rawBytes;
+    private int rawStart;
+    private int rawEnd;
+
     public NullableTuple() {
     }
 
@@ -44,11 +55,73 @@ public class NullableTuple extends PigNullableWritable {
 
     @Override
     public Object getValueAsPigType() {
-        return isNull() ? null : (Tuple)mValue;
+        if (isNull()) {
+            return null;
+        }
+        if (mValue == null && rawBytes != null) {
+            try {
+                mValue = bis.readTuple(new DataInputStream(
+                        new ByteArrayInputStream(rawBytes, rawStart, rawEnd - rawStart)));
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to deserialize tuple", e);
+            }
+        }
+        return (Tuple)mValue;
+    }
+
+    /**
+     * Read the following values without deserializing their tuples, if they
+     * are read from a buffer which holds exactly one value, as the values of
+     * a reducer are. The serialized tuple is then only valid until the next
+     * value is read.
+     */
+    public void setReadRaw(boolean readRaw) {
+        this.readRaw = readRaw;
+    }
+
+    /**
+     * @return the buffer holding the serialized tuple, or null if the tuple
+     * was deserialized when it was read
+     */
+    public byte[] getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * @return the offset of the serialized tuple in {@link #getRawBytes()}
+     */
+    public int getRawStart() {
+        return rawStart;
+    }
+
+    /**
+     * @return the end offset of the serialized tuple in {@link #getRawBytes()}
+     */
+    public int getRawEnd() {
+        return rawEnd;
     }
 
     @Override
     public void readFields(DataInput in) throws IOException {
+        rawBytes = null;
+        if (readRaw && in instanceof DataInputBuffer) {
+            // the null flag, the tuple and the index
+            DataInputBuffer buf = (DataInputBuffer) in;
+            byte[] data = buf.getData();
+            int start = buf.getPosition();
+            int end = buf.getLength();
+            boolean nullness = data[start] != 0;
+            setNull(nullness);
+            mValue = null;
+            if (!nullness) {
+                rawBytes = data;
+                rawStart = start + 1;
+                rawEnd = end - 1;
+            }
+            setIndex(data[end - 1]);
+            in.skipBytes(end - start);
+            return;
+        }
         boolean nullness = in.readBoolean();
         setNull(nullness);
         if (!nullness) {
@@ -57,4 +130,11 @@ public class NullableTuple extends PigNullableWritable {
         setIndex(in.readByte());
     }
 
+    @Override
+    public void write(DataOutput out) throws IOException {
+        // deserialize a raw tuple before writing it again
+        getValueAsPigType();
+        super.write(out);
+    }
+
 }
@@ -141,9 +141,10 @@ public class TFileStorage extends FileInputLoadFunc implements
                         InterruptedException {
             Configuration conf = job.getConfiguration();
             String codec = conf.get(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "");
-            if (!codec.equals("lzo") && !codec.equals("gz") && !codec.equals("gzip"))
+            if (!codec.equals("lzo") && !codec.equals("gz") && !codec.equals("gzip")
+                    && !codec.equals("none"))
                 throw new IOException(
-                                "Invalid temporary file compression codec [" + codec + "]. Expected compression codecs are gz(gzip) and lzo");
+                                "Invalid temporary file compression codec [" + codec + "]. Expected compression codecs are gz(gzip), lzo and none");
             if (codec.equals("gzip")) {
                 codec = "gz";
             }
@@ -22,10 +22,6 @@ import java.lang.management.MemoryNotificationInfo;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
 import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 
@@ -43,14 +39,15 @@ import org.apache.commons.logging.LogFactory;
  * <p>
  * Low memory is defined as more than 50% of the tenured pool being allocated. Spillable objects are
  * tracked using WeakReferences so that the objects can be GCed even though this class has a reference
- * to them. 
+ * to them. They are kept in a {@link SpillableRegistry} bucketed by size, so the biggest ones can be
+ * picked without sorting all of them in the notification thread.
  *
  */
 public class SpillableMemoryManager implements NotificationListener {
     
     private final Log log = LogFactory.getLog(getClass());
     
-    LinkedList<WeakReference<Spillable>> spillables = new LinkedList<WeakReference<Spillable>>();
+    SpillableRegistry spillables = new SpillableRegistry();
     
     // if we freed at least this much, invoke GC 
     // (default 40 MB - this can be overridden by user supplied property)
@@ -86,6 +83,7 @@ public class SpillableMemoryManager implements NotificationListener {
     private static volatile SpillableMemoryManager manager;
 
     private SpillableMemoryManager() {
+        spillables.startCleaner();
         ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
         List<MemoryPoolMXBean> mpbeans = ManagementFactory.getMemoryPoolMXBeans();
         MemoryPoolMXBean biggestHeap = null;
@@ -189,67 +187,33 @@ public class SpillableMemoryManager implements NotificationListener {
             }
 
         }
-        clearSpillables();
         if (toFree < 0) {
             log.debug("low memory handler returning " + 
                 "because there is nothing to free");
             return;
         }
-        synchronized(spillables) {
-            Collections.sort(spillables, new Comparator<WeakReference<Spillable>>() {
-
-                /**
-                 * We don't lock anything, so this sort may not be stable if a WeakReference suddenly
-                 * becomes null, but it will be close enough.
-                 * Also between the time we sort and we use these spillables, they
-                 * may actually change in size - so this is just best effort
-                 */    
-                @Override
-                public int compare(WeakReference<Spillable> o1Ref, WeakReference<Spillable> o2Ref) {
-                    Spillable o1 = o1Ref.get();
-                    Spillable o2 = o2Ref.get();
-                    if (o1 == null && o2 == null) {
-                        return 0;
-                    }
-                    if (o1 == null) {
-                        return 1;
-                    }
-                    if (o2 == null) {
-                        return -1;
-                    }
-                    long o1Size = o1.getMemorySize();
-                    long o2Size = o2.getMemorySize();
-                
-                    if (o1Size == o2Size) {
-                        return 0;
-                    }
-                    if (o1Size < o2Size) {
-                        return 1;
-                    }
-                    return -1;
-                }
-            });
-            long estimatedFreed = 0;
-            int numObjSpilled = 0;
-            boolean invokeGC = false;
+        final long toFreeFinal = toFree;
+        final long[] estimatedFreed = new long[1];
+        final int[] numObjSpilled = new int[1];
+        final boolean[] invokeGC = new boolean[1];
+        spillables.walk(new SpillableRegistry.Visitor() {
             boolean extraGCCalled = false;
-            for (Iterator<WeakReference<Spillable>> i = spillables.iterator(); i.hasNext();) {
-                WeakReference<Spillable> weakRef = i.next();
-                Spillable s = weakRef.get();
-                // Still need to check for null here, even after we removed
-                // above, because the reference may have gone bad on us
-                // since the last check.
-                if (s == null) {
-                    i.remove();
-                    continue;
-                }
-                long toBeFreed = s.getMemorySize();
+
+            /**
+             * We don't lock anything, so the spillables may change in size
+             * between the time we measure them and the time we spill them -
+             * so this is just best effort
+             */
+            @Override
+            public boolean visit(WeakReference<Spillable> weakRef, long toBeFreed) {
                 log.debug("Memorysize = "+toBeFreed+", spillFilesizethreshold = "+spillFileSizeThreshold+", gcactivationsize = "+gcActivationSize);
-                // Don't keep trying if the rest of files are too small
+                // Skip the ones which are too small to be worth a spill file.
+                // Buckets are only sorted to within a factor of two, so
+                // there may be bigger ones left in this bucket.
                 if (toBeFreed < spillFileSizeThreshold) {
-                    log.debug("spilling small files - getting out of memory handler");
-                    break ;
+                    return true;
                 }
+                Spillable s = null;
                 // If single Spillable is bigger than the threshold,
                 // we force GC to make sure we really need to keep this
                 // object before paying for the expensive spill().
@@ -257,79 +221,78 @@ public class SpillableMemoryManager implements NotificationListener {
                 if( !extraGCCalled && extraGCSpillSizeThreshold != 0
                     && toBeFreed > extraGCSpillSizeThreshold   ) {
                     log.debug("Single spillable has size " + toBeFreed + "bytes. Calling extra gc()");
-                    // this extra assignment to null is needed so that gc can free the
-                    // spillable if nothing else is pointing at it
-                    s = null;
                     System.gc();
                     extraGCCalled = true;
                     // checking again to see if this reference is still valid
                     s = weakRef.get();
                     if (s == null) {
-                        i.remove();
                         accumulatedFreeSize = 0;
-                        invokeGC = false;
-                        continue;
+                        invokeGC[0] = false;
+                        return true;
+                    }
+                }
+                if (s == null) {
+                    s = weakRef.get();
+                    // The reference may have gone bad on us since it was
+                    // measured.
+                    if (s == null) {
+                        return true;
                     }
                 }
-                s.spill();               
-                numObjSpilled++;
-                estimatedFreed += toBeFreed;
+                s.spill();
+                numObjSpilled[0]++;
+                estimatedFreed[0] += toBeFreed;
                 accumulatedFreeSize += toBeFreed;
                 // This should significantly reduce the number of small files
                 // in case that we have a lot of nested bags
                 if (accumulatedFreeSize > gcActivationSize) {
-                    invokeGC = true;
+                    invokeGC[0] = true;
                 }
-                
-                if (estimatedFreed > toFree) {
+
+                if (estimatedFreed[0] > toFreeFinal) {
                     log.debug("Freed enough space - getting out of memory handler");
-                    invokeGC = true;
-                    break;
+                    invokeGC[0] = true;
+                    return false;
                 }
-            }           
-            /* Poke the GC again to see if we successfully freed enough memory */
-            if(invokeGC) {
-                System.gc();
-                // now that we have invoked the GC, reset accumulatedFreeSize
-                accumulatedFreeSize = 0;
+                return true;
             }
-            if(estimatedFreed > 0){
-                String msg = "Spilled an estimate of " + estimatedFreed +
-                " bytes from " + numObjSpilled + " objects. " + info.getUsage();;
-                log.info(msg);
-            }
-
+        }, spillFileSizeThreshold);
+        /* Poke the GC again to see if we successfully freed enough memory */
+        if(invokeGC[0]) {
+            System.gc();
+            // now that we have invoked the GC, reset accumulatedFreeSize
+            accumulatedFreeSize = 0;
+        }
+        if(estimatedFreed[0] > 0){
+            String msg = "Spilled an estimate of " + estimatedFreed[0] +
+            " bytes from " + numObjSpilled[0] + " objects. " + info.getUsage();
+            log.info(msg);
         }
     }
     
     public void clearSpillables() {
-        synchronized (spillables) {
-            // Walk the list first and remove nulls, otherwise the sort
-            // takes way too long.
-            for (Iterator<WeakReference<Spillable>> i = spillables.iterator(); i
-                    .hasNext();) {
-                Spillable s = i.next().get();
-                if (s == null) {
-                    i.remove();
-                }
-            }
-        }
+        spillables.expunge();
     }
+
     /**
      * Register a spillable to be tracked. No need to unregister, the tracking will stop
-     * when the spillable is GCed.
+     * when the spillable is GCed. The spillable is measured again on each low memory
+     * notification, as it may grow after it was registered.
      * @param s the spillable to track.
      */
     public void registerSpillable(Spillable s) {
-        synchronized(spillables) {
-            // Cleaing the entire list is too expensive.  Just trim off the front while
-            // we can.
-            WeakReference<Spillable> first = spillables.peek();
-            while (first != null && first.get() == null) {
-                spillables.remove();
-                first = spillables.peek();
-            }
-            spillables.add(new WeakReference<Spillable>(s));
-        }
+        spillables.register(s, false);
+    }
+
+    /**
+     * Register a spillable to be tracked, whose owner reports it as it grows. No need
+     * to unregister, the tracking will stop when the spillable is GCed.
+     * @param s the spillable to track.
+     * @return the registration handle, the owner must call
+     * {@link SpillableRegistry.Entry#markResized()} on it as the spillable grows,
+     * for instance each time it doubles in size.
+     */
+    public SpillableRegistry.Entry registerResizableSpillable(Spillable s) {
+        return spillables.register(s);
     }
 }
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * Tracks Spillable objects in buckets of approximate memory size so that the
+ * biggest ones can be found without sorting all of them.
+ * <p>
+ * Bucket i holds the spillables whose size was in [2^i, 2^(i+1)) bytes the
+ * last time it was measured. Registration only appends to a lock free queue,
+ * and so does {@link Entry#markResized()}, which owners call when they have
+ * grown noticeably. Queued entries are measured and moved to their bucket the
+ * next time the registry is walked or by the background cleaner thread, which
+ * also drops entries whose spillable has been garbage collected.
+ * <p>
+ * Spillables whose owner does not report growth are registered with
+ * {@link #register(Spillable, boolean)}. As they may have grown since they
+ * were measured, each walk measures a few of them again in turn, so that a
+ * walk does not cost more when there are many of them.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SpillableRegistry {
+
+    private static final Log log = LogFactory.getLog(SpillableRegistry.class);
+
+    static final int NUM_BUCKETS = 64;
+
+    // How often the cleaner thread sorts new registrations into buckets
+    private static final long CLEANER_INTERVAL_MS = 1000;
+
+    // How many spillables which do not report growth a walk measures again
+    static final int UNREPORTED_PER_WALK = 32;
+
+    /**
+     * Callback for {@link SpillableRegistry#walk(Visitor, long)}.
+     */
+    public interface Visitor {
+        /**
+         * The visitor is handed a reference rather than the spillable, so
+         * that the walk does not keep the spillable from being collected.
+         * @param ref reference to a spillable that was live when measured
+         * @param size its current memory size
+         * @return false to stop the walk
+         */
+        boolean visit(WeakReference<Spillable> ref, long size);
+    }
+
+    /**
+     * Registration handle of a spillable.
+     */
+    public class Entry extends WeakReference<Spillable> {
+        // bucket this entry is in, -1 until it has been measured
+        private volatile int bucket = -1;
+        private final AtomicBoolean queued = new AtomicBoolean(true);
+
+        private Entry(Spillable s) {
+            super(s, cleared);
+        }
+
+        /**
+         * Ask for the spillable to be measured again and moved to its new
+         * bucket. This does not take any lock and is cheap to call repeatedly.
+         */
+        public void markResized() {
+            if (queued.compareAndSet(false, true)) {
+                pending.add(this);
+            }
+        }
+    }
+
+    // new and resized entries
+    private final ConcurrentLinkedQueue<Entry> pending =
+        new ConcurrentLinkedQueue<Entry>();
+
+    private final Set<Entry>[] buckets;
+
+    // Entries whose owner does not call markResized(), in the order they are
+    // measured again. Cleared entries are dropped when they reach the head.
+    private final ConcurrentLinkedQueue<Entry> unreported =
+        new ConcurrentLinkedQueue<Entry>();
+
+    private final ReferenceQueue<Spillable> cleared = new ReferenceQueue<Spillable>();
+
+    private final AtomicInteger numRegistered = new AtomicInteger();
+
+    // Serializes the notification thread and the cleaner thread. Registration
+    // never takes this lock.
+    private final Object walkLock = new Object();
+
+    @SuppressWarnings("unchecked")
+    public SpillableRegistry() {
+        buckets = new Set[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Entry, Boolean>());
+        }
+    }
+
+    /**
+     * Start a daemon thread that removes cleared references and sorts new
+     * registrations into buckets outside of low memory notifications.
+     */
+    public void startCleaner() {
+        Thread cleaner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Reference<? extends Spillable> ref = cleared.remove(CLEANER_INTERVAL_MS);
+                        if (ref != null) {
+                            remove((Entry) ref);
+                        }
+                        expunge();
+                        if (ref == null) {
+                            synchronized (walkLock) {
+                                drainPending();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Throwable t) {
+                        log.warn("Error in spillable registry cleaner", t);
+                    }
+                }
+            }
+        }, "SpillableRegistry cleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    /**
+     * Register a spillable whose owner calls {@link Entry#markResized()} as
+     * it grows. This does not take any lock.
+     * @param s the spillable to track
+     * @return the registration handle
+     */
+    public Entry register(Spillable s) {
+        return register(s, true);
+    }
+
+    /**
+     * Register a spillable. This does not take any lock.
+     * @param s the spillable to track
+     * @param reportsResize false if the owner does not call
+     * {@link Entry#markResized()}, so the spillable has to be measured again
+     * on each walk
+     * @return the registration handle
+     */
+    public Entry register(Spillable s, boolean reportsResize) {
+        Entry e = new Entry(s);
+        if (!reportsResize) {
+            unreported.add(e);
+        }
+        pending.add(e);
+        numRegistered.incrementAndGet();
+        return e;
+    }
+
+    /**
+     * @return approximate number of tracked spillables, including ones that
+     * have been garbage collected but not removed yet
+     */
+    public int size() {
+        return numRegistered.get();
+    }
+
+    /**
+     * Remove all entries whose spillable has been garbage collected.
+     */
+    public void expunge() {
+        Reference<? extends Spillable> ref;
+        while ((ref = cleared.poll()) != null) {
+            remove((Entry) ref);
+        }
+    }
+
+    /**
+     * Visit live spillables, biggest first according to their bucket. Each
+     * visited spillable is re-measured and moved to its current bucket, and
+     * the visitor is given the fresh size. Buckets are approximate, so the
+     * order is only sorted to within a factor of two.
+     * @param v visitor, returning false stops the walk
+     * @param minSize buckets which only hold spillables smaller than this
+     * are not visited
+     */
+    public void walk(Visitor v, long minSize) {
+        synchronized (walkLock) {
+            drainPending();
+            int minBucket = bucketFor(minSize);
+            remeasureUnreported(minBucket);
+            for (int b = NUM_BUCKETS - 1; b >= minBucket; b--) {
+                for (Iterator<Entry> i = buckets[b].iterator(); i.hasNext();) {
+                    Entry ref = i.next();
+                    Spillable s = ref.get();
+                    if (s == null) {
+                        if (buckets[b].remove(ref)) {
+                            numRegistered.decrementAndGet();
+                        }
+                        continue;
+                    }
+                    long size = s.getMemorySize();
+                    int nb = bucketFor(size);
+                    if (nb != b && buckets[b].remove(ref)) {
+                        ref.bucket = nb;
+                        buckets[nb].add(ref);
+                    }
+                    s = null;
+                    if (!v.visit(ref, size)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // Measure the next UNREPORTED_PER_WALK unreported entries again, and
+    // move the ones which grew out of the buckets below minBucket, which the
+    // walk does not visit. Must be called with walkLock held, which makes it
+    // the only thread taking entries off the queue.
+    private void remeasureUnreported(int minBucket) {
+        Entry first = null;
+        for (int n = 0; n < UNREPORTED_PER_WALK; n++) {
+            Entry ref = unreported.peek();
+            if (ref == null || ref == first) {
+                // went around all of them
+                return;
+            }
+            unreported.poll();
+            Spillable s = ref.get();
+            if (s == null) {
+                remove(ref);
+                continue;
+            }
+            unreported.add(ref);
+            if (first == null) {
+                first = ref;
+            }
+            int old = ref.bucket;
+            if (old < 0 || old >= minBucket) {
+                // still pending, or visited by the walk anyway
+                s = null;
+                continue;
+            }
+            int b = bucketFor(s.getMemorySize());
+            s = null;
+            if (b != old && buckets[old].remove(ref)) {
+                ref.bucket = b;
+                buckets[b].add(ref);
+            }
+        }
+    }
+
+    // Must be called with walkLock held.
+    private void drainPending() {
+        Entry ref;
+        while ((ref = pending.poll()) != null) {
+            ref.queued.set(false);
+            int old = ref.bucket;
+            Spillable s = ref.get();
+            if (s == null) {
+                if (old < 0 || buckets[old].remove(ref)) {
+                    numRegistered.decrementAndGet();
+                }
+                continue;
+            }
+            int b = bucketFor(s.getMemorySize());
+            if (b != old) {
+                if (old >= 0) {
+                    buckets[old].remove(ref);
+                }
+                ref.bucket = b;
+                buckets[b].add(ref);
+            }
+        }
+    }
+
+    private void remove(Entry ref) {
+        int b = ref.bucket;
+        // Unmeasured entries are dropped when the pending queue is drained.
+        if (b >= 0 && buckets[b].remove(ref)) {
+            numRegistered.decrementAndGet();
+        }
+    }
+
+    static int bucketFor(long size) {
+        if (size <= 0) {
+            return 0;
+        }
+        return 63 - Long.numberOfLeadingZeros(size);
+    }
+}
@@ -40,6 +40,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
@@ -56,6 +57,7 @@ import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.PigImplConstants;
+import org.apache.pig.impl.io.ColumnarInterStorage;
 import org.apache.pig.impl.io.InterStorage;
 import org.apache.pig.impl.io.ReadToEndLoader;
 import org.apache.pig.impl.io.SequenceFileInterStorage;
@@ -242,12 +244,21 @@ public class Utils {
         return schema.setFields(fieldSchemasWithSourceTag);
     }
 
+    /**
+     * The value of pig.tmpfilecompression.codec which chooses the codec of
+     * each job from the size of its input and the resources used by the jobs
+     * before it.
+     */
+    public static final String TEMPFILE_CODEC_AUTO = "auto";
+
     private static enum TEMPFILE_CODEC {
+        NONE (null),
         GZ (GzipCodec.class.getName()),
         GZIP (GzipCodec.class.getName()),
         LZO ("com.hadoop.compression.lzo.LzoCodec"),
-        SNAPPY ("org.xerial.snappy.SnappyCodec"),
-        BZIP2 (BZip2Codec.class.getName());
+        SNAPPY ("org.apache.hadoop.io.compress.SnappyCodec"),
+        BZIP2 (BZip2Codec.class.getName()),
+        LZ4 ("org.apache.hadoop.io.compress.Lz4Codec");
 
         private String hadoopCodecClassName;
 
@@ -262,30 +273,44 @@ public class Utils {
         public String getHadoopCodecClassName() {
             return this.hadoopCodecClassName;
         }
+
+        /**
+         * @return the codec with the given name, or null if there is none
+         */
+        public static TEMPFILE_CODEC find(String codec) {
+            try {
+                return valueOf(codec.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
     }
 
     private static enum TEMPFILE_STORAGE {
         INTER(InterStorage.class,
-                null),
+                null, false),
+        // TFile only has its own gz, lzo and none algorithms
         TFILE(TFileStorage.class,
-                Arrays.asList(TEMPFILE_CODEC.GZ,
+                Arrays.asList(TEMPFILE_CODEC.NONE,
+                        TEMPFILE_CODEC.GZ,
                         TEMPFILE_CODEC.GZIP,
-                        TEMPFILE_CODEC.LZO)),
+                        TEMPFILE_CODEC.LZO), false),
         SEQFILE(SequenceFileInterStorage.class,
-                Arrays.asList(TEMPFILE_CODEC.GZ,
-                        TEMPFILE_CODEC.GZIP,
-                        TEMPFILE_CODEC.LZO,
-                        TEMPFILE_CODEC.SNAPPY,
-                        TEMPFILE_CODEC.BZIP2));
+                Arrays.asList(TEMPFILE_CODEC.values()), true),
+        COLUMNAR(ColumnarInterStorage.class,
+                Arrays.asList(TEMPFILE_CODEC.values()), true);
 
         private Class<? extends FileInputLoadFunc> storageClass;
         private List<TEMPFILE_CODEC> supportedCodecs;
+        private boolean anyCodecClass;
 
         TEMPFILE_STORAGE(
                 Class<? extends FileInputLoadFunc> storageClass,
-                List<TEMPFILE_CODEC> supportedCodecs) {
+                List<TEMPFILE_CODEC> supportedCodecs,
+                boolean anyCodecClass) {
             this.storageClass = storageClass;
             this.supportedCodecs = supportedCodecs;
+            this.anyCodecClass = anyCodecClass;
         }
 
         public String lowerName() {
@@ -297,13 +322,20 @@ public class Utils {
         }
 
         public boolean ensureCodecSupported(String codec) {
-            try {
-                return this.supportedCodecs.contains(TEMPFILE_CODEC.valueOf(codec.toUpperCase()));
-            } catch (IllegalArgumentException e) {
+            if (supportedCodecs == null) {
                 return false;
             }
+            TEMPFILE_CODEC tmpFileCodec = TEMPFILE_CODEC.find(codec);
+            if (tmpFileCodec != null) {
+                // the codec class may be missing from this version of
+                // hadoop, check it here rather than fail in the tasks
+                String className = tmpFileCodec.getHadoopCodecClassName();
+                return supportedCodecs.contains(tmpFileCodec)
+                        && (className == null || isCompressionCodecClass(className));
+            }
+            return anyCodecClass && isCompressionCodecClass(codec);
         }
-        
+
         public String supportedCodecsToString() {
             StringBuffer sb = new StringBuffer();
             boolean first = true;
@@ -315,10 +347,35 @@ public class Utils {
                 }
                 sb.append(codec.name());
             }
+            if (anyCodecClass) {
+                sb.append(" or the class name of a hadoop CompressionCodec");
+            }
             return sb.toString();
         }
     }
 
+    /**
+     * @return true if the class can be loaded and is a hadoop CompressionCodec
+     */
+    public static boolean isCompressionCodecClass(String className) {
+        try {
+            Class<?> clazz = Class.forName(className, false, PigContext.getClassLoader());
+            return CompressionCodec.class.isAssignableFrom(clazz);
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the name of a codec as it is set on the configuration of jobs:
+     * known codecs in lower case, codec classes as they are
+     */
+    private static String normalizeCodecName(String codec) {
+        return TEMPFILE_CODEC.find(codec) != null ? codec.toLowerCase() : codec;
+    }
+
     public static String getTmpFileCompressorName(PigContext pigContext) {
         if (pigContext == null)
             return InterStorage.class.getName();
@@ -346,6 +403,17 @@ public class Utils {
        return getTmpFileStorage(properties).getStorageClass();
     }
 
+    /**
+     * Check whether the intermediate storage of a script can write files
+     * with a codec.
+     * @param properties the properties of the script
+     * @param codec the name of the codec
+     * @return true if the codec is supported
+     */
+    public static boolean isTmpFileCodecSupported(Properties properties, String codec) {
+        return getTmpFileStorage(properties).ensureCodecSupported(codec);
+    }
+
     private static TEMPFILE_STORAGE getTmpFileStorage(Properties properties) {
         boolean tmpFileCompression = properties.getProperty(
                 PigConfiguration.PIG_ENABLE_TEMP_FILE_COMPRESSION, "false").equals("true");
@@ -359,6 +427,8 @@ public class Utils {
             return TEMPFILE_STORAGE.SEQFILE;
         } else if (TEMPFILE_STORAGE.TFILE.lowerName().equals(tmpFileCompressionStorage)) {
             return TEMPFILE_STORAGE.TFILE;
+        } else if (TEMPFILE_STORAGE.COLUMNAR.lowerName().equals(tmpFileCompressionStorage)) {
+            return TEMPFILE_STORAGE.COLUMNAR;
         } else {
             throw new IllegalArgumentException("Unsupported storage format " + tmpFileCompressionStorage + 
                     ". Should be one of " + Arrays.toString(TEMPFILE_STORAGE.values()));
@@ -370,9 +440,11 @@ public class Utils {
                 PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "");
         if ("".equals(codec) && conf.get("mapred.output.compression.codec") != null) {
             conf.setBoolean("mapred.output.compress", true);
+        } else if (TEMPFILE_CODEC.NONE.lowerName().equals(codec)) {
+            conf.setBoolean("mapred.output.compress", false);
         } else if(TEMPFILE_STORAGE.SEQFILE.ensureCodecSupported(codec)) {
             conf.setBoolean("mapred.output.compress", true);
-            conf.set("mapred.output.compression.codec", TEMPFILE_CODEC.valueOf(codec.toUpperCase()).getHadoopCodecClassName());
+            conf.set("mapred.output.compression.codec", getTmpFileCodecClassName(codec));
         }
         // no codec specified
     }
@@ -382,9 +454,33 @@ public class Utils {
         if (pigContext == null) {
             return;
         }
-        TEMPFILE_STORAGE storage = getTmpFileStorage(pigContext.getProperties());
         String codec = pigContext.getProperties().getProperty(
                 PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "");
+        if (TEMPFILE_CODEC_AUTO.equals(codec)) {
+            // the codec chosen for the job when it was compiled
+            codec = conf.get(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC,
+                    TEMPFILE_CODEC.NONE.lowerName());
+            if (TEMPFILE_CODEC_AUTO.equals(codec)) {
+                codec = TEMPFILE_CODEC.NONE.lowerName();
+            }
+        }
+        setTmpFileCompressionOnConf(pigContext, conf, codec);
+    }
+
+    /**
+     * Set the intermediate storage and codec of a job on its configuration.
+     * @param pigContext the context of the script
+     * @param conf the configuration of the job
+     * @param codec the codec of the intermediate files of the job
+     * @throws IOException if the intermediate storage does not support the
+     * codec
+     */
+    public static void setTmpFileCompressionOnConf(PigContext pigContext, Configuration conf,
+            String codec) throws IOException {
+        if (pigContext == null) {
+            return;
+        }
+        TEMPFILE_STORAGE storage = getTmpFileStorage(pigContext.getProperties());
         switch (storage) {
         case INTER:
             break;
@@ -397,7 +493,7 @@ public class Utils {
                     throw new IOException("mapred.output.compression.codec is not set");
                 }
             } else if(storage.ensureCodecSupported(codec)) {
-                // do nothing
+                conf.set(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, normalizeCodecName(codec));
             } else {
                 throw new IOException("Invalid temporary file compression codec [" + codec + "]. " +
                         "Expected compression codecs for " + storage.getStorageClass().getName() + " are " + storage.supportedCodecsToString() + ".");
@@ -411,7 +507,41 @@ public class Utils {
                         "Expected compression codecs for " + storage.getStorageClass().getName() + " are " + storage.supportedCodecsToString() + ".");
             }
             break;
+        case COLUMNAR:
+            conf.set(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_STORAGE, "columnar");
+            if ("".equals(codec)) {
+                // the columns are only encoded
+                conf.set(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "");
+            } else if (storage.ensureCodecSupported(codec)) {
+                conf.set(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, normalizeCodecName(codec));
+            } else {
+                throw new IOException("Invalid temporary file compression codec [" + codec + "]. " +
+                        "Expected compression codecs for " + storage.getStorageClass().getName() + " are " + storage.supportedCodecsToString() + ".");
+            }
+            break;
+        }
+    }
+
+    /**
+     * Get the class name of the hadoop codec of a temporary file compression
+     * codec.
+     * @param codec the name of the codec, such as gz or snappy, or the class
+     * name of a hadoop codec
+     * @return the class name, or null if the codec name is empty or none
+     * @throws IllegalArgumentException if the codec is unknown
+     */
+    public static String getTmpFileCodecClassName(String codec) {
+        if (codec == null || "".equals(codec)) {
+            return null;
+        }
+        TEMPFILE_CODEC tmpFileCodec = TEMPFILE_CODEC.find(codec);
+        if (tmpFileCodec != null) {
+            return tmpFileCodec.getHadoopCodecClassName();
+        }
+        if (codec.indexOf('.') == -1) {
+            throw new IllegalArgumentException("Unknown temporary file compression codec " + codec);
         }
+        return codec;
     }
 
     public static String getStringFromArray(String[] arr) {
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.BinaryExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Divide;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POAnd;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.junit.Test;
+
+public class TestVectorExpressions {
+
+    private static TupleBatch batch(Object[]... rows) {
+        TupleBatch batch = new TupleBatch(TupleBatch.DEFAULT_SIZE);
+        for (Object[] row : rows) {
+            batch.add(TupleFactory.getInstance().newTuple(Arrays.asList(row)));
+        }
+        return batch;
+    }
+
+    private static Object[] row(Object... fields) {
+        return fields;
+    }
+
+    private static void assertValues(ColumnVector v, int n, Object... expected) {
+        for (int i = 0; i < n; i++) {
+            assertEquals("row " + i, expected[i], v.get(i));
+        }
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        TupleBatch batch = batch(row(1, 2.5f), row(Integer.MAX_VALUE, null), row(null, 0.1f), row(-7, 3f));
+        ColumnExpression a = new ColumnExpression(0, DataType.INTEGER, 1024);
+        ColumnExpression b = new ColumnExpression(1, DataType.FLOAT, 1024);
+
+        VectorExpression plusOne = new ArithmeticExpression(ArithmeticExpression.Op.ADD,
+                DataType.INTEGER, a, new ConstantVectorExpression(1, DataType.INTEGER), null, 1024);
+        assertValues(plusOne.evaluate(batch), 4, 2, Integer.MIN_VALUE, null, -6);
+
+        VectorExpression div = new ArithmeticExpression(ArithmeticExpression.Op.DIVIDE,
+                DataType.INTEGER, a, new ConstantVectorExpression(2, DataType.INTEGER), null, 1024);
+        assertValues(div.evaluate(batch), 4, 0, Integer.MAX_VALUE / 2, null, -3);
+
+        VectorExpression byZero = new ArithmeticExpression(ArithmeticExpression.Op.DIVIDE,
+                DataType.INTEGER, a, new ConstantVectorExpression(0, DataType.INTEGER), null, 1024);
+        assertValues(byZero.evaluate(batch), 4, null, null, null, null);
+
+        VectorExpression times = new ArithmeticExpression(ArithmeticExpression.Op.MULTIPLY,
+                DataType.FLOAT, b, b, null, 1024);
+        assertValues(times.evaluate(batch), 4, 2.5f * 2.5f, null, 0.1f * 0.1f, 9f);
+    }
+
+    @Test
+    public void testComparisonAndLogic() throws Exception {
+        TupleBatch batch = batch(row(1.0, "a"), row(Double.NaN, "b"), row(null, "c"), row(-0.0, null));
+        ColumnExpression d = new ColumnExpression(0, DataType.DOUBLE, 1024);
+        ColumnExpression s = new ColumnExpression(1, DataType.CHARARRAY, 1024);
+
+        // NaN and -0.0 compare like Double.compareTo
+        VectorExpression gt = new ComparisonExpression(ComparisonExpression.Op.GT,
+                d, new ConstantVectorExpression(0.0, DataType.DOUBLE), 1024);
+        assertValues(gt.evaluate(batch), 4, true, true, null, false);
+
+        VectorExpression eq = new ComparisonExpression(ComparisonExpression.Op.EQ,
+                s, new ConstantVectorExpression("b", DataType.CHARARRAY), 1024);
+        assertValues(eq.evaluate(batch), 4, false, true, false, null);
+
+        VectorExpression and = new LogicalExpression(LogicalExpression.Op.AND, gt, eq, 1024);
+        assertValues(and.evaluate(batch), 4, false, true, false, false);
+        VectorExpression or = new LogicalExpression(LogicalExpression.Op.OR, gt, eq, 1024);
+        assertValues(or.evaluate(batch), 4, true, true, null, null);
+        VectorExpression not = new LogicalExpression(LogicalExpression.Op.NOT, or, null, 1024);
+        assertValues(not.evaluate(batch), 4, false, false, null, null);
+        VectorExpression isNull = new LogicalExpression(LogicalExpression.Op.IS_NULL, or, null, 1024);
+        assertValues(isNull.evaluate(batch), 4, false, false, true, true);
+    }
+
+    @Test
+    public void testTypeMismatch() throws Exception {
+        TupleBatch batch = batch(row(1), row(2L));
+        ColumnExpression typed = new ColumnExpression(0, DataType.INTEGER, 1024);
+        assertNull(typed.evaluate(batch));
+        VectorExpression plus = new ArithmeticExpression(ArithmeticExpression.Op.ADD,
+                DataType.INTEGER, typed, typed, null, 1024);
+        assertNull(plus.evaluate(batch));
+
+        // passed through as they are
+        ColumnExpression raw = new ColumnExpression(0, DataType.UNKNOWN, 1024);
+        assertValues(raw.evaluate(batch), 2, 1, 2L);
+
+        // a field that is not there is left to the row at a time plan
+        assertNull(new ColumnExpression(3, DataType.UNKNOWN, 1024).evaluate(batch));
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        TupleBatch batch = batch(row(1), row(2));
+        ColumnExpression a = new ColumnExpression(0, DataType.INTEGER, 1024);
+        ColumnVector v = a.evaluate(batch);
+        assertSame(v, a.evaluate(batch));
+        batch.clear();
+        batch.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object) 5)));
+        assertValues(a.evaluate(batch), 1, 5);
+    }
+
+    private static long nodeId = 0;
+
+    private static OperatorKey key() {
+        return new OperatorKey("TestVectorExpressions", nodeId++);
+    }
+
+    private static <T extends BinaryExpressionOperator> T binary(PhysicalPlan plan, T op,
+            ExpressionOperator lhs, ExpressionOperator rhs, byte type) throws Exception {
+        op.setLhs(lhs);
+        op.setRhs(rhs);
+        op.setResultType(type);
+        plan.add(op);
+        plan.connect(lhs, op);
+        plan.connect(rhs, op);
+        return op;
+    }
+
+    private static ExpressionOperator column(PhysicalPlan plan) throws Exception {
+        POProject project = new POProject(key(), -1, 0);
+        project.setResultType(DataType.INTEGER);
+        plan.add(project);
+        return project;
+    }
+
+    private static ExpressionOperator zero(PhysicalPlan plan) throws Exception {
+        ConstantExpression constant = new ConstantExpression(key());
+        constant.setValue(0);
+        constant.setResultType(DataType.INTEGER);
+        plan.add(constant);
+        return constant;
+    }
+
+    /**
+     * @return the plan of a > 0, or of a / 0 > 0
+     */
+    private static ExpressionOperator positive(PhysicalPlan plan, boolean divide) throws Exception {
+        ExpressionOperator value = column(plan);
+        if (divide) {
+            value = binary(plan, new Divide(key()), value, zero(plan), DataType.INTEGER);
+        }
+        GreaterThanExpr gt = binary(plan, new GreaterThanExpr(key()), value, zero(plan), DataType.BOOLEAN);
+        gt.setOperandType(DataType.INTEGER);
+        return gt;
+    }
+
+    @Test
+    public void testNoDivisionRightOfAndOr() throws Exception {
+        // the row at a time plan only divides the rows the left side does
+        // not decide, so the division may only be on the left
+        PhysicalPlan plan = new PhysicalPlan();
+        binary(plan, new POAnd(key()), positive(plan, true), positive(plan, false), DataType.BOOLEAN);
+        assertNotNull(VectorExpressionBuilder.buildPredicate(plan, 1024));
+
+        plan = new PhysicalPlan();
+        binary(plan, new POAnd(key()), positive(plan, false), positive(plan, true), DataType.BOOLEAN);
+        assertNull(VectorExpressionBuilder.buildPredicate(plan, 1024));
+    }
+}
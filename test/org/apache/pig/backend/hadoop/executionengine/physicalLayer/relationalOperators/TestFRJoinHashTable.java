@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+public class TestFRJoinHashTable {
+
+    private static final TupleFactory TF = TupleFactory.getInstance();
+
+    @Test
+    public void testValuesInOrder() throws Exception {
+        FRJoinHashTable table = new FRJoinHashTable();
+        Object[] keys = new Object[] { 1, 1L, "1", new DataByteArray("1"),
+                TF.newTuple(Arrays.asList((Object) 1, "a")) };
+        for (int rep = 0; rep < 3; rep++) {
+            for (Object key : keys) {
+                table.add(key, TF.newTuple(Arrays.asList((Object) rep, key)));
+            }
+        }
+        assertEquals(keys.length, table.size());
+        assertEquals(keys.length * 3, table.numValues());
+
+        FRJoinHashTable.Lookup lookup = table.newLookup();
+        for (Object key : keys) {
+            List<Tuple> values = lookup.get(key);
+            assertEquals(3, values.size());
+            for (int rep = 0; rep < 3; rep++) {
+                assertEquals(rep, values.get(rep).get(0));
+                assertEquals(key, values.get(rep).get(1));
+            }
+        }
+        assertNull(lookup.get(2));
+        assertNull(lookup.get(TF.newTuple(Arrays.asList((Object) 1, "b"))));
+    }
+
+    @Test
+    public void testManyKeysAndLookups() throws Exception {
+        FRJoinHashTable table = new FRJoinHashTable();
+        long empty = table.getMemorySize();
+        int numKeys = 50000;
+        for (int i = 0; i < 200000; i++) {
+            // values bigger than the first chunk make their own chunk
+            Object value = i == 1234 ? new String(new char[100000]) : "v" + i;
+            table.add("k" + (i % numKeys), TF.newTuple(Arrays.asList((Object) i, value)));
+        }
+        assertEquals(numKeys, table.size());
+        assertTrue(table.getMemorySize() > empty);
+
+        FRJoinHashTable.Lookup lookup = table.newLookup();
+        FRJoinHashTable.Lookup other = table.newLookup();
+        for (int k = 0; k < numKeys; k++) {
+            List<Tuple> values = lookup.get("k" + k);
+            assertEquals(4, values.size());
+            for (int j = 0; j < 4; j++) {
+                assertEquals(k + j * numKeys, values.get(j).get(0));
+            }
+            // repeated probes of one key share the deserialized tuples
+            assertSame(values, lookup.get("k" + k));
+            assertEquals(values, other.get("k" + k));
+        }
+        assertEquals(100000, ((String) lookup.get("k1234").get(0).get(1)).length());
+        assertNull(lookup.get("k" + numKeys));
+    }
+
+    @Test
+    public void testSupportedKeyTypes() {
+        assertTrue(FRJoinHashTable.supportsKeyTypes(
+                Arrays.asList(DataType.INTEGER, DataType.CHARARRAY, DataType.BYTEARRAY)));
+        assertFalse(FRJoinHashTable.supportsKeyTypes(
+                Arrays.asList(DataType.INTEGER, DataType.BIGDECIMAL)));
+        assertFalse(FRJoinHashTable.supportsKeyTypes(Arrays.asList(DataType.MAP)));
+        assertFalse(FRJoinHashTable.supportsKeyTypes(Arrays.asList(DataType.TUPLE)));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+public class TestFRJoinTableCache {
+
+    private static FRJoinHashTable newTable(int rows) throws Exception {
+        FRJoinHashTable table = new FRJoinHashTable();
+        for (int i = 0; i < rows; i++) {
+            table.add(i, TupleFactory.getInstance().newTuple(Arrays.asList((Object) i)));
+        }
+        return table;
+    }
+
+    @Test
+    public void testSharedUntilEvicted() throws Exception {
+        FRJoinHashTable a = newTable(10);
+        FRJoinHashTable b = newTable(10);
+        FRJoinTableCache cache = new FRJoinTableCache();
+        // room for one table only
+        cache.setMaxBytes(a.getMemorySize() + a.getMemorySize() / 2);
+
+        assertNull(cache.acquire("a"));
+        assertSame(a, cache.put("a", a));
+        // a second task in the same JVM gets the same table
+        assertSame(a, cache.acquire("a"));
+        cache.release("a");
+
+        // a is still used, so it can not make room for b
+        assertSame(b, cache.put("b", b));
+        assertEquals(2, cache.size());
+
+        cache.release("b");
+        cache.release("a");
+        assertEquals(1, cache.size());
+        assertNull(cache.acquire("b"));
+        assertSame(a, cache.acquire("a"));
+        cache.release("a");
+    }
+
+    @Test
+    public void testTooBigOrDisabled() throws Exception {
+        FRJoinHashTable a = newTable(1000);
+        FRJoinTableCache cache = new FRJoinTableCache();
+        cache.setMaxBytes(a.getMemorySize() - 1);
+        assertNull(cache.put("a", a));
+        assertEquals(0, cache.size());
+
+        cache.setMaxBytes(a.getMemorySize());
+        assertSame(a, cache.put("a", a));
+        // a table built concurrently for the same key is dropped
+        FRJoinHashTable other = newTable(1000);
+        assertSame(a, cache.put("a", other));
+        cache.release("a");
+        cache.release("a");
+
+        cache.setMaxBytes(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCachedBytes());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.FRJoinIndexPartitioner;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.FRJoinIndexStorage;
+import org.apache.pig.impl.io.NullableTuple;
+import org.junit.Test;
+
+public class TestMappedFRJoinTable {
+
+    private static final TupleFactory TF = TupleFactory.getInstance();
+
+    private static Tuple tuple(Object... fields) {
+        return TF.newTuple(Arrays.asList(fields));
+    }
+
+    @Test
+    public void testWriteAndProbe() throws Exception {
+        File file = File.createTempFile("frjoinindex", ".idx");
+        file.deleteOnExit();
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        FRJoinIndexStorage.IndexRecordWriter writer = new FRJoinIndexStorage.IndexRecordWriter(
+                fs.create(new Path(file.getAbsolutePath()), true));
+
+        int numKeys = 3000;
+        for (int k = 0; k < numKeys; k++) {
+            DataBag values = BagFactory.getInstance().newDefaultBag();
+            for (int j = 0; j <= k % 3; j++) {
+                values.add(tuple(k, "v" + j));
+            }
+            writer.write(null, tuple(tuple(k, "k" + k), values));
+        }
+        // null keys never match and are left out
+        DataBag nullValues = BagFactory.getInstance().newDefaultBag();
+        nullValues.add(tuple((Object) null));
+        writer.write(null, tuple(tuple(1, null), nullValues));
+        writer.close(null);
+
+        MappedFRJoinTable table = MappedFRJoinTable.open(file);
+        assertEquals(numKeys, table.size());
+        MappedFRJoinTable.Lookup lookup = table.newLookup();
+        for (int k = 0; k < numKeys; k++) {
+            List<Tuple> values = lookup.get(tuple(k, "k" + k));
+            assertEquals(k % 3 + 1, values.size());
+            for (int j = 0; j < values.size(); j++) {
+                assertEquals(tuple(k, "v" + j), values.get(j));
+            }
+            assertSame(values, lookup.get(tuple(k, "k" + k)));
+        }
+        assertNull(lookup.get(tuple(1, "k2")));
+        assertNull(lookup.get(tuple(1, null)));
+    }
+
+    @Test
+    public void testPartitionedParts() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        FRJoinIndexPartitioner partitioner = new FRJoinIndexPartitioner();
+        int numParts = 4;
+        File[] files = new File[numParts + 1];
+        FRJoinIndexStorage.IndexRecordWriter[] writers =
+                new FRJoinIndexStorage.IndexRecordWriter[files.length];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("frjoinindex", ".idx");
+            files[i].deleteOnExit();
+            writers[i] = new FRJoinIndexStorage.IndexRecordWriter(
+                    fs.create(new Path(files[i].getAbsolutePath()), true));
+        }
+
+        // the reducers of the index job get their keys from the partitioner,
+        // the last part gets none
+        int numKeys = 3000;
+        int[] keysPerPart = new int[numParts];
+        for (int k = 0; k < numKeys; k++) {
+            Tuple key = tuple(k, "k" + k);
+            int part = partitioner.getPartition(new NullableTuple(key), null, numParts);
+            keysPerPart[part]++;
+            DataBag values = BagFactory.getInstance().newDefaultBag();
+            values.add(tuple(k));
+            writers[part].write(null, tuple(key, values));
+        }
+        for (FRJoinIndexStorage.IndexRecordWriter writer : writers) {
+            writer.close(null);
+        }
+        for (int n : keysPerPart) {
+            assertTrue(n > numKeys / numParts / 2);
+        }
+
+        MappedFRJoinTable table = MappedFRJoinTable.open(Arrays.copyOf(files, numParts));
+        assertEquals(numKeys, table.size());
+        MappedFRJoinTable.Lookup lookup = table.newLookup();
+        for (int k = 0; k < numKeys; k++) {
+            List<Tuple> values = lookup.get(tuple(k, "k" + k));
+            assertEquals(1, values.size());
+            assertEquals(tuple(k), values.get(0));
+        }
+        assertNull(lookup.get(tuple(numKeys, "k" + numKeys)));
+
+        MappedFRJoinTable empty = MappedFRJoinTable.open(files[numParts]);
+        assertEquals(0, empty.size());
+        assertNull(empty.newLookup().get(tuple(0, "k0")));
+    }
+}
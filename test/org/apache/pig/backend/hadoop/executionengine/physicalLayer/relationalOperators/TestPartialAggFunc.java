@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.builtin.AVG;
+import org.apache.pig.builtin.COUNT;
+import org.apache.pig.builtin.DoubleMax;
+import org.apache.pig.builtin.DoubleMin;
+import org.apache.pig.builtin.DoubleSum;
+import org.apache.pig.builtin.LongMax;
+import org.apache.pig.builtin.LongMin;
+import org.apache.pig.builtin.LongSum;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.junit.Test;
+
+public class TestPartialAggFunc {
+
+    private static final TupleFactory TF = TupleFactory.getInstance();
+    private static final BagFactory BF = BagFactory.getInstance();
+
+    private static final String SCOPE = "TestPartialAggFunc";
+    private static long nodeId = 0;
+
+    private static PhysicalPlan intermediatePlan(Class<?> func, int column) throws Exception {
+        PhysicalPlan plan = new PhysicalPlan();
+        POProject project = new POProject(new OperatorKey(SCOPE, nodeId++), -1, column);
+        List<PhysicalOperator> inputs = new ArrayList<PhysicalOperator>();
+        inputs.add(project);
+        POUserFunc userFunc = new POUserFunc(new OperatorKey(SCOPE, nodeId++), -1, inputs,
+                new FuncSpec(func.getName()));
+        plan.add(project);
+        plan.add(userFunc);
+        plan.connect(project, userFunc);
+        return plan;
+    }
+
+    @Test
+    public void testOnlyBuiltinIntermediates() throws Exception {
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+        plans.add(intermediatePlan(LongSum.Intermediate.class, 1));
+        plans.add(intermediatePlan(COUNT.Intermediate.class, 2));
+        assertNotNull(PartialAggFunc.forPlans(plans));
+
+        // AVG keeps a (sum, count) tuple, it is not done in place
+        plans.add(intermediatePlan(AVG.Intermediate.class, 3));
+        assertNull(PartialAggFunc.forPlans(plans));
+
+        // the plan must project its own column of the value tuple
+        plans.clear();
+        plans.add(intermediatePlan(LongSum.Intermediate.class, 2));
+        assertNull(PartialAggFunc.forPlans(plans));
+    }
+
+    @Test
+    public void testSameResultsAsIntermediate() throws Exception {
+        Class<?>[] funcs = new Class<?>[] { COUNT.Intermediate.class,
+                LongSum.Intermediate.class, LongMin.Intermediate.class, LongMax.Intermediate.class,
+                DoubleSum.Intermediate.class, DoubleMin.Intermediate.class, DoubleMax.Intermediate.class };
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+        for (int i = 0; i < funcs.length; i++) {
+            plans.add(intermediatePlan(funcs[i], i + 1));
+        }
+        PartialAggFunc[] partialFuncs = PartialAggFunc.forPlans(plans);
+        assertNotNull(partialFuncs);
+
+        // key 0 only has null values, key 1 has some
+        Object[][] values = new Object[][] {
+                { null, null, null },
+                { 3L, null, -7L, 12L } };
+        PartialAggHashTable table = new PartialAggHashTable(0, funcs.length);
+        for (int key = 0; key < values.length; key++) {
+            int slot = table.addKey(key);
+            for (int i = 0; i < funcs.length; i++) {
+                DataBag bag = BF.newDefaultBag();
+                for (Object v : values[key]) {
+                    Tuple initial = TF.newTuple(initialValue(funcs[i], v));
+                    partialFuncs[i].accumulate(table, slot, i, initial);
+                    bag.add(initial);
+                }
+                EvalFunc<?> intermediate = (EvalFunc<?>) funcs[i].newInstance();
+                Tuple expected = (Tuple) intermediate.exec(TF.newTuple(bag));
+                assertEquals(funcs[i].getName() + " of key " + key,
+                        expected.get(0), partialFuncs[i].result(table, slot, i));
+            }
+        }
+    }
+
+    /**
+     * @return what the Initial function of func returns for a value
+     */
+    private static Object initialValue(Class<?> func, Object v) {
+        if (func == COUNT.Intermediate.class) {
+            return v == null ? 0L : 1L;
+        }
+        if (func.getName().startsWith(DoubleSum.class.getName())
+                || func.getName().startsWith(DoubleMin.class.getName())
+                || func.getName().startsWith(DoubleMax.class.getName())) {
+            return v == null ? null : ((Long) v).doubleValue();
+        }
+        return v;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+public class TestPartialAggHashTable {
+
+    private static final TupleFactory TF = TupleFactory.getInstance();
+
+    @Test
+    public void testMixedKeys() throws Exception {
+        PartialAggHashTable table = new PartialAggHashTable();
+        Object[] keys = new Object[] { 1, 1L, "1", null, TF.newTuple(1), 2 };
+        for (int rep = 0; rep < 3; rep++) {
+            for (Object key : keys) {
+                table.add(key, TF.newTuple(rep));
+            }
+        }
+        assertEquals(keys.length, table.size());
+        assertEquals(keys.length * 3, table.numValues());
+
+        for (Object key : keys) {
+            int slot = table.find(key);
+            assertTrue(slot >= 0);
+            assertEquals(key, table.keyAt(slot));
+            assertEquals(3, table.countAt(slot));
+            int expected = 0;
+            for (Tuple t : table.valuesAt(slot)) {
+                assertEquals(expected++, t.get(0));
+            }
+        }
+        assertEquals(-1, table.find(3));
+    }
+
+    @Test
+    public void testGrowRemoveAndMemory() throws Exception {
+        PartialAggHashTable table = new PartialAggHashTable();
+        long empty = table.getMemorySize();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            long key = (i * 7919L) % 5000;
+            table.add(key, TF.newTuple(i));
+            Integer c = expected.get(key);
+            expected.put(key, c == null ? 1 : c + 1);
+        }
+        assertEquals(expected.size(), table.size());
+        assertTrue(table.getMemorySize() > empty);
+
+        // remove every other key while walking the table
+        int removed = 0;
+        for (int slot = table.nextSlot(0); slot != -1; slot = table.nextSlot(slot + 1)) {
+            Long key = (Long) table.keyAt(slot);
+            assertEquals((int) expected.get(key), table.countAt(slot));
+            if (key % 2 == 0) {
+                table.removeAt(slot);
+                expected.remove(key);
+                removed++;
+            }
+        }
+        assertEquals(2500, removed);
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), table.countAt(table.find(e.getKey())));
+        }
+
+        // freed values are reused and accounted for
+        long before = table.getMemorySize();
+        for (int slot = table.nextSlot(0); slot != -1; slot = table.nextSlot(slot + 1)) {
+            table.removeAt(slot);
+        }
+        assertTrue(table.isEmpty());
+        assertEquals(0, table.numValues());
+        assertTrue(table.getMemorySize() < before);
+        table.clear();
+        table.add(1, TF.newTuple(1));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testStatesSurviveGrowAndRemove() throws Exception {
+        PartialAggHashTable table = new PartialAggHashTable(0, 2);
+        for (long key = 0; key < 10000; key++) {
+            int slot = table.addKey(key);
+            assertFalse(table.hasStateAt(slot, 0));
+            table.setStateAt(slot, 0, key * 2);
+            table.setStateAt(slot, 1, -key);
+            assertEquals(slot, table.addKey(key));
+        }
+        assertEquals(10000, table.size());
+        for (int slot = table.nextSlot(0); slot != -1; slot = table.nextSlot(slot + 1)) {
+            long key = (Long) table.keyAt(slot);
+            assertEquals(key * 2, table.stateAt(slot, 0));
+            assertEquals(-key, table.stateAt(slot, 1));
+            if (key % 2 == 0) {
+                table.removeAt(slot);
+            }
+        }
+        // a key added again starts without partial aggregates
+        int slot = table.addKey(0L);
+        assertFalse(table.hasStateAt(slot, 0));
+        assertFalse(table.hasStateAt(slot, 1));
+        assertEquals(5001, table.size());
+    }
+
+    @Test
+    public void testSampledMemorySize() throws Exception {
+        PartialAggHashTable table = new PartialAggHashTable();
+        Tuple value = TF.newTuple(2);
+        value.set(0, 1L);
+        value.set(1, "some string");
+        long valueSize = value.getMemorySize();
+        for (int i = 0; i < 100000; i++) {
+            table.add("key" + (i % 1000), value);
+        }
+        // all the values are the same size, so the sampled average is exact
+        long base = new PartialAggHashTable(1000).getMemorySize();
+        assertTrue(table.getMemorySize() > base + 100000 * valueSize);
+        assertTrue(table.getMemorySize() < 2 * (base + 100000 * (valueSize + 12)));
+    }
+}
@@ -30,6 +30,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.Tuple;
@@ -584,6 +585,144 @@ public class TestAccumulator {
         checkAccumulatorOff("C");
     }
 
+    /**
+     * In hybrid mode, only one of the distincts can use the secondary sort,
+     * the other one remembers the tuples of the earlier batches.
+     * @throws IOException
+     */
+    @Test
+    public void testAccumHybridUnsortedDistinct() throws IOException{
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID, "true");
+        try {
+            pigServer.registerQuery("A = load '" + INPUT_FILE + "' as (id:int, fruit);");
+            pigServer.registerQuery("B = group A by id;");
+            pigServer.registerQuery("C = foreach B " +
+                            "{ " +
+                            "  d1 = distinct A.fruit;" +
+                            "  d2 = distinct A;" +
+                            "  generate group, org.apache.pig.test.utils.AccumulatorBagCount(d1), " +
+                            "                  org.apache.pig.test.utils.AccumulatorBagCount(d2); " +
+                            "};");
+
+            HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+            expected.put(100, 1);
+            expected.put(200, 1);
+            expected.put(300, 2);
+            expected.put(400, 1);
+
+            Iterator<Tuple> iter = pigServer.openIterator("C");
+            int c = 0;
+            while(iter.hasNext()) {
+                Tuple t = iter.next();
+                assertEquals(expected.get((Integer)t.get(0)), (Integer)t.get(1));
+                assertEquals(expected.get((Integer)t.get(0)), (Integer)t.get(2));
+                c++;
+            }
+            assertEquals(4, c);
+        } finally {
+            pigServer.getPigContext().getProperties().remove(
+                    PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID);
+        }
+    }
+
+    @Test
+    public void testAccumHybridFilterAndLimit() throws IOException{
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID, "true");
+        try {
+            pigServer.registerQuery("A = load '" + INPUT_FILE + "' as (id:int, fruit);");
+            pigServer.registerQuery("B = group A by id;");
+            pigServer.registerQuery("C = foreach B " +
+                            "{ " +
+                            "  f = filter A by fruit != 'apple';" +
+                            "  l = limit A 2;" +
+                            "  generate group, org.apache.pig.test.utils.AccumulatorBagCount(f), " +
+                            "                  org.apache.pig.test.utils.AccumulatorBagCount(l); " +
+                            "};");
+
+            HashMap<Integer, Integer> expectedFiltered = new HashMap<Integer, Integer>();
+            expectedFiltered.put(100, 0);
+            expectedFiltered.put(200, 1);
+            expectedFiltered.put(300, 3);
+            expectedFiltered.put(400, 0);
+            HashMap<Integer, Integer> expectedLimited = new HashMap<Integer, Integer>();
+            expectedLimited.put(100, 2);
+            expectedLimited.put(200, 1);
+            expectedLimited.put(300, 2);
+            expectedLimited.put(400, 1);
+
+            Iterator<Tuple> iter = pigServer.openIterator("C");
+            while(iter.hasNext()) {
+                Tuple t = iter.next();
+                assertEquals(expectedFiltered.get((Integer)t.get(0)), (Integer)t.get(1));
+                assertEquals(expectedLimited.get((Integer)t.get(0)), (Integer)t.get(2));
+            }
+        } finally {
+            pigServer.getPigContext().getProperties().remove(
+                    PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID);
+        }
+    }
+
+    @Test
+    public void testAccumHybrid() throws IOException{
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID, "true");
+        try {
+            pigServer.registerQuery("A = load '" + INPUT_FILE + "' as (id:int, fruit);");
+            pigServer.registerQuery("B = group A by id;");
+            // SIZE is no accumulator, so it gets the whole bag
+            pigServer.registerQuery("C = foreach B generate group, " +
+                            "org.apache.pig.test.utils.AccumulatorBagCount(A), SIZE(A);");
+
+            HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+            expected.put(100, 2);
+            expected.put(200, 1);
+            expected.put(300, 3);
+            expected.put(400, 1);
+
+            Iterator<Tuple> iter = pigServer.openIterator("C");
+            int c = 0;
+            while(iter.hasNext()) {
+                Tuple t = iter.next();
+                assertEquals(expected.get((Integer)t.get(0)), (Integer)t.get(1));
+                assertEquals(expected.get((Integer)t.get(0)).longValue(), t.get(2));
+                c++;
+            }
+            assertEquals(4, c);
+        } finally {
+            pigServer.getPigContext().getProperties().remove(
+                    PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID);
+        }
+    }
+
+    @Test
+    public void testAccumHybridInnerCogroup() throws IOException, ParserException{
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID, "true");
+        try {
+            pigServer.registerQuery("A = load '" + INPUT_FILE2 + "' as (id:int, fruit);");
+            pigServer.registerQuery("B = load '" + INPUT_FILE + "' as (id:int, fruit);");
+            pigServer.registerQuery("C = cogroup A by id inner, B by id;");
+            pigServer.registerQuery("D = foreach C generate group, " +
+                            "org.apache.pig.test.utils.AccumulatorBagCount(A), " +
+                            "org.apache.pig.test.utils.AccumulatorBagCount(B);");
+
+            Iterator<Tuple> iter = pigServer.openIterator("D");
+            List<Tuple> expectedRes =
+                Util.getTuplesFromConstantTupleStrings(
+                        new String[] {
+                                "(100,2,2)",
+                                "(200,2,1)",
+                                "(300,1,3)"
+                        });
+            Util.checkQueryOutputsAfterSort(iter, expectedRes);
+        } finally {
+            pigServer.getPigContext().getProperties().remove(
+                    PigConfiguration.PIG_EXEC_ACCUMULATOR_HYBRID);
+        }
+    }
+
     @Test
     public void testAccumulatorOff() throws IOException{
         pigServer.getPigContext().getProperties().setProperty("opt.accumulator", "false");
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POAlgebraicPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.NullableBytesWritable;
+import org.apache.pig.impl.io.NullableTuple;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestAlgebraicPackage {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private PigContext pc;
+
+    @Before
+    public void setUp() throws Exception {
+        PigServer ps = new PigServer(ExecType.LOCAL);
+        pc = ps.getPigContext();
+        pc.connect();
+        pc.getProperties().setProperty(PigConfiguration.PIG_EXEC_RAW_ALGEBRAIC, "true");
+    }
+
+    private MapReduceOper compile(String query) throws Exception {
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        assertEquals(1, mrp.size());
+        return mrp.getRoots().get(0);
+    }
+
+    @Test
+    public void testPackageIsFused() throws Exception {
+        MapReduceOper mro = compile("l = load 'x' as (a, b:int);" +
+                "g = group l by a;" +
+                "f = foreach g generate group, COUNT(l), MAX(l.b);" +
+                "store f into 'y';");
+        assertTrue(mro.reducePlan.getRoots().get(0) instanceof POAlgebraicPackage);
+        assertEquals(2, mro.reducePlan.size());
+        assertTrue(mro.reducePlan.getLeaves().get(0) instanceof POStore);
+        // the combine plan keeps its package and foreach
+        assertTrue(mro.combinePlan.getRoots().get(0) instanceof POCombinerPackage);
+    }
+
+    @Test
+    public void testPackageIsNotFused() throws Exception {
+        // a Final function on the result of an expression
+        MapReduceOper mro = compile("l = load 'x' as (a, b:int);" +
+                "g = group l by a;" +
+                "f = foreach g generate group, COUNT(l) + 1;" +
+                "store f into 'y';");
+        assertFalse(mro.reducePlan.getRoots().get(0) instanceof POAlgebraicPackage);
+
+        pc.getProperties().setProperty(PigConfiguration.PIG_EXEC_RAW_ALGEBRAIC, "false");
+        mro = compile("l = load 'x' as (a, b:int);" +
+                "g = group l by a;" +
+                "f = foreach g generate group, COUNT(l);" +
+                "store f into 'y';");
+        assertFalse(mro.reducePlan.getRoots().get(0) instanceof POAlgebraicPackage);
+        assertTrue(mro.reducePlan.getSuccessors(mro.reducePlan.getRoots().get(0)).get(0)
+                instanceof POForEach);
+    }
+
+    @Test
+    public void testRawValues() throws Exception {
+        MapReduceOper mro = compile("l = load 'x' as (a, b:int, c:double);" +
+                "g = group l by a;" +
+                "f = foreach g generate group, COUNT(l), MAX(l.b), AVG(l.c);" +
+                "store f into 'y';");
+        POAlgebraicPackage pkg = (POAlgebraicPackage) mro.reducePlan.getRoots().get(0);
+
+        List<Tuple> values = new ArrayList<Tuple>();
+        values.add(value(3L, 7, 1.5, 3L));
+        values.add(value(2L, null, null, 2L));
+        values.add(value(500L, -100000, 1000.25, 500L));
+        values.add(value(1L, 70000, 2.0, 1L));
+
+        Tuple res = run(pkg, values);
+        assertEquals(new DataByteArray("k"), res.get(0));
+        assertEquals(506L, res.get(1));
+        assertEquals(70000, res.get(2));
+        assertEquals((1.5 + 1000.25 + 2.0) / 506, (Double) res.get(3), 1e-9);
+
+        // all nulls
+        values.clear();
+        values.add(value(1L, null, null, 1L));
+        values.add(value(1L, null, null, 1L));
+        res = run(pkg, values);
+        assertEquals(2L, res.get(1));
+        assertNull(res.get(2));
+        assertNull(res.get(3));
+    }
+
+    private static Tuple value(long count, Integer max, Double sum, long avgCount)
+            throws Exception {
+        Tuple avg = tf.newTuple(2);
+        avg.set(0, sum);
+        avg.set(1, avgCount);
+        Tuple t = tf.newTuple(3);
+        t.set(0, tf.newTuple(count));
+        t.set(1, tf.newTuple(max));
+        t.set(2, avg);
+        return t;
+    }
+
+    /**
+     * Run the package on values read the way hadoop reads them, with the
+     * same value object and buffer for all of them.
+     */
+    private static Tuple run(POAlgebraicPackage pkg, List<Tuple> values) throws Exception {
+        final List<byte[]> serialized = new ArrayList<byte[]>();
+        for (Tuple t : values) {
+            DataOutputBuffer out = new DataOutputBuffer();
+            new NullableTuple(t).write(out);
+            serialized.add(Arrays.copyOf(out.getData(), out.getLength()));
+        }
+        final NullableTuple reused = new NullableTuple();
+        final DataInputBuffer in = new DataInputBuffer();
+        Iterator<NullableTuple> it = new Iterator<NullableTuple>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < serialized.size();
+            }
+
+            @Override
+            public NullableTuple next() {
+                byte[] b = serialized.get(i++);
+                in.reset(b, b.length);
+                try {
+                    reused.readFields(in);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return reused;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        pkg.attachInput(new NullableBytesWritable(new DataByteArray("k")), it);
+        Result r = pkg.getNextTuple();
+        assertEquals(POStatus.STATUS_OK, r.returnStatus);
+        return (Tuple) r.result;
+    }
+}
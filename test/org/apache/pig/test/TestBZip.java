@@ -21,17 +21,22 @@ import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.Random;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.Assert;
 
@@ -42,6 +47,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.data.DataType;
@@ -49,6 +55,7 @@ import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.tools.bzip2r.CBZip2InputStream;
 import org.apache.tools.bzip2r.CBZip2OutputStream;
+import org.apache.tools.bzip2r.ParallelCBZip2InputStream;
 import org.junit.AfterClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -358,6 +365,88 @@ public class TestBZip {
         tmp.delete();
     }
     
+    /**
+     * Tests that decoding the blocks of a BZip file in parallel gives the same
+     * data as decoding them one after the other.
+     */
+    @Test
+    public void testParallelDecode() throws Exception {
+        File tmp = File.createTempFile("junit", ".bz2");
+        tmp.deleteOnExit();
+        // blocks of 100KB, which end anywhere in a byte
+        CBZip2OutputStream cos = new CBZip2OutputStream(new FileOutputStream(tmp), 1);
+        Random r = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            cos.write((i + "\t" + r.nextInt(1000) + "\t" + r.nextLong() + "\n").getBytes());
+        }
+        cos.close();
+
+        FileSystem fs = FileSystem.getLocal(new Configuration(false));
+        Path path = new Path(tmp.getAbsolutePath());
+        byte[] expected = readAll(new CBZip2InputStream(fs.open(path), -1, tmp.length()));
+        assertTrue(expected.length > 1000000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelCBZip2InputStream pis = new ParallelCBZip2InputStream(
+                    fs.open(path), tmp.length(), executor, 8);
+            assertArrayEquals(expected, readAll(pis));
+            assertEquals(0, pis.getPos());
+            pis.close();
+
+            // a split ending in the file reads past its end only to end its
+            // last block
+            FSDataInputStream in = fs.open(path);
+            pis = new ParallelCBZip2InputStream(in, tmp.length() / 2, executor, 8);
+            int c;
+            long read = 0;
+            while (pis.getPos() == 0 && (c = pis.read()) != -1) {
+                read++;
+            }
+            assertEquals(tmp.length() / 2 + 1, pis.getPos());
+            assertTrue(read > expected.length / 3 && read < expected.length);
+            pis.close();
+        } finally {
+            executor.shutdownNow();
+            tmp.delete();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests the block boundaries of the tests below with the blocks decoded
+     * in parallel.
+     */
+    @Test
+    public void testParallelDecodeSplits() throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PigConfiguration.PIG_BZIP2_DECODE_THREADS, "4");
+        String[] inputFileNames = new String[] {
+                "test/org/apache/pig/test/data/bzipdir1.bz2",
+                "test/org/apache/pig/test/data/blockEndingInCR.txt.bz2",
+                "test/org/apache/pig/test/data/blockHeaderEndsAt136500.txt.bz2" };
+        Long[] expectedCounts = new Long[] { 74999L, 82094L, 1041046L };
+        int[] splitSizes = new int[] { 136500, 136498, 136500 };
+        for (int i = 0; i < inputFileNames.length; i++) {
+            try {
+                Util.copyFromLocalToCluster(cluster, inputFileNames[i], inputFileNames[i]);
+                testCount(inputFileNames[i], expectedCounts[i], splitSizes[i], "PigStorage()", props);
+            } finally {
+                Util.deleteFile(cluster, inputFileNames[i]);
+            }
+        }
+    }
+
     /**
      * Tests the case where a bzip block ends exactly at the end of the {@link InputSplit}
      * with the block header ending a few bits into the last byte of current
@@ -434,6 +523,11 @@ public class TestBZip {
     
     private void testCount(String inputFileName, Long expectedCount, 
             int splitSize, String loadFuncSpec) throws IOException {
+        testCount(inputFileName, expectedCount, splitSize, loadFuncSpec, new Properties());
+    }
+
+    private void testCount(String inputFileName, Long expectedCount,
+            int splitSize, String loadFuncSpec, Properties extraProps) throws IOException {
         String outputFile = "/tmp/bz-output";
         // simple load-store script to verify that the bzip input is getting
         // split
@@ -447,6 +541,7 @@ public class TestBZip {
         for (Entry<Object, Object> entry : cluster.getProperties().entrySet()) {
             props.put(entry.getKey(), entry.getValue());
         }
+        props.putAll(extraProps);
         props.setProperty("mapred.max.split.size", Integer.toString(splitSize));
         PigContext pigContext = new PigContext(ExecType.MAPREDUCE, props);
         PigServer pig = new PigServer(pigContext);
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.apache.pig.builtin.mock.Storage.resetData;
+import static org.apache.pig.builtin.mock.Storage.tuple;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.codegen.GeneratedExpression;
+import org.apache.pig.builtin.mock.Storage.Data;
+import org.apache.pig.data.Tuple;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestExpressionCodegen {
+
+    private static final int ROWS = 500;
+
+    private PigServer pigServer;
+    private Data data;
+    private int runs = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        pigServer = new PigServer(ExecType.LOCAL);
+        // make sure the queries run as map reduce jobs
+        pigServer.getPigContext().getProperties().setProperty(PigConfiguration.OPT_FETCH, "false");
+        data = resetData(pigServer);
+        List<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(tuple(i,
+                    i % 7 == 0 ? null : Long.valueOf(i * 3L),
+                    i % 5 == 0 ? null : "n\"" + (i % 13),
+                    i % 11 == 0 ? null : Double.valueOf(i / 4.0)));
+        }
+        data.set("in", rows);
+    }
+
+    /**
+     * Run query, which reads A and defines B, and return the stored B.
+     */
+    private List<Tuple> run(String query, boolean codegen, boolean schemaTuple) throws Exception {
+        Properties props = pigServer.getPigContext().getProperties();
+        props.setProperty(PigConfiguration.PIG_EXEC_CODEGEN, String.valueOf(codegen));
+        props.setProperty(PigConfiguration.SHOULD_USE_SCHEMA_TUPLE, String.valueOf(schemaTuple));
+        String out = "out" + runs++;
+        pigServer.registerQuery("A = LOAD 'in' USING mock.Storage() AS (a:int, b:long, c:chararray, d:double);");
+        pigServer.registerQuery(query);
+        pigServer.registerQuery("STORE B INTO '" + out + "' USING mock.Storage();");
+        return data.get(out);
+    }
+
+    private List<Tuple> checkSameResults(String query) throws Exception {
+        int instances = GeneratedExpression.getNumInstances();
+        List<Tuple> expected = run(query, false, false);
+        assertEquals(instances, GeneratedExpression.getNumInstances());
+        assertEquals(expected, run(query, true, false));
+        // the operators ran the generated classes, not their plans
+        assertTrue(GeneratedExpression.getNumInstances() > instances);
+        instances = GeneratedExpression.getNumInstances();
+        // fields of SchemaTuples are read with the typed getters
+        assertEquals(expected, run(query, true, true));
+        assertTrue(GeneratedExpression.getNumInstances() > instances);
+        return expected;
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        List<Tuple> out = checkSameResults("B = FILTER A BY (a > 100 OR c == 'n\"5') "
+                + "AND NOT (d IS NULL) AND b - 6L < 1000L;");
+        assertTrue(out.size() > 0 && out.size() < ROWS);
+    }
+
+    @Test
+    public void testForEach() throws Exception {
+        List<Tuple> out = checkSameResults("B = FOREACH A GENERATE a, a + 1, (a - 5) == 0, "
+                + "100 / (a - 5), b * 2L, d / 2.0, c, c IS NULL, 'x', SIZE(c);");
+        assertEquals(ROWS, out.size());
+        // division by zero gives null
+        assertEquals(null, out.get(5).get(3));
+    }
+
+    @Test
+    public void testFilterAfterForEach() throws Exception {
+        List<Tuple> out = checkSameResults("F = FOREACH A GENERATE a * 3 AS a3, d - 1.5 AS d1, c; "
+                + "B = FILTER F BY d1 > 10.0 OR a3 <= 30;");
+        assertTrue(out.size() > 0 && out.size() < ROWS);
+    }
+
+    @Test
+    public void testReduceSide() throws Exception {
+        List<Tuple> out = checkSameResults("G = GROUP A BY a % 10; "
+                + "C = FOREACH G GENERATE group, COUNT(A) AS n; "
+                + "B = FILTER C BY group > 2 AND n >= 0L;");
+        assertEquals(7, out.size());
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.pig.EvalFunc;
 import org.apache.pig.ExecType;
 import org.apache.pig.FuncSpec;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
@@ -206,6 +207,37 @@ public class TestFRJoin {
         assertTrue(TestHelper.compareBags(dbfrj, dbshj));
       }
 
+    @Test
+    public void testIndexedFRJoin() throws IOException {
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_JOIN_REPLICATED_INDEX, "true");
+        try {
+            pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' as (x:int,y:int);");
+            pigServer.registerQuery("B = LOAD '" + INPUT_FILE2 + "' as (x:int,y:int);");
+            String[] joins = new String[] { "join A by (x, y), B by (x, y)",
+                    "join A by x left outer, B by x" };
+            for (String join : joins) {
+                DataBag dbfrj = BagFactory.getInstance().newDefaultBag();
+                DataBag dbshj = BagFactory.getInstance().newDefaultBag();
+                pigServer.registerQuery("C = " + join + " using 'replicated';");
+                Iterator<Tuple> iter = pigServer.openIterator("C");
+                while (iter.hasNext()) {
+                    dbfrj.add(iter.next());
+                }
+                pigServer.registerQuery("C = " + join + ";");
+                iter = pigServer.openIterator("C");
+                while (iter.hasNext()) {
+                    dbshj.add(iter.next());
+                }
+                assertEquals(dbshj.size(), dbfrj.size());
+                assertTrue(TestHelper.compareBags(dbfrj, dbshj));
+            }
+        } finally {
+            pigServer.getPigContext().getProperties().remove(
+                    PigConfiguration.PIG_JOIN_REPLICATED_INDEX);
+        }
+    }
+
     @Test
     public void testUDFFRJ() throws IOException {
         pigServer.registerQuery("A = LOAD '" + INPUT_FILE + "' as (x:chararray,y:int);");
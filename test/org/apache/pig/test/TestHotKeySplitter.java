@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.apache.pig.builtin.mock.Storage.resetData;
+import static org.apache.pig.builtin.mock.Storage.tuple;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.HotKeyPartitioner;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.builtin.mock.Storage.Data;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.SpaceSavingSketch;
+import org.apache.pig.impl.io.NullableText;
+import org.apache.pig.tools.pigstats.JobStats;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHotKeySplitter {
+
+    private PigContext pc;
+
+    @Before
+    public void setUp() throws Exception {
+        PigServer ps = new PigServer(ExecType.LOCAL);
+        pc = ps.getPigContext();
+        pc.connect();
+        pc.getProperties().setProperty(PigConfiguration.PIG_GROUPBY_HOTKEYS, "true");
+    }
+
+    @Test
+    public void testAlgebraicGroupIsSplit() throws Exception {
+        String query = "l = load 'x' as (a, b:int);" +
+                "g = group l by a parallel 4;" +
+                "f = foreach g generate group, COUNT(l), SUM(l.b);" +
+                "store f into 'y';";
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        assertEquals(2, mrp.size());
+
+        MapReduceOper partial = mrp.getRoots().get(0);
+        assertTrue(partial.isSplitHotKeys());
+        assertFalse(partial.combinePlan.isEmpty());
+        assertTrue(partial.reducePlan.getRoots().get(0) instanceof POCombinerPackage);
+        POStore partialStore = (POStore) partial.reducePlan.getLeaves().get(0);
+        assertTrue(partialStore.isTmpStore());
+
+        MapReduceOper merge = mrp.getLeaves().get(0);
+        assertFalse(merge.isSplitHotKeys());
+        assertEquals(4, merge.getRequestedParallelism());
+        assertFalse(merge.combinePlan.isEmpty());
+        POLoad load = (POLoad) merge.mapPlan.getRoots().get(0);
+        assertEquals(partialStore.getSFile().getFileName(), load.getLFile().getFileName());
+        POStore store = (POStore) merge.reducePlan.getLeaves().get(0);
+        assertTrue(store.getSFile().getFileName().endsWith("y"));
+    }
+
+    @Test
+    public void testNotAlgebraicGroupIsNotSplit() throws Exception {
+        String query = "l = load 'x' as (a, b:int);" +
+                "g = group l by a parallel 4;" +
+                "f = foreach g generate group, COUNT(l), l.b;" +
+                "store f into 'y';";
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        assertEquals(1, mrp.size());
+        assertFalse(mrp.getRoots().get(0).isSplitHotKeys());
+    }
+
+    @Test
+    public void testHotKeySplitOff() throws Exception {
+        pc.getProperties().setProperty(PigConfiguration.PIG_GROUPBY_HOTKEYS, "false");
+        String query = "l = load 'x' as (a, b:int);" +
+                "g = group l by a parallel 4;" +
+                "f = foreach g generate group, COUNT(l);" +
+                "store f into 'y';";
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        assertEquals(1, mrp.size());
+    }
+
+    @Test
+    public void testPartitionerSpreadsHotKeys() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setFloat(PigConfiguration.PIG_GROUPBY_HOTKEYS_FRACTION, 0.05f);
+        conf.setInt(PigConfiguration.PIG_GROUPBY_HOTKEYS_FANOUT, 4);
+        HotKeyPartitioner partitioner = new HotKeyPartitioner();
+        partitioner.setConf(conf);
+
+        int numPartitions = 10;
+        Random r = new Random(7);
+        Set<Integer> hotPartitions = new HashSet<Integer>();
+        NullableText hot = new NullableText("hot");
+        int hotHash = (hot.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        for (int i = 0; i < 20000; i++) {
+            NullableText key = r.nextInt(3) == 0 ? new NullableText("hot")
+                    : new NullableText("key" + r.nextInt(5000));
+            int partition = partitioner.getPartition(key, null, numPartitions);
+            if (key.equals(hot)) {
+                hotPartitions.add(partition);
+            } else {
+                // cold keys stay in their hash partition
+                assertEquals((key.hashCode() & Integer.MAX_VALUE) % numPartitions, partition);
+            }
+        }
+        assertEquals(4, hotPartitions.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(hotPartitions.contains((hotHash + i) % numPartitions));
+        }
+    }
+
+    @Test
+    public void testSpaceSavingSketch() throws Exception {
+        SpaceSavingSketch<Integer> sketch = new SpaceSavingSketch<Integer>(50);
+        int[] counts = new int[10000];
+        Random r = new Random(11);
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            // every fourth item is one of three heavy hitters
+            int item = r.nextInt(4) == 0 ? r.nextInt(3) : 3 + r.nextInt(counts.length - 3);
+            counts[item]++;
+            sketch.add(item);
+        }
+        assertEquals(n, sketch.getCount());
+        for (int item = 0; item < counts.length; item++) {
+            assertTrue(sketch.getLowerBound(item) <= counts[item]);
+            assertTrue(sketch.getUpperBound(item) >= counts[item]);
+        }
+        for (int item = 0; item < 3; item++) {
+            assertTrue(sketch.getUpperBound(item) - sketch.getLowerBound(item) <= n / 50);
+        }
+    }
+
+    @Test
+    public void testSkewedGroupResults() throws Exception {
+        PigServer pigServer = new PigServer(ExecType.LOCAL);
+        Data data = resetData(pigServer);
+        List<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 5000; i++) {
+            // half of the rows have the same key
+            rows.add(tuple(i % 2 == 0 ? "hot" : "key" + (i % 301), i % 2 == 0 ? i : null));
+        }
+        data.set("in", rows);
+
+        String algebraic = "f = foreach g generate group, COUNT(l), SUM(l.b), MAX(l.b);";
+        String notAlgebraic = "f = foreach g generate group, COUNT(l), SIZE(l);";
+        List<Tuple> expected = group(pigServer, data, algebraic, false, 1);
+        assertEquals(expected, group(pigServer, data, algebraic, true, 2));
+        expected = group(pigServer, data, notAlgebraic, false, 1);
+        assertEquals(expected, group(pigServer, data, notAlgebraic, true, 1));
+    }
+
+    /**
+     * Group the rows of "in" by their first field, run aggregates on the
+     * groups, and return the sorted results.
+     */
+    private List<Tuple> group(PigServer pigServer, Data data, String aggregates,
+            boolean hotKeys, int numJobs) throws Exception {
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_GROUPBY_HOTKEYS, String.valueOf(hotKeys));
+        String out = "out" + hotKeys + aggregates.hashCode();
+        pigServer.registerQuery("l = load 'in' using mock.Storage() as (a:chararray, b:int);");
+        pigServer.registerQuery("g = group l by a parallel 4;");
+        pigServer.registerQuery(aggregates);
+        ExecJob job = pigServer.store("f", out, "mock.Storage()");
+
+        int jobs = 0;
+        for (Iterator<JobStats> it = job.getStatistics().getJobGraph().iterator(); it.hasNext(); it.next()) {
+            jobs++;
+        }
+        assertEquals(numJobs, jobs);
+
+        List<Tuple> result = new ArrayList<Tuple>(data.get(out));
+        assertEquals(302, result.size());
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.hadoop.HDataType;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigNormalizedKeyComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTextRawComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTupleSortComparator;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.NullableNormalizedKey;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class TestNormalizedKey {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static final String[] STRINGS = { "", "a", "a\u0000", "a\u0001", "ab",
+        "\u00e9t\u00e9", "\ue000", "\ud83d\ude00", "\uffff", "zz" };
+
+    private static final byte[] TYPES = { DataType.BOOLEAN, DataType.INTEGER,
+        DataType.LONG, DataType.FLOAT, DataType.DOUBLE, DataType.DATETIME,
+        DataType.CHARARRAY, DataType.BIGINTEGER, DataType.BIGDECIMAL };
+
+    private static JobConf jobConf(boolean[] sortOrder) throws IOException {
+        JobConf conf = new JobConf();
+        conf.set("pig.sortOrder", ObjectSerializer.serialize(sortOrder));
+        return conf;
+    }
+
+    private static Object randomValue(Random r, byte type) {
+        if (r.nextInt(10) == 0) {
+            return null;
+        }
+        switch (type) {
+        case DataType.BOOLEAN:
+            return r.nextBoolean();
+        case DataType.INTEGER:
+            return r.nextInt(5) == 0 ? Integer.MIN_VALUE : r.nextInt(200) - 100;
+        case DataType.LONG:
+            return r.nextInt(5) == 0 ? Long.MAX_VALUE : r.nextLong();
+        case DataType.FLOAT:
+            return r.nextInt(5) == 0 ? Float.NaN : (float) r.nextGaussian();
+        case DataType.DOUBLE:
+            return r.nextInt(5) == 0 ? -0.0 : r.nextGaussian() * 1e10;
+        case DataType.DATETIME:
+            return new DateTime(r.nextLong() >> 20, DateTimeZone.UTC);
+        case DataType.CHARARRAY:
+            return STRINGS[r.nextInt(STRINGS.length)];
+        case DataType.BIGINTEGER:
+            return BigInteger.valueOf(r.nextLong()).multiply(BigInteger.valueOf(r.nextInt(1000) - 500));
+        default:
+            // the same numbers with different scales
+            return new BigDecimal(BigInteger.valueOf(r.nextInt(2000) - 1000), r.nextInt(3))
+                    .setScale(r.nextInt(3) + 2);
+        }
+    }
+
+    private static byte[] serialize(PigNullableWritable key) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        key.write(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    private static int compare(RawComparator<?> comp, byte[] b1, byte[] b2) {
+        return comp.compare(b1, 0, b1.length, b2, 0, b2.length);
+    }
+
+    private static void checkOrder(List<PigNullableWritable> keys, RawComparator<Object> expected,
+            boolean[] sortOrder) throws IOException {
+        PigNormalizedKeyComparator comp = new PigNormalizedKeyComparator();
+        comp.setConf(jobConf(sortOrder));
+        List<byte[]> normalized = new ArrayList<byte[]>();
+        for (PigNullableWritable key : keys) {
+            byte[] b = serialize(new NullableNormalizedKey(key, sortOrder));
+            normalized.add(b);
+
+            NullableNormalizedKey read = new NullableNormalizedKey();
+            read.readFields(new DataInputStream(new ByteArrayInputStream(b)));
+            assertEquals(0, key.compareTo(read.getKey()));
+            assertEquals(key.getIndex(), read.getIndex());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            for (int j = 0; j < keys.size(); j++) {
+                int rc = Integer.signum(expected.compare(keys.get(i), keys.get(j)));
+                assertEquals(rc, Integer.signum(compare(comp, normalized.get(i), normalized.get(j))));
+                assertEquals(rc, Integer.signum(comp.compare(keys.get(i), keys.get(j))));
+            }
+        }
+    }
+
+    @Test
+    public void testTupleKeys() throws Exception {
+        Random r = new Random(17);
+        for (int round = 0; round < TYPES.length; round++) {
+            byte[] types = { TYPES[round], TYPES[r.nextInt(TYPES.length)],
+                    TYPES[r.nextInt(TYPES.length)] };
+            boolean[] sortOrder = { r.nextBoolean(), r.nextBoolean(), r.nextBoolean() };
+            List<PigNullableWritable> keys = new ArrayList<PigNullableWritable>();
+            for (int i = 0; i < 100; i++) {
+                Tuple t = tf.newTuple(types.length);
+                for (int f = 0; f < types.length; f++) {
+                    t.set(f, randomValue(r, types[f]));
+                }
+                PigNullableWritable key = HDataType.getWritableComparableTypes(t, DataType.TUPLE);
+                key.setIndex((byte) r.nextInt(2));
+                keys.add(key);
+            }
+            PigTupleSortComparator expected = new PigTupleSortComparator();
+            expected.setConf(jobConf(sortOrder));
+            checkOrder(keys, expected, sortOrder);
+        }
+    }
+
+    @Test
+    public void testChararrayKeys() throws Exception {
+        Random r = new Random(5);
+        for (boolean asc : new boolean[] { true, false }) {
+            List<PigNullableWritable> keys = new ArrayList<PigNullableWritable>();
+            for (int i = 0; i < 100; i++) {
+                keys.add(HDataType.getWritableComparableTypes(
+                        randomValue(r, DataType.CHARARRAY), DataType.CHARARRAY));
+            }
+            boolean[] sortOrder = { asc };
+            PigTextRawComparator expected = new PigTextRawComparator();
+            expected.setConf(jobConf(sortOrder));
+            checkOrder(keys, expected, sortOrder);
+        }
+    }
+
+    @Test
+    public void testNullTupleKey() throws Exception {
+        boolean[] sortOrder = { false, true };
+        PigNullableWritable nullKey = HDataType.getWritableComparableTypes(null, DataType.TUPLE);
+        PigNullableWritable key = HDataType.getWritableComparableTypes(
+                tf.newTuple(2), DataType.TUPLE);
+        PigNormalizedKeyComparator comp = new PigNormalizedKeyComparator();
+        comp.setConf(jobConf(sortOrder));
+        // a null key sorts first unless the whole key is sorted descending
+        assertEquals(-1, Integer.signum(compare(comp,
+                serialize(new NullableNormalizedKey(nullKey, sortOrder)),
+                serialize(new NullableNormalizedKey(key, sortOrder)))));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.hadoop.HDataType;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTupleSortComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.DiscreteProbabilitySampleGenerator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.NormalizedQuantiles;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.NullableNormalizedKey;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.junit.Test;
+
+public class TestNormalizedQuantiles {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static final boolean[] SORT_ORDER = { true, false };
+
+    /**
+     * @return a (chararray, int) key, with few distinct strings so that the
+     * ints decide many comparisons
+     */
+    private static PigNullableWritable randomKey(Random r) throws Exception {
+        Tuple t = tf.newTuple(2);
+        t.set(0, r.nextInt(50) == 0 ? null : "key" + r.nextInt(20));
+        t.set(1, r.nextInt(100000));
+        return HDataType.getWritableComparableTypes(t, DataType.TUPLE);
+    }
+
+    private static PigTupleSortComparator comparator() throws Exception {
+        JobConf conf = new JobConf();
+        conf.set("pig.sortOrder", ObjectSerializer.serialize(SORT_ORDER));
+        PigTupleSortComparator comp = new PigTupleSortComparator();
+        comp.setConf(conf);
+        return comp;
+    }
+
+    private static PigNullableWritable[] quantiles(Random r, int numPartitions,
+            PigTupleSortComparator comp) throws Exception {
+        PigNullableWritable[] quantiles = new PigNullableWritable[numPartitions - 1];
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = randomKey(r);
+        }
+        Arrays.sort(quantiles, comp);
+        return quantiles;
+    }
+
+    private static byte[][] normalize(PigNullableWritable[] keys) throws Exception {
+        byte[][] normalized = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            normalized[i] = NullableNormalizedKey.normalize(keys[i], SORT_ORDER);
+        }
+        return normalized;
+    }
+
+    /**
+     * The partition WeightedRangePartitioner picks with the sort comparator.
+     */
+    private static int binarySearchPartition(PigNullableWritable[] quantiles,
+            PigNullableWritable key, PigTupleSortComparator comp, int numPartitions) {
+        int index = Arrays.binarySearch(quantiles, key, comp);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            index = index + 1;
+        }
+        return Math.min(index, numPartitions - 1);
+    }
+
+    @Test
+    public void testSamePartitionsAsBinarySearch() throws Exception {
+        Random r = new Random(13);
+        PigTupleSortComparator comp = comparator();
+        for (int numPartitions : new int[] { 1, 2, 7, 300 }) {
+            PigNullableWritable[] quantiles = quantiles(r, numPartitions, comp);
+            NormalizedQuantiles nq = new NormalizedQuantiles(normalize(quantiles),
+                    new DiscreteProbabilitySampleGenerator[quantiles.length]);
+            for (int i = 0; i < 5000; i++) {
+                PigNullableWritable key = i < quantiles.length ? quantiles[i] : randomKey(r);
+                int actual = nq.getPartition(NullableNormalizedKey.normalize(key, SORT_ORDER),
+                        numPartitions);
+                assertPartition(quantiles, key, comp, numPartitions, actual);
+            }
+        }
+    }
+
+    private static void assertPartition(PigNullableWritable[] quantiles,
+            PigNullableWritable key, PigTupleSortComparator comp, int numPartitions,
+            int actual) {
+        if (Arrays.binarySearch(quantiles, key, comp) >= 0) {
+            // a key equal to quantiles may go after any of them
+            assertEquals(0, comp.compare(key, quantiles[actual - 1]));
+        } else {
+            assertEquals(binarySearchPartition(quantiles, key, comp, numPartitions), actual);
+        }
+    }
+
+    @Test
+    public void testWeightedQuantile() throws Exception {
+        Random r = new Random(17);
+        PigTupleSortComparator comp = comparator();
+        PigNullableWritable[] quantiles = quantiles(r, 10, comp);
+        DiscreteProbabilitySampleGenerator[] weighted =
+            new DiscreteProbabilitySampleGenerator[quantiles.length];
+        float[] probVec = new float[10];
+        probVec[7] = 1.0f;
+        weighted[3] = new DiscreteProbabilitySampleGenerator(probVec);
+        NormalizedQuantiles nq = new NormalizedQuantiles(normalize(quantiles), weighted);
+        assertEquals(7, nq.getPartition(NullableNormalizedKey.normalize(quantiles[3], SORT_ORDER), 10));
+    }
+
+    /**
+     * Keys the shuffle normalized already are looked up by their normalized
+     * bytes, over as many partitions as large sorts use.
+     */
+    @Test
+    public void testNormalizedKeysSamePartitionsAsBinarySearch() throws Exception {
+        Random r = new Random(42);
+        PigTupleSortComparator comp = comparator();
+        for (int numPartitions : new int[] { 100, 1000, 10000 }) {
+            PigNullableWritable[] quantiles = quantiles(r, numPartitions, comp);
+            NormalizedQuantiles nq = new NormalizedQuantiles(normalize(quantiles),
+                    new DiscreteProbabilitySampleGenerator[quantiles.length]);
+            for (int i = 0; i < 5000; i++) {
+                PigNullableWritable key = randomKey(r);
+                NullableNormalizedKey normalized = new NullableNormalizedKey(key, SORT_ORDER);
+                int actual = nq.getPartition(normalized.getNormalizedBytes(), numPartitions);
+                assertPartition(quantiles, key, comp, numPartitions, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DefaultDataBag;
+import org.apache.pig.data.OffHeapPagePool;
+import org.apache.pig.data.SortedDataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOffHeapSpill {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    @Before
+    public void setUp() {
+        // 4 pages of 1KB, small enough for the test data to overflow to disk
+        Properties props = new Properties();
+        props.setProperty(PigConfiguration.PROP_SPILL_OFFHEAP_SIZE, "4096");
+        props.setProperty(PigConfiguration.PROP_SPILL_OFFHEAP_PAGESIZE, "1024");
+        OffHeapPagePool.configure(props);
+    }
+
+    @After
+    public void tearDown() {
+        OffHeapPagePool.configure(new Properties());
+    }
+
+    @Test
+    public void testDefaultBagSpillsOffHeap() throws Exception {
+        DataBag b = new DefaultDataBag();
+        for (int i = 0; i < 100; i++) {
+            b.add(tf.newTuple(Integer.valueOf(i)));
+        }
+        b.spill();
+        assertTrue(OffHeapPagePool.getInstance().getAllocated() > 0);
+        for (int i = 100; i < 200; i++) {
+            b.add(tf.newTuple(Integer.valueOf(i)));
+        }
+
+        Iterator<Tuple> it = b.iterator();
+        for (int i = 0; i < 200; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().get(0));
+        }
+        assertFalse(it.hasNext());
+
+        b.clear();
+        assertEquals(0, OffHeapPagePool.getInstance().getAllocated());
+    }
+
+    @Test
+    public void testOverflowToDisk() throws Exception {
+        DataBag b = new DefaultDataBag();
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 1000; i++) {
+                b.add(tf.newTuple(Integer.valueOf(j * 1000 + i)));
+            }
+            b.spill();
+        }
+        assertEquals(4096, OffHeapPagePool.getInstance().getAllocated());
+
+        // read the bag twice to make sure readers don't share positions
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Tuple> it = b.iterator();
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(it.hasNext());
+                assertEquals(i, it.next().get(0));
+            }
+            assertFalse(it.hasNext());
+        }
+        b.clear();
+        assertEquals(0, OffHeapPagePool.getInstance().getAllocated());
+    }
+
+    @Test
+    public void testSortedBagMergesOffHeapSpills() throws Exception {
+        DataBag b = new SortedDataBag(null);
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 50; i++) {
+                b.add(tf.newTuple(Integer.valueOf(i * 3 + j)));
+            }
+            b.spill();
+        }
+
+        Iterator<Tuple> it = b.iterator();
+        for (int i = 0; i < 150; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().get(0));
+        }
+        assertFalse(it.hasNext());
+        b.clear();
+    }
+}
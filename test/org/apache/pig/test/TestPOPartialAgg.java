@@ -270,6 +270,49 @@ public class TestPOPartialAgg {
         // input tuple has key, and bag containing SUM.Init output
         checkInputAndOutput(inputTups, outputTups, false);
     }
+
+
+    @Test
+    public void testReenableAfterPoorReduction() throws Exception {
+        // The first 10000 rows all have different keys, so in-memory
+        // aggregation turns itself off. The input is clustered though and
+        // the rest only has 10 keys, so once it is re-enabled it should stay
+        // on and aggregate them.
+        PigMapReduce.sJobConfInternal.set(new Configuration());
+        PigMapReduce.sJobConfInternal.get().setInt(PigConfiguration.PARTAGG_REENABLE_INTERVAL, 1000);
+
+        int numDistinct = 10000;
+        int numClustered = 20000;
+        String[] inputTups = new String[numDistinct + numClustered];
+        for (int i = 0; i < numDistinct; i++) {
+            inputTups[i] = "(" + i + ",(1L))";
+        }
+        for (int i = 0; i < numClustered; i++) {
+            inputTups[numDistinct + i] = "(" + (i % 10) + ",(1L))";
+        }
+
+        List<Tuple> outputs = new ArrayList<Tuple>();
+        for (Tuple t : Util.getTuplesFromConstantTupleStrings(inputTups)) {
+            partAggOp.attachInput(t);
+            while (addResults(partAggOp.getNextTuple(), outputs)) {
+            }
+        }
+        parentPlan.endOfAllInput = true;
+        while (addResults(partAggOp.getNextTuple(), outputs)) {
+        }
+
+        long[] sums = new long[numDistinct];
+        for (Tuple t : outputs) {
+            sums[(Integer) t.get(0)] += (Long) ((Tuple) t.get(1)).get(0);
+        }
+        for (int i = 0; i < numDistinct; i++) {
+            assertEquals(i < 10 ? 1 + numClustered / 10 : 1, sums[i]);
+        }
+        // 10000 unaggregated rows, 1000 passed through before re-enabling,
+        // and a handful for the aggregated rest
+        assertTrue("Too many output rows: " + outputs.size(),
+                outputs.size() < numDistinct + 2000);
+    }
     
     
     /**
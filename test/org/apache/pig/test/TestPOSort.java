@@ -20,6 +20,7 @@ package org.apache.pig.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -635,6 +636,55 @@ public class TestPOSort {
         }
 
     }
+    /**
+     * Sort on an int with nulls and duplicates, which is sorted on prefix
+     * keys, and then on a chararray in descending order for ties.
+     */
+    @Test
+    public void testPOSortPrefixKeys() throws ExecException {
+        DataBag input = DefaultBagFactory.getInstance().newDefaultBag();
+        for (int i = 0; i < 1000; i++) {
+            Integer key = r.nextInt(10) == 0 ? null : Integer.valueOf(r.nextInt(50) - 25);
+            String value = r.nextInt(10) == 0 ? null : GenRandomData.genRandString(r);
+            input.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object) key, value)));
+        }
+
+        List<PhysicalPlan> sortPlans = new LinkedList<PhysicalPlan>();
+        byte[] types = { DataType.INTEGER, DataType.CHARARRAY };
+        for (int col = 0; col < 2; col++) {
+            POProject pr = new POProject(new OperatorKey("", r.nextLong()), -1, col);
+            pr.setResultType(types[col]);
+            PhysicalPlan expPlan = new PhysicalPlan();
+            expPlan.add(pr);
+            sortPlans.add(expPlan);
+        }
+        List<Boolean> mAscCols = new LinkedList<Boolean>();
+        mAscCols.add(true);
+        mAscCols.add(false);
+        PORead read = new PORead(new OperatorKey("", r.nextLong()), input);
+        List<PhysicalOperator> inputs = new LinkedList<PhysicalOperator>();
+        inputs.add(read);
+        POSort sort = new POSort(new OperatorKey("", r.nextLong()), -1, inputs,
+                sortPlans, mAscCols, null);
+
+        int n = 0;
+        Tuple prev = null;
+        for (Result res = sort.getNextTuple(); res.returnStatus != POStatus.STATUS_EOP;
+                res = sort.getNextTuple()) {
+            Tuple t = (Tuple) res.result;
+            if (prev != null) {
+                int c = DataType.compare(prev.get(0), t.get(0));
+                assertEquals(true, c <= 0);
+                if (c == 0) {
+                    assertEquals(true, DataType.compare(prev.get(1), t.get(1)) >= 0);
+                }
+            }
+            prev = t;
+            n++;
+        }
+        assertEquals(1000, n);
+    }
+
     // sorts values in ascending order of their distance from 50
     public static class WeirdComparator extends ComparisonFunc {
 
@@ -30,6 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.ExecType;
 import org.apache.pig.ExecTypeProvider;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigServer;
 import org.apache.pig.data.Tuple;
 import org.junit.After;
@@ -159,4 +160,44 @@ public class TestPigSplit {
         Iterator<Tuple> iter = pigServer.openIterator("a");
         assertFalse(iter.hasNext());
     }
+
+    @Test
+    public void testReadPrefetch() throws Exception {
+        inputFileName = "testReadPrefetch-input.txt";
+        String[] input = new String[500];
+        for (int i = 0; i < 500; i++) {
+            input[i] = i % 10 + "\t" + i;
+        }
+        createInput(input);
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_READ_PREFETCH, "true");
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_READ_PREFETCH_DEPTH, "7");
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.OPT_FETCH, "false");
+
+        pigServer.registerQuery("a = load '" + inputFileName + "' as (k:int, v:int);");
+        pigServer.registerQuery("b = group a by k;");
+        pigServer.registerQuery("c = foreach b generate group, COUNT(a), SUM(a.v);");
+        Iterator<Tuple> iter = pigServer.openIterator("c");
+        int groups = 0;
+        long total = 0;
+        while (iter.hasNext()) {
+            Tuple t = iter.next();
+            assertEquals(50L, t.get(1));
+            total += (Long) t.get(2);
+            groups++;
+        }
+        assertEquals(10, groups);
+        assertEquals(499L * 500 / 2, total);
+
+        // the prefetcher stops once the limit is read
+        pigServer.registerQuery("d = limit a 5;");
+        pigServer.registerQuery("e = group d all;");
+        pigServer.registerQuery("f = foreach e generate COUNT(d);");
+        iter = pigServer.openIterator("f");
+        assertTrue(iter.hasNext());
+        assertEquals(5L, iter.next().get(0));
+        assertFalse(iter.hasNext());
+    }
 }
@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -38,6 +39,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigServer;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -700,6 +702,42 @@ public class TestPigStorage  {
 
     }
 
+    private List<Tuple> loadAll(String query, boolean lazy) throws Exception {
+        pig.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_STORAGE_LAZY_TUPLES, String.valueOf(lazy));
+        pig.registerQuery(query);
+        List<Tuple> result = new ArrayList<Tuple>();
+        Iterator<Tuple> iter = pig.openIterator("b");
+        while (iter.hasNext()) {
+            result.add(iter.next());
+        }
+        return result;
+    }
+
+    @Test
+    public void testLazyTuples() throws Exception {
+        Util.createLocalInputFile(datadir + "lazyinput",
+                new String[] {"A\t1\t2.5\tx", "\t\t\t", "B\tnotanint", "C\t3\t\ty\textra", ""});
+        String[] queries = {
+                "a = LOAD '" + datadir + "lazyinput' using PigStorage('\\t'); b = FOREACH a GENERATE $0, $3;",
+                "b = LOAD '" + datadir + "lazyinput' using PigStorage('\\t') "
+                        + "as (f1:chararray, f2:int, f3:double, f4:chararray);",
+                "a = LOAD '" + datadir + "lazyinput' using PigStorage('\\t') "
+                        + "as (f1:chararray, f2:int, f3:double, f4:chararray); "
+                        + "b = FOREACH a GENERATE f4, f2 + 1, f3 IS NULL;",
+                "a = LOAD '" + datadir + "lazyinput' using PigStorage('\\t', '-tagFile') "
+                        + "as (file:chararray, f1:chararray, f2:int); "
+                        + "b = FILTER a BY f2 > 0 OR f1 == 'B';",
+                "a = LOAD '" + datadir + "lazyinput' using PigStorage('\\t'); "
+                        + "b = ORDER a BY $0;"
+        };
+        for (String query : queries) {
+            List<Tuple> expected = loadAll(query, false);
+            assertTrue(expected.size() > 0);
+            assertEquals(query, expected, loadAll(query, true));
+        }
+    }
+
     @Test(expected = Exception.class)
     public void testPigStorageSchemaFailureWithoutOverwrite() throws Exception {
         pigContext.connect();
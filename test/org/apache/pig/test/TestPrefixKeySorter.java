@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.PrefixComparator;
+import org.apache.pig.data.PrefixKeySorter;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+public class TestPrefixKeySorter {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    /**
+     * Orders on the first field, then on the second, with prefix keys of the
+     * first field.
+     */
+    private static class TestComparator implements PrefixComparator {
+        private final byte type;
+        private final boolean asc;
+        private final boolean exact;
+
+        TestComparator(byte type, boolean asc, boolean exact) {
+            this.type = type;
+            this.asc = asc;
+            this.exact = exact;
+        }
+
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            try {
+                int c = DataType.compare(t1.get(0), t2.get(0));
+                if (c == 0 && !exact) {
+                    c = DataType.compare(t1.get(1), t2.get(1));
+                }
+                return asc ? c : -c;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean computePrefixKeys(Tuple[] tuples, int n, long[] keys) {
+            try {
+                for (int i = 0; i < n; i++) {
+                    Object o = tuples[i].get(0);
+                    long key;
+                    if (o == null) {
+                        key = PrefixKeySorter.NULL_KEY;
+                    } else if (type == DataType.INTEGER) {
+                        key = PrefixKeySorter.intKey((Integer) o);
+                    } else if (type == DataType.LONG) {
+                        key = PrefixKeySorter.longKey((Long) o);
+                    } else if (type == DataType.DOUBLE) {
+                        key = PrefixKeySorter.doubleKey((Double) o);
+                    } else {
+                        key = PrefixKeySorter.stringKey((String) o);
+                    }
+                    keys[i] = asc ? key : PrefixKeySorter.descending(key);
+                }
+            } catch (ExecException e) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isPrefixKeyExact() {
+            return exact;
+        }
+    }
+
+    private static final String[] STRINGS = { "", "a", "a\u0000", "ab", "abcd", "abcde",
+        "abcdf", "\uffff", "zz", "\u00e9t\u00e9" };
+
+    private static final double[] DOUBLES = { Double.NaN, -0.0, 0.0, -1e300, 1e300,
+        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -1.5, 1.5,
+        Double.MIN_VALUE, -Double.MIN_VALUE };
+
+    private static Object randomValue(Random r, byte type) {
+        if (r.nextInt(20) == 0) {
+            return null;
+        }
+        switch (type) {
+        case DataType.INTEGER:
+            if (r.nextInt(5) == 0) {
+                return r.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            }
+            return r.nextInt(1000) - 500;
+        case DataType.LONG:
+            if (r.nextInt(5) == 0) {
+                return r.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            return r.nextLong();
+        case DataType.DOUBLE:
+            return r.nextBoolean() ? DOUBLES[r.nextInt(DOUBLES.length)] : r.nextGaussian() * 1000;
+        default:
+            return r.nextBoolean() ? STRINGS[r.nextInt(STRINGS.length)]
+                    : Integer.toString(r.nextInt(100000), 36);
+        }
+    }
+
+    private static void checkSort(Random r, byte type, boolean asc, boolean exact, int n) {
+        Tuple[] tuples = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            tuples[i] = tf.newTuple(Arrays.asList(randomValue(r, type), r.nextInt(5)));
+        }
+        TestComparator comp = new TestComparator(type, asc, exact);
+
+        Tuple[] expected = tuples.clone();
+        Arrays.sort(expected, comp);
+        Tuple[] sorted = tuples.clone();
+        PrefixKeySorter.sort(sorted, comp);
+        List<Tuple> list = new ArrayList<Tuple>(Arrays.asList(tuples));
+        PrefixKeySorter.sort(list, comp);
+
+        // the sort is stable, so even equal tuples are in the same place
+        for (int i = 0; i < n; i++) {
+            assertSame(expected[i], sorted[i]);
+            assertSame(expected[i], list.get(i));
+        }
+    }
+
+    @Test
+    public void testSameOrderAsComparator() {
+        Random r = new Random(7);
+        byte[] types = { DataType.INTEGER, DataType.LONG, DataType.DOUBLE, DataType.CHARARRAY };
+        for (byte type : types) {
+            for (int n : new int[] { 0, 10, 64, 100, 3000 }) {
+                checkSort(r, type, true, false, n);
+                checkSort(r, type, false, false, n);
+            }
+        }
+    }
+
+    @Test
+    public void testExactKeys() {
+        Random r = new Random(11);
+        for (int n : new int[] { 100, 5000 }) {
+            checkSort(r, DataType.INTEGER, true, true, n);
+            checkSort(r, DataType.INTEGER, false, true, n);
+        }
+    }
+}
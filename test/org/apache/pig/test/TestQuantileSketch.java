@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.builtin.QuantileSketch;
+import org.junit.Test;
+
+public class TestQuantileSketch {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static Tuple key(int i) {
+        return tf.newTuple(Arrays.<Object>asList(i));
+    }
+
+    private static QuantileSketch roundTrip(QuantileSketch sketch, Comparator<Tuple> comp)
+            throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(baos));
+        QuantileSketch read = new QuantileSketch(comp, 256);
+        read.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(sketch.getCount(), read.getCount());
+        assertEquals(sketch.getNumRetained(), read.getNumRetained());
+        return read;
+    }
+
+    @Test
+    public void testMergedQuantiles() throws Exception {
+        int n = 200000;
+        for (boolean asc : new boolean[] { true, false }) {
+            Comparator<Tuple> comp = QuantileSketch.getSortComparator(new boolean[] { asc });
+            Random r = new Random(3);
+            QuantileSketch merged = new QuantileSketch(comp, 256, new Random(5));
+            for (int s = 0; s < 8; s++) {
+                QuantileSketch sketch = new QuantileSketch(comp, 256, new Random(s));
+                for (int i = 0; i < n / 8; i++) {
+                    sketch.add(key(r.nextInt(n)));
+                }
+                merged.merge(roundTrip(sketch, comp));
+            }
+            assertEquals(n, merged.getCount());
+            assertTrue(merged.getNumRetained() < 3 * 256);
+
+            List<Tuple> samples = merged.getSortedSamples(50);
+            assertEquals(50, samples.size());
+            for (int i = 0; i < samples.size(); i++) {
+                if (i > 0) {
+                    assertTrue(comp.compare(samples.get(i - 1), samples.get(i)) <= 0);
+                }
+                int value = (Integer) samples.get(i).get(0);
+                double rank = asc ? value : n - value;
+                double expected = (i + 0.5) * n / samples.size();
+                assertTrue("rank " + rank + " expected " + expected,
+                        Math.abs(rank - expected) < 0.02 * n);
+            }
+        }
+    }
+
+    @Test
+    public void testSmallSketchIsExact() throws Exception {
+        Comparator<Tuple> comp = QuantileSketch.getSortComparator(new boolean[] { true });
+        QuantileSketch sketch = new QuantileSketch(comp, 256);
+        assertEquals(0, sketch.getSortedSamples(10).size());
+        for (int i = 99; i >= 0; i--) {
+            sketch.add(key(i));
+        }
+        List<Tuple> samples = sketch.getSortedSamples(100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, samples.get(i).get(0));
+        }
+        assertEquals(15, sketch.getSortedSamples(10).get(1).get(0));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.PartitionSkewedKeys;
+import org.apache.pig.impl.builtin.SkewedKeySketch;
+import org.junit.Test;
+
+public class TestSkewedKeySketch {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private static Tuple tuple(Object... fields) {
+        return tf.newTuple(Arrays.asList(fields));
+    }
+
+    private static SkewedKeySketch roundTrip(SkewedKeySketch sketch) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(baos));
+        SkewedKeySketch read = new SkewedKeySketch(64);
+        read.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(sketch.getCount(), read.getCount());
+        assertEquals(sketch.getAverageMemorySize(), read.getAverageMemorySize(), 0);
+        assertEquals(sketch.getKeyCounts(), read.getKeyCounts());
+        return read;
+    }
+
+    // four tasks, each with 10000 tuples of which a quarter have key 0
+    private static SkewedKeySketch mergedSketch() throws Exception {
+        Random r = new Random(7);
+        SkewedKeySketch merged = new SkewedKeySketch(64);
+        for (int s = 0; s < 4; s++) {
+            SkewedKeySketch sketch = new SkewedKeySketch(64);
+            for (int i = 0; i < 10000; i++) {
+                int k = i % 4 == 0 ? 0 : 1 + r.nextInt(100000);
+                sketch.add(tuple(k), tuple(k, "value"));
+            }
+            merged.merge(roundTrip(sketch));
+        }
+        return merged;
+    }
+
+    @Test
+    public void testMergedCounts() throws Exception {
+        SkewedKeySketch merged = roundTrip(mergedSketch());
+        assertEquals(40000, merged.getCount());
+        assertTrue(merged.getAverageMemorySize() > 0);
+        Map<Tuple, Long> counts = merged.getKeyCounts();
+        long hot = counts.get(tuple(0));
+        // the lower bound of a key is off by at most 10000 / 64 per task
+        assertTrue("count " + hot, hot <= 10000 && hot >= 10000 - 4 * 10000 / 64);
+    }
+
+    @Test
+    public void testPartitionHotKey() throws Exception {
+        SkewedKeySketch merged = mergedSketch();
+        // a reducer holds 1000 tuples of a key
+        PartitionSkewedKeys partitioner = new PartitionSkewedKeys(
+                new String[] { "0.3", "1000", "sketch" });
+        Map<String, Object> distMap = partitioner.exec(20, merged, 1L << 30);
+        assertEquals(20, distMap.get(PartitionSkewedKeys.TOTAL_REDUCERS));
+
+        DataBag partitions = (DataBag) distMap.get(PartitionSkewedKeys.PARTITION_LIST);
+        Tuple hotKey = null;
+        for (Iterator<Tuple> it = partitions.iterator(); it.hasNext();) {
+            Tuple t = it.next();
+            assertEquals(3, t.size());
+            if (Integer.valueOf(0).equals(t.get(0))) {
+                hotKey = t;
+            }
+        }
+        assertNotNull(hotKey);
+        int min = (Integer) hotKey.get(1);
+        int max = (Integer) hotKey.get(2);
+        if (max < min) {
+            max += 20;
+        }
+        assertTrue("reducers " + (max - min), max - min >= 9);
+    }
+
+    @Test
+    public void testJoinWithoutSampler() throws Exception {
+        PigContext pc = new PigServer(ExecType.LOCAL).getPigContext();
+        pc.connect();
+        pc.getProperties().setProperty(PigConfiguration.PIG_SKEWEDJOIN_SKETCH, "true");
+        String query = "a = load 'x' as (k, v:int);" +
+                "b = filter a by v > 0;" +
+                "c = load 'y' as (k, w);" +
+                "j = join b by k, c by k using 'skewed' parallel 4;" +
+                "store j into 'z';";
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        assertEquals(2, mrp.size());
+
+        MapReduceOper first = mrp.getRoots().get(0);
+        assertFalse(first.isSampler());
+        POStore store = (POStore) first.mapPlan.getLeaves().get(0);
+        assertTrue(store.isTmpStore());
+        assertNotNull(store.getJoinKeyPlans());
+
+        MapReduceOper join = mrp.getLeaves().get(0);
+        assertTrue(join.isSkewedJoin());
+        assertEquals(store.getSFile().getFileName(), join.getSkewedJoinSketchDir());
+    }
+
+    @Test
+    public void testJoinOfLoadIsSampled() throws Exception {
+        PigContext pc = new PigServer(ExecType.LOCAL).getPigContext();
+        pc.connect();
+        pc.getProperties().setProperty(PigConfiguration.PIG_SKEWEDJOIN_SKETCH, "true");
+        String query = "a = load 'x' as (k, v);" +
+                "c = load 'y' as (k, w);" +
+                "j = join a by k, c by k using 'skewed';" +
+                "store j into 'z';";
+        MROperPlan mrp = Util.buildMRPlan(query, pc);
+        MapReduceOper join = mrp.getLeaves().get(0);
+        assertTrue(join.isSkewedJoin());
+        assertNull(join.getSkewedJoinSketchDir());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InternalSortedBag;
+import org.apache.pig.data.SortedDataBag;
+import org.apache.pig.data.SpillFiles;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSortedSpillMerge {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    /**
+     * Compares on the first field, and fails if used by two threads at once,
+     * as the comparators of POSort would.
+     */
+    private static class SingleThreadedComparator implements Comparator<Tuple> {
+        private final AtomicBoolean inUse = new AtomicBoolean(false);
+        volatile boolean concurrentUse = false;
+
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            if (!inUse.compareAndSet(false, true)) {
+                concurrentUse = true;
+            }
+            try {
+                return ((Integer) t1.get(0)).compareTo((Integer) t2.get(0));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            } finally {
+                inUse.set(false);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(PigConfiguration.PIG_SPILL_MERGE_ASYNC, "true");
+        props.setProperty(PigConfiguration.PIG_SPILL_MERGE_BUFFER_SIZE, "65536");
+        SpillFiles.configure(props);
+    }
+
+    @After
+    public void tearDown() {
+        SpillFiles.configure(new Properties());
+    }
+
+    private static void fill(DataBag b, int spills, int perSpill, long seed) {
+        Random r = new Random(seed);
+        for (int j = 0; j < spills; j++) {
+            for (int i = 0; i < perSpill; i++) {
+                b.add(tf.newTuple(Integer.valueOf(r.nextInt(100000))));
+            }
+            b.spill();
+        }
+    }
+
+    private static void checkSorted(DataBag b, int expected) throws Exception {
+        Iterator<Tuple> it = b.iterator();
+        int n = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int v = (Integer) it.next().get(0);
+            assertTrue(v >= last);
+            last = v;
+            n++;
+        }
+        assertEquals(expected, n);
+        assertEquals(expected, b.size());
+    }
+
+    @Test
+    public void testSortedDataBag() throws Exception {
+        SingleThreadedComparator comp = new SingleThreadedComparator();
+        DataBag b = new SortedDataBag(comp);
+        // enough spills for several background merges
+        fill(b, 320, 50, 1);
+        checkSorted(b, 320 * 50);
+        assertFalse(comp.concurrentUse);
+        b.clear();
+    }
+
+    @Test
+    public void testInternalSortedBag() throws Exception {
+        SingleThreadedComparator comp = new SingleThreadedComparator();
+        DataBag b = new InternalSortedBag(comp);
+        fill(b, 250, 40, 2);
+        // tuples added after the last spill are merged from memory
+        for (int i = 0; i < 10; i++) {
+            b.add(tf.newTuple(Integer.valueOf(i)));
+        }
+        checkSorted(b, 250 * 40 + 10);
+        assertFalse(comp.concurrentUse);
+        b.clear();
+    }
+
+    @Test
+    public void testClearWhileMerging() throws Exception {
+        DataBag b = new SortedDataBag(null);
+        fill(b, 150, 200, 3);
+        b.clear();
+        assertEquals(0, b.size());
+        fill(b, 5, 10, 4);
+        checkSorted(b, 50);
+        b.clear();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DefaultDataBag;
+import org.apache.pig.data.OffHeapPagePool;
+import org.apache.pig.data.SortedDataBag;
+import org.apache.pig.data.SpillFiles;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSpillFiles {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    private File dir1;
+    private File dir2;
+
+    @Before
+    public void setUp() throws Exception {
+        File base = File.createTempFile("TestSpillFiles", "");
+        base.delete();
+        dir1 = new File(base, "a");
+        // created on the first spill
+        dir2 = new File(base, "b");
+        assertTrue(dir1.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SpillFiles.configure(new Properties());
+        OffHeapPagePool.configure(new Properties());
+        Util.deleteDirectory(dir1.getParentFile());
+    }
+
+    private void configure(String codec) {
+        Properties props = new Properties();
+        props.setProperty(PigConfiguration.PIG_SPILL_DIRS,
+                dir1.getAbsolutePath() + "," + dir2.getAbsolutePath());
+        if (codec != null) {
+            props.setProperty(PigConfiguration.PIG_SPILL_COMPRESS_CODEC, codec);
+        }
+        SpillFiles.configure(props);
+    }
+
+    private static int countSpillFiles(File dir, String suffix) {
+        int n = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith("pigbag") && f.getName().endsWith(suffix)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static void fill(DataBag b, int spills, int perSpill) {
+        for (int j = 0; j < spills; j++) {
+            for (int i = 0; i < perSpill; i++) {
+                b.add(tf.newTuple(Integer.valueOf(i * spills + j)));
+            }
+            b.spill();
+        }
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        configure(null);
+        DataBag b = new DefaultDataBag();
+        fill(b, 4, 100);
+        assertEquals(2, countSpillFiles(dir1, ""));
+        assertEquals(2, countSpillFiles(dir2, ""));
+        assertEquals(400, b.size());
+        b.clear();
+        assertEquals(0, countSpillFiles(dir1, ""));
+        assertEquals(0, countSpillFiles(dir2, ""));
+    }
+
+    @Test
+    public void testCompressedDefaultBag() throws Exception {
+        configure("deflate");
+        DataBag b = new DefaultDataBag();
+        fill(b, 3, 1000);
+        assertEquals(3, countSpillFiles(dir1, ".deflate") + countSpillFiles(dir2, ".deflate"));
+
+        // tuples are read back in the order they were spilled
+        Iterator<Tuple> it = b.iterator();
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(it.hasNext());
+                assertEquals(i * 3 + j, it.next().get(0));
+            }
+        }
+        assertFalse(it.hasNext());
+        b.clear();
+    }
+
+    @Test
+    public void testCompressedSortedBag() throws Exception {
+        configure("deflate");
+        DataBag b = new SortedDataBag(null);
+        fill(b, 3, 500);
+        Iterator<Tuple> it = b.iterator();
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().get(0));
+        }
+        assertFalse(it.hasNext());
+        b.clear();
+    }
+
+    @Test
+    public void testCompressedOffHeap() throws Exception {
+        configure("deflate");
+        Properties props = new Properties();
+        props.setProperty(PigConfiguration.PROP_SPILL_OFFHEAP_SIZE, "4096");
+        props.setProperty(PigConfiguration.PROP_SPILL_OFFHEAP_PAGESIZE, "1024");
+        OffHeapPagePool.configure(props);
+
+        DataBag b = new SortedDataBag(null);
+        fill(b, 4, 2000);
+        Iterator<Tuple> it = b.iterator();
+        for (int i = 0; i < 8000; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().get(0));
+        }
+        assertFalse(it.hasNext());
+        b.clear();
+        assertEquals(0, OffHeapPagePool.getInstance().getAllocated());
+    }
+
+    @Test
+    public void testReconfiguredCodec() throws Exception {
+        configure("deflate");
+        DataBag b = new DefaultDataBag();
+        fill(b, 2, 100);
+        // files written before the codec changed are still readable
+        configure(null);
+        fill(b, 1, 100);
+        int n = 0;
+        for (Iterator<Tuple> it = b.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        assertEquals(300, n);
+        b.clear();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownCodec() throws Exception {
+        configure("org.example.NoSuchCodec");
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.impl.util.Spillable;
+import org.apache.pig.impl.util.SpillableRegistry;
+import org.junit.Test;
+
+public class TestSpillableRegistry {
+
+    private static class FakeSpillable implements Spillable {
+        long size;
+        int spilled = 0;
+
+        FakeSpillable(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long spill() {
+            spilled++;
+            size = 0;
+            return 1;
+        }
+
+        @Override
+        public long getMemorySize() {
+            return size;
+        }
+    }
+
+    @Test
+    public void testBiggestFirst() {
+        SpillableRegistry registry = new SpillableRegistry();
+        List<FakeSpillable> all = new ArrayList<FakeSpillable>();
+        for (long size : new long[] {100, 5000, 1000000, 300, 80000}) {
+            FakeSpillable s = new FakeSpillable(size);
+            all.add(s);
+            registry.register(s);
+        }
+        final List<Long> seen = new ArrayList<Long>();
+        registry.walk(new SpillableRegistry.Visitor() {
+            @Override
+            public boolean visit(WeakReference<Spillable> ref, long size) {
+                seen.add(size);
+                return true;
+            }
+        }, 0);
+        assertEquals(5, seen.size());
+        assertEquals(1000000L, (long) seen.get(0));
+        assertEquals(80000L, (long) seen.get(1));
+        assertEquals(100L, (long) seen.get(4));
+    }
+
+    @Test
+    public void testMinSizeAndResize() {
+        SpillableRegistry registry = new SpillableRegistry();
+        FakeSpillable small = new FakeSpillable(100);
+        FakeSpillable big = new FakeSpillable(10000000);
+        SpillableRegistry.Entry smallEntry = registry.register(small);
+        registry.register(big);
+
+        final List<Long> seen = new ArrayList<Long>();
+        SpillableRegistry.Visitor v = new SpillableRegistry.Visitor() {
+            @Override
+            public boolean visit(WeakReference<Spillable> ref, long size) {
+                seen.add(size);
+                return true;
+            }
+        };
+        registry.walk(v, 5000000);
+        assertEquals(1, seen.size());
+
+        // The small one grew, it should be visited once it asked to be
+        // measured again.
+        small.size = 20000000;
+        smallEntry.markResized();
+        seen.clear();
+        registry.walk(v, 5000000);
+        assertEquals(2, seen.size());
+        assertEquals(20000000L, (long) seen.get(0));
+    }
+
+    @Test
+    public void testUnreportedResize() {
+        SpillableRegistry registry = new SpillableRegistry();
+        // registered while still small, and never marked resized
+        FakeSpillable unreported = new FakeSpillable(100);
+        registry.register(unreported, false);
+
+        final List<Long> seen = new ArrayList<Long>();
+        SpillableRegistry.Visitor v = new SpillableRegistry.Visitor() {
+            @Override
+            public boolean visit(WeakReference<Spillable> ref, long size) {
+                seen.add(size);
+                return true;
+            }
+        };
+        registry.walk(v, 5000000);
+        assertEquals(0, seen.size());
+
+        unreported.size = 20000000;
+        registry.walk(v, 5000000);
+        assertEquals(1, seen.size());
+        assertEquals(20000000L, (long) seen.get(0));
+    }
+
+    @Test
+    public void testClearedReferencesAreRemoved() throws Exception {
+        SpillableRegistry registry = new SpillableRegistry();
+        FakeSpillable kept = new FakeSpillable(1000);
+        registry.register(kept);
+        for (int i = 0; i < 1000; i++) {
+            registry.register(new FakeSpillable(1000));
+        }
+        assertEquals(1001, registry.size());
+        for (int i = 0; i < 10 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(100);
+            registry.expunge();
+            // walking drops the ones which were still unmeasured
+            registry.walk(new SpillableRegistry.Visitor() {
+                @Override
+                public boolean visit(WeakReference<Spillable> ref, long size) {
+                    return true;
+                }
+            }, 0);
+        }
+        assertEquals(1, registry.size());
+        assertEquals(1000, kept.getMemorySize());
+    }
+
+    @Test
+    public void testUnreportedAreMeasuredInTurn() {
+        SpillableRegistry registry = new SpillableRegistry();
+        final int n = 1000;
+        final int[] measured = new int[1];
+        List<FakeSpillable> all = new ArrayList<FakeSpillable>();
+        for (int i = 0; i < n; i++) {
+            FakeSpillable s = new FakeSpillable(100) {
+                @Override
+                public long getMemorySize() {
+                    measured[0]++;
+                    return super.getMemorySize();
+                }
+            };
+            all.add(s);
+            registry.register(s, false);
+        }
+        final List<Long> seen = new ArrayList<Long>();
+        SpillableRegistry.Visitor v = new SpillableRegistry.Visitor() {
+            @Override
+            public boolean visit(WeakReference<Spillable> ref, long size) {
+                seen.add(size);
+                return true;
+            }
+        };
+        // the first walk measures them all once
+        registry.walk(v, 5000000);
+        assertEquals(0, seen.size());
+
+        // the last one grows; it is found within one round, and no walk
+        // measures all of them again
+        all.get(n - 1).size = 20000000;
+        int walks = 0;
+        while (seen.isEmpty()) {
+            measured[0] = 0;
+            registry.walk(v, 5000000);
+            assertTrue(measured[0] < n / 10);
+            assertTrue(++walks <= n);
+        }
+        assertEquals(1, seen.size());
+        assertEquals(20000000L, (long) seen.get(0));
+    }
+
+    /**
+     * Register 100k spillables from several threads, and check that the
+     * walks visit them biggest bucket first, so few spill victims are
+     * needed to free the requested memory.
+     */
+    @Test
+    public void testRegister100k() throws Exception {
+        final SpillableRegistry registry = new SpillableRegistry();
+        final int numThreads = 4;
+        final int perThread = 25000;
+        final List<FakeSpillable> all = new ArrayList<FakeSpillable>(numThreads * perThread);
+        Random r = new Random(42);
+        for (int i = 0; i < numThreads * perThread; i++) {
+            // 100KB to ~100MB
+            all.add(new FakeSpillable(100 * 1024 + (long) (r.nextDouble() * r.nextDouble() * 100000000L)));
+        }
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int offset = t * perThread;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        registry.register(all.get(offset + i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(numThreads * perThread, registry.size());
+
+        final long toFree = 500000000L;
+        final List<Long> victims = new ArrayList<Long>();
+        SpillableRegistry.Visitor spiller = new SpillableRegistry.Visitor() {
+            long freed = 0;
+
+            @Override
+            public boolean visit(WeakReference<Spillable> ref, long size) {
+                Spillable s = ref.get();
+                if (s == null || size == 0) {
+                    return true;
+                }
+                s.spill();
+                victims.add(size);
+                freed += size;
+                if (freed >= toFree) {
+                    freed = 0;
+                    return false;
+                }
+                return true;
+            }
+        };
+        for (int walk = 0; walk < 2; walk++) {
+            // the fewest victims which free enough
+            List<Long> sizes = new ArrayList<Long>();
+            for (FakeSpillable s : all) {
+                sizes.add(s.size);
+            }
+            Collections.sort(sizes, Collections.reverseOrder());
+            int fewest = 0;
+            long sum = 0;
+            while (sum < toFree) {
+                sum += sizes.get(fewest++);
+            }
+
+            victims.clear();
+            registry.walk(spiller, 5000000);
+            long freed = 0;
+            for (int i = 0; i < victims.size(); i++) {
+                freed += victims.get(i);
+                // biggest bucket first, so out of order by less than two
+                if (i > 0) {
+                    assertTrue(bucket(victims.get(i)) <= bucket(victims.get(i - 1)));
+                }
+            }
+            assertTrue(freed >= toFree);
+            assertTrue(victims.size() <= 2 * fewest);
+        }
+    }
+
+    private static int bucket(long size) {
+        return 63 - Long.numberOfLeadingZeros(size);
+    }
+}
@@ -27,8 +27,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.pig.PigConfiguration;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigInputFormat;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
+import org.apache.pig.backend.hadoop.executionengine.util.LocalitySplitCombiner;
 import org.apache.pig.impl.plan.OperatorKey;
 
 import junit.framework.Assert;
@@ -50,6 +52,12 @@ public class TestSplitCombine {
             return super.getPigSplits(oneInputSplits, inputIndex, targetOps,
                             1000, combinable, conf);
         }
+
+        public void setTargetSplitSize(List<List<InputSplit>> inputSplits,
+                        List<Boolean> combinables, List<Configuration> inputConfs,
+                        int targetMappers) throws IOException, InterruptedException {
+            super.setTargetSplitSize(inputSplits, combinables, inputConfs, targetMappers);
+        }
     }
 
     class DummyInputSplit extends InputSplit {
@@ -459,6 +467,110 @@ public class TestSplitCombine {
         }
     }
     
+    @Test
+    public void testLocalityNodes() throws IOException, InterruptedException {
+        conf.setBoolean(PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, true);
+        ArrayList<InputSplit> rawSplits = new ArrayList<InputSplit>();
+        for (int i = 0; i < 3; i++) {
+            rawSplits.add(new DummyInputSplit(300, new String[] {
+                            "l1"
+            }));
+            rawSplits.add(new DummyInputSplit(300, new String[] {
+                            "l2"
+            }));
+        }
+        rawSplits.add(new DummyInputSplit(200, new String[] {
+                        "l3"
+        }));
+        List<InputSplit> result = pigInputFormat.getPigSplits(rawSplits, 0, ok,
+                        null, true, conf);
+        Assert.assertEquals(3, result.size());
+        String[][] locations = new String[][] {
+                        { "l1" }, { "l2" }, { "l3" }
+        };
+        for (int i = 0; i < 3; i++) {
+            PigSplit pigSplit = (PigSplit) result.get(i);
+            Assert.assertEquals(i < 2 ? 3 : 1, pigSplit.getNumPaths());
+            checkLocationOrdering(pigSplit.getLocations(), locations[i]);
+        }
+    }
+
+    @Test
+    public void testLocalityFirstFitDecreasing() throws IOException, InterruptedException {
+        conf.setBoolean(PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, true);
+        ArrayList<InputSplit> rawSplits = new ArrayList<InputSplit>();
+        for (long len : new long[] { 200, 300, 600, 200, 300, 400 }) {
+            rawSplits.add(new DummyInputSplit(len, new String[] {
+                            "l1", "l2"
+            }));
+        }
+        List<InputSplit> result = pigInputFormat.getPigSplits(rawSplits, 0, ok,
+                        null, true, conf);
+        Assert.assertEquals(2, result.size());
+        PigSplit pigSplit = (PigSplit) result.get(0);
+        Assert.assertEquals(2, pigSplit.getNumPaths());
+        Assert.assertEquals(1000, pigSplit.getLength());
+        pigSplit = (PigSplit) result.get(1);
+        Assert.assertEquals(4, pigSplit.getNumPaths());
+        Assert.assertEquals(1000, pigSplit.getLength());
+    }
+
+    @Test
+    public void testLocalityMaxRecords() throws IOException, InterruptedException {
+        conf.setBoolean(PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, true);
+        conf.setLong(PigConfiguration.PIG_MAX_COMBINED_SPLIT_RECORDS, 5);
+        conf.setFloat(LocalitySplitCombiner.BYTES_PER_RECORD, 100);
+        ArrayList<InputSplit> rawSplits = new ArrayList<InputSplit>();
+        for (long len : new long[] { 300, 200, 200, 100 }) {
+            rawSplits.add(new DummyInputSplit(len, new String[] {
+                            "l1"
+            }));
+        }
+        List<InputSplit> result = pigInputFormat.getPigSplits(rawSplits, 0, ok,
+                        null, true, conf);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(500, ((PigSplit) result.get(0)).getLength());
+        Assert.assertEquals(300, ((PigSplit) result.get(1)).getLength());
+    }
+
+    @Test
+    public void testLocalityTargetMappers() throws IOException, InterruptedException {
+        conf.setBoolean(PigConfiguration.PIG_SPLIT_COMBINATION_LOCALITY, true);
+        // ten small splits to combine, and a large split of an input which
+        // cannot be combined
+        List<InputSplit> small = new ArrayList<InputSplit>();
+        for (int i = 0; i < 10; i++) {
+            small.add(new DummyInputSplit(100, new String[] {
+                            "l1"
+            }));
+        }
+        List<InputSplit> large = new ArrayList<InputSplit>();
+        large.add(new DummyInputSplit(9000, new String[] {
+                        "l1"
+        }));
+        List<List<InputSplit>> inputSplits = new ArrayList<List<InputSplit>>();
+        inputSplits.add(small);
+        inputSplits.add(large);
+        List<Boolean> combinables = new ArrayList<Boolean>();
+        combinables.add(true);
+        combinables.add(false);
+        List<Configuration> inputConfs = new ArrayList<Configuration>();
+        inputConfs.add(new Configuration(conf));
+        inputConfs.add(new Configuration(conf));
+
+        pigInputFormat.setTargetSplitSize(inputSplits, combinables, inputConfs, 2);
+        Assert.assertEquals(500, inputConfs.get(0).getLong("pig.maxCombinedSplitSize", 0));
+        List<InputSplit> result = pigInputFormat.getPigSplits(small, 0, ok,
+                        null, true, inputConfs.get(0));
+        Assert.assertEquals(2, result.size());
+        for (InputSplit split : result) {
+            Assert.assertEquals(5, ((PigSplit) split).getNumPaths());
+            Assert.assertEquals(500, split.getLength());
+        }
+        result = pigInputFormat.getPigSplits(large, 1, ok, null, false, inputConfs.get(1));
+        Assert.assertEquals(1, result.size());
+    }
+
     private void checkLocations(String[] actual, String[] expected) {
         HashSet<String> expectedSet = new HashSet<String>();
         for (String str : expected)
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigConfiguration;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.TmpFileCodecSelector;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.util.Utils;
+import org.apache.pig.test.utils.GenPhyOp;
+import org.apache.pig.tools.pigstats.mapreduce.MRPigStatsUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTmpFileCodecSelector {
+
+    private PigContext pc;
+
+    @Before
+    public void setUp() throws Exception {
+        pc = new PigContext(ExecType.LOCAL, new Properties());
+        pc.getProperties().setProperty(PigConfiguration.PIG_ENABLE_TEMP_FILE_COMPRESSION, "true");
+        pc.getProperties().setProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_STORAGE, "seqfile");
+    }
+
+    @Test
+    public void testCodecClassNames() throws Exception {
+        assertEquals(GzipCodec.class.getName(), Utils.getTmpFileCodecClassName("GZ"));
+        assertEquals("org.apache.hadoop.io.compress.Lz4Codec", Utils.getTmpFileCodecClassName("lz4"));
+        assertEquals(DefaultCodec.class.getName(),
+                Utils.getTmpFileCodecClassName(DefaultCodec.class.getName()));
+        assertNull(Utils.getTmpFileCodecClassName("none"));
+        assertNull(Utils.getTmpFileCodecClassName(""));
+        try {
+            Utils.getTmpFileCodecClassName("foo");
+            fail("Unknown codec accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCodecClassOnConf() throws Exception {
+        Configuration conf = new Configuration(false);
+        Utils.setTmpFileCompressionOnConf(pc, conf, DefaultCodec.class.getName());
+        assertEquals(DefaultCodec.class.getName(),
+                conf.get(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC));
+        Utils.setMapredCompressionCodecProps(conf);
+        assertTrue(conf.getBoolean("mapred.output.compress", false));
+        assertEquals(DefaultCodec.class.getName(), conf.get("mapred.output.compression.codec"));
+
+        conf = new Configuration(false);
+        Utils.setTmpFileCompressionOnConf(pc, conf, "none");
+        Utils.setMapredCompressionCodecProps(conf);
+        assertFalse(conf.getBoolean("mapred.output.compress", true));
+
+        // not a codec
+        try {
+            Utils.setTmpFileCompressionOnConf(pc, new Configuration(false), String.class.getName());
+            fail("Invalid codec accepted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // named codecs are only accepted if hadoop has their class
+        assertEquals(Utils.isCompressionCodecClass("org.apache.hadoop.io.compress.Lz4Codec"),
+                Utils.isTmpFileCodecSupported(pc.getProperties(), "lz4"));
+        try {
+            Utils.setTmpFileCompressionOnConf(pc, new Configuration(false), "zstd");
+            fail("Unknown codec accepted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // tfile only has its own codecs
+        pc.getProperties().setProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_STORAGE, "tfile");
+        assertTrue(Utils.isTmpFileCodecSupported(pc.getProperties(), "none"));
+        assertFalse(Utils.isTmpFileCodecSupported(pc.getProperties(), "lz4"));
+        assertFalse(Utils.isTmpFileCodecSupported(pc.getProperties(), DefaultCodec.class.getName()));
+    }
+
+    @Test
+    public void testAutoCodecOnConf() throws Exception {
+        pc.getProperties().setProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC,
+                Utils.TEMPFILE_CODEC_AUTO);
+        // the codec chosen when the job was compiled is kept
+        Configuration conf = new Configuration(false);
+        conf.set(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "gz");
+        Utils.setTmpFileCompressionOnConf(pc, conf);
+        assertEquals("gz", conf.get(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC));
+    }
+
+    @Test
+    public void testSelectCodec() throws Exception {
+        Properties props = pc.getProperties();
+        props.setProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_AUTO_MIN_BYTES, "1000");
+        props.setProperty(PigConfiguration.PIG_TEMP_FILE_COMPRESSION_AUTO_CPU_RATIO, "200");
+        TmpFileCodecSelector selector = new TmpFileCodecSelector(props);
+
+        MapReduceOper first = GenPhyOp.MROp();
+        MapReduceOper second = GenPhyOp.MROp();
+        MROperPlan plan = new MROperPlan();
+        plan.add(first);
+        plan.add(second);
+        plan.connect(first, second);
+
+        // small input
+        assertEquals("none", selector.selectCodec(first, 10));
+
+        // after an IO bound job: 10 seconds for 1GB
+        selector.jobSucceeded(plan, first, counters(10000, 1024L * 1024 * 1024));
+        assertEquals("gz", selector.selectCodec(second, 1000000));
+        assertEquals("none", selector.selectCodec(second, 10));
+
+        // after a CPU bound job: 1000 seconds for 1GB
+        selector.reset();
+        selector.jobSucceeded(plan, first, counters(1000000, 1024L * 1024 * 1024));
+        String codec = selector.selectCodec(second, 1000000);
+        assertTrue(codec, codec.equals("none") || codec.equals("lz4") || codec.equals("snappy"));
+    }
+
+    private static Counters counters(long cpuMillis, long bytes) {
+        Counters counters = new Counters();
+        counters.incrCounter(MRPigStatsUtil.TASK_COUNTER_GROUP, "CPU_MILLISECONDS", cpuMillis);
+        counters.incrCounter(MRPigStatsUtil.FS_COUNTER_GROUP, MRPigStatsUtil.HDFS_BYTES_READ, bytes);
+        return counters;
+    }
+}
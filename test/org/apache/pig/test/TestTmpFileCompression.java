@@ -27,28 +27,46 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.SimpleLayout;
 import org.apache.pig.ExecType;
+import org.apache.pig.FuncSpec;
 import org.apache.pig.PigConfiguration;
 import org.apache.pig.PigRunner;
 import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ColumnarLoadPruner;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.backend.hadoop.executionengine.shims.HadoopShims;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.ColumnarInterStorage;
+import org.apache.pig.impl.io.ColumnarRecordReader;
+import org.apache.pig.impl.io.ColumnarRecordWriter;
+import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.io.InterStorage;
 import org.apache.pig.impl.io.SequenceFileInterStorage;
 import org.apache.pig.impl.io.TFileRecordReader;
 import org.apache.pig.impl.io.TFileRecordWriter;
 import org.apache.pig.impl.io.TFileStorage;
+import org.apache.pig.test.utils.GenPhyOp;
 import org.apache.pig.tools.pigstats.OutputStats;
 import org.apache.pig.tools.pigstats.PigStats;
 import org.junit.After;
@@ -214,6 +232,16 @@ public class TestTmpFileCompression {
            testImplicitSplit(SequenceFileInterStorage.useLog);
     }
 
+    @Test
+    public void testImplicitSplitColumnar() throws Exception {
+        resetLog(ColumnarInterStorage.class);
+        pigServer.getPigContext().getProperties().setProperty(
+                        PigConfiguration.PIG_ENABLE_TEMP_FILE_COMPRESSION, "true");
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_TEMP_FILE_COMPRESSION_STORAGE, "columnar");
+        testImplicitSplit(ColumnarInterStorage.useLog);
+    }
+
     private void testImplicitSplit(String assertLog) throws Exception {
         int LOOP_SIZE = 20;
         String[] input = new String[LOOP_SIZE];
@@ -250,6 +278,18 @@ public class TestTmpFileCompression {
         testImplicitSplitInCoGroup(TFileStorage.useLog);
     }
 
+    @Test
+    public void testImplicitSplitInCoGroupColumnar() throws Exception {
+        resetLog(ColumnarInterStorage.class);
+        pigServer.getPigContext().getProperties().setProperty(
+                        PigConfiguration.PIG_ENABLE_TEMP_FILE_COMPRESSION, "true");
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_TEMP_FILE_COMPRESSION_STORAGE, "columnar");
+        pigServer.getPigContext().getProperties().setProperty(
+                PigConfiguration.PIG_TEMP_FILE_COMPRESSION_CODEC, "bzip2");
+        testImplicitSplitInCoGroup(ColumnarInterStorage.useLog);
+    }
+
     @Test
     public void testImplicitSplitInCoGroupSeqFile() throws Exception {
         resetLog(SequenceFileInterStorage.class);
@@ -430,4 +470,106 @@ public class TestTmpFileCompression {
             }
         }
     }
+
+    @Test
+    public void testColumnarRecordWriterReader() throws Exception {
+        File file = File.createTempFile("test", "columnar");
+        Path path = new Path(file.getAbsolutePath());
+        Configuration conf = new Configuration();
+        conf.set("fs.default.name", "file:///");
+        FileSystem fs = path.getFileSystem(conf);
+        TupleFactory tf = TupleFactory.getInstance();
+        // a few row groups of 8192 rows
+        int rows = 20000;
+
+        // bzip2 does not need native-hadoop
+        for (CompressionCodec codec : new CompressionCodec[] {null, new BZip2Codec()}) {
+            try {
+                ColumnarRecordWriter writer = new ColumnarRecordWriter(
+                        fs.create(path, true), codec);
+                for (int i = 0; i < rows; i++) {
+                    Tuple t = tf.newTuple(i % 3 == 0 ? 4 : 3);
+                    t.set(0, i);
+                    t.set(1, "k" + (i % 5));
+                    t.set(2, i * 1000000000L);
+                    if (i % 3 == 0) {
+                        t.set(3, tf.newTuple((Object) Integer.valueOf(i)));
+                    }
+                    writer.write(null, t);
+                }
+                writer.close(null);
+
+                // all the columns
+                List<Tuple> read = readColumnar(conf, path, 1, null);
+                assertEquals(rows, read.size());
+                for (int i = 0; i < rows; i++) {
+                    Tuple t = read.get(i);
+                    assertEquals(i % 3 == 0 ? 4 : 3, t.size());
+                    assertEquals(i, t.get(0));
+                    assertEquals("k" + (i % 5), t.get(1));
+                    assertEquals(i * 1000000000L, t.get(2));
+                    if (i % 3 == 0) {
+                        assertEquals(tf.newTuple((Object) Integer.valueOf(i)), t.get(3));
+                    }
+                }
+
+                // only the required columns, over several splits
+                read = readColumnar(conf, path, 7, new int[] {1, 3});
+                assertEquals(rows, read.size());
+                for (int i = 0; i < rows; i++) {
+                    Tuple t = read.get(i);
+                    assertEquals(2, t.size());
+                    assertEquals("k" + (i % 5), t.get(0));
+                    assertEquals(i % 3 == 0 ? tf.newTuple((Object) Integer.valueOf(i)) : null, t.get(1));
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private static List<Tuple> readColumnar(Configuration conf, Path path, int splits,
+            int[] requiredColumns) throws Exception {
+        List<Tuple> read = new ArrayList<Tuple>();
+        long length = path.getFileSystem(conf).getFileStatus(path).getLen();
+        long splitSize = length / splits + 1;
+        for (long start = 0; start < length; start += splitSize) {
+            ColumnarRecordReader reader = new ColumnarRecordReader();
+            reader.initialize(new FileSplit(path, start, Math.min(splitSize, length - start), null),
+                    HadoopShims.createTaskAttemptContext(conf,
+                            HadoopShims.createTaskAttemptID("jt", 1, true, 1, 1)));
+            reader.setRequiredColumns(requiredColumns);
+            while (reader.nextKeyValue()) {
+                read.add(reader.getCurrentValue());
+            }
+            reader.close();
+        }
+        return read;
+    }
+
+    @Test
+    public void testColumnarLoadPruner() throws Exception {
+        Tuple sample = TupleFactory.getInstance().newTuple(4);
+        for (int i = 0; i < 4; i++) {
+            sample.set(i, i);
+        }
+        POLoad load = GenPhyOp.topLoadOp();
+        load.setLFile(new FileSpec("tmp", new FuncSpec(ColumnarInterStorage.class.getName())));
+        POForEach foreach = GenPhyOp.topForEachOPWithPlan(new int[] {3, 1}, sample);
+        MapReduceOper mro = GenPhyOp.MROp();
+        mro.mapPlan.add(load);
+        mro.mapPlan.add(foreach);
+        mro.mapPlan.connect(load, foreach);
+        MROperPlan plan = new MROperPlan();
+        plan.add(mro);
+
+        new ColumnarLoadPruner(plan).visit();
+
+        FuncSpec funcSpec = load.getLFile().getFuncSpec();
+        assertEquals(ColumnarInterStorage.class.getName(), funcSpec.getClassName());
+        assertEquals("1,3", funcSpec.getCtorArgs()[0]);
+        List<PhysicalPlan> inputPlans = foreach.getInputPlans();
+        assertEquals(1, ((POProject) inputPlans.get(0).getRoots().get(0)).getColumn());
+        assertEquals(0, ((POProject) inputPlans.get(1).getRoots().get(0)).getColumn());
+    }
 }
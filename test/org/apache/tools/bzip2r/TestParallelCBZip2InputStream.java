@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tools.bzip2r;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.tools.bzip2r.ParallelCBZip2InputStream.Block;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ParallelCBZip2InputStream} reads through false block
+ * headers, which compressed data may contain. Compressing data which holds
+ * the 48 bit block magic is not practical, so the blocks the stream scans
+ * are cut at made up headers instead.
+ */
+public class TestParallelCBZip2InputStream {
+
+    private File file;
+    private Path path;
+    private FileSystem fs;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("junit", ".bz2");
+        file.deleteOnExit();
+        // blocks of 100KB
+        CBZip2OutputStream cos = new CBZip2OutputStream(new FileOutputStream(file), 1);
+        Random r = new Random(42);
+        for (int i = 0; i < 30000; i++) {
+            cos.write((i + "\t" + r.nextInt(1000) + "\t" + r.nextLong() + "\n").getBytes());
+        }
+        cos.close();
+        fs = FileSystem.getLocal(new Configuration(false));
+        path = new Path(file.getAbsolutePath());
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    @Test
+    public void testMergeOverFalseHeader() throws IOException {
+        List<Block> blocks = scanAll();
+        assertTrue(blocks.size() >= 3);
+        Block block = blocks.get(1);
+        Block[] halves = split(block, block.startBit + block.bitLength / 2 + 3);
+        assertDecodeFails(halves[0]);
+        assertArrayEquals(ParallelCBZip2InputStream.decode(block, 1),
+                ParallelCBZip2InputStream.decode(
+                        ParallelCBZip2InputStream.merge(halves[0], halves[1]), 1));
+    }
+
+    @Test
+    public void testFalseHeaderInBlock() throws IOException {
+        byte[] expected = readAll(new CBZip2InputStream(fs.open(path), -1, file.length()));
+        final Block block = scanAll().get(1);
+        ParallelCBZip2InputStream in = new ParallelCBZip2InputStream(
+                fs.open(path), file.length(), executor, 4) {
+            private final LinkedList<Block> fake = new LinkedList<Block>();
+
+            @Override
+            Block scanBlock() throws IOException {
+                if (!fake.isEmpty()) {
+                    return fake.removeFirst();
+                }
+                Block b = super.scanBlock();
+                if (b != null && b.startBit == block.startBit) {
+                    // two false headers in the block
+                    long third = b.bitLength / 3;
+                    Block[] first = split(b, b.startBit + third);
+                    Block[] rest = split(first[1], first[1].startBit + third + 5);
+                    fake.add(rest[0]);
+                    fake.add(rest[1]);
+                    return first[0];
+                }
+                return b;
+            }
+        };
+        assertArrayEquals(expected, readAll(in));
+    }
+
+    @Test
+    public void testFalseHeaderStartingSplit() throws IOException {
+        final Block block = scanAll().get(1);
+        long start = block.startBit / 8 - 20;
+        // the split starts 20 bytes before the second block, and a false
+        // header is found before the real one
+        final long falseStart = start * 8 + 3;
+        int from = (int) (falseStart / 8);
+        byte[] data = new byte[(int) ((block.startBit + 7) / 8) - from];
+        FSDataInputStream raw = fs.open(path);
+        raw.readFully(from, data);
+        raw.close();
+        final Block fake = new Block(falseStart, data, block.startBit - falseStart);
+        assertDecodeFails(fake);
+
+        FSDataInputStream in = fs.open(path);
+        in.seek(start);
+        byte[] expected = readAll(new ParallelCBZip2InputStream(in, file.length(), executor, 4));
+        assertTrue(expected.length > 0);
+
+        in = fs.open(path);
+        in.seek(start);
+        ParallelCBZip2InputStream pis = new ParallelCBZip2InputStream(
+                in, file.length(), executor, 4) {
+            private boolean first = true;
+
+            @Override
+            Block scanBlock() throws IOException {
+                if (first) {
+                    first = false;
+                    return fake;
+                }
+                return super.scanBlock();
+            }
+        };
+        assertArrayEquals(expected, readAll(pis));
+    }
+
+    @Test
+    public void testCorruptBlock() throws IOException {
+        final Block block = scanAll().get(1);
+        ParallelCBZip2InputStream in = new ParallelCBZip2InputStream(
+                fs.open(path), file.length(), executor, 4) {
+            @Override
+            Block scanBlock() throws IOException {
+                Block b = super.scanBlock();
+                if (b != null && b.startBit == block.startBit) {
+                    // flip a bit of the block CRC
+                    byte[] data = Arrays.copyOf(b.data, b.data.length);
+                    int bit = (int) (b.startBit % 8) + 60;
+                    data[bit / 8] ^= 1 << (7 - bit % 8);
+                    return new Block(b.startBit, data, b.bitLength);
+                }
+                return b;
+            }
+        };
+        try {
+            readAll(in);
+            fail("A corrupt block must fail the read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private List<Block> scanAll() throws IOException {
+        ParallelCBZip2InputStream in = new ParallelCBZip2InputStream(
+                fs.open(path), file.length(), executor, 1);
+        List<Block> blocks = new ArrayList<Block>();
+        Block b;
+        while ((b = in.scanBlock()) != null) {
+            blocks.add(b);
+        }
+        in.close();
+        return blocks;
+    }
+
+    /**
+     * @return the parts of a block cut at a false header at bit
+     */
+    private static Block[] split(Block b, long bit) {
+        int from = (int) (bit / 8 - b.startBit / 8);
+        int to = (int) ((bit + 7) / 8 - b.startBit / 8);
+        return new Block[] {
+                new Block(b.startBit, Arrays.copyOf(b.data, to), bit - b.startBit),
+                new Block(bit, Arrays.copyOfRange(b.data, from, b.data.length),
+                        b.bitLength - (bit - b.startBit)) };
+    }
+
+    private static void assertDecodeFails(Block b) {
+        try {
+            ParallelCBZip2InputStream.decode(b, 1);
+        } catch (IOException e) {
+            return;
+        } catch (RuntimeException e) {
+            return;
+        }
+        fail("Block at bit " + b.startBit + " decoded");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}